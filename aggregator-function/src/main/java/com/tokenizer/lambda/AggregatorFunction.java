@@ -0,0 +1,70 @@
+package com.tokenizer.lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
+import com.tokenizer.lambda.dao.AggregateRepository;
+import com.tokenizer.lambda.dao.storage.AggregateCodec;
+import com.tokenizer.lambda.dao.storage.DynamoAggregateStorage;
+import com.tokenizer.lambda.metrics.Metrics;
+import com.tokenizer.lambda.service.AggregateService;
+import com.tokenizer.lambda.util.DynamoUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Function keeping the counts of queue subscribers and owner queues, invoked by Lambda
+ * with the stream records of the tokenizer_users and tokenizer_queues tables.
+ *
+ * A failed invocation is retried by Lambda with the same records, possibly followed by newer
+ * ones, which the AggregateService applies without counting any record twice.
+ * */
+public class AggregatorFunction implements RequestHandler<DynamodbEvent, Integer> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AggregatorFunction.class);
+    /** The route the calls of the function are attributed to in the metrics. */
+    private static final String AGGREGATE_ROUTE = "aggregate";
+
+    private AggregateService aggregateService;
+
+    public AggregatorFunction() {}
+
+    /**
+     * Constructor used outside of the Lambda runtime, e.g. to feed the function
+     * from the records of a local stream.
+     * @param aggregateService The service to apply the records with.
+     * */
+    public AggregatorFunction(AggregateService aggregateService) {
+        this.aggregateService = aggregateService;
+    }
+
+    private void init() {
+        String tableName = System.getenv(DynamoAggregateStorage.AGGREGATES_TABLE_ENV);
+        this.aggregateService = new AggregateService(new AggregateRepository(new DynamoAggregateStorage(
+                DynamoUtil.DYNAMO_CLIENT, tableName != null ? tableName : AggregateCodec.TABLE_NAME)));
+    }
+
+    private boolean isInitialized() {
+        return aggregateService != null;
+    }
+
+    /**
+     * @return The number of records applied.
+     * */
+    @Override
+    public Integer handleRequest(DynamodbEvent event, Context context) {
+        if (!isInitialized()) init();
+
+        if (event == null || event.getRecords() == null || event.getRecords().isEmpty()) {
+            return 0;
+        }
+
+        Metrics.startInvocation(AGGREGATE_ROUTE, null);
+        try {
+            int applied = aggregateService.aggregate(event.getRecords());
+            LOGGER.info("Applied {} of {} records", applied, event.getRecords().size());
+            return applied;
+        } finally {
+            Metrics.flush();
+        }
+    }
+}
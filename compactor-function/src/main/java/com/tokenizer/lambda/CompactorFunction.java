@@ -0,0 +1,125 @@
+package com.tokenizer.lambda;
+
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.amazonaws.services.lambda.model.InvocationType;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.dao.ArchiveRepository;
+import com.tokenizer.lambda.dao.QueueRepository;
+import com.tokenizer.lambda.dao.UserRepository;
+import com.tokenizer.lambda.dao.storage.ArchiveCodec;
+import com.tokenizer.lambda.dao.storage.DynamoArchiveStorage;
+import com.tokenizer.lambda.dao.storage.DynamoQueueStorage;
+import com.tokenizer.lambda.dao.storage.DynamoUserStorage;
+import com.tokenizer.lambda.metrics.Metrics;
+import com.tokenizer.lambda.model.queues.CompactionRequest;
+import com.tokenizer.lambda.service.QueueCompactor;
+import com.tokenizer.lambda.service.QueueReaper;
+import com.tokenizer.lambda.util.DynamoUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Function archiving the expired links of processed subscribers and retiring idle queues,
+ * invoked on a schedule with an empty request.
+ *
+ * A run over many queues may take longer than a single invocation is allowed to run.
+ * The function then stops ahead of its timeout and invokes itself with the request,
+ * which holds the progress made so far.
+ * */
+public class CompactorFunction implements RequestHandler<CompactionRequest, CompactionRequest> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompactorFunction.class);
+    private static final String FUNCTION_NAME_ENV = "AWS_LAMBDA_FUNCTION_NAME";
+    /** The route the calls of the function are attributed to in the metrics. */
+    private static final String COMPACT_ROUTE = "compact";
+
+    /** Time kept aside to finish the pages in flight and hand the request over. */
+    private static final long MAX_TIME_MARGIN_MILLIS = 30_000;
+
+    private QueueCompactor queueCompactor;
+    private AWSLambda lambdaClient;
+    private String functionName;
+    private ObjectMapper mapper;
+
+    public CompactorFunction() {}
+
+    /**
+     * Constructor used outside of the Lambda runtime
+     * to run the function against any storage backend, without handing requests over.
+     * @param queueCompactor The compactor to run.
+     * */
+    public CompactorFunction(QueueCompactor queueCompactor) {
+        this.queueCompactor = queueCompactor;
+    }
+
+    private void init() {
+        // the compacted and last tokens of a queue must be read after the previous run moved them
+        QueueRepository queueRepository = new QueueRepository(new DynamoQueueStorage(DynamoUtil.DYNAMO_CLIENT, true));
+        UserRepository userRepository = new UserRepository(new DynamoUserStorage(DynamoUtil.DYNAMO_CLIENT, true));
+        String archiveTable = System.getenv(DynamoArchiveStorage.ARCHIVE_TABLE_ENV);
+
+        this.lambdaClient = AWSLambdaClientBuilder.defaultClient();
+        this.functionName = System.getenv(FUNCTION_NAME_ENV);
+        this.mapper = new ObjectMapper();
+        this.queueCompactor = new QueueCompactor(
+                queueRepository,
+                userRepository,
+                new ArchiveRepository(new DynamoArchiveStorage(DynamoUtil.DYNAMO_CLIENT,
+                        archiveTable != null ? archiveTable : ArchiveCodec.TABLE_NAME)),
+                new QueueReaper(queueRepository, userRepository,
+                        lambdaClient, System.getenv(QueueReaper.REAPER_FUNCTION_NAME_ENV), mapper));
+    }
+
+    private boolean isInitialized() {
+        return queueCompactor != null;
+    }
+
+    @Override
+    public CompactionRequest handleRequest(CompactionRequest request, Context context) {
+        if (!isInitialized()) init();
+
+        if (request == null) {
+            request = new CompactionRequest();
+        }
+        LOGGER.info("Received request: {}", request);
+
+        long remainingMillis = context.getRemainingTimeInMillis();
+        long deadline = System.currentTimeMillis() + remainingMillis - Math.min(MAX_TIME_MARGIN_MILLIS, remainingMillis / 2);
+
+        Metrics.startInvocation(COMPACT_ROUTE, null);
+        try {
+            compact(request, deadline);
+        } finally {
+            Metrics.flush();
+        }
+
+        return request;
+    }
+
+    private void compact(CompactionRequest request, long deadline) {
+        if (queueCompactor.compact(request, deadline)) {
+            LOGGER.info("Compacted all queues in {} segments", request.getTotalSegments());
+            return;
+        }
+
+        if (lambdaClient == null || functionName == null) {
+            LOGGER.info("Out of time, the next run starts over: {}", request);
+            return;
+        }
+
+        LOGGER.info("Out of time, continuing in a new invocation: {}", request);
+        try {
+            lambdaClient.invoke(new InvokeRequest()
+                    .withFunctionName(functionName)
+                    .withInvocationType(InvocationType.Event)
+                    .withPayload(mapper.writeValueAsString(request)));
+        } catch (JsonProcessingException e) {
+            // failing the invocation makes Lambda retry it from the original request
+            throw new IllegalStateException("Could not hand over " + request, e);
+        }
+    }
+}
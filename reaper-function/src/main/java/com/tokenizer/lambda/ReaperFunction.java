@@ -0,0 +1,92 @@
+package com.tokenizer.lambda;
+
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.dao.QueueRepository;
+import com.tokenizer.lambda.dao.UserRepository;
+import com.tokenizer.lambda.dao.storage.DynamoQueueStorage;
+import com.tokenizer.lambda.dao.storage.DynamoUserStorage;
+import com.tokenizer.lambda.metrics.Metrics;
+import com.tokenizer.lambda.model.queues.ReapRequest;
+import com.tokenizer.lambda.service.QueueReaper;
+import com.tokenizer.lambda.util.DynamoUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Function removing deleted queues, invoked asynchronously by the TokenizerFunction.
+ *
+ * A queue with many subscribers may take longer to reap than a single invocation
+ * is allowed to run. The function then stops ahead of its timeout and invokes
+ * itself with the request, which holds the progress made so far.
+ * */
+public class ReaperFunction implements RequestHandler<ReapRequest, ReapRequest> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReaperFunction.class);
+    private static final String FUNCTION_NAME_ENV = "AWS_LAMBDA_FUNCTION_NAME";
+    /** The route the calls of the function are attributed to in the metrics. */
+    private static final String REAP_ROUTE = "reap";
+
+    /** Time kept aside to finish the pages in flight and hand the request over. */
+    private static final long MAX_TIME_MARGIN_MILLIS = 30_000;
+
+    private QueueReaper queueReaper;
+
+    public ReaperFunction() {}
+
+    /**
+     * Constructor used outside of the Lambda runtime
+     * to run the function against any storage backend.
+     * @param queueReaper The reaper to run.
+     * */
+    public ReaperFunction(QueueReaper queueReaper) {
+        this.queueReaper = queueReaper;
+    }
+
+    private void init() {
+        // the queue's last token must be read after it was marked as deleted
+        this.queueReaper = new QueueReaper(
+                new QueueRepository(new DynamoQueueStorage(DynamoUtil.DYNAMO_CLIENT, true)),
+                new UserRepository(new DynamoUserStorage(DynamoUtil.DYNAMO_CLIENT, true)),
+                AWSLambdaClientBuilder.defaultClient(),
+                System.getenv(FUNCTION_NAME_ENV),
+                new ObjectMapper());
+    }
+
+    private boolean isInitialized() {
+        return queueReaper != null;
+    }
+
+    @Override
+    public ReapRequest handleRequest(ReapRequest request, Context context) {
+        if (!isInitialized()) init();
+
+        LOGGER.info("Received request: {}", request);
+
+        long remainingMillis = context.getRemainingTimeInMillis();
+        long deadline = System.currentTimeMillis() + remainingMillis - Math.min(MAX_TIME_MARGIN_MILLIS, remainingMillis / 2);
+
+        Metrics.startInvocation(REAP_ROUTE, request.getQueueId());
+        try {
+            reap(request, deadline);
+        } finally {
+            Metrics.flush();
+        }
+
+        return request;
+    }
+
+    private void reap(ReapRequest request, long deadline) {
+        if (!queueReaper.reap(request, deadline)) {
+            LOGGER.info("Out of time, continuing in a new invocation: {}", request);
+            try {
+                queueReaper.schedule(request);
+            } catch (JsonProcessingException e) {
+                // failing the invocation makes Lambda retry it from the original request
+                throw new IllegalStateException("Could not hand over " + request, e);
+            }
+        }
+    }
+}
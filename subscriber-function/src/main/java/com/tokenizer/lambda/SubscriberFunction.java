@@ -1,169 +1,438 @@
 package com.tokenizer.lambda;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
-import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
-import com.amazonaws.services.dynamodbv2.model.ReturnValue;
-import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
-import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.SerializableString;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.dao.IdempotencyRepository;
+import com.tokenizer.lambda.dao.QueueRepository;
+import com.tokenizer.lambda.dao.storage.AlreadySubscribedException;
+import com.tokenizer.lambda.dao.storage.DynamoIdempotencyStorage;
+import com.tokenizer.lambda.dao.storage.DynamoQueueStorage;
+import com.tokenizer.lambda.dao.storage.DynamoSubscriptionStorage;
+import com.tokenizer.lambda.dao.storage.DynamoUserStorage;
+import com.tokenizer.lambda.dao.storage.QueueFullException;
+import com.tokenizer.lambda.dao.storage.QueueStorage;
+import com.tokenizer.lambda.dao.storage.SubscriptionStorage;
+import com.tokenizer.lambda.dao.storage.UserStorage;
+import com.tokenizer.lambda.metrics.Metrics;
+import com.tokenizer.lambda.model.idempotency.IdempotencyRecord;
+import com.tokenizer.lambda.model.queues.TokenRange;
+import com.tokenizer.lambda.model.response.ResponseModel;
 import com.tokenizer.lambda.model.users.User;
 import com.tokenizer.lambda.model.users.UserState;
+import com.tokenizer.lambda.resilience.QueueSaturatedException;
+import com.tokenizer.lambda.resilience.ResilienceHandler;
+import com.tokenizer.lambda.service.AdmissionService;
+import com.tokenizer.lambda.service.IdempotencyService;
 import com.tokenizer.lambda.util.ApiGatewayUtil;
 import com.tokenizer.lambda.util.DynamoUtil;
+import com.tokenizer.lambda.util.GroupUtil;
+import com.tokenizer.lambda.util.JsonUtil;
+import com.tokenizer.lambda.util.LoggingUtil;
+import com.tokenizer.lambda.util.PrimingUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class SubscriberFunction implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     private static final Logger LOGGER = LoggerFactory.getLogger(SubscriberFunction.class);
     private static final String CONTENTTYPE = "Content-Type";
     private static final String APPLICATION_JSON = "application/json";
-    private static final String UPDATE_EXP = "set #last_generated_token = #last_generated_token + :one";
-    private static final String UPDATE_CONDITION = "attribute_exists(#queue_id) and (#last_generated_token < #max_size) and #disabled = :false";
-    private static final String PUT_CONDITION = "#token_num > :new_token_num";
-
-
-    private ObjectMapper objectMapper;
-    private AmazonDynamoDB dynamoDbClient;
-    private Map<String, String> eanForUpdateExp;
-    private Map<String, AttributeValue> eavForUpdateExp;
-    private Map<String, String> eanForPutItem;
-    private Map<String, String> headers;
-
-    private void init() {
-        this.objectMapper = new ObjectMapper();
-        this.dynamoDbClient = DynamoUtil.DYNAMO_CLIENT;
-
-        this.eanForUpdateExp = new HashMap<String, String>() {{
-            put("#queue_id", Queue.COL_QUEUE_ID);
-            put("#last_generated_token", Queue.COL_LAST_GEN_TOKEN);
-            put("#max_size", Queue.COL_MAX_SIZE);
-            put("#disabled", Queue.COL_DISABLED);
-        }};
-
-        this.eavForUpdateExp = new HashMap<String, AttributeValue>() {{
-            put(":one", new AttributeValue().withN("1"));
-            put(":false", new AttributeValue().withBOOL(false));
-        }};
-
-        this.eanForPutItem = new HashMap<String, String>() {{
-            put("#token_num", User.COL_TOKEN_NUM);
-        }};
-
-        this.headers = new HashMap<String, String>() {{
-            put(CONTENTTYPE, APPLICATION_JSON);
-        }};
+    /**
+     * Separates the fields of the fingerprint of a request in its idempotency record.
+     * Unrelated to the seat separator of groups, it only has to keep the fingerprints of records already written.
+     * */
+    private static final String FINGERPRINT_SEPARATOR = "#";
+    private static final String UNEXPECTED_ERROR_MESSAGE = "An unexpected error occurred. Please try later.";
+    /** A pending request usually completes well within a second. */
+    private static final String IN_PROGRESS_RETRY_AFTER_SECONDS = "1";
+    private static final String UNEXPECTED_ERROR_JSON = "{\"errorMessage\":\"" + UNEXPECTED_ERROR_MESSAGE + "\"}";
+
+    private static final SerializableString ERROR_MESSAGE = JsonUtil.fieldName("errorMessage");
+    private static final SerializableString TOKEN_NUMBER = JsonUtil.fieldName("token_number");
+    private static final SerializableString LAST_TOKEN_NUMBER = JsonUtil.fieldName("last_token_number");
+
+    /**
+     * Largest group that can subscribe in one request.
+     * All the links of a group are written in a single transaction.
+     * */
+    private static final int MAX_GROUP_SIZE = 25;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Map<String, String> HEADERS = Collections.unmodifiableMap(new HashMap<String, String>() {{
+        put(CONTENTTYPE, APPLICATION_JSON);
+    }});
+
+    private QueueStorage queueStorage;
+    private UserStorage userStorage;
+    private SubscriptionStorage subscriptionStorage;
+    private IdempotencyService idempotencyService;
+    private AdmissionService admissionService;
+
+    /**
+     * Storage backed by DynamoDB, wired and primed by its static initialization. Lambda creates
+     * the handler while it initializes the function, so this happens ahead of the first request.
+     * It is only loaded by the constructor used by Lambda, so that the other constructors do not
+     * need AWS credentials.
+     * */
+    private static class DynamoStorage {
+        private static final QueueStorage QUEUE_STORAGE;
+        private static final UserStorage USER_STORAGE;
+        private static final SubscriptionStorage SUBSCRIPTION_STORAGE;
+        private static final IdempotencyService IDEMPOTENCY_SERVICE;
+        private static final AdmissionService ADMISSION_SERVICE;
+
+        static {
+            QUEUE_STORAGE = new DynamoQueueStorage(DynamoUtil.DYNAMO_CLIENT);
+            USER_STORAGE = new DynamoUserStorage(DynamoUtil.DYNAMO_CLIENT);
+            SUBSCRIPTION_STORAGE = new DynamoSubscriptionStorage(DynamoUtil.DYNAMO_CLIENT, QUEUE_STORAGE, USER_STORAGE);
+            IDEMPOTENCY_SERVICE = idempotencyService(DynamoUtil.DYNAMO_CLIENT);
+            ADMISSION_SERVICE = new AdmissionService(new QueueRepository(QUEUE_STORAGE));
+
+            PrimingUtil.prime(DynamoUtil.DYNAMO_CLIENT, OBJECT_MAPPER);
+        }
+    }
+
+    public SubscriberFunction() {
+        this(DynamoStorage.QUEUE_STORAGE, DynamoStorage.USER_STORAGE, DynamoStorage.SUBSCRIPTION_STORAGE,
+                DynamoStorage.IDEMPOTENCY_SERVICE, DynamoStorage.ADMISSION_SERVICE);
+    }
+
+    /**
+     * Constructor used outside of the Lambda runtime (e.g. benchmarks)
+     * to run the function against a client other than the default one.
+     * @param dynamoDbClient The DynamoDB client to use.
+     * */
+    public SubscriberFunction(AmazonDynamoDB dynamoDbClient) {
+        this.queueStorage = new DynamoQueueStorage(dynamoDbClient);
+        this.userStorage = new DynamoUserStorage(dynamoDbClient);
+        this.subscriptionStorage = new DynamoSubscriptionStorage(dynamoDbClient, queueStorage, userStorage);
+        this.idempotencyService = idempotencyService(dynamoDbClient);
+        this.admissionService = new AdmissionService(new QueueRepository(queueStorage));
+    }
+
+    /**
+     * Constructor used outside of the Lambda runtime (e.g. benchmarks and load tests)
+     * to run the function against any storage backend.
+     * @param queueStorage The storage holding the queues and their token counters.
+     * @param userStorage The storage holding the user-queue links.
+     * @param subscriptionStorage The storage handing out single tokens along with their links.
+     * */
+    public SubscriberFunction(QueueStorage queueStorage, UserStorage userStorage, SubscriptionStorage subscriptionStorage) {
+        this(queueStorage, userStorage, subscriptionStorage, null, null);
+    }
 
+    /**
+     * Constructor used outside of the Lambda runtime to run the function against
+     * any storage backend, with requests made with an idempotency key executed at most once.
+     * @param idempotencyService The service recording the requests made with an idempotency key,
+     *                           null to ignore the keys.
+     * */
+    public SubscriberFunction(QueueStorage queueStorage, UserStorage userStorage, SubscriptionStorage subscriptionStorage,
+                              IdempotencyService idempotencyService) {
+        this(queueStorage, userStorage, subscriptionStorage, idempotencyService, null);
     }
 
-    private boolean isInitialized() {
-        return objectMapper != null;
+    /**
+     * Constructor used outside of the Lambda runtime to run the function against
+     * any storage backend, with the subscribes to each queue admitted before they are sent.
+     * @param idempotencyService The service recording the requests made with an idempotency key,
+     *                           null to ignore the keys.
+     * @param admissionService The service admitting the subscribes to a queue, null to send them all.
+     * */
+    public SubscriberFunction(QueueStorage queueStorage, UserStorage userStorage, SubscriptionStorage subscriptionStorage,
+                              IdempotencyService idempotencyService, AdmissionService admissionService) {
+        this.queueStorage = queueStorage;
+        this.userStorage = userStorage;
+        this.subscriptionStorage = subscriptionStorage;
+        this.idempotencyService = idempotencyService;
+        this.admissionService = admissionService;
+    }
+
+    /**
+     * @return The service recording the requests made with an idempotency key, in the table named by
+     * the IDEMPOTENCY_TABLE environment variable - null if it is not set, and the keys are ignored.
+     * */
+    private static IdempotencyService idempotencyService(AmazonDynamoDB dynamoDbClient) {
+        String tableName = System.getenv(DynamoIdempotencyStorage.IDEMPOTENCY_TABLE_ENV);
+        return tableName != null ?
+                new IdempotencyService(new IdempotencyRepository(new DynamoIdempotencyStorage(dynamoDbClient, tableName))) :
+                null;
     }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
-        if (!isInitialized()) init();
-
         APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
         response.setStatusCode(200);
-        response.setHeaders(headers);
+        response.setHeaders(HEADERS);
 
         String responseBody;
 
+        LoggingUtil.putContext(input, context);
+        String route = Metrics.route(input);
+        Metrics.startInvocation(route, ApiGatewayUtil.parseQueryStringParameter(input, User.COL_QUEUE_ID));
+        long start = System.nanoTime();
         try {
-            LOGGER.debug("Received event: {}", objectMapper.writeValueAsString(input));
+            LoggingUtil.logEvent(LOGGER, OBJECT_MAPPER, input);
             String userId = ApiGatewayUtil.parseUsername(input);
             String queueId = ApiGatewayUtil.parseQueryStringParameter(input, User.COL_QUEUE_ID);
+            Integer count = parseCount(ApiGatewayUtil.parseQueryStringParameter(input, ApiGatewayUtil.COUNT));
+            String idempotencyKey = idempotencyService != null ?
+                    ApiGatewayUtil.parseHeader(input, ApiGatewayUtil.IDEMPOTENCY_KEY) :
+                    null;
 
             if (userId != null) {
-                if (queueId != null) {
-                    String tokenNum = incrementLastGeneratedToken(queueId);
-                    createSubscriptionLink(userId, queueId, tokenNum);
-                    responseBody = "{\"token_number\":\"" + tokenNum +" \"}";
-                } else {
+                if (queueId == null) {
+                    response.setStatusCode(400);
+                    responseBody = errorBody("queue_id parameter is missing");
+                } else if (!GroupUtil.isValidUserId(userId)) {
+                    // the separator is reserved for the seats of groups
+                    response.setStatusCode(400);
+                    responseBody = errorBody("User names containing " + GroupUtil.SEAT_SEPARATOR
+                            + " cannot subscribe to queues.");
+                } else if (count == null) {
+                    response.setStatusCode(400);
+                    responseBody = errorBody("count parameter must be between 1 and " + MAX_GROUP_SIZE);
+                } else if (idempotencyKey == null) {
+                    responseBody = subscribe(userId, queueId, count);
+                } else if (!IdempotencyService.isValidKey(idempotencyKey)) {
                     response.setStatusCode(400);
-                    responseBody = "{\"errorMessage\":\"queue_id parameter is missing\"}";
+                    responseBody = errorBody(ApiGatewayUtil.IDEMPOTENCY_KEY + " must be 1 to "
+                            + IdempotencyService.MAX_KEY_LENGTH + " printable characters");
+                } else {
+                    responseBody = subscribeOnce(response, userId, queueId, count, idempotencyKey);
                 }
             } else {
                 response.setStatusCode(401);
-                responseBody = "{\"errorMessage\":\"Unauthenticated. Login before invoking the API.\"}";
+                responseBody = errorBody("Unauthenticated. Login before invoking the API.");
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
 
             LOGGER.error("Error marshalling to JSON: ", e);
             response.setStatusCode(502);
-            responseBody = "{\"errorMessage\":\"An unexpected error occurred. Please try later.\"}";
+            responseBody = UNEXPECTED_ERROR_JSON;
+
+        } catch (QueueSaturatedException e) {
+
+            LOGGER.info("Subscribe shed - {}", e.getMessage());
+            response.setStatusCode(429);
+            Map<String, String> headers = new HashMap<>(HEADERS);
+            headers.put(ApiGatewayUtil.RETRY_AFTER, ApiGatewayUtil.retryAfterSeconds(e));
+            response.setHeaders(headers);
+            responseBody = errorBody(e.getMessage());
+
+        } catch (AlreadySubscribedException e) {
+
+            LOGGER.warn("Subscribe rejected - {}", e.getMessage());
+            response.setStatusCode(409);
+            responseBody = errorBody("Already subscribed to the queue");
 
         } catch (ConditionalCheckFailedException e) {
 
             LOGGER.warn("Conditional check failed - Queue does not exist or max limit for the must have been reached.", e);
             response.setStatusCode(400);
-            responseBody = "{\"errorMessage\":\"An error occurred - Queue does not exist or max size for queue reached\"}";
+            responseBody = errorBody("An error occurred - Queue does not exist or max size for queue reached");
 
         } catch (Exception e) {
 
-            response.setStatusCode(502);
-            LOGGER.error("Fatal error occurred: ", e);
-            responseBody = "{\"errorMessage\":\"Fatal error - contact support with this reference id"
-                    + input.getRequestContext().getRequestId() + "\"}";
+            if (ResilienceHandler.isUnavailable(e)) {
+                LOGGER.warn("DynamoDB is unavailable - {}", e.getMessage());
+                response.setStatusCode(503);
+                Map<String, String> headers = new HashMap<>(HEADERS);
+                headers.put(ApiGatewayUtil.RETRY_AFTER, ApiGatewayUtil.retryAfterSeconds(e));
+                response.setHeaders(headers);
+                responseBody = errorBody(ResponseModel.UNAVAILABLE_MESSAGE);
+            } else {
+                response.setStatusCode(502);
+                LOGGER.error("Fatal error occurred: ", e);
+                responseBody = errorBody("Fatal error - contact support with this reference id "
+                        + input.getRequestContext().getRequestId());
+            }
 
         }
 
         response.setBody(responseBody);
+        Metrics.recordLatency(Metrics.HANDLER_LATENCY, start, Metrics.ROUTE, route);
 
-        LOGGER.info("Response: {}", response);
+        LOGGER.info("Responded with status {}", response.getStatusCode());
+        LOGGER.debug("Response: {}", response);
+        Metrics.flush();
+        LoggingUtil.clearContext();
 
         return response;
     }
 
-    private String incrementLastGeneratedToken(String queueId) throws ConditionalCheckFailedException {
-        Map<String, AttributeValue> key = new HashMap<String, AttributeValue>() {{
-            put(Queue.COL_QUEUE_ID, new AttributeValue(queueId));
-        }};
+    /**
+     * Method to build the body of an error response.
+     * The message is escaped, so it may hold values coming from the request.
+     * */
+    private static String errorBody(String message) {
+        try {
+            return JsonUtil.toJsonObject(ERROR_MESSAGE, message);
+        } catch (IOException e) {
+            LOGGER.error("Error marshalling to JSON: ", e);
+            return UNEXPECTED_ERROR_JSON;
+        }
+    }
 
-        UpdateItemRequest updateItemRequest = new UpdateItemRequest()
-                .withTableName(Queue.TABLE_NAME)
-                .withKey(key)
-                .withUpdateExpression(UPDATE_EXP)
-                .withConditionExpression(UPDATE_CONDITION)
-                .withExpressionAttributeNames(eanForUpdateExp)
-                .withExpressionAttributeValues(eavForUpdateExp)
-                .withReturnValues(ReturnValue.UPDATED_NEW);
+    /**
+     * Method to subscribe a user, or a group led by the user, to a queue.
+     * @return The body of the response, holding the token numbers handed out.
+     * @throws QueueSaturatedException if the subscribe is not admitted to the queue.
+     * */
+    private String subscribe(String userId, String queueId, int count) throws IOException {
+        if (admissionService != null) {
+            admissionService.admit(queueId, count);
+        }
 
-        UpdateItemResult updateItemResult = dynamoDbClient.updateItem(updateItemRequest);
+        if (count == 1) {
+            int tokenNum = subscribe(userId, queueId);
+            return JsonUtil.toJsonObject(TOKEN_NUMBER, String.valueOf(tokenNum));
+        }
 
-        String tokenNumber = updateItemResult.getAttributes().get(Queue.COL_LAST_GEN_TOKEN).getN();
-        LOGGER.info("Updated last_generated_token for queue {} to {}", queueId, tokenNumber);
+        // checked before the tokens are reserved, so that a group already subscribed burns none
+        List<String> seats = GroupUtil.seatIds(userId, 0, count);
+        if (!userStorage.loadAll(seats, queueId).isEmpty()) {
+            throw new AlreadySubscribedException(userId, queueId);
+        }
+
+        TokenRange tokens = reserveTokens(queueId, count);
+        createGroupSubscriptionLinks(userId, queueId, seats, tokens);
+        return JsonUtil.toJsonObject(
+                TOKEN_NUMBER, String.valueOf(tokens.getFirst()),
+                LAST_TOKEN_NUMBER, String.valueOf(tokens.getLast()));
+    }
+
+    /**
+     * Method to subscribe at most once per idempotency key - retries of a request
+     * that succeeded are answered with its original response, and hand out no new tokens.
+     * @return The body of the response.
+     * */
+    private String subscribeOnce(APIGatewayProxyResponseEvent response, String userId, String queueId,
+                                 int count, String idempotencyKey) throws IOException {
+        String fingerprint = queueId + FINGERPRINT_SEPARATOR + count;
+        IdempotencyRecord pending = idempotencyService.pending(userId, idempotencyKey, fingerprint);
+        IdempotencyRecord earlier = idempotencyService.begin(pending);
+
+        if (earlier == null) {
+            String responseBody;
+            try {
+                responseBody = subscribe(userId, queueId, count);
+            } catch (IOException | RuntimeException e) {
+                idempotencyService.release(pending);
+                throw e;
+            }
+            idempotencyService.complete(pending, responseBody);
+            return responseBody;
+        }
+
+        if (!earlier.matches(fingerprint)) {
+            response.setStatusCode(422);
+            return errorBody(ApiGatewayUtil.IDEMPOTENCY_KEY + " was already used for another request");
+        }
+
+        Map<String, String> headers = new HashMap<>(HEADERS);
+        response.setHeaders(headers);
+        if (!earlier.isComplete()) {
+            response.setStatusCode(409);
+            headers.put(ApiGatewayUtil.RETRY_AFTER, IN_PROGRESS_RETRY_AFTER_SECONDS);
+            return errorBody("A request with the same " + ApiGatewayUtil.IDEMPOTENCY_KEY + " is in progress");
+        }
+
+        LOGGER.info("Replaying the response of idempotency key {} of user {}", idempotencyKey, userId);
+        headers.put(ApiGatewayUtil.IDEMPOTENT_REPLAYED, Boolean.TRUE.toString());
+        return earlier.getResponse();
+    }
+
+    /**
+     * Method to hand out a token and create the user's subscription link in one atomic write.
+     * */
+    private int subscribe(String userId, String queueId) throws ConditionalCheckFailedException {
+        int tokenNumber;
+        try {
+            tokenNumber = subscriptionStorage.subscribe(userId, queueId);
+        } catch (QueueFullException e) {
+            if (admissionService == null) throw e;
+            throw admissionService.onFull(queueId);
+        }
+        LOGGER.info("Subscribed user {} to queue {} with token {}", userId, queueId, tokenNumber);
 
         return tokenNumber;
     }
 
-    private void createSubscriptionLink(String userId, String queueId, String tokenNumber)
-            throws ConditionalCheckFailedException {
-        Map<String, AttributeValue> attributeValues = new HashMap<>();
-        attributeValues.put(User.COL_USER_ID, new AttributeValue(userId));
-        attributeValues.put(User.COL_QUEUE_ID, new AttributeValue(queueId));
-        attributeValues.put(User.COL_QUEUE_OWNER, new AttributeValue().withBOOL(false));
-        attributeValues.put(User.COL_TOKEN_NUM, new AttributeValue().withN(tokenNumber));
-        attributeValues.put(User.COL_USER_STATE, new AttributeValue(UserState.WAITING.name()));
+    private TokenRange reserveTokens(String queueId, int count) throws ConditionalCheckFailedException {
+        TokenRange tokens;
+        try {
+            tokens = queueStorage.reserveTokens(queueId, count);
+        } catch (QueueFullException e) {
+            if (admissionService == null) throw e;
+            throw admissionService.onFull(queueId);
+        }
+        LOGGER.info("Reserved tokens {} of queue {}", tokens, queueId);
+
+        return tokens;
+    }
 
-        PutItemRequest putItemRequest = new PutItemRequest()
-                .withTableName(User.TABLE_NAME)
-                .withItem(attributeValues);
+    /**
+     * Method to create the links of a group subscribing together, linking each seat to a token.
+     * The seats are the user IDs of GroupUtil, the first being the user's.
+     * Seats linked since they were checked fail the links of the whole group. The reserved tokens
+     * are then recorded as unsubscribed, so that they are skipped like those of subscribers who left.
+     * */
+    private void createGroupSubscriptionLinks(String userId, String queueId, List<String> seats, TokenRange tokens) {
+        int count = tokens.getCount();
+        List<User> subscriptions = new ArrayList<>(count);
+        for (int seat = 0; seat < count; seat++) {
+            User subscription = new User(seats.get(seat), queueId);
+            subscription.setTokenNumber(tokens.tokenAt(seat));
+            subscription.setState(UserState.WAITING);
+            subscriptions.add(subscription);
+        }
+        // the leader's link tells the seats that leave and are described with it
+        subscriptions.get(0).setSeats(count);
 
-        dynamoDbClient.putItem(putItemRequest);
+        try {
+            userStorage.createSubscriptions(subscriptions);
+        } catch (AlreadySubscribedException e) {
+            // only a failed condition tells that no link was written, a timeout may still have written them
+            for (int index = 0; index < count; index++) {
+                try {
+                    queueStorage.addUnsubscribedToken(queueId, tokens.tokenAt(index));
+                } catch (RuntimeException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+
+        LOGGER.info("Created {} subscription links to queue {} for user {}", count, queueId, userId);
+    }
+
+    /**
+     * Method to parse the number of tokens to reserve.
+     * @return The count, 1 if not specified, or null if the value is invalid.
+     * */
+    private Integer parseCount(String count) {
+        Integer result;
+
+        try {
+            result = count != null ? Integer.valueOf(count) : 1;
+        } catch (NumberFormatException e) {
+            result = null;
+        }
 
-        LOGGER.info("Created subscription link to queue {} for user {}", queueId, userId);
+        return result != null && result >= 1 && result <= MAX_GROUP_SIZE ? result : null;
     }
 }
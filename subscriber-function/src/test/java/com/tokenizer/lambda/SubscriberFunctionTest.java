@@ -0,0 +1,102 @@
+package com.tokenizer.lambda;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.tokenizer.lambda.dao.storage.InMemoryStorage;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import com.tokenizer.lambda.util.GroupUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SubscriberFunctionTest {
+    private static final String USER_ID = "user";
+    private static final String QUEUE_ID = "queue";
+
+    private InMemoryStorage storage;
+
+    @Before
+    public void setUp() {
+        storage = new InMemoryStorage();
+        storage.save(new Queue(QUEUE_ID, "name", 0, 0, 100, false));
+    }
+
+    @Test
+    public void groupLeaderLinkHoldsItsSeats() {
+        APIGatewayProxyResponseEvent response = new SubscriberFunction(storage, storage, storage)
+                .handleRequest(groupSubscribe(3), null);
+
+        assertEquals(Integer.valueOf(200), response.getStatusCode());
+        assertEquals(Integer.valueOf(3), storage.load(USER_ID, QUEUE_ID).getSeats());
+        assertEquals(Integer.valueOf(3), storage.load(GroupUtil.seatId(USER_ID, 2), QUEUE_ID).getTokenNumber());
+        assertNull(storage.load(GroupUtil.seatId(USER_ID, 2), QUEUE_ID).getSeats());
+    }
+
+    @Test
+    public void groupWithALinkedSeatReservesNoTokens() {
+        storage.createSubscription(GroupUtil.seatId(USER_ID, 2), QUEUE_ID, 1);
+        storage.incrementLastGeneratedToken(QUEUE_ID);
+
+        APIGatewayProxyResponseEvent response = new SubscriberFunction(storage, storage, storage)
+                .handleRequest(groupSubscribe(3), null);
+
+        assertEquals(Integer.valueOf(409), response.getStatusCode());
+        assertEquals(Integer.valueOf(1), storage.load(QUEUE_ID).getLastGeneratedToken());
+        assertNull(storage.load(USER_ID, QUEUE_ID));
+    }
+
+    @Test
+    public void groupLinkedSinceTheCheckSkipsItsTokens() {
+        // the seats are linked by another request between the check and the links
+        InMemoryStorage racingStorage = new InMemoryStorage() {
+            @Override
+            public List<User> loadAll(Collection<String> userIds, String queueId) {
+                List<User> links = super.loadAll(userIds, queueId);
+                createSubscription(USER_ID, QUEUE_ID, incrementLastGeneratedToken(QUEUE_ID));
+                return links;
+            }
+        };
+        racingStorage.save(new Queue(QUEUE_ID, "name", 0, 0, 100, false));
+
+        APIGatewayProxyResponseEvent response = new SubscriberFunction(racingStorage, racingStorage, racingStorage)
+                .handleRequest(groupSubscribe(3), null);
+
+        assertEquals(Integer.valueOf(409), response.getStatusCode());
+        Queue queue = racingStorage.load(QUEUE_ID);
+        assertEquals(Integer.valueOf(4), queue.getLastGeneratedToken());
+        assertEquals(new HashSet<>(Arrays.asList(2, 3, 4)), queue.getUnsubscribedTokens());
+        assertEquals(Integer.valueOf(1), racingStorage.load(USER_ID, QUEUE_ID).getTokenNumber());
+    }
+
+    private static APIGatewayProxyRequestEvent groupSubscribe(int count) {
+        Map<String, String> claims = Collections.singletonMap("username", USER_ID);
+        Map<String, Object> authorizer = Collections.singletonMap("claims", claims);
+
+        APIGatewayProxyRequestEvent.ProxyRequestContext requestContext = new APIGatewayProxyRequestEvent.ProxyRequestContext();
+        requestContext.setAuthorizer(authorizer);
+        requestContext.setRequestId("request");
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(User.COL_QUEUE_ID, QUEUE_ID);
+        parameters.put(ApiGatewayUtil.COUNT, String.valueOf(count));
+
+        return new APIGatewayProxyRequestEvent()
+                .withResource("/subscribe")
+                .withPath("/subscribe")
+                .withHttpMethod(ApiGatewayUtil.POST)
+                .withQueryStringParameters(parameters)
+                .withRequestContext(requestContext);
+    }
+}
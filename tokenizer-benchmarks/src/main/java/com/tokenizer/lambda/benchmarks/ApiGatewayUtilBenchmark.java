@@ -0,0 +1,50 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class ApiGatewayUtilBenchmark {
+    private APIGatewayProxyRequestEvent event;
+
+    @Setup
+    public void setup() {
+        event = Events.event("/queues/queue", ApiGatewayUtil.GET, Events.params(
+                Queue.COL_QUEUE_ID, Events.QUEUE_ID,
+                Queue.COL_QUEUE_NAME, "",
+                Queue.COL_MAX_SIZE, "250"));
+    }
+
+    @Benchmark
+    public String parseUsername() {
+        return ApiGatewayUtil.parseUsername(event);
+    }
+
+    @Benchmark
+    public String parseQueryStringParameter() {
+        return ApiGatewayUtil.parseQueryStringParameter(event, Queue.COL_QUEUE_ID);
+    }
+
+    @Benchmark
+    public String parseEmptyQueryStringParameter() {
+        return ApiGatewayUtil.parseQueryStringParameter(event, Queue.COL_QUEUE_NAME);
+    }
+}
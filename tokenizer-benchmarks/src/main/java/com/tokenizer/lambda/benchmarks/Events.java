@@ -0,0 +1,46 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builders for the API Gateway events fed to the benchmarked code paths.
+ * The events mirror what the Cognito authorized API sends to the functions.
+ * */
+final class Events {
+    static final String USER_ID = "benchmark_user";
+    static final String QUEUE_ID = "benchmark_queue";
+    static final String REQUEST_ID = "c6af9ac6-7b61-11e6-9a41-93e8deadbeef";
+
+    private Events() {}
+
+    static APIGatewayProxyRequestEvent event(String resource, String httpMethod, Map<String, String> queryStringParameters) {
+        Map<String, String> claims = new HashMap<>();
+        claims.put("username", USER_ID);
+
+        Map<String, Object> authorizer = new HashMap<>();
+        authorizer.put("claims", claims);
+
+        APIGatewayProxyRequestEvent.ProxyRequestContext requestContext = new APIGatewayProxyRequestEvent.ProxyRequestContext();
+        requestContext.setAuthorizer(authorizer);
+        requestContext.setRequestId(REQUEST_ID);
+
+        return new APIGatewayProxyRequestEvent()
+                .withResource(resource)
+                .withPath(resource)
+                .withHttpMethod(httpMethod)
+                .withQueryStringParameters(queryStringParameters)
+                .withRequestContext(requestContext);
+    }
+
+    static Map<String, String> params(String... keyValues) {
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            result.put(keyValues[i], keyValues[i + 1]);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.tokenizer.lambda.dao.storage.InMemoryStorage;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.users.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of the in-memory storage backend, with every thread
+ * subscribing to and processing the same queue.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class InMemoryStorageBenchmark {
+    private InMemoryStorage storage;
+
+    @State(Scope.Thread)
+    public static class Subscriber {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        private String userId;
+
+        @Setup
+        public void setup() {
+            userId = "subscriber_" + THREADS.incrementAndGet();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        storage = new InMemoryStorage();
+        storage.save(new Queue(Events.QUEUE_ID, "benchmark_queue_name", 0, 0, Integer.MAX_VALUE, false));
+
+        User owner = new User(Events.USER_ID, Events.QUEUE_ID);
+        owner.setOwner(true);
+        storage.save(owner);
+    }
+
+    @Benchmark
+    public int incrementLastGeneratedToken() {
+        return storage.incrementLastGeneratedToken(Events.QUEUE_ID);
+    }
+
+    @Benchmark
+    public void subscribe(Subscriber subscriber) {
+        int tokenNumber = storage.incrementLastGeneratedToken(Events.QUEUE_ID);
+        storage.createSubscription(subscriber.userId, Events.QUEUE_ID, tokenNumber);
+    }
+
+    @Benchmark
+    public int subscribeAndProcess() {
+        storage.incrementLastGeneratedToken(Events.QUEUE_ID);
+        return storage.incrementLastProcessedToken(Events.QUEUE_ID);
+    }
+
+    @Benchmark
+    public User loadOwnerLink() {
+        return storage.load(Events.USER_ID, Events.QUEUE_ID);
+    }
+}
@@ -0,0 +1,102 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.tokenizer.lambda.dao.storage.QueueCodec;
+import com.tokenizer.lambda.dao.storage.UserCodec;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-item cost of converting queues and users to and from DynamoDB items,
+ * with the hand-written codecs and with the DynamoDBMapper they replaced.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class ItemCodecBenchmark {
+    private DynamoDBMapper mapper;
+    private DynamoDBMapperTableModel<Queue> queueModel;
+    private DynamoDBMapperTableModel<User> userModel;
+
+    private Queue queue;
+    private User user;
+    private Map<String, AttributeValue> queueItem;
+    private Map<String, AttributeValue> userItem;
+
+    @Setup
+    public void setup() {
+        mapper = new DynamoDBMapper(new StubDynamoDB());
+        queueModel = mapper.getTableModel(Queue.class);
+        userModel = mapper.getTableModel(User.class);
+
+        queue = new Queue(Events.QUEUE_ID, "benchmark_queue_name", 42, 17, 99, false);
+        queue.setUnsubscribedTokens(new HashSet<>(Arrays.asList(20, 31)));
+        user = new User("subscriber_18", Events.QUEUE_ID);
+        user.setTokenNumber(18);
+        user.setState(UserState.WAITING);
+
+        queueItem = QueueCodec.encode(queue);
+        userItem = UserCodec.encode(user);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> encodeQueue() {
+        return QueueCodec.encode(queue);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> encodeQueueMapper() {
+        return queueModel.convert(queue);
+    }
+
+    @Benchmark
+    public Queue decodeQueue() {
+        return QueueCodec.decode(queueItem);
+    }
+
+    @Benchmark
+    public Queue decodeQueueMapper() {
+        return mapper.marshallIntoObject(Queue.class, queueItem);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> encodeUser() {
+        return UserCodec.encode(user);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> encodeUserMapper() {
+        return userModel.convert(user);
+    }
+
+    @Benchmark
+    public User decodeUser() {
+        return UserCodec.decode(userItem);
+    }
+
+    @Benchmark
+    public User decodeUserMapper() {
+        return mapper.marshallIntoObject(User.class, userItem);
+    }
+}
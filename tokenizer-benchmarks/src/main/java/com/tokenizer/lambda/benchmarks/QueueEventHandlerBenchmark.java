@@ -0,0 +1,86 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.requests.handlers.QueueEventHandler;
+import com.tokenizer.lambda.service.QueueReaper;
+import com.tokenizer.lambda.service.QueueService;
+import com.tokenizer.lambda.service.UserService;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full QueueEventHandler paths against stubbed repositories.
+ * The subscriber count only affects the DELETE path, which reaps
+ * the subscribers inline since no reaper function is configured.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class QueueEventHandlerBenchmark {
+
+    @Param({"0", "100"})
+    public int subscribers;
+
+    private QueueEventHandler handler;
+    private APIGatewayProxyRequestEvent getEvent;
+    private APIGatewayProxyRequestEvent postEvent;
+    private APIGatewayProxyRequestEvent putEvent;
+    private APIGatewayProxyRequestEvent deleteEvent;
+
+    @Setup
+    public void setup() {
+        StubUserRepository userRepository = new StubUserRepository(subscribers);
+        StubQueueRepository queueRepository = new StubQueueRepository(0);
+        handler = new QueueEventHandler(
+                new UserService(userRepository),
+                new QueueService(queueRepository),
+                new QueueReaper(queueRepository, userRepository),
+                new ObjectMapper());
+
+        getEvent = Events.event("/queues/queue", ApiGatewayUtil.GET,
+                Events.params(Queue.COL_QUEUE_ID, Events.QUEUE_ID));
+        postEvent = Events.event("/queues/queue", ApiGatewayUtil.POST,
+                Events.params(Queue.COL_QUEUE_NAME, "new_queue", Queue.COL_MAX_SIZE, "250"));
+        putEvent = Events.event("/queues/queue", ApiGatewayUtil.PUT,
+                Events.params(Queue.COL_QUEUE_ID, Events.QUEUE_ID, Queue.COL_DISABLED, "true"));
+        deleteEvent = Events.event("/queues/queue", ApiGatewayUtil.DELETE,
+                Events.params(Queue.COL_QUEUE_ID, Events.QUEUE_ID));
+    }
+
+    @Benchmark
+    public String describeQueue() {
+        return handler.handleEvent(getEvent);
+    }
+
+    @Benchmark
+    public String createQueue() {
+        return handler.handleEvent(postEvent);
+    }
+
+    @Benchmark
+    public String updateQueue() {
+        return handler.handleEvent(putEvent);
+    }
+
+    @Benchmark
+    public String deleteQueue() {
+        return handler.handleEvent(deleteEvent);
+    }
+}
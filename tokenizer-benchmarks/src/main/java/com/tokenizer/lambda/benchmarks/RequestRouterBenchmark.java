@@ -0,0 +1,56 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.factory.RequestRouterFactory;
+import com.tokenizer.lambda.requests.EventHandler;
+import com.tokenizer.lambda.requests.RequestRouter;
+import com.tokenizer.lambda.service.QueueReaper;
+import com.tokenizer.lambda.service.QueueService;
+import com.tokenizer.lambda.service.UserService;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class RequestRouterBenchmark {
+
+    @Param({"/queues", "/queues/queue", "/user", "/unknown"})
+    public String resource;
+
+    private RequestRouter router;
+    private APIGatewayProxyRequestEvent event;
+
+    @Setup
+    public void setup() {
+        StubUserRepository userRepository = new StubUserRepository(0);
+        StubQueueRepository queueRepository = new StubQueueRepository(0);
+        router = RequestRouterFactory.createRequestRouter(
+                new UserService(userRepository),
+                new QueueService(queueRepository),
+                new QueueReaper(queueRepository, userRepository),
+                new ObjectMapper());
+        event = Events.event(resource, ApiGatewayUtil.GET, null);
+    }
+
+    @Benchmark
+    public EventHandler getHandler() {
+        return router.getHandler(event);
+    }
+}
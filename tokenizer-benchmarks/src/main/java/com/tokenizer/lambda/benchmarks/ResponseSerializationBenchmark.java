@@ -0,0 +1,69 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.response.ResponseModel;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class ResponseSerializationBenchmark {
+
+    @Param({"1", "100", "5000"})
+    public int size;
+
+    private ObjectMapper mapper;
+    private ResponseModel<List<Queue>> queuesResponse;
+    private ResponseModel<List<User>> usersResponse;
+
+    @Setup
+    public void setup() {
+        mapper = new ObjectMapper();
+        queuesResponse = new ResponseModel<>(200, ResponseModel.SUCCESS_MESSAGE,
+                new StubQueueRepository(size).scan(0, 1, null, size).getResults(), "queue_" + size);
+        usersResponse = new ResponseModel<>(200, ResponseModel.SUCCESS_MESSAGE,
+                new StubUserRepository(size).query(Events.QUEUE_ID), null);
+    }
+
+    @Benchmark
+    public String queueList() {
+        return ApiGatewayUtil.getResponseJsonString(mapper, queuesResponse);
+    }
+
+    @Benchmark
+    public String userList() {
+        return ApiGatewayUtil.getResponseJsonString(mapper, usersResponse);
+    }
+
+    /** Baseline - the reflective bean serializers of the ObjectMapper. */
+    @Benchmark
+    public String queueListDatabind() throws JsonProcessingException {
+        return mapper.writeValueAsString(queuesResponse);
+    }
+
+    /** Baseline - the reflective bean serializers of the ObjectMapper. */
+    @Benchmark
+    public String userListDatabind() throws JsonProcessingException {
+        return mapper.writeValueAsString(usersResponse);
+    }
+}
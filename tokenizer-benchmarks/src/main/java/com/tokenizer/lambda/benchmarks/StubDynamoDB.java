@@ -0,0 +1,80 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.tokenizer.lambda.model.queues.Queue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Low-level DynamoDB client stub for the calls made by the SubscriberFunction.
+ * Every call succeeds immediately, without any network round trip.
+ * */
+class StubDynamoDB extends AbstractAmazonDynamoDB {
+    private final UpdateItemResult updateItemResult = new UpdateItemResult()
+            .withAttributes(Collections.singletonMap(Queue.COL_LAST_GEN_TOKEN, new AttributeValue().withN("42")));
+    private final PutItemResult putItemResult = new PutItemResult();
+    private final BatchWriteItemResult batchWriteItemResult = new BatchWriteItemResult()
+            .withUnprocessedItems(Collections.emptyMap());
+    private final BatchGetItemResult batchGetItemResult = new BatchGetItemResult()
+            .withResponses(Collections.emptyMap())
+            .withUnprocessedKeys(Collections.emptyMap());
+    private final TransactWriteItemsResult transactWriteItemsResult = new TransactWriteItemsResult();
+    private final GetItemResult getItemResult = new GetItemResult().withItem(queueItem());
+
+    /**
+     * @return The counter attributes of an enabled queue, as read before subscribing to it.
+     * */
+    private static Map<String, AttributeValue> queueItem() {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(Queue.COL_LAST_GEN_TOKEN, new AttributeValue().withN("41"));
+        item.put(Queue.COL_MAX_SIZE, new AttributeValue().withN("99"));
+        item.put(Queue.COL_DISABLED, new AttributeValue().withBOOL(false));
+
+        return item;
+    }
+
+    @Override
+    public UpdateItemResult updateItem(UpdateItemRequest request) {
+        return updateItemResult;
+    }
+
+    @Override
+    public PutItemResult putItem(PutItemRequest request) {
+        return putItemResult;
+    }
+
+    @Override
+    public BatchWriteItemResult batchWriteItem(BatchWriteItemRequest request) {
+        return batchWriteItemResult;
+    }
+
+    @Override
+    public TransactWriteItemsResult transactWriteItems(TransactWriteItemsRequest request) {
+        return transactWriteItemsResult;
+    }
+
+    @Override
+    public BatchGetItemResult batchGetItem(BatchGetItemRequest request) {
+        return batchGetItemResult;
+    }
+
+    @Override
+    public GetItemResult getItem(GetItemRequest request) {
+        return getItemResult;
+    }
+}
@@ -0,0 +1,56 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.tokenizer.lambda.dao.QueueRepository;
+import com.tokenizer.lambda.model.queues.Queue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * QueueRepository that answers from canned data instead of DynamoDB,
+ * so that the benchmarks only measure the code paths inside the function.
+ * */
+class StubQueueRepository extends QueueRepository {
+    private final Queue queue;
+    private final ScanResultPage<Queue> scanPage;
+
+    StubQueueRepository(int listSize) {
+        super(null);
+        this.queue = new Queue(Events.QUEUE_ID, "benchmark_queue_name", 42, 17, Queue.DEFAULT_MAX_SIZE, false);
+
+        List<Queue> queues = new ArrayList<>(listSize);
+        for (int i = 0; i < listSize; i++) {
+            queues.add(new Queue("queue_" + i, "queue_name_" + i, i, 0, Queue.DEFAULT_MAX_SIZE, false));
+        }
+        this.scanPage = new ScanResultPage<>();
+        this.scanPage.setResults(queues);
+    }
+
+    @Override
+    public void save(Queue queue) {}
+
+    @Override
+    public Queue load(Queue lookup) {
+        return queue;
+    }
+
+    @Override
+    public void update(Queue queue) {}
+
+    @Override
+    public String incrementLastProcessedToken(String queueId) {
+        return String.valueOf(queue.getLastProcessedToken() + 1);
+    }
+
+    @Override
+    public void tombstone(String queueId, long deletedAt) {}
+
+    @Override
+    public void delete(Queue queueToDelete) {}
+
+    @Override
+    public ScanResultPage<Queue> scan(int segment, int totalSegments, String exclusiveStartQueueId, int limit) {
+        return scanPage;
+    }
+}
@@ -0,0 +1,82 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.tokenizer.lambda.dao.UserRepository;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * UserRepository that answers from canned data instead of DynamoDB,
+ * so that the benchmarks only measure the code paths inside the function.
+ * */
+class StubUserRepository extends UserRepository {
+    private final User owner;
+    private final User subscriber;
+    private final List<User> users;
+
+    StubUserRepository(int listSize) {
+        super(null);
+        this.owner = new User(Events.USER_ID, Events.QUEUE_ID);
+        this.owner.setOwner(true);
+
+        this.subscriber = new User(Events.QUEUE_ID, 18);
+        this.subscriber.setUserId("subscriber_18");
+        this.subscriber.setState(UserState.WAITING);
+
+        this.users = new ArrayList<>(listSize);
+        for (int i = 0; i < listSize; i++) {
+            User user = new User("subscriber_" + i, Events.QUEUE_ID);
+            user.setTokenNumber(i + 1);
+            user.setState(UserState.WAITING);
+            users.add(user);
+        }
+    }
+
+    @Override
+    public void save(User user) {}
+
+    @Override
+    public User load(User lookup) {
+        return owner;
+    }
+
+    @Override
+    public List<User> load(String userId, Boolean ownedByUser) {
+        return users;
+    }
+
+    @Override
+    public User lookupByTokenNumber(String queueId, int tokenNumber) {
+        return subscriber;
+    }
+
+    @Override
+    public List<User> query(String queueId) {
+        return users;
+    }
+
+    @Override
+    public List<User> query(String queueId, int firstToken, int lastToken, int limit) {
+        List<User> result = new ArrayList<>();
+        for (User user : users) {
+            if (user.getTokenNumber() >= firstToken && user.getTokenNumber() <= lastToken && result.size() < limit) {
+                result.add(user);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void markAsDone(User subscriber) {}
+
+    @Override
+    public User delete(User userToDelete, boolean unsubscribeOnly) {
+        return userToDelete;
+    }
+
+    @Override
+    public void deleteAll(List<User> links) {}
+}
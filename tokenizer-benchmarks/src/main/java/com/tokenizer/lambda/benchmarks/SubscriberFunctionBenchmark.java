@@ -0,0 +1,94 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.tokenizer.lambda.SubscriberFunction;
+import com.tokenizer.lambda.dao.storage.InMemoryStorage;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import com.tokenizer.lambda.util.GroupUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class SubscriberFunctionBenchmark {
+    private static final int GROUP_SIZE = 5;
+
+    private SubscriberFunction function;
+    private SubscriberFunction inMemoryFunction;
+    private InMemoryStorage storage;
+    private APIGatewayProxyRequestEvent subscribeEvent;
+    private APIGatewayProxyRequestEvent groupSubscribeEvent;
+    private APIGatewayProxyRequestEvent missingQueueEvent;
+
+    @Setup
+    public void setup() {
+        function = new SubscriberFunction(new StubDynamoDB());
+
+        storage = new InMemoryStorage();
+        storage.save(new Queue(Events.QUEUE_ID, "benchmark_queue_name", 0, 0, Integer.MAX_VALUE, false));
+        inMemoryFunction = new SubscriberFunction(storage, storage, storage);
+
+        subscribeEvent = Events.event("/subscribe", ApiGatewayUtil.POST,
+                Events.params(User.COL_QUEUE_ID, Events.QUEUE_ID));
+        groupSubscribeEvent = Events.event("/subscribe", ApiGatewayUtil.POST,
+                Events.params(User.COL_QUEUE_ID, Events.QUEUE_ID, ApiGatewayUtil.COUNT, String.valueOf(GROUP_SIZE)));
+        missingQueueEvent = Events.event("/subscribe", ApiGatewayUtil.POST, null);
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent subscribe() {
+        return function.handleRequest(subscribeEvent, null);
+    }
+
+    /**
+     * The benchmark user's link is deleted after every subscribe,
+     * since a user already linked to the queue cannot subscribe again.
+     * */
+    @Benchmark
+    public APIGatewayProxyResponseEvent subscribeInMemory() {
+        APIGatewayProxyResponseEvent response = inMemoryFunction.handleRequest(subscribeEvent, null);
+        storage.delete(Events.USER_ID, Events.QUEUE_ID, true);
+        return response;
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent subscribeGroup() {
+        return function.handleRequest(groupSubscribeEvent, null);
+    }
+
+    /**
+     * The links of the benchmark group are deleted after every subscribe,
+     * since a group whose seats are already linked is refused before reserving tokens.
+     * */
+    @Benchmark
+    public APIGatewayProxyResponseEvent subscribeGroupInMemory() {
+        APIGatewayProxyResponseEvent response = inMemoryFunction.handleRequest(groupSubscribeEvent, null);
+        storage.delete(Events.USER_ID, Events.QUEUE_ID, true);
+        for (int seat = 1; seat < GROUP_SIZE; seat++) {
+            storage.delete(GroupUtil.seatId(Events.USER_ID, seat), Events.QUEUE_ID, true);
+        }
+        return response;
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent missingQueueId() {
+        return function.handleRequest(missingQueueEvent, null);
+    }
+}
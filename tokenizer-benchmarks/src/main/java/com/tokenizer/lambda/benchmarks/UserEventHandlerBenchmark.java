@@ -0,0 +1,73 @@
+package com.tokenizer.lambda.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.requests.handlers.UserEventHandler;
+import com.tokenizer.lambda.service.QueueService;
+import com.tokenizer.lambda.service.UserService;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full UserEventHandler paths against stubbed repositories.
+ * The queue count only affects the GET path, which lists every
+ * queue the user owns or is subscribed to.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class UserEventHandlerBenchmark {
+
+    @Param({"1", "100"})
+    public int queues;
+
+    private UserEventHandler handler;
+    private APIGatewayProxyRequestEvent getEvent;
+    private APIGatewayProxyRequestEvent putEvent;
+    private APIGatewayProxyRequestEvent deleteEvent;
+
+    @Setup
+    public void setup() {
+        handler = new UserEventHandler(
+                new UserService(new StubUserRepository(queues)),
+                new QueueService(new StubQueueRepository(0)),
+                new ObjectMapper());
+
+        getEvent = Events.event("/user", ApiGatewayUtil.GET, null);
+        putEvent = Events.event("/user", ApiGatewayUtil.PUT,
+                Events.params(User.COL_QUEUE_ID, Events.QUEUE_ID));
+        deleteEvent = Events.event("/user", ApiGatewayUtil.DELETE,
+                Events.params(User.COL_QUEUE_ID, Events.QUEUE_ID));
+    }
+
+    @Benchmark
+    public String describeUser() {
+        return handler.handleEvent(getEvent);
+    }
+
+    @Benchmark
+    public String processItemFromQueue() {
+        return handler.handleEvent(putEvent);
+    }
+
+    @Benchmark
+    public String unsubscribeFromQueue() {
+        return handler.handleEvent(deleteEvent);
+    }
+}
@@ -0,0 +1,43 @@
+package com.tokenizer.lambda;
+
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Training run of the appcds build profile, recording the classes a function loads
+ * when it initializes and serves a request, to build its class-data sharing archive.
+ *
+ * The handler is created the way Lambda creates it, which runs its static
+ * initialization and priming, and is then invoked with an unauthenticated
+ * API Gateway event. Failures to reach AWS are expected - the classes on the
+ * failure paths are recorded all the same.
+ * */
+public class AppCdsTraining {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AppCdsTraining.class);
+    private static final String TRAINING_RESOURCE = "/queues";
+
+    /**
+     * @param args The class names of the handlers to train.
+     * */
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws ReflectiveOperationException {
+        for (String handlerClassName : args) {
+            Object handler = Class.forName(handlerClassName).getConstructor().newInstance();
+
+            try {
+                ((RequestHandler<APIGatewayProxyRequestEvent, ?>) handler)
+                        .handleRequest(new APIGatewayProxyRequestEvent()
+                                .withResource(TRAINING_RESOURCE)
+                                .withHttpMethod(ApiGatewayUtil.GET), null);
+            } catch (RuntimeException e) {
+                LOGGER.info("Training request of {} failed: {}", handlerClassName, e.toString());
+            }
+        }
+
+        // so that no thread left behind by the clients keeps the JVM running
+        System.exit(0);
+    }
+}
@@ -1,21 +1,42 @@
 package com.tokenizer.lambda;
 
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreamsClientBuilder;
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.changes.DynamoStreamQueueChangeSource;
+import com.tokenizer.lambda.changes.QueueChangePublisher;
+import com.tokenizer.lambda.changes.QueueChangeSource;
+import com.tokenizer.lambda.dao.AggregateRepository;
+import com.tokenizer.lambda.dao.CachingQueueRepository;
+import com.tokenizer.lambda.dao.CachingUserRepository;
 import com.tokenizer.lambda.dao.QueueRepository;
 import com.tokenizer.lambda.dao.UserRepository;
+import com.tokenizer.lambda.dao.storage.ContendedUpdateException;
+import com.tokenizer.lambda.dao.storage.DynamoAggregateStorage;
+import com.tokenizer.lambda.dao.storage.DynamoQueueStorage;
+import com.tokenizer.lambda.dao.storage.DynamoUserStorage;
+import com.tokenizer.lambda.dao.storage.QueueStorage;
+import com.tokenizer.lambda.dao.storage.UserStorage;
 import com.tokenizer.lambda.factory.RequestRouterFactory;
+import com.tokenizer.lambda.metrics.Metrics;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.response.ResponseModel;
 import com.tokenizer.lambda.requests.EventHandler;
 import com.tokenizer.lambda.requests.RequestRouter;
+import com.tokenizer.lambda.resilience.ResilienceHandler;
+import com.tokenizer.lambda.service.AggregateService;
+import com.tokenizer.lambda.service.QueueReaper;
 import com.tokenizer.lambda.service.QueueService;
 import com.tokenizer.lambda.service.UserService;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
 import com.tokenizer.lambda.util.DynamoUtil;
+import com.tokenizer.lambda.util.LoggingUtil;
+import com.tokenizer.lambda.util.PrimingUtil;
+import com.tokenizer.lambda.util.TtlCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,48 +48,60 @@ public class TokenizerFunction implements RequestHandler<APIGatewayProxyRequestE
     private static final String CONTENTTYPE = "Content-Type";
     private static final String APPLICATION_JSON = "application/json";
 
-    private ObjectMapper objectMapper;
-    private DynamoDBMapper dynamoDBMapper;
-    private UserRepository userRepository;
-    private QueueRepository queueRepository;
-    private UserService userService;
-    private QueueService queueService;
-    private RequestRouter router;
+    private static final int MAX_CACHED_ITEMS = 10000;
+    /** Ownership links never change once created. */
+    private static final long OWNERSHIP_CACHE_TTL_MILLIS = 60_000;
+    /** Queue counters move with every subscribe, so queues are only kept briefly. */
+    private static final long QUEUE_CACHE_TTL_MILLIS = 2_000;
 
-    private void init() {
+    private static final ObjectMapper OBJECT_MAPPER;
+    private static final CachingUserRepository USER_REPOSITORY;
+    private static final CachingQueueRepository QUEUE_REPOSITORY;
+    private static final RequestRouter ROUTER;
+
+    // wired while Lambda initializes the function, ahead of the first request
+    static {
         LOGGER.info("Initializing Lambda...");
 
-        DynamoDBMapperConfig dynamoDBMapperConfig = DynamoDBMapperConfig.builder()
-                .withSaveBehavior(DynamoDBMapperConfig.SaveBehavior.PUT)
-                .withConsistentReads(DynamoDBMapperConfig.ConsistentReads.EVENTUAL)
-                .build();
+        OBJECT_MAPPER = new ObjectMapper();
+        UserStorage userStorage = new DynamoUserStorage(DynamoUtil.DYNAMO_CLIENT);
+        QueueStorage queueStorage = new DynamoQueueStorage(DynamoUtil.DYNAMO_CLIENT);
+        USER_REPOSITORY = new CachingUserRepository(userStorage,
+                new TtlCache<>(MAX_CACHED_ITEMS, OWNERSHIP_CACHE_TTL_MILLIS));
+        QUEUE_REPOSITORY = new CachingQueueRepository(queueStorage,
+                new TtlCache<>(MAX_CACHED_ITEMS, QUEUE_CACHE_TTL_MILLIS));
+        UserService userService = new UserService(USER_REPOSITORY);
+        QueueService queueService = new QueueService(QUEUE_REPOSITORY);
 
-        this.objectMapper = new ObjectMapper();
-        this.dynamoDBMapper = new DynamoDBMapper(DynamoUtil.DYNAMO_CLIENT, dynamoDBMapperConfig);
-        this.userRepository = new UserRepository(dynamoDBMapper);
-        this.queueRepository = new QueueRepository(dynamoDBMapper);
-        this.userService = new UserService(userRepository);
-        this.queueService = new QueueService(queueRepository);
-        this.router = RequestRouterFactory.createRequestRouter(userService, queueService, objectMapper);
+        // without a reaper function, deleted queues are reaped in the DELETE request itself,
+        // reading the queue's last token past the cache
+        String reaperFunctionName = System.getenv(QueueReaper.REAPER_FUNCTION_NAME_ENV);
+        QueueReaper queueReaper = reaperFunctionName != null ?
+                new QueueReaper(QUEUE_REPOSITORY, USER_REPOSITORY,
+                        AWSLambdaClientBuilder.defaultClient(), reaperFunctionName, OBJECT_MAPPER) :
+                new QueueReaper(new QueueRepository(queueStorage), new UserRepository(userStorage));
 
-        LOGGER.info("Initialization complete.");
-    }
+        // without the queues table's stream, position requests are answered without waiting for changes
+        String queueStreamArn = System.getenv(DynamoStreamQueueChangeSource.QUEUE_STREAM_ARN_ENV);
+        QueueChangeSource changeSource = queueStreamArn != null ?
+                new DynamoStreamQueueChangeSource(AmazonDynamoDBStreamsClientBuilder.defaultClient(), queueStreamArn,
+                        DynamoStreamQueueChangeSource.pollMillisFromEnv(), new QueueChangePublisher()) :
+                null;
+        // the counts of queues and owners are only read once the aggregator function keeps them
+        String aggregatesTable = System.getenv(DynamoAggregateStorage.AGGREGATES_TABLE_ENV);
+        AggregateService aggregateService = aggregatesTable != null ?
+                new AggregateService(new AggregateRepository(
+                        new DynamoAggregateStorage(DynamoUtil.DYNAMO_CLIENT, aggregatesTable))) :
+                null;
+        ROUTER = RequestRouterFactory.createRequestRouter(userService, queueService, queueReaper,
+                aggregateService, changeSource, OBJECT_MAPPER);
 
-    private boolean isInitialized() {
-        return objectMapper != null
-                && dynamoDBMapper != null
-                && userRepository != null
-                && queueRepository != null
-                && userService != null
-                && queueService != null
-                && router != null;
+        PrimingUtil.prime(DynamoUtil.DYNAMO_CLIENT, OBJECT_MAPPER);
+
+        LOGGER.info("Initialization complete.");
     }
 
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
-        if (!isInitialized()) {
-            init();
-        }
-
         APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
         response.setStatusCode(200);
 
@@ -76,16 +109,46 @@ public class TokenizerFunction implements RequestHandler<APIGatewayProxyRequestE
         headers.put(CONTENTTYPE, APPLICATION_JSON);
         response.setHeaders(headers);
 
+        LoggingUtil.putContext(input, context);
         try {
-            LOGGER.debug("Received event: {}", objectMapper.writeValueAsString(input));
-            EventHandler eventHandler = router.getHandler(input);
-            String responseBody = eventHandler.handleEvent(input);
+            LoggingUtil.logEvent(LOGGER, OBJECT_MAPPER, input);
+            String route = Metrics.route(input);
+            Metrics.startInvocation(route, ApiGatewayUtil.parseQueryStringParameter(input, Queue.COL_QUEUE_ID));
+            long start = System.nanoTime();
+            EventHandler eventHandler = ROUTER.getHandler(input);
+            Metrics.recordLatency(Metrics.DISPATCH_LATENCY, start, Metrics.ROUTE, route);
+
+            start = System.nanoTime();
+            String responseBody;
+            try {
+                responseBody = eventHandler.handleEvent(input);
+            } catch (ContendedUpdateException e) {
+                LOGGER.warn("Update contended - {}", e.getMessage());
+                response.setStatusCode(409);
+                headers.put(ApiGatewayUtil.RETRY_AFTER, ApiGatewayUtil.retryAfterSeconds(e));
+                responseBody = ApiGatewayUtil.getResponseJsonString(OBJECT_MAPPER,
+                        new ResponseModel<>(409, ResponseModel.CONTENDED_MESSAGE, null, null));
+            } catch (RuntimeException e) {
+                if (!ResilienceHandler.isUnavailable(e)) {
+                    throw e;
+                }
+
+                LOGGER.warn("DynamoDB is unavailable - {}", e.getMessage());
+                response.setStatusCode(503);
+                headers.put(ApiGatewayUtil.RETRY_AFTER, ApiGatewayUtil.retryAfterSeconds(e));
+                responseBody = ApiGatewayUtil.getResponseJsonString(OBJECT_MAPPER,
+                        new ResponseModel<>(503, ResponseModel.UNAVAILABLE_MESSAGE, null, null));
+            }
+            Metrics.recordLatency(Metrics.HANDLER_LATENCY, start, Metrics.ROUTE, route);
             response.setBody(responseBody);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
-        }
 
-        LOGGER.info("Response: {}", response);
+            LOGGER.info("Responded with status {}", response.getStatusCode());
+            LOGGER.debug("Response: {}", response);
+            LOGGER.debug("Cached owners: {}, cached queues: {}", USER_REPOSITORY.getCache(), QUEUE_REPOSITORY.getCache());
+        } finally {
+            Metrics.flush();
+            LoggingUtil.clearContext();
+        }
 
         return response;
     }
@@ -0,0 +1,198 @@
+package com.tokenizer.lambda.changes;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DescribeStreamRequest;
+import com.amazonaws.services.dynamodbv2.model.ExpiredIteratorException;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsRequest;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsResult;
+import com.amazonaws.services.dynamodbv2.model.GetShardIteratorRequest;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.Shard;
+import com.amazonaws.services.dynamodbv2.model.ShardIteratorType;
+import com.amazonaws.services.dynamodbv2.model.StreamDescription;
+import com.tokenizer.lambda.dao.storage.QueueCodec;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.util.EnvUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Change source reading the DynamoDB stream of the tokenizer_queues table.
+ *
+ * The stream must carry new images. It is read by a daemon thread of the container, started by
+ * the first request waiting for a change, which polls the open shards and publishes the queues
+ * found in the records. The thread is frozen along with the container between invocations.
+ *
+ * Shards are first read from their latest record, and again after their iterator expired while
+ * the container was frozen; waiting requests read the queue after subscribing, so the records
+ * skipped are never waited for. Shards split from a shard being read are read from their start.
+ *
+ * DynamoDB allows 5 GetRecords calls a second per shard, shared by every container reading it,
+ * so the poll interval bounds how many containers can wait on changes at the same time.
+ * */
+public class DynamoStreamQueueChangeSource implements QueueChangeSource, Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DynamoStreamQueueChangeSource.class);
+    public static final String QUEUE_STREAM_ARN_ENV = "QUEUE_STREAM_ARN";
+    public static final String QUEUE_STREAM_POLL_MILLIS_ENV = "QUEUE_STREAM_POLL_MILLIS";
+    public static final int DEFAULT_POLL_MILLIS = 1_000;
+
+    /** Shards are split about every 4 hours, their list is refreshed sooner when a shard closes. */
+    private static final long SHARD_REFRESH_MILLIS = 60_000;
+
+    private final AmazonDynamoDBStreams streams;
+    private final String streamArn;
+    private final long pollMillis;
+    private final QueueChangePublisher publisher;
+
+    // read and written by the polling thread, once it started
+    private final Map<String, String> shardIterators = new HashMap<>();
+    private final Set<String> closedShards = new HashSet<>();
+    private long shardsRefreshedAt;
+    private boolean started;
+
+    public DynamoStreamQueueChangeSource(AmazonDynamoDBStreams streams, String streamArn, long pollMillis,
+                                         QueueChangePublisher publisher) {
+        this.streams = streams;
+        this.streamArn = streamArn;
+        this.pollMillis = pollMillis;
+        this.publisher = publisher;
+    }
+
+    /**
+     * @return The poll interval of the QUEUE_STREAM_POLL_MILLIS environment variable, or its default.
+     * */
+    public static long pollMillisFromEnv() {
+        return EnvUtil.intFromEnv(QUEUE_STREAM_POLL_MILLIS_ENV, DEFAULT_POLL_MILLIS);
+    }
+
+    @Override
+    public CompletableFuture<Queue> awaitProcessedPast(String queueId, int lastProcessedToken) {
+        start();
+        return publisher.awaitProcessedPast(queueId, lastProcessedToken);
+    }
+
+    /**
+     * Method to start reading the stream, if not started yet. The shards are listed before
+     * returning, so that changes made from then on are seen.
+     * */
+    private synchronized void start() {
+        if (started) {
+            return;
+        }
+
+        refreshShards();
+        Thread thread = new Thread(this, "queue-stream");
+        thread.setDaemon(true);
+        thread.start();
+        started = true;
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (System.currentTimeMillis() - shardsRefreshedAt >= SHARD_REFRESH_MILLIS) {
+                    refreshShards();
+                }
+                pollShards();
+            } catch (AmazonClientException e) {
+                LOGGER.warn("Could not read the queue stream: {}", e.getMessage());
+            } catch (RuntimeException e) {
+                LOGGER.error("Error occurred while reading the queue stream: ", e);
+            }
+
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void refreshShards() {
+        String exclusiveStartShardId = null;
+
+        do {
+            StreamDescription description = streams.describeStream(new DescribeStreamRequest()
+                    .withStreamArn(streamArn)
+                    .withExclusiveStartShardId(exclusiveStartShardId))
+                    .getStreamDescription();
+
+            for (Shard shard : description.getShards()) {
+                String shardId = shard.getShardId();
+                boolean open = shard.getSequenceNumberRange().getEndingSequenceNumber() == null;
+                if (!open || shardIterators.containsKey(shardId) || closedShards.contains(shardId)) {
+                    continue;
+                }
+
+                // a split shard continues its parent, whose records were read up to its end
+                boolean continuesReadShard = closedShards.contains(shard.getParentShardId());
+                shardIterators.put(shardId, shardIterator(shardId,
+                        continuesReadShard ? ShardIteratorType.TRIM_HORIZON : ShardIteratorType.LATEST));
+            }
+
+            exclusiveStartShardId = description.getLastEvaluatedShardId();
+        } while (exclusiveStartShardId != null);
+
+        shardsRefreshedAt = System.currentTimeMillis();
+    }
+
+    private String shardIterator(String shardId, ShardIteratorType type) {
+        return streams.getShardIterator(new GetShardIteratorRequest()
+                .withStreamArn(streamArn)
+                .withShardId(shardId)
+                .withShardIteratorType(type))
+                .getShardIterator();
+    }
+
+    private void pollShards() {
+        for (Iterator<Map.Entry<String, String>> iterator = shardIterators.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, String> shard = iterator.next();
+
+            GetRecordsResult result;
+            try {
+                result = streams.getRecords(new GetRecordsRequest().withShardIterator(shard.getValue()));
+            } catch (ExpiredIteratorException e) {
+                shard.setValue(shardIterator(shard.getKey(), ShardIteratorType.LATEST));
+                continue;
+            }
+
+            for (Record record : result.getRecords()) {
+                publish(record);
+            }
+
+            if (result.getNextShardIterator() != null) {
+                shard.setValue(result.getNextShardIterator());
+            } else {
+                iterator.remove();
+                closedShards.add(shard.getKey());
+                // picks up the shards it was split into on the next poll
+                shardsRefreshedAt = 0;
+            }
+        }
+    }
+
+    private void publish(Record record) {
+        if (OperationType.REMOVE.toString().equals(record.getEventName()) || record.getDynamodb() == null) {
+            return;
+        }
+
+        Map<String, AttributeValue> newImage = record.getDynamodb().getNewImage();
+        // counter shard items live in the same table, but are no queues
+        if (newImage == null || newImage.containsKey(Queue.COL_SHARD_OF)) {
+            return;
+        }
+
+        publisher.publish(QueueCodec.decode(newImage));
+    }
+}
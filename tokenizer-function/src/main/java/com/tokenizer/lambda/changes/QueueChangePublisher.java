@@ -0,0 +1,115 @@
+package com.tokenizer.lambda.changes;
+
+import com.tokenizer.lambda.model.queues.Queue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Change source fed in memory, by the stream reader or by a test.
+ *
+ * The latest change of each queue is kept, so that a request waiting for a value
+ * the queue already moved past is answered without waiting.
+ * */
+public class QueueChangePublisher implements QueueChangeSource {
+    private static final int MAX_QUEUES = 10000;
+
+    private final Map<String, Queue> latestChanges = new HashMap<>();
+    private final Map<String, List<Waiter>> waiters = new HashMap<>();
+
+    @Override
+    public synchronized CompletableFuture<Queue> awaitProcessedPast(String queueId, int lastProcessedToken) {
+        CompletableFuture<Queue> future = new CompletableFuture<>();
+
+        Queue latest = latestChanges.get(queueId);
+        if (latest != null && hasMovedPast(latest, lastProcessedToken)) {
+            future.complete(latest);
+            return future;
+        }
+
+        Waiter waiter = new Waiter(lastProcessedToken, future);
+        waiters.computeIfAbsent(queueId, id -> new ArrayList<>()).add(waiter);
+        // cancelled waits are dropped right away, completed ones were already removed
+        future.whenComplete((queue, e) -> remove(queueId, waiter));
+
+        return future;
+    }
+
+    /**
+     * Method to publish a change of a queue, completing the waits it satisfies.
+     * Changes may come out of order, an older change never replaces a newer one.
+     * @param queue The queue as changed.
+     * */
+    public void publish(Queue queue) {
+        List<CompletableFuture<Queue>> satisfied = new ArrayList<>();
+
+        synchronized (this) {
+            Queue latest = latestChanges.get(queue.getQueueId());
+            if (latest == null || lastProcessedToken(queue) >= lastProcessedToken(latest)) {
+                if (latestChanges.size() >= MAX_QUEUES) {
+                    latestChanges.clear();
+                }
+                latestChanges.put(queue.getQueueId(), queue);
+            }
+
+            List<Waiter> queueWaiters = waiters.get(queue.getQueueId());
+            if (queueWaiters != null) {
+                for (Iterator<Waiter> iterator = queueWaiters.iterator(); iterator.hasNext(); ) {
+                    Waiter waiter = iterator.next();
+                    if (hasMovedPast(queue, waiter.lastProcessedToken)) {
+                        iterator.remove();
+                        satisfied.add(waiter.future);
+                    }
+                }
+                if (queueWaiters.isEmpty()) {
+                    waiters.remove(queue.getQueueId());
+                }
+            }
+        }
+
+        // completed outside of the lock, as completion runs the callbacks of the waiting requests
+        for (CompletableFuture<Queue> future : satisfied) {
+            future.complete(queue);
+        }
+    }
+
+    private synchronized void remove(String queueId, Waiter waiter) {
+        List<Waiter> queueWaiters = waiters.get(queueId);
+        if (queueWaiters != null && queueWaiters.remove(waiter) && queueWaiters.isEmpty()) {
+            waiters.remove(queueId);
+        }
+    }
+
+    /**
+     * @return The number of requests waiting for a change.
+     * */
+    public synchronized int getWaiterCount() {
+        int count = 0;
+        for (List<Waiter> queueWaiters : waiters.values()) {
+            count += queueWaiters.size();
+        }
+        return count;
+    }
+
+    static boolean hasMovedPast(Queue queue, int lastProcessedToken) {
+        return lastProcessedToken(queue) > lastProcessedToken || queue.getDeletedAt() != null;
+    }
+
+    private static int lastProcessedToken(Queue queue) {
+        return queue.getLastProcessedToken() != null ? queue.getLastProcessedToken() : 0;
+    }
+
+    private static final class Waiter {
+        private final int lastProcessedToken;
+        private final CompletableFuture<Queue> future;
+
+        private Waiter(int lastProcessedToken, CompletableFuture<Queue> future) {
+            this.lastProcessedToken = lastProcessedToken;
+            this.future = future;
+        }
+    }
+}
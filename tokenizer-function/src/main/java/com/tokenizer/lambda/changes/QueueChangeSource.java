@@ -0,0 +1,20 @@
+package com.tokenizer.lambda.changes;
+
+import com.tokenizer.lambda.model.queues.Queue;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Source of the changes made to queues, which long-polling requests wait on.
+ * */
+public interface QueueChangeSource {
+    /**
+     * Method to wait for the last_processed_token of a queue to move past a value, or for the queue to be deleted.
+     * Changes made before the call may be missed, so callers subscribe first and then read the queue.
+     * The caller cancels the future once it stops waiting.
+     * @param queueId The ID of the queue.
+     * @param lastProcessedToken The value to move past.
+     * @return The queue as changed, completing once it moved past the value.
+     * */
+    CompletableFuture<Queue> awaitProcessedPast(String queueId, int lastProcessedToken);
+}
@@ -0,0 +1,39 @@
+package com.tokenizer.lambda.dao;
+
+import com.tokenizer.lambda.dao.storage.AggregateStorage;
+import com.tokenizer.lambda.model.aggregates.AggregateDelta;
+import com.tokenizer.lambda.model.aggregates.OwnerStats;
+import com.tokenizer.lambda.model.aggregates.QueueStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+public class AggregateRepository {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AggregateRepository.class);
+    private AggregateStorage storage;
+
+    public AggregateRepository(AggregateStorage storage) {
+        this.storage = storage;
+    }
+
+    public QueueStats loadQueueStats(String queueId) {
+        return queueId != null ? storage.loadQueueStats(queueId) : null;
+    }
+
+    public OwnerStats loadOwnerStats(String userId) {
+        return userId != null ? storage.loadOwnerStats(userId) : null;
+    }
+
+    /**
+     * @return false if the batch was already applied.
+     * */
+    public boolean apply(String batchId, String lastSequenceNumber, Map<String, AggregateDelta> deltas) {
+        LOGGER.info("Applying batch {} up to {} to {} aggregates", batchId, lastSequenceNumber, deltas.size());
+        return storage.apply(batchId, lastSequenceNumber, deltas);
+    }
+
+    public String loadAppliedSequenceNumber(String batchId) {
+        return storage.loadAppliedSequenceNumber(batchId);
+    }
+}
@@ -0,0 +1,44 @@
+package com.tokenizer.lambda.dao;
+
+import com.tokenizer.lambda.dao.storage.ArchiveStorage;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.users.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+public class ArchiveRepository {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveRepository.class);
+    private ArchiveStorage storage;
+
+    public ArchiveRepository(ArchiveStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Method to archive the links of a queue, in batches of at most ArchiveStorage.MAX_SUBSCRIBERS_PER_BATCH.
+     * @param queueId The queue the links are to.
+     * @param subscribers The links, in token order.
+     * */
+    public void archiveSubscribers(String queueId, List<User> subscribers) {
+        if (queueId == null || subscribers == null || subscribers.isEmpty()) {
+            return;
+        }
+
+        for (int from = 0; from < subscribers.size(); from += ArchiveStorage.MAX_SUBSCRIBERS_PER_BATCH) {
+            List<User> batch = subscribers.subList(from,
+                    Math.min(from + ArchiveStorage.MAX_SUBSCRIBERS_PER_BATCH, subscribers.size()));
+            LOGGER.info("Archiving {} subscribers of queue {} from token {}",
+                    batch.size(), queueId, batch.get(0).getTokenNumber());
+            storage.archiveSubscribers(queueId, batch);
+        }
+    }
+
+    public void archiveQueue(Queue queue) {
+        if (queue != null && queue.getQueueId() != null) {
+            LOGGER.info("Archiving queue {}", queue);
+            storage.archiveQueue(queue);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.tokenizer.lambda.dao;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.tokenizer.lambda.model.queues.Queue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous view of a QueueRepository, running its calls on a bounded executor
+ * so that independent calls of a request can be in flight at the same time.
+ * Failures complete the returned future exceptionally with the repository's exception.
+ * */
+public class AsyncQueueRepository {
+    private QueueRepository repository;
+    private Executor executor;
+
+    public AsyncQueueRepository(QueueRepository repository, Executor executor) {
+        this.repository = repository;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<Void> save(Queue queue) {
+        return CompletableFuture.runAsync(() -> repository.save(queue), executor);
+    }
+
+    public CompletableFuture<ScanResultPage<Queue>> scan(int segment, int totalSegments,
+                                                        String exclusiveStartQueueId, int limit) {
+        return CompletableFuture.supplyAsync(
+                () -> repository.scan(segment, totalSegments, exclusiveStartQueueId, limit), executor);
+    }
+}
@@ -0,0 +1,29 @@
+package com.tokenizer.lambda.dao;
+
+import com.tokenizer.lambda.model.users.User;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous view of a UserRepository, running its calls on a bounded executor
+ * so that independent calls of a request can be in flight at the same time.
+ * Failures complete the returned future exceptionally with the repository's exception.
+ * */
+public class AsyncUserRepository {
+    private UserRepository repository;
+    private Executor executor;
+
+    public AsyncUserRepository(UserRepository repository, Executor executor) {
+        this.repository = repository;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<Void> save(User user) {
+        return CompletableFuture.runAsync(() -> repository.save(user), executor);
+    }
+
+    public CompletableFuture<Void> markAsDone(User subscriber) {
+        return CompletableFuture.runAsync(() -> repository.markAsDone(subscriber), executor);
+    }
+}
@@ -0,0 +1,123 @@
+package com.tokenizer.lambda.dao;
+
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.tokenizer.lambda.dao.storage.QueueStorage;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.TokenRange;
+import com.tokenizer.lambda.util.TtlCache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * QueueRepository reading queues through a TtlCache.
+ *
+ * The cached queue is dropped on every write made through this repository, so the
+ * container sees its own changes right away. The token counters also move with the
+ * subscribes served by the SubscriberFunction, so they can lag by up to the cache's TTL.
+ * */
+public class CachingQueueRepository extends QueueRepository {
+    private TtlCache<String, Queue> cache;
+
+    public CachingQueueRepository(QueueStorage storage, TtlCache<String, Queue> cache) {
+        super(storage);
+        this.cache = cache;
+    }
+
+    @Override
+    public void save(Queue queue) {
+        super.save(queue);
+        invalidate(queue);
+    }
+
+    @Override
+    public Queue load(Queue lookup) {
+        return lookup != null && lookup.getQueueId() != null ?
+                cache.get(lookup.getQueueId(), queueId -> super.load(lookup)) :
+                super.load(lookup);
+    }
+
+    @Override
+    public Map<String, Queue> loadAll(Collection<String> queueIds) {
+        return cache.getAll(queueIds, super::loadAll);
+    }
+
+    @Override
+    public void update(Queue queue) {
+        try {
+            super.update(queue);
+        } finally {
+            invalidate(queue);
+        }
+    }
+
+    @Override
+    public void tombstone(String queueId, long deletedAt) throws ConditionalCheckFailedException {
+        try {
+            super.tombstone(queueId, deletedAt);
+        } finally {
+            cache.invalidate(queueId);
+        }
+    }
+
+    @Override
+    public void markCompacted(String queueId, int compactedToken, long compactedAt) throws ConditionalCheckFailedException {
+        try {
+            super.markCompacted(queueId, compactedToken, compactedAt);
+        } finally {
+            cache.invalidate(queueId);
+        }
+    }
+
+    @Override
+    public String incrementLastProcessedToken(String queueId) throws ConditionalCheckFailedException {
+        try {
+            return super.incrementLastProcessedToken(queueId);
+        } finally {
+            cache.invalidate(queueId);
+        }
+    }
+
+    @Override
+    public TokenRange processTokens(String queueId, int count) throws ConditionalCheckFailedException {
+        try {
+            return super.processTokens(queueId, count);
+        } finally {
+            cache.invalidate(queueId);
+        }
+    }
+
+    @Override
+    public void addUnsubscribedToken(String queueId, int tokenNumber) throws ConditionalCheckFailedException {
+        try {
+            super.addUnsubscribedToken(queueId, tokenNumber);
+        } finally {
+            cache.invalidate(queueId);
+        }
+    }
+
+    @Override
+    public void removeUnsubscribedTokens(String queueId, Collection<Integer> tokenNumbers) throws ConditionalCheckFailedException {
+        try {
+            super.removeUnsubscribedTokens(queueId, tokenNumbers);
+        } finally {
+            cache.invalidate(queueId);
+        }
+    }
+
+    @Override
+    public void delete(Queue queueToDelete) {
+        super.delete(queueToDelete);
+        invalidate(queueToDelete);
+    }
+
+    public TtlCache<String, Queue> getCache() {
+        return cache;
+    }
+
+    private void invalidate(Queue queue) {
+        if (queue != null && queue.getQueueId() != null) {
+            cache.invalidate(queue.getQueueId());
+        }
+    }
+}
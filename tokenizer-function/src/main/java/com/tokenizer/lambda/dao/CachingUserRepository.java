@@ -0,0 +1,87 @@
+package com.tokenizer.lambda.dao;
+
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.tokenizer.lambda.dao.storage.UserStorage;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.util.TtlCache;
+
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * UserRepository reading the link between a user and a queue through a TtlCache.
+ * Ownership links never change once created, which makes them the main
+ * beneficiary - every owner action starts with an ownership check.
+ * The cached link is dropped on every write made through this repository.
+ * */
+public class CachingUserRepository extends UserRepository {
+    private TtlCache<Map.Entry<String, String>, User> cache;
+
+    public CachingUserRepository(UserStorage storage, TtlCache<Map.Entry<String, String>, User> cache) {
+        super(storage);
+        this.cache = cache;
+    }
+
+    @Override
+    public void save(User user) {
+        super.save(user);
+        invalidate(user);
+    }
+
+    @Override
+    public User load(User lookup) {
+        return lookup != null && lookup.getUserId() != null && lookup.getQueueId() != null ?
+                cache.get(key(lookup.getUserId(), lookup.getQueueId()), key -> super.load(lookup)) :
+                super.load(lookup);
+    }
+
+    @Override
+    public void markAsDone(User subscriber) throws ConditionalCheckFailedException {
+        try {
+            super.markAsDone(subscriber);
+        } finally {
+            invalidate(subscriber);
+        }
+    }
+
+    @Override
+    public void createSubscription(String userId, String queueId, int tokenNumber) {
+        super.createSubscription(userId, queueId, tokenNumber);
+        cache.invalidate(key(userId, queueId));
+    }
+
+    @Override
+    public User delete(User userToDelete, boolean unsubscribeOnly) throws ConditionalCheckFailedException {
+        try {
+            return super.delete(userToDelete, unsubscribeOnly);
+        } finally {
+            invalidate(userToDelete);
+        }
+    }
+
+    @Override
+    public void deleteAll(List<User> links) {
+        try {
+            super.deleteAll(links);
+        } finally {
+            if (links != null) {
+                links.forEach(this::invalidate);
+            }
+        }
+    }
+
+    public TtlCache<Map.Entry<String, String>, User> getCache() {
+        return cache;
+    }
+
+    private void invalidate(User user) {
+        if (user != null && user.getUserId() != null && user.getQueueId() != null) {
+            cache.invalidate(key(user.getUserId(), user.getQueueId()));
+        }
+    }
+
+    private static Map.Entry<String, String> key(String userId, String queueId) {
+        return new AbstractMap.SimpleImmutableEntry<>(userId, queueId);
+    }
+}
@@ -0,0 +1,39 @@
+package com.tokenizer.lambda.dao;
+
+import com.tokenizer.lambda.dao.storage.IdempotencyStorage;
+import com.tokenizer.lambda.model.idempotency.IdempotencyRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class IdempotencyRepository {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdempotencyRepository.class);
+    private IdempotencyStorage storage;
+
+    public IdempotencyRepository(IdempotencyStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * @return false if the key is held by another record.
+     * */
+    public boolean claim(IdempotencyRecord record, long now) {
+        return storage.claim(record, now);
+    }
+
+    public IdempotencyRecord load(String key) {
+        return key != null ? storage.load(key) : null;
+    }
+
+    /**
+     * @return false if the key is no longer held by the pending record locked until lockedUntil.
+     * */
+    public boolean complete(IdempotencyRecord record, long lockedUntil) {
+        LOGGER.info("Completing {}", record);
+        return storage.complete(record, lockedUntil);
+    }
+
+    public void release(String key, long lockedUntil) {
+        LOGGER.info("Releasing idempotency key {}", key);
+        storage.release(key, lockedUntil);
+    }
+}
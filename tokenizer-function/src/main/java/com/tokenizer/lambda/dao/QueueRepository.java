@@ -1,38 +1,32 @@
 package com.tokenizer.lambda.dao;
 
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
-import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
-import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
-import com.amazonaws.services.dynamodbv2.model.ReturnValue;
-import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
-import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.tokenizer.lambda.dao.storage.QueueStorage;
 import com.tokenizer.lambda.model.queues.Queue;
-import com.tokenizer.lambda.util.DynamoUtil;
+import com.tokenizer.lambda.model.queues.TokenRange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class QueueRepository {
     private static final String WARN_MESSAGE = "Entity is null or no queue_id provided.";
     private static final Logger LOGGER = LoggerFactory.getLogger(QueueRepository.class);
-    private DynamoDBMapper mapper;
+    private QueueStorage storage;
 
-    public QueueRepository(DynamoDBMapper mapper) {
-        this.mapper = mapper;
+    public QueueRepository(QueueStorage storage) {
+        this.storage = storage;
     }
 
     public void save(Queue queue) {
         if (isValid(queue)) {
             LOGGER.info("Saving Queue {}", queue);
-            mapper.save(queue);
+            storage.save(queue);
         } else {
             LOGGER.warn("Save - {}", WARN_MESSAGE);
         }
@@ -43,7 +37,7 @@ public class QueueRepository {
 
         if (isValid(lookup)) {
             LOGGER.info("Loading Queue {}", lookup.getQueueId());
-            result = mapper.load(lookup);
+            result = storage.load(lookup.getQueueId());
         } else {
             LOGGER.warn("Load - {}", WARN_MESSAGE);
         }
@@ -51,28 +45,46 @@ public class QueueRepository {
         return result;
     }
 
+    /**
+     * Method to load the attributes subscribes to a queue are admitted by.
+     * @return The queue with only these attributes, null if it does not exist.
+     * */
+    public Queue loadLimits(String queueId) {
+        LOGGER.debug("Loading the limits of Queue {}", queueId);
+        return storage.loadLimits(queueId);
+    }
+
+    /**
+     * Method to load several queues at once.
+     * @param queueIds The IDs of the queues, null IDs are ignored.
+     * @return The queues that exist, by queue_id.
+     * */
+    public Map<String, Queue> loadAll(Collection<String> queueIds) {
+        Set<String> lookups = new LinkedHashSet<>();
+        for (String queueId : queueIds) {
+            if (queueId != null) {
+                lookups.add(queueId);
+            }
+        }
+
+        if (lookups.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        LOGGER.info("Loading {} queues", lookups.size());
+        return storage.loadAll(lookups);
+    }
+
     /**
      * Method to update a queue attributes.
-     * We do a 'partial' update here using SaveBehavior.UPDATE_SKIP_NULL_ATTRIBUTES,
-     * so that only non-null attributes are persisted to the database.
+     * This is a 'partial' update, so that only non-null
+     * attributes are persisted to the database.
      *
      * @param queue Queue object with values only for attributes that need to be updated.
      * */
     public void update(Queue queue) {
         if (isValid(queue)) {
-            DynamoDBMapperConfig mapperConfig = DynamoDBMapperConfig.builder()
-                    .withSaveBehavior(DynamoDBMapperConfig.SaveBehavior.UPDATE_SKIP_NULL_ATTRIBUTES)
-                    .withConsistentReads(DynamoDBMapperConfig.ConsistentReads.CONSISTENT)
-                    .build();
-
-            // update the queue only if it already exists
-            Map<String, ExpectedAttributeValue> expectedAttributes = new HashMap<String, ExpectedAttributeValue>() {{
-                put(Queue.COL_QUEUE_ID, new ExpectedAttributeValue()
-                        .withValue(new AttributeValue(queue.getQueueId()))
-                        .withExists(true));
-            }};
-            DynamoDBSaveExpression saveExpression = new DynamoDBSaveExpression().withExpected(expectedAttributes);
-            mapper.save(queue, saveExpression, mapperConfig);
+            storage.update(queue);
         } else {
             LOGGER.warn("Update - {}", WARN_MESSAGE);
         }
@@ -82,52 +94,87 @@ public class QueueRepository {
      * Method to increment the last_processed_token of a queue by 1.
      * Used when the user processes the current subscriber on the queue.
      *
-     * We do not use the DynamoDbMapper here, since it does not have an
-     * option to directly increment the value of an attribute.
-     *
      * @param queueId The ID of the queue to update.
      * @return The updated value for last_processed_token.
      * */
     public String incrementLastProcessedToken(String queueId) throws ConditionalCheckFailedException {
-        AmazonDynamoDB dynamoDbClient = DynamoUtil.DYNAMO_CLIENT;
-
-        UpdateItemRequest updateItemRequest = new UpdateItemRequest()
-                .withTableName(Queue.TABLE_NAME)
-                .withKey(new HashMap<String, AttributeValue>() {{
-                    put(Queue.COL_QUEUE_ID, new AttributeValue(queueId));
-                }})
-                .withUpdateExpression("set #last_processed_token = #last_processed_token + :one")
-                .withConditionExpression("last_processed_token < #last_generated_token")
-                .withExpressionAttributeNames(new HashMap<String, String>() {{
-                    put("#last_processed_token", Queue.COL_LAST_PROC_TOKEN);
-                    put("#last_generated_token", Queue.COL_LAST_GEN_TOKEN);
-                }})
-                .withExpressionAttributeValues(new HashMap<String, AttributeValue>() {{
-                    put(":one", new AttributeValue().withN("1"));
-                }})
-                .withReturnValues(ReturnValue.UPDATED_NEW);
-        UpdateItemResult updateItemResult = dynamoDbClient.updateItem(updateItemRequest);
-        return updateItemResult.getAttributes().get(Queue.COL_LAST_PROC_TOKEN).getN();
+        return String.valueOf(storage.incrementLastProcessedToken(queueId));
+    }
+
+    /**
+     * Method to process up to count tokens of a queue in one update.
+     * @param queueId The ID of the queue to update.
+     * @param count The maximum number of tokens to process.
+     * @return The range of tokens processed.
+     * */
+    public TokenRange processTokens(String queueId, int count) throws ConditionalCheckFailedException {
+        return storage.processTokens(queueId, count);
+    }
+
+    /**
+     * Method to record the token of a subscriber who left the queue before being processed.
+     * @param queueId The ID of the queue.
+     * @param tokenNumber The token of the subscriber.
+     * */
+    public void addUnsubscribedToken(String queueId, int tokenNumber) throws ConditionalCheckFailedException {
+        storage.addUnsubscribedToken(queueId, tokenNumber);
+    }
+
+    /**
+     * Method to forget unsubscribed tokens once they were processed.
+     * @param queueId The ID of the queue.
+     * @param tokenNumbers The processed tokens.
+     * */
+    public void removeUnsubscribedTokens(String queueId, Collection<Integer> tokenNumbers) throws ConditionalCheckFailedException {
+        if (tokenNumbers != null && !tokenNumbers.isEmpty()) {
+            storage.removeUnsubscribedTokens(queueId, tokenNumbers);
+        }
+    }
+
+    /**
+     * Method to mark a queue as deleted, so that it is disabled
+     * until the reaper removes it along with its subscribers.
+     *
+     * @param queueId The ID of the queue to mark.
+     * @param deletedAt The time of the deletion, in epoch milliseconds.
+     * */
+    public void tombstone(String queueId, long deletedAt) throws ConditionalCheckFailedException {
+        if (queueId != null) {
+            LOGGER.info("Marking queue {} as deleted", queueId);
+            storage.tombstone(queueId, deletedAt);
+        } else {
+            LOGGER.warn("Tombstone - {}", WARN_MESSAGE);
+        }
+    }
+
+    /**
+     * Method to record how far the subscribers of a queue were archived and removed.
+     * @param queueId The ID of the queue.
+     * @param compactedToken The highest token archived.
+     * @param compactedAt The time of the compaction, in epoch milliseconds.
+     * */
+    public void markCompacted(String queueId, int compactedToken, long compactedAt) throws ConditionalCheckFailedException {
+        storage.markCompacted(queueId, compactedToken, compactedAt);
     }
 
     public void delete(Queue queueToDelete) {
         if (isValid(queueToDelete)) {
             LOGGER.info("Deleting queue {}", queueToDelete);
-            mapper.delete(queueToDelete);
+            storage.delete(queueToDelete.getQueueId());
         } else {
             LOGGER.warn("Delete - {}", WARN_MESSAGE);
         }
     }
 
-    public ScanResultPage<Queue> scan(String paginationToken) {
-        DynamoDBScanExpression scanExpression = new DynamoDBScanExpression();
-        if (paginationToken != null) {
-            scanExpression.withExclusiveStartKey(new HashMap<String, AttributeValue>() {{
-                put(Queue.COL_QUEUE_ID, new AttributeValue(paginationToken));
-            }});
-        }
-
-        return mapper.scanPage(Queue.class, scanExpression);
+    /**
+     * Method to scan a page of one segment of the queues.
+     * @param segment The segment to scan.
+     * @param totalSegments The number of segments of the scan.
+     * @param exclusiveStartQueueId The queue_id the previous page of the segment ended at, or null.
+     * @param limit The maximum number of queues to read.
+     * */
+    public ScanResultPage<Queue> scan(int segment, int totalSegments, String exclusiveStartQueueId, int limit) {
+        return storage.scan(segment, totalSegments, exclusiveStartQueueId, limit);
     }
 
     private boolean isValid(Queue queue) {
@@ -1,34 +1,28 @@
 package com.tokenizer.lambda.dao;
 
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBDeleteExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.tokenizer.lambda.dao.storage.UserStorage;
 import com.tokenizer.lambda.model.users.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Stream;
 
 public class UserRepository {
     private static final String WARN_MESSAGE = "Entity is null or no user_id/queue_id provided.";
     private static final Logger LOGGER = LoggerFactory.getLogger(UserRepository.class);
-    private DynamoDBMapper mapper;
+    private UserStorage storage;
 
-    public UserRepository(DynamoDBMapper mapper) {
-        this.mapper = mapper;
+    public UserRepository(UserStorage storage) {
+        this.storage = storage;
     }
 
     public void save(User user) {
         if (isValid(user)) {
             LOGGER.info("Saving user {}", user);
-            mapper.save(user);
+            storage.save(user);
         } else {
             LOGGER.warn("Save - {}", WARN_MESSAGE);
         }
@@ -39,7 +33,7 @@ public class UserRepository {
 
         if (isValid(lookup)) {
             LOGGER.info("Loading user {}", lookup);
-            result = mapper.load(lookup);
+            result = storage.load(lookup.getUserId(), lookup.getQueueId());
         } else {
             LOGGER.warn("Load - {}", WARN_MESSAGE);
         }
@@ -51,6 +45,18 @@ public class UserRepository {
         return load(new User(userId, queueId));
     }
 
+    /**
+     * Method to load the links of several users to a queue.
+     * @return The links found, in no particular order. Empty if no user_id/queue_id was provided.
+     * */
+    public List<User> loadAll(Collection<String> userIds, String queueId) {
+        if (userIds == null || userIds.isEmpty() || queueId == null) {
+            return Collections.emptyList();
+        }
+
+        return storage.loadAll(userIds, queueId);
+    }
+
     /**
      * Method to query all entries for a particular user.
      * @param userId The userId to query.
@@ -62,21 +68,7 @@ public class UserRepository {
         List<User> result = null;
 
         if (userId != null) {
-            User lookup = new User(userId);
-            DynamoDBQueryExpression<User> queryExpression = new DynamoDBQueryExpression<User>()
-                    .withHashKeyValues(lookup);
-
-            queryExpression = ownedByUser == null ?
-                    queryExpression :
-                    queryExpression.withFilterExpression("#owner = :owner")
-                    .withExpressionAttributeNames(new HashMap<String, String>() {{
-                        put("#owner", User.COL_QUEUE_OWNER);
-                    }})
-                    .withExpressionAttributeValues(new HashMap<String, AttributeValue>() {{
-                        put(":owner", new AttributeValue().withBOOL(ownedByUser));
-                    }});
-
-            result = mapper.query(User.class, queryExpression);
+            result = storage.queryByUser(userId, ownedByUser);
         } else {
             LOGGER.warn("Query - {}", WARN_MESSAGE);
         }
@@ -88,20 +80,7 @@ public class UserRepository {
         User result = null;
 
         if (queueId != null) {
-            User lookup = new User(queueId, tokenNumber);
-            DynamoDBQueryExpression<User> queryExpression = new DynamoDBQueryExpression<User>()
-                    .withIndexName(User.QUEUE_GSI)
-                    .withConsistentRead(false)
-                    .withHashKeyValues(lookup);
-
-            List<User> subscribers = mapper.query(User.class, queryExpression);
-
-            // The list should ideally only contain a single item
-            result = Optional.ofNullable(subscribers)
-                    .map(Collection::stream)
-                    .orElseGet(Stream::empty)
-                    .findFirst()
-                    .orElse(null);
+            result = storage.loadByTokenNumber(queueId, tokenNumber);
         }
 
         return result;
@@ -117,17 +96,57 @@ public class UserRepository {
         List<User> result = null;
 
         if (queueId != null) {
-            User lookup = new User(null, queueId);
-            DynamoDBQueryExpression<User> queryExpression = new DynamoDBQueryExpression<User>()
-                    .withIndexName(User.QUEUE_GSI)
-                    .withConsistentRead(false)
-                    .withHashKeyValues(lookup);
-            result = mapper.query(User.class, queryExpression);
+            result = storage.queryByQueue(queueId);
         }
 
         return result;
     }
 
+    /**
+     * Method to query a page of the subscribers of a queue, in token order.
+     * @param queueId The ID of the queue.
+     * @param firstToken The lowest token number to return.
+     * @param lastToken The highest token number to return.
+     * @param limit The maximum number of subscribers to return.
+     * @return List of subscribers in the token range. Null if no queue_id is provided.
+     * */
+    public List<User> query(String queueId, int firstToken, int lastToken, int limit) {
+        List<User> result = null;
+
+        if (queueId != null) {
+            result = storage.queryByQueue(queueId, firstToken, lastToken, limit);
+        }
+
+        return result;
+    }
+
+    /**
+     * Method to mark a subscriber as DONE, without re-creating the link if the user unsubscribed.
+     * @param subscriber The subscriber to mark, with the token it was read with and the time its link expires at.
+     * @throws ConditionalCheckFailedException if the subscriber is no longer linked to the queue with this token.
+     * */
+    public void markAsDone(User subscriber) throws ConditionalCheckFailedException {
+        if (isValid(subscriber) && subscriber.getTokenNumber() != null) {
+            storage.markAsDone(subscriber.getUserId(), subscriber.getQueueId(), subscriber.getTokenNumber(), subscriber.getExpiresAt());
+        } else {
+            LOGGER.warn("Mark as done - {}", WARN_MESSAGE);
+        }
+    }
+
+    /**
+     * Method to create the link of a user subscribing to a queue.
+     * @param userId The ID of the subscribing user.
+     * @param queueId The ID of the queue.
+     * @param tokenNumber The token handed out to the user.
+     * */
+    public void createSubscription(String userId, String queueId, int tokenNumber) {
+        if (userId != null && queueId != null) {
+            storage.createSubscription(userId, queueId, tokenNumber);
+        } else {
+            LOGGER.warn("Subscribe - {}", WARN_MESSAGE);
+        }
+    }
+
     /**
      * Method to delete link between a user and queue.
      * Can be used for un-subscribing a user from queue and
@@ -143,24 +162,29 @@ public class UserRepository {
      *                        action will take place.
      *                        If set to False, delete will be successful only if the user
      *                        owns the queue.
+     * @return The deleted link, null if no user_id/queue_id was provided.
      * */
-    public void delete(User userToDelete, boolean unsubscribeOnly) throws ConditionalCheckFailedException {
+    public User delete(User userToDelete, boolean unsubscribeOnly) throws ConditionalCheckFailedException {
+        User result = null;
+
         if (isValid(userToDelete)) {
-            Map<String, String> ean = new HashMap<String, String>() {{
-                put("#owner", User.COL_QUEUE_OWNER);
-            }};
-            Map<String, AttributeValue> eav = new HashMap<String, AttributeValue>() {{
-                put(":owner", new AttributeValue().withBOOL(!unsubscribeOnly));
-            }};
-            DynamoDBDeleteExpression deleteExpression = new DynamoDBDeleteExpression()
-                    .withConditionExpression("#owner = :owner")
-                    .withExpressionAttributeNames(ean)
-                    .withExpressionAttributeValues(eav);
-
-            mapper.delete(userToDelete, deleteExpression);
+            result = storage.delete(userToDelete.getUserId(), userToDelete.getQueueId(), unsubscribeOnly);
         } else {
             LOGGER.warn("Delete - {}", WARN_MESSAGE);
         }
+
+        return result;
+    }
+
+    /**
+     * Method to delete links regardless of whether the users own the queues or not.
+     * Used by the reaper to remove the subscribers of deleted queues.
+     * @param links The links to delete.
+     * */
+    public void deleteAll(List<User> links) {
+        if (links != null && !links.isEmpty()) {
+            storage.deleteAll(links);
+        }
     }
 
     private boolean isValid(User user) {
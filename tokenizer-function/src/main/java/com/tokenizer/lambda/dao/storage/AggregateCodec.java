@@ -0,0 +1,121 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.tokenizer.lambda.model.aggregates.AggregateDelta;
+import com.tokenizer.lambda.model.aggregates.OwnerStats;
+import com.tokenizer.lambda.model.aggregates.QueueStats;
+import com.tokenizer.lambda.model.queues.Queue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conversion of aggregates to and from items of the tokenizer_aggregates table.
+ *
+ * The table is keyed by aggregate_id alone, which is prefixed by the kind of the aggregate:
+ * queue#<queue_id> for the subscribers of a queue, owner#<user_id> for the queues of an owner,
+ * and batch#<event_id> for the markers of the applied batches of changes.
+ * */
+public final class AggregateCodec {
+    public static final String TABLE_NAME = "tokenizer_aggregates";
+    public static final String COL_AGGREGATE_ID = "aggregate_id";
+    public static final String COL_LAST_SEQUENCE_NUMBER = "last_sequence_number";
+    /** Epoch seconds after which DynamoDB's TTL removes a batch marker. */
+    public static final String COL_EXPIRES_AT = "expires_at";
+
+    private static final String QUEUE_PREFIX = "queue#";
+    private static final String OWNER_PREFIX = "owner#";
+    private static final String BATCH_PREFIX = "batch#";
+
+    private AggregateCodec() {}
+
+    public static String queueAggregateId(String queueId) {
+        return QUEUE_PREFIX + queueId;
+    }
+
+    public static String ownerAggregateId(String userId) {
+        return OWNER_PREFIX + userId;
+    }
+
+    public static String batchAggregateId(String batchId) {
+        return BATCH_PREFIX + batchId;
+    }
+
+    public static Map<String, AttributeValue> key(String aggregateId) {
+        Map<String, AttributeValue> key = new HashMap<>(2);
+        key.put(COL_AGGREGATE_ID, new AttributeValue(aggregateId));
+        return key;
+    }
+
+    public static Map<String, AttributeValue> encodeBatch(String batchId, String lastSequenceNumber, long expiresAt) {
+        Map<String, AttributeValue> item = key(batchAggregateId(batchId));
+        item.put(COL_LAST_SEQUENCE_NUMBER, new AttributeValue(lastSequenceNumber));
+        item.put(COL_EXPIRES_AT, new AttributeValue().withN(String.valueOf(expiresAt)));
+        return item;
+    }
+
+    /**
+     * @return The counts of the item, null if the item is null or its queue was deleted.
+     * */
+    public static QueueStats decodeQueueStats(String queueId, Map<String, AttributeValue> item) {
+        if (item == null || item.containsKey(Queue.COL_DELETED_AT)) {
+            return null;
+        }
+
+        return new QueueStats(queueId,
+                getLong(item, QueueStats.COL_WAITING_COUNT),
+                getLong(item, QueueStats.COL_DONE_COUNT),
+                getLong(item, QueueStats.COL_UNSUBSCRIBED_COUNT));
+    }
+
+    /**
+     * @return The counts of the item, null if the item is null.
+     * */
+    public static OwnerStats decodeOwnerStats(String userId, Map<String, AttributeValue> item) {
+        return item != null ? new OwnerStats(userId, getLong(item, OwnerStats.COL_OWNED_QUEUES)) : null;
+    }
+
+    /**
+     * Method to build the update expression adding a delta to an aggregate.
+     * @param delta The delta to add, not empty.
+     * @param names The map the expression attribute names are put in.
+     * @param values The map the expression attribute values are put in.
+     * @return The update expression.
+     * */
+    public static String updateExpression(AggregateDelta delta, Map<String, String> names, Map<String, AttributeValue> values) {
+        StringBuilder add = new StringBuilder();
+        addCount(add, names, values, QueueStats.COL_WAITING_COUNT, delta.getWaitingCount());
+        addCount(add, names, values, QueueStats.COL_DONE_COUNT, delta.getDoneCount());
+        addCount(add, names, values, QueueStats.COL_UNSUBSCRIBED_COUNT, delta.getUnsubscribedCount());
+        addCount(add, names, values, OwnerStats.COL_OWNED_QUEUES, delta.getOwnedQueues());
+
+        StringBuilder expression = new StringBuilder();
+        if (add.length() > 0) {
+            expression.append("ADD ").append(add);
+        }
+        if (delta.getDeletedAt() != null) {
+            names.put("#deleted_at", Queue.COL_DELETED_AT);
+            values.put(":deleted_at", new AttributeValue().withN(String.valueOf(delta.getDeletedAt())));
+            expression.append(expression.length() > 0 ? " " : "")
+                    .append("SET #deleted_at = if_not_exists(#deleted_at, :deleted_at)");
+        }
+
+        return expression.toString();
+    }
+
+    private static void addCount(StringBuilder add, Map<String, String> names, Map<String, AttributeValue> values,
+                                 String attribute, long count) {
+        if (count == 0) {
+            return;
+        }
+
+        names.put("#" + attribute, attribute);
+        values.put(":" + attribute, new AttributeValue().withN(String.valueOf(count)));
+        add.append(add.length() > 0 ? ", " : "").append('#').append(attribute).append(" :").append(attribute);
+    }
+
+    private static long getLong(Map<String, AttributeValue> item, String name) {
+        AttributeValue value = item.get(name);
+        return value != null && value.getN() != null ? Long.parseLong(value.getN()) : 0;
+    }
+}
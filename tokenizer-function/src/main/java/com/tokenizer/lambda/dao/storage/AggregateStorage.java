@@ -0,0 +1,40 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.tokenizer.lambda.model.aggregates.AggregateDelta;
+import com.tokenizer.lambda.model.aggregates.OwnerStats;
+import com.tokenizer.lambda.model.aggregates.QueueStats;
+
+import java.util.Map;
+
+/**
+ * Storage for the counts aggregated from the changes of the tables, and for the markers
+ * of the batches of changes applied to them, which make applying a batch again a no-op.
+ * */
+public interface AggregateStorage {
+    /** Largest number of aggregates a batch may change, its marker aside - a transaction holds 100 items. */
+    int MAX_AGGREGATES_PER_BATCH = 99;
+
+    /**
+     * @return The counts of the queue's subscribers, null if none were counted or the queue was deleted.
+     * */
+    QueueStats loadQueueStats(String queueId);
+
+    /**
+     * @return The counts of the owner's queues, null if none were counted.
+     * */
+    OwnerStats loadOwnerStats(String userId);
+
+    /**
+     * Method to apply the changes of a batch to the aggregates, along with the marker of the batch, all or nothing.
+     * @param batchId The ID of the batch, the same whenever the batch is applied again.
+     * @param lastSequenceNumber The sequence number of the last change of the batch, kept on its marker.
+     * @param deltas The changes by aggregate ID, at most MAX_AGGREGATES_PER_BATCH.
+     * @return false if nothing was written because the batch was already applied.
+     * */
+    boolean apply(String batchId, String lastSequenceNumber, Map<String, AggregateDelta> deltas);
+
+    /**
+     * @return The sequence number of the last change of the batch when it was applied, null if it was not.
+     * */
+    String loadAppliedSequenceNumber(String batchId);
+}
@@ -0,0 +1,16 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+
+/**
+ * Failed condition of a subscribe, reported when the user already has a link to the queue -
+ * either as a subscriber or as the owner. Extends ConditionalCheckFailedException so that
+ * callers not interested in the reason can keep handling every failed condition the same way.
+ * */
+public class AlreadySubscribedException extends ConditionalCheckFailedException {
+    private static final long serialVersionUID = 1L;
+
+    public AlreadySubscribedException(String userId, String queueId) {
+        super("User " + userId + " already has a link to queue " + queueId);
+    }
+}
@@ -0,0 +1,146 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Conversion of archived links and queues to and from items of the tokenizer_archive table.
+ *
+ * The table is keyed by queue_id and archive_key. The links of a queue are archived in batches
+ * keyed by subscribers#<first token>, zero-padded so that the batches sort by token, and the
+ * last state of a removed queue is archived under the key queue.
+ *
+ * The links of a batch are packed into a single gzipped binary attribute, a version byte followed
+ * by the token number, user_id, state and expires_at of each link - a fraction of the size of an item per link.
+ * */
+public final class ArchiveCodec {
+    public static final String TABLE_NAME = "tokenizer_archive";
+    public static final String COL_QUEUE_ID = "queue_id";
+    public static final String COL_ARCHIVE_KEY = "archive_key";
+    public static final String COL_FIRST_TOKEN = "first_token";
+    public static final String COL_LAST_TOKEN = "last_token";
+    public static final String COL_SUBSCRIBER_COUNT = "subscriber_count";
+    public static final String COL_SUBSCRIBERS = "subscribers";
+    public static final String COL_QUEUE = "queue";
+    public static final String COL_ARCHIVED_AT = "archived_at";
+
+    private static final String SUBSCRIBERS_PREFIX = "subscribers#";
+    private static final String QUEUE_KEY = "queue";
+    private static final byte FORMAT_VERSION = 1;
+    private static final long NO_EXPIRY = -1;
+
+    private ArchiveCodec() {}
+
+    public static String subscribersKey(int firstToken) {
+        return SUBSCRIBERS_PREFIX + String.format("%010d", firstToken);
+    }
+
+    public static Map<String, AttributeValue> key(String queueId, String archiveKey) {
+        Map<String, AttributeValue> key = new HashMap<>(8);
+        key.put(COL_QUEUE_ID, new AttributeValue(queueId));
+        key.put(COL_ARCHIVE_KEY, new AttributeValue(archiveKey));
+        return key;
+    }
+
+    /**
+     * @param queueId The queue the links are to.
+     * @param subscribers The links to archive, in token order, not empty.
+     * @param archivedAt The time of the archiving, in epoch milliseconds.
+     * */
+    public static Map<String, AttributeValue> encodeSubscribers(String queueId, List<User> subscribers, long archivedAt) {
+        int firstToken = subscribers.get(0).getTokenNumber();
+        Map<String, AttributeValue> item = key(queueId, subscribersKey(firstToken));
+        QueueCodec.putNumber(item, COL_FIRST_TOKEN, firstToken);
+        QueueCodec.putNumber(item, COL_LAST_TOKEN, subscribers.get(subscribers.size() - 1).getTokenNumber());
+        QueueCodec.putNumber(item, COL_SUBSCRIBER_COUNT, subscribers.size());
+        QueueCodec.putNumber(item, COL_ARCHIVED_AT, archivedAt);
+        item.put(COL_SUBSCRIBERS, new AttributeValue().withB(ByteBuffer.wrap(pack(subscribers))));
+        return item;
+    }
+
+    /**
+     * @return The links of an archived batch, in token order.
+     * */
+    public static List<User> decodeSubscribers(Map<String, AttributeValue> item) {
+        String queueId = QueueCodec.getString(item, COL_QUEUE_ID);
+        ByteBuffer packed = item.get(COL_SUBSCRIBERS).getB().duplicate();
+        byte[] bytes = new byte[packed.remaining()];
+        packed.get(bytes);
+
+        return unpack(queueId, bytes);
+    }
+
+    /**
+     * @param queue The queue to archive.
+     * @param archivedAt The time of the archiving, in epoch milliseconds.
+     * */
+    public static Map<String, AttributeValue> encodeQueue(Queue queue, long archivedAt) {
+        Map<String, AttributeValue> item = key(queue.getQueueId(), QUEUE_KEY);
+        QueueCodec.putNumber(item, COL_ARCHIVED_AT, archivedAt);
+        item.put(COL_QUEUE, new AttributeValue().withM(QueueCodec.encode(queue)));
+        return item;
+    }
+
+    public static Queue decodeQueue(Map<String, AttributeValue> item) {
+        return QueueCodec.decode(item.get(COL_QUEUE).getM());
+    }
+
+    private static byte[] pack(List<User> subscribers) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(subscribers.size());
+            for (User subscriber : subscribers) {
+                out.writeInt(subscriber.getTokenNumber());
+                out.writeUTF(subscriber.getUserId());
+                out.writeUTF(subscriber.getState() != null ? subscriber.getState().name() : "");
+                out.writeLong(subscriber.getExpiresAt() != null ? subscriber.getExpiresAt() : NO_EXPIRY);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static List<User> unpack(String queueId, byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes)))) {
+            byte version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unknown archive format " + version);
+            }
+
+            int count = in.readInt();
+            List<User> subscribers = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                User subscriber = new User(queueId, in.readInt());
+                subscriber.setUserId(in.readUTF());
+                String state = in.readUTF();
+                subscriber.setState(state.isEmpty() ? null : UserState.valueOf(state));
+                long expiresAt = in.readLong();
+                subscriber.setExpiresAt(expiresAt != NO_EXPIRY ? expiresAt : null);
+                subscribers.add(subscriber);
+            }
+
+            return subscribers;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
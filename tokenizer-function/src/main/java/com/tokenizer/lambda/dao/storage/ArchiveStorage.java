@@ -0,0 +1,28 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.users.User;
+
+import java.util.List;
+
+/**
+ * Storage for the links and queues removed by the compactor, kept for the record
+ * but never read by the requests of the users.
+ * */
+public interface ArchiveStorage {
+    /** Largest number of links archived in a single batch, which stays well below the size limit of an item. */
+    int MAX_SUBSCRIBERS_PER_BATCH = 1000;
+
+    /**
+     * Method to archive a batch of links of a queue.
+     * Archiving a batch again with the same first token replaces it, so a retried batch is not kept twice.
+     * @param queueId The queue the links are to.
+     * @param subscribers The links, in token order, at most MAX_SUBSCRIBERS_PER_BATCH.
+     * */
+    void archiveSubscribers(String queueId, List<User> subscribers);
+
+    /**
+     * Method to archive the last state of a queue about to be removed.
+     * */
+    void archiveQueue(Queue queue);
+}
@@ -0,0 +1,109 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.tokenizer.lambda.util.AsyncUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Helper to read items with BatchGetItem.
+ * Splits the keys in chunks of the maximum batch size, reads the chunks in parallel
+ * and retries unprocessed keys with an exponential backoff.
+ * */
+public final class BatchReader {
+    public static final int MAX_BATCH_SIZE = 100;
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchReader.class);
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_BACKOFF_MILLIS = 25;
+
+    private BatchReader() {}
+
+    /**
+     * Method to read the items of a list of keys from a table.
+     * A single chunk is read on the calling thread, more chunks are read on the executor.
+     * @param dynamoDbClient The client to read with.
+     * @param tableName The table to read from.
+     * @param keys The keys of the items, without duplicates.
+     * @param consistentRead Whether the items are read with strongly consistent reads.
+     * @param executor The executor the chunks are read on.
+     * @return The items found, in no particular order - missing items are left out.
+     * @throws IllegalStateException if some keys are still unprocessed after all the retries.
+     * */
+    public static List<Map<String, AttributeValue>> readAll(AmazonDynamoDB dynamoDbClient, String tableName,
+                                                            List<Map<String, AttributeValue>> keys,
+                                                            boolean consistentRead, Executor executor) {
+        if (keys.size() <= MAX_BATCH_SIZE) {
+            return keys.isEmpty() ? new ArrayList<>() : readChunk(dynamoDbClient, tableName, keys, consistentRead);
+        }
+
+        List<CompletableFuture<List<Map<String, AttributeValue>>>> chunks = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += MAX_BATCH_SIZE) {
+            List<Map<String, AttributeValue>> chunk = new ArrayList<>(
+                    keys.subList(from, Math.min(from + MAX_BATCH_SIZE, keys.size())));
+            chunks.add(CompletableFuture.supplyAsync(
+                    () -> readChunk(dynamoDbClient, tableName, chunk, consistentRead), executor));
+        }
+
+        List<Map<String, AttributeValue>> items = new ArrayList<>(keys.size());
+        for (List<Map<String, AttributeValue>> chunkItems : AsyncUtil.joinAll(chunks)) {
+            items.addAll(chunkItems);
+        }
+
+        return items;
+    }
+
+    private static List<Map<String, AttributeValue>> readChunk(AmazonDynamoDB dynamoDbClient, String tableName,
+                                                               List<Map<String, AttributeValue>> chunk,
+                                                               boolean consistentRead) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>(chunk.size());
+        Map<String, KeysAndAttributes> requestItems = Collections.singletonMap(tableName,
+                new KeysAndAttributes().withKeys(chunk).withConsistentRead(consistentRead));
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !requestItems.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                backoff(attempt);
+            }
+
+            BatchGetItemResult result = dynamoDbClient.batchGetItem(
+                    new BatchGetItemRequest().withRequestItems(requestItems));
+            if (result.getResponses() != null) {
+                items.addAll(result.getResponses().getOrDefault(tableName, Collections.emptyList()));
+            }
+            requestItems = result.getUnprocessedKeys() != null ?
+                    result.getUnprocessedKeys() : Collections.emptyMap();
+
+            if (!requestItems.isEmpty()) {
+                KeysAndAttributes unprocessed = requestItems.get(tableName);
+                LOGGER.warn("{} unprocessed keys reading from {} on attempt {}",
+                        unprocessed != null ? unprocessed.getKeys().size() : 0, tableName, attempt + 1);
+            }
+        }
+
+        if (!requestItems.isEmpty()) {
+            throw new IllegalStateException("Keys still unprocessed reading from " + tableName
+                    + " after " + MAX_ATTEMPTS + " attempts");
+        }
+
+        return items;
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(BASE_BACKOFF_MILLIS << Math.min(attempt, 6));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying unprocessed keys", e);
+        }
+    }
+}
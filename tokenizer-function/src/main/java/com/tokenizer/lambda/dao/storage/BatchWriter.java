@@ -0,0 +1,75 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper to write items with BatchWriteItem.
+ * Splits the requests in chunks of the maximum batch size and
+ * retries unprocessed items with an exponential backoff.
+ * */
+public final class BatchWriter {
+    public static final int MAX_BATCH_SIZE = 25;
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchWriter.class);
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_BACKOFF_MILLIS = 25;
+
+    private BatchWriter() {}
+
+    /**
+     * Method to write all the requests to a table.
+     * @param dynamoDbClient The client to write with.
+     * @param tableName The table to write to.
+     * @param writeRequests The put/delete requests to write.
+     * @throws IllegalStateException if some items are still unprocessed after all the retries.
+     * */
+    public static void writeAll(AmazonDynamoDB dynamoDbClient, String tableName, List<WriteRequest> writeRequests) {
+        for (int from = 0; from < writeRequests.size(); from += MAX_BATCH_SIZE) {
+            List<WriteRequest> chunk = writeRequests.subList(from, Math.min(from + MAX_BATCH_SIZE, writeRequests.size()));
+            writeChunk(dynamoDbClient, tableName, new ArrayList<>(chunk));
+        }
+    }
+
+    private static void writeChunk(AmazonDynamoDB dynamoDbClient, String tableName, List<WriteRequest> chunk) {
+        Map<String, List<WriteRequest>> requestItems = Collections.singletonMap(tableName, chunk);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !requestItems.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                backoff(attempt);
+            }
+
+            BatchWriteItemResult result = dynamoDbClient.batchWriteItem(
+                    new BatchWriteItemRequest().withRequestItems(requestItems));
+            requestItems = result.getUnprocessedItems() != null ?
+                    result.getUnprocessedItems() : Collections.emptyMap();
+
+            if (!requestItems.isEmpty()) {
+                LOGGER.warn("{} unprocessed items writing to {} on attempt {}",
+                        requestItems.getOrDefault(tableName, Collections.emptyList()).size(), tableName, attempt + 1);
+            }
+        }
+
+        if (!requestItems.isEmpty()) {
+            throw new IllegalStateException("Items still unprocessed writing to " + tableName
+                    + " after " + MAX_ATTEMPTS + " attempts");
+        }
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(BASE_BACKOFF_MILLIS << Math.min(attempt, 6));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying unprocessed items", e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.tokenizer.lambda.dao.storage;
+
+/**
+ * Thrown when an update keeps losing the race against concurrent updates of the same item,
+ * e.g. last_processed_token moved by other requests processing the same queue.
+ * Nothing was updated, so the request can be retried as is once the other requests are done.
+ * */
+public class ContendedUpdateException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /** Concurrent updates of an item are usually over well within a second. */
+    public static final long RETRY_AFTER_MILLIS = 1000;
+
+    public ContendedUpdateException(String message) {
+        super(message);
+    }
+
+    /**
+     * @return The time after which the update is expected to go through.
+     * */
+    public long getRetryAfterMillis() {
+        return RETRY_AFTER_MILLIS;
+    }
+}
@@ -0,0 +1,110 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.Update;
+import com.tokenizer.lambda.model.aggregates.AggregateDelta;
+import com.tokenizer.lambda.model.aggregates.OwnerStats;
+import com.tokenizer.lambda.model.aggregates.QueueStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AggregateStorage backed by the tokenizer_aggregates DynamoDB table, whose TTL must be set on expires_at.
+ *
+ * A batch is applied in a single transaction, which puts its marker on the condition that it does not
+ * exist yet, so a batch is either applied whole or not at all, and never twice. Markers are kept
+ * for a day, the time a stream keeps its records, and then removed by TTL.
+ * */
+public class DynamoAggregateStorage implements AggregateStorage {
+    public static final String AGGREGATES_TABLE_ENV = "AGGREGATES_TABLE";
+    private static final long BATCH_MARKER_TTL_SECONDS = TimeUnit.DAYS.toSeconds(1);
+    private static final String CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailed";
+    private static final String MARKER_CONDITION = "attribute_not_exists(#aggregate_id)";
+    private static final Map<String, String> EAN_FOR_MARKER =
+            Collections.singletonMap("#aggregate_id", AggregateCodec.COL_AGGREGATE_ID);
+
+    private AmazonDynamoDB dynamoDbClient;
+    private String tableName;
+
+    public DynamoAggregateStorage(AmazonDynamoDB dynamoDbClient) {
+        this(dynamoDbClient, AggregateCodec.TABLE_NAME);
+    }
+
+    public DynamoAggregateStorage(AmazonDynamoDB dynamoDbClient, String tableName) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public QueueStats loadQueueStats(String queueId) {
+        return AggregateCodec.decodeQueueStats(queueId, load(AggregateCodec.queueAggregateId(queueId), false));
+    }
+
+    @Override
+    public OwnerStats loadOwnerStats(String userId) {
+        return AggregateCodec.decodeOwnerStats(userId, load(AggregateCodec.ownerAggregateId(userId), false));
+    }
+
+    @Override
+    public boolean apply(String batchId, String lastSequenceNumber, Map<String, AggregateDelta> deltas) {
+        long expiresAt = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + BATCH_MARKER_TTL_SECONDS;
+
+        List<TransactWriteItem> items = new ArrayList<>(deltas.size() + 1);
+        // the marker goes first, so that its cancellation reason is the first one
+        items.add(new TransactWriteItem().withPut(new Put()
+                .withTableName(tableName)
+                .withItem(AggregateCodec.encodeBatch(batchId, lastSequenceNumber, expiresAt))
+                .withConditionExpression(MARKER_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_MARKER)));
+
+        for (Map.Entry<String, AggregateDelta> delta : deltas.entrySet()) {
+            Map<String, String> names = new HashMap<>();
+            Map<String, AttributeValue> values = new HashMap<>();
+            String expression = AggregateCodec.updateExpression(delta.getValue(), names, values);
+
+            items.add(new TransactWriteItem().withUpdate(new Update()
+                    .withTableName(tableName)
+                    .withKey(AggregateCodec.key(delta.getKey()))
+                    .withUpdateExpression(expression)
+                    .withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(values.isEmpty() ? null : values)));
+        }
+
+        try {
+            dynamoDbClient.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(items));
+            return true;
+        } catch (TransactionCanceledException e) {
+            List<CancellationReason> reasons = e.getCancellationReasons();
+            if (reasons != null && !reasons.isEmpty() && CONDITIONAL_CHECK_FAILED.equals(reasons.get(0).getCode())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public String loadAppliedSequenceNumber(String batchId) {
+        Map<String, AttributeValue> item = load(AggregateCodec.batchAggregateId(batchId), true);
+        return item != null ? QueueCodec.getString(item, AggregateCodec.COL_LAST_SEQUENCE_NUMBER) : null;
+    }
+
+    private Map<String, AttributeValue> load(String aggregateId, boolean consistentRead) {
+        return dynamoDbClient.getItem(new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(AggregateCodec.key(aggregateId))
+                .withConsistentRead(consistentRead))
+                .getItem();
+    }
+}
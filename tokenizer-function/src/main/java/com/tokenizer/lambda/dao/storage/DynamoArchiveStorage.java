@@ -0,0 +1,42 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.users.User;
+
+import java.util.List;
+
+/**
+ * ArchiveStorage backed by the tokenizer_archive DynamoDB table,
+ * keyed by queue_id and archive_key - see ArchiveCodec.
+ * */
+public class DynamoArchiveStorage implements ArchiveStorage {
+    public static final String ARCHIVE_TABLE_ENV = "ARCHIVE_TABLE";
+
+    private AmazonDynamoDB dynamoDbClient;
+    private String tableName;
+
+    public DynamoArchiveStorage(AmazonDynamoDB dynamoDbClient) {
+        this(dynamoDbClient, ArchiveCodec.TABLE_NAME);
+    }
+
+    public DynamoArchiveStorage(AmazonDynamoDB dynamoDbClient, String tableName) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public void archiveSubscribers(String queueId, List<User> subscribers) {
+        dynamoDbClient.putItem(new PutItemRequest()
+                .withTableName(tableName)
+                .withItem(ArchiveCodec.encodeSubscribers(queueId, subscribers, System.currentTimeMillis())));
+    }
+
+    @Override
+    public void archiveQueue(Queue queue) {
+        dynamoDbClient.putItem(new PutItemRequest()
+                .withTableName(tableName)
+                .withItem(ArchiveCodec.encodeQueue(queue, System.currentTimeMillis())));
+    }
+}
@@ -0,0 +1,111 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.tokenizer.lambda.model.idempotency.IdempotencyRecord;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IdempotencyStorage backed by the tokenizer_idempotency DynamoDB table, whose TTL must be set on expires_at.
+ *
+ * TTL removes expired records some time after they expired, so expired records
+ * still found in the table are claimed over as if they were not there.
+ * */
+public class DynamoIdempotencyStorage implements IdempotencyStorage {
+    public static final String IDEMPOTENCY_TABLE_ENV = "IDEMPOTENCY_TABLE";
+    private static final String CLAIM_CONDITION = "attribute_not_exists(#idempotency_key) or #expires_at < :now_seconds"
+            + " or (attribute_not_exists(#response) and #locked_until < :now)";
+    /** Condition that the key is still held by the pending record of the request - complete records have no lock. */
+    private static final String HELD_CONDITION = "#locked_until = :locked_until";
+
+    private static final Map<String, String> EAN_FOR_CLAIM = new HashMap<String, String>() {{
+        put("#idempotency_key", IdempotencyCodec.COL_IDEMPOTENCY_KEY);
+        put("#expires_at", IdempotencyCodec.COL_EXPIRES_AT);
+        put("#response", IdempotencyCodec.COL_RESPONSE);
+        put("#locked_until", IdempotencyCodec.COL_LOCKED_UNTIL);
+    }};
+
+    private static final Map<String, String> EAN_FOR_HELD =
+            Collections.singletonMap("#locked_until", IdempotencyCodec.COL_LOCKED_UNTIL);
+
+    private AmazonDynamoDB dynamoDbClient;
+    private String tableName;
+
+    public DynamoIdempotencyStorage(AmazonDynamoDB dynamoDbClient) {
+        this(dynamoDbClient, IdempotencyCodec.TABLE_NAME);
+    }
+
+    public DynamoIdempotencyStorage(AmazonDynamoDB dynamoDbClient, String tableName) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public boolean claim(IdempotencyRecord record, long now) {
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":now", new AttributeValue().withN(String.valueOf(now)));
+        eav.put(":now_seconds", new AttributeValue().withN(String.valueOf(TimeUnit.MILLISECONDS.toSeconds(now))));
+
+        try {
+            dynamoDbClient.putItem(new PutItemRequest()
+                    .withTableName(tableName)
+                    .withItem(IdempotencyCodec.encode(record))
+                    .withConditionExpression(CLAIM_CONDITION)
+                    .withExpressionAttributeNames(EAN_FOR_CLAIM)
+                    .withExpressionAttributeValues(eav));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public IdempotencyRecord load(String key) {
+        return IdempotencyCodec.decode(dynamoDbClient.getItem(new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(IdempotencyCodec.key(key))
+                .withConsistentRead(true))
+                .getItem());
+    }
+
+    @Override
+    public boolean complete(IdempotencyRecord record, long lockedUntil) {
+        try {
+            dynamoDbClient.putItem(new PutItemRequest()
+                    .withTableName(tableName)
+                    .withItem(IdempotencyCodec.encode(record))
+                    .withConditionExpression(HELD_CONDITION)
+                    .withExpressionAttributeNames(EAN_FOR_HELD)
+                    .withExpressionAttributeValues(heldValues(lockedUntil)));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void release(String key, long lockedUntil) {
+        try {
+            dynamoDbClient.deleteItem(new DeleteItemRequest()
+                    .withTableName(tableName)
+                    .withKey(IdempotencyCodec.key(key))
+                    .withConditionExpression(HELD_CONDITION)
+                    .withExpressionAttributeNames(EAN_FOR_HELD)
+                    .withExpressionAttributeValues(heldValues(lockedUntil)));
+        } catch (ConditionalCheckFailedException e) {
+            // the key was completed or claimed again since, the record is kept
+        }
+    }
+
+    private static Map<String, AttributeValue> heldValues(long lockedUntil) {
+        return Collections.singletonMap(":locked_until", new AttributeValue().withN(String.valueOf(lockedUntil)));
+    }
+}
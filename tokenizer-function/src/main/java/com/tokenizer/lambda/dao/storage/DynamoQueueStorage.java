@@ -0,0 +1,648 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.TokenRange;
+import com.tokenizer.lambda.util.AsyncUtil;
+import com.tokenizer.lambda.util.QueueUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * QueueStorage backed by the tokenizer_queues DynamoDB table.
+ *
+ * Queues created with more than one counter shard hand out their tokens
+ * through a ShardedTokenCounter instead of the queue item's last_generated_token.
+ * */
+public class DynamoQueueStorage implements QueueStorage {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DynamoQueueStorage.class);
+    private static final int MAX_CACHED_CONFIGS = 10_000;
+    private static final int MAX_PROCESS_ATTEMPTS = 5;
+
+    private static final String GENERATE_UPDATE_EXP = "set #last_generated_token = #last_generated_token + :one";
+    private static final String GENERATE_CONDITION = "attribute_exists(#queue_id) and (#last_generated_token < #max_size) and #disabled = :false and attribute_not_exists(#counter_shards)";
+    private static final String RESERVE_UPDATE_EXP = "set #last_generated_token = #last_generated_token + :count";
+    private static final String RESERVE_CONDITION = "attribute_exists(#queue_id) and (#last_generated_token <= :limit) and #max_size = :max_size and #disabled = :false";
+    private static final String PROCESS_UPDATE_EXP = "set #last_processed_token = #last_processed_token + :one";
+    private static final String PROCESS_CONDITION = "#last_processed_token < #last_generated_token and attribute_not_exists(#counter_shards)";
+    private static final String PROCESS_TOKENS_UPDATE_EXP = "set #last_processed_token = :next_token";
+    private static final String PROCESS_TOKENS_CONDITION = "#last_processed_token = :current_token";
+    private static final String UPDATE_CONDITION = "attribute_exists(#queue_id) and attribute_not_exists(#deleted_at)";
+    private static final String SCAN_FILTER = "attribute_not_exists(#shard_of) and attribute_not_exists(#deleted_at)";
+    private static final String SCAN_PROJECTION = "#queue_id, #queue_name, #last_generated_token, #last_processed_token, #max_size, #disabled, #counter_shards";
+    private static final String TOMBSTONE_UPDATE_EXP = "set #deleted_at = if_not_exists(#deleted_at, :deleted_at), #disabled = :true";
+    private static final String TOMBSTONE_CONDITION = "attribute_exists(#queue_id)";
+    private static final String COMPACTED_UPDATE_EXP = "set #compacted_token = :compacted_token, #compacted_at = :compacted_at";
+    private static final String COMPACTED_CONDITION = "attribute_exists(#queue_id) and attribute_not_exists(#deleted_at) and (attribute_not_exists(#compacted_token) or #compacted_token <= :compacted_token)";
+    private static final String ADD_UNSUBSCRIBED_UPDATE_EXP = "add #unsubscribed_tokens :token";
+    private static final String ADD_UNSUBSCRIBED_CONDITION = "attribute_exists(#queue_id) and #last_processed_token < :token_num";
+    private static final String REMOVE_UNSUBSCRIBED_UPDATE_EXP = "delete #unsubscribed_tokens :token";
+    private static final String REMOVE_UNSUBSCRIBED_CONDITION = "attribute_exists(#queue_id)";
+
+    private static final Map<String, String> EAN_FOR_GENERATE = new HashMap<String, String>() {{
+        put("#queue_id", Queue.COL_QUEUE_ID);
+        put("#last_generated_token", Queue.COL_LAST_GEN_TOKEN);
+        put("#max_size", Queue.COL_MAX_SIZE);
+        put("#disabled", Queue.COL_DISABLED);
+        put("#counter_shards", Queue.COL_COUNTER_SHARDS);
+    }};
+
+    private static final Map<String, String> EAN_FOR_RESERVE = new HashMap<String, String>() {{
+        put("#queue_id", Queue.COL_QUEUE_ID);
+        put("#last_generated_token", Queue.COL_LAST_GEN_TOKEN);
+        put("#max_size", Queue.COL_MAX_SIZE);
+        put("#disabled", Queue.COL_DISABLED);
+    }};
+
+    private static final Map<String, AttributeValue> EAV_FOR_GENERATE = new HashMap<String, AttributeValue>() {{
+        put(":one", new AttributeValue().withN("1"));
+        put(":false", new AttributeValue().withBOOL(false));
+    }};
+
+    private static final Map<String, String> EAN_FOR_PROCESS = new HashMap<String, String>() {{
+        put("#last_processed_token", Queue.COL_LAST_PROC_TOKEN);
+        put("#last_generated_token", Queue.COL_LAST_GEN_TOKEN);
+        put("#counter_shards", Queue.COL_COUNTER_SHARDS);
+    }};
+
+    private static final Map<String, String> EAN_FOR_PROCESS_TOKENS = Collections.singletonMap("#last_processed_token", Queue.COL_LAST_PROC_TOKEN);
+
+    private static final Map<String, AttributeValue> EAV_FOR_PROCESS = new HashMap<String, AttributeValue>() {{
+        put(":one", new AttributeValue().withN("1"));
+    }};
+
+    private static final Map<String, String> EAN_FOR_TOMBSTONE = new HashMap<String, String>() {{
+        put("#queue_id", Queue.COL_QUEUE_ID);
+        put("#deleted_at", Queue.COL_DELETED_AT);
+        put("#disabled", Queue.COL_DISABLED);
+    }};
+
+    private static final Map<String, String> EAN_FOR_COMPACTED = new HashMap<String, String>() {{
+        put("#queue_id", Queue.COL_QUEUE_ID);
+        put("#deleted_at", Queue.COL_DELETED_AT);
+        put("#compacted_token", Queue.COL_COMPACTED_TOKEN);
+        put("#compacted_at", Queue.COL_COMPACTED_AT);
+    }};
+
+    private static final Map<String, String> EAN_FOR_UNSUBSCRIBED = new HashMap<String, String>() {{
+        put("#queue_id", Queue.COL_QUEUE_ID);
+        put("#unsubscribed_tokens", Queue.COL_UNSUBSCRIBED_TOKENS);
+    }};
+
+    private static final Map<String, String> EAN_FOR_ADD_UNSUBSCRIBED = new HashMap<String, String>() {{
+        putAll(EAN_FOR_UNSUBSCRIBED);
+        put("#last_processed_token", Queue.COL_LAST_PROC_TOKEN);
+    }};
+
+    private static final Map<String, String> EAN_FOR_SCAN = new HashMap<String, String>() {{
+        put("#shard_of", Queue.COL_SHARD_OF);
+        put("#deleted_at", Queue.COL_DELETED_AT);
+        put("#queue_id", Queue.COL_QUEUE_ID);
+        put("#queue_name", Queue.COL_QUEUE_NAME);
+        put("#last_generated_token", Queue.COL_LAST_GEN_TOKEN);
+        put("#last_processed_token", Queue.COL_LAST_PROC_TOKEN);
+        put("#max_size", Queue.COL_MAX_SIZE);
+        put("#disabled", Queue.COL_DISABLED);
+        put("#counter_shards", Queue.COL_COUNTER_SHARDS);
+    }};
+
+    private static final String LIMITS_PROJECTION = "#queue_id, #max_size, #disabled, #counter_shards, #last_generated_token, #subscribe_rate";
+
+    private static final Map<String, String> EAN_FOR_LIMITS = new HashMap<String, String>() {{
+        put("#queue_id", Queue.COL_QUEUE_ID);
+        put("#max_size", Queue.COL_MAX_SIZE);
+        put("#disabled", Queue.COL_DISABLED);
+        put("#counter_shards", Queue.COL_COUNTER_SHARDS);
+        put("#last_generated_token", Queue.COL_LAST_GEN_TOKEN);
+        put("#subscribe_rate", Queue.COL_SUBSCRIBE_RATE);
+    }};
+
+    private static final Map<String, String> EAN_FOR_CONFIG = new HashMap<String, String>() {{
+        put("#max_size", Queue.COL_MAX_SIZE);
+        put("#counter_shards", Queue.COL_COUNTER_SHARDS);
+    }};
+
+    private AmazonDynamoDB dynamoDbClient;
+    private ShardedTokenCounter shardedCounter;
+    private boolean consistentReads;
+
+    /** max_size and counter_shards of the queues seen by this container. */
+    private final Map<String, CounterConfig> counterConfigs = new ConcurrentHashMap<>();
+
+    public DynamoQueueStorage(AmazonDynamoDB dynamoDbClient) {
+        this(dynamoDbClient, false);
+    }
+
+    /**
+     * @param consistentReads Whether queues are loaded with strongly consistent reads.
+     * */
+    public DynamoQueueStorage(AmazonDynamoDB dynamoDbClient, boolean consistentReads) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.shardedCounter = new ShardedTokenCounter(dynamoDbClient);
+        this.consistentReads = consistentReads;
+    }
+
+    @Override
+    public void save(Queue queue) {
+        dynamoDbClient.putItem(new PutItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withItem(QueueCodec.encode(queue)));
+
+        if (QueueUtil.isSharded(queue.getCounterShards())) {
+            shardedCounter.create(queue.getQueueId(), queue.getCounterShards(), queue.getMaxSize(), queue.isDisabled());
+        }
+        counterConfigs.remove(queue.getQueueId());
+    }
+
+    /**
+     * For sharded queues, last_generated_token is the highest token handed out across the shards.
+     * */
+    @Override
+    public Queue load(String queueId) {
+        Queue queue = QueueCodec.decode(dynamoDbClient.getItem(new GetItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(key(queueId))
+                .withConsistentRead(consistentReads))
+                .getItem());
+
+        if (queue != null && QueueUtil.isSharded(queue.getCounterShards())) {
+            int[] counters = shardedCounter.loadCounters(queueId, queue.getCounterShards());
+            queue.setLastGeneratedToken(QueueUtil.lastIssuedToken(counters));
+        }
+
+        return queue;
+    }
+
+    /**
+     * Reads the queue item alone, with an eventually consistent read at half the capacity of a consistent one.
+     * */
+    @Override
+    public Queue loadLimits(String queueId) {
+        return QueueCodec.decode(dynamoDbClient.getItem(new GetItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(key(queueId))
+                .withProjectionExpression(LIMITS_PROJECTION)
+                .withExpressionAttributeNames(EAN_FOR_LIMITS))
+                .getItem());
+    }
+
+    /**
+     * Reads the queue items with chunked, parallel BatchGetItem calls, then the
+     * counter shards of the sharded queues among them with a second round of calls.
+     * */
+    @Override
+    public Map<String, Queue> loadAll(Collection<String> queueIds) {
+        List<Map<String, AttributeValue>> keys = new ArrayList<>(queueIds.size());
+        for (String queueId : queueIds) {
+            keys.add(key(queueId));
+        }
+
+        Map<String, Queue> queues = new HashMap<>();
+        Map<String, Integer> shardsByQueue = new HashMap<>();
+        for (Map<String, AttributeValue> item : BatchReader.readAll(dynamoDbClient, Queue.TABLE_NAME, keys,
+                consistentReads, AsyncUtil.STORAGE_EXECUTOR)) {
+            Queue queue = QueueCodec.decode(item);
+            queues.put(queue.getQueueId(), queue);
+            if (QueueUtil.isSharded(queue.getCounterShards())) {
+                shardsByQueue.put(queue.getQueueId(), queue.getCounterShards());
+            }
+        }
+
+        if (!shardsByQueue.isEmpty()) {
+            Map<String, int[]> countersByQueue = shardedCounter.loadCounters(shardsByQueue, AsyncUtil.STORAGE_EXECUTOR);
+            for (Map.Entry<String, int[]> counters : countersByQueue.entrySet()) {
+                queues.get(counters.getKey()).setLastGeneratedToken(QueueUtil.lastIssuedToken(counters.getValue()));
+            }
+        }
+
+        return queues;
+    }
+
+    /**
+     * We do a 'partial' update here, setting only the non-null attributes of the queue.
+     * The number of counter shards cannot be updated.
+     * */
+    @Override
+    public void update(Queue queue) throws ConditionalCheckFailedException {
+        // the encoded item is a copy, so the queue passed in is left as it is
+        Map<String, AttributeValue> attributes = QueueCodec.encode(queue);
+        attributes.remove(Queue.COL_QUEUE_ID);
+        attributes.remove(Queue.COL_COUNTER_SHARDS);
+
+        Map<String, String> ean = new HashMap<>();
+        ean.put("#queue_id", Queue.COL_QUEUE_ID);
+        ean.put("#deleted_at", Queue.COL_DELETED_AT);
+        Map<String, AttributeValue> eav = new HashMap<>();
+        StringBuilder updateExpression = new StringBuilder();
+        for (Map.Entry<String, AttributeValue> attribute : attributes.entrySet()) {
+            updateExpression.append(updateExpression.length() == 0 ? "set " : ", ")
+                    .append('#').append(attribute.getKey())
+                    .append(" = :").append(attribute.getKey());
+            ean.put("#" + attribute.getKey(), attribute.getKey());
+            eav.put(":" + attribute.getKey(), attribute.getValue());
+        }
+
+        // update the queue only if it already exists and is not deleted
+        dynamoDbClient.updateItem(new UpdateItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(key(queue.getQueueId()))
+                .withUpdateExpression(eav.isEmpty() ? null : updateExpression.toString())
+                .withConditionExpression(UPDATE_CONDITION)
+                .withExpressionAttributeNames(ean)
+                .withExpressionAttributeValues(eav.isEmpty() ? null : eav));
+
+        if (queue.getMaxSize() != null || queue.isDisabled() != null) {
+            CounterConfig config = loadCounterConfig(queue.getQueueId());
+            if (config != null && config.isSharded()) {
+                shardedCounter.update(queue.getQueueId(), config.shards, queue.getMaxSize(), queue.isDisabled());
+            }
+        }
+    }
+
+    /**
+     * Sharded queues are disabled on their shard items as well.
+     * */
+    @Override
+    public void tombstone(String queueId, long deletedAt) throws ConditionalCheckFailedException {
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":deleted_at", new AttributeValue().withN(String.valueOf(deletedAt)));
+        eav.put(":true", new AttributeValue().withBOOL(true));
+
+        dynamoDbClient.updateItem(new UpdateItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(key(queueId))
+                .withUpdateExpression(TOMBSTONE_UPDATE_EXP)
+                .withConditionExpression(TOMBSTONE_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_TOMBSTONE)
+                .withExpressionAttributeValues(eav));
+
+        CounterConfig config = loadCounterConfig(queueId);
+        if (config != null && config.isSharded()) {
+            shardedCounter.update(queueId, config.shards, null, true);
+        }
+    }
+
+    @Override
+    public void markCompacted(String queueId, int compactedToken, long compactedAt) throws ConditionalCheckFailedException {
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":compacted_token", new AttributeValue().withN(String.valueOf(compactedToken)));
+        eav.put(":compacted_at", new AttributeValue().withN(String.valueOf(compactedAt)));
+
+        dynamoDbClient.updateItem(new UpdateItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(key(queueId))
+                .withUpdateExpression(COMPACTED_UPDATE_EXP)
+                .withConditionExpression(COMPACTED_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_COMPACTED)
+                .withExpressionAttributeValues(eav));
+    }
+
+    @Override
+    public void delete(String queueId) {
+        CounterConfig config = loadCounterConfig(queueId);
+        dynamoDbClient.deleteItem(new DeleteItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(key(queueId)));
+
+        if (config != null && config.isSharded()) {
+            shardedCounter.delete(queueId, config.shards);
+        }
+        counterConfigs.remove(queueId);
+    }
+
+    /**
+     * The shard items of sharded queues and deleted queues are filtered out of the scan.
+     * Their counters are not merged into the page, so listed sharded queues
+     * report the last_generated_token of the queue item - use load for the live value.
+     * */
+    @Override
+    public ScanResultPage<Queue> scan(int segment, int totalSegments, String exclusiveStartQueueId, int limit) {
+        ScanRequest scanRequest = new ScanRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withSegment(segment)
+                .withTotalSegments(totalSegments)
+                .withLimit(limit)
+                .withProjectionExpression(SCAN_PROJECTION)
+                .withFilterExpression(SCAN_FILTER)
+                .withExpressionAttributeNames(EAN_FOR_SCAN);
+        if (exclusiveStartQueueId != null) {
+            scanRequest.withExclusiveStartKey(key(exclusiveStartQueueId));
+        }
+
+        ScanResult scanResult = dynamoDbClient.scan(scanRequest);
+        List<Queue> queues = new ArrayList<>(scanResult.getItems().size());
+        for (Map<String, AttributeValue> item : scanResult.getItems()) {
+            queues.add(QueueCodec.decode(item));
+        }
+
+        ScanResultPage<Queue> page = new ScanResultPage<>();
+        page.setResults(queues);
+        page.setLastEvaluatedKey(scanResult.getLastEvaluatedKey());
+        page.setCount(scanResult.getCount());
+        page.setScannedCount(scanResult.getScannedCount());
+        page.setConsumedCapacity(scanResult.getConsumedCapacity());
+
+        return page;
+    }
+
+    /**
+     * Most queues have a single counter, so when nothing is known about the queue
+     * the queue item's counter is incremented right away - with a condition that
+     * the queue is not sharded. Only if that fails is the queue's configuration read.
+     * */
+    @Override
+    public int incrementLastGeneratedToken(String queueId) throws ConditionalCheckFailedException {
+        CounterConfig config = counterConfigs.get(queueId);
+
+        if (config == null) {
+            try {
+                return incrementSingleCounter(queueId);
+            } catch (ConditionalCheckFailedException e) {
+                config = loadCounterConfig(queueId);
+                if (config == null || !config.isSharded()) throw e;
+
+                return reserve(queueId, config, true, 1).getFirst();
+            }
+        }
+
+        return reserve(queueId, config, false, 1).getFirst();
+    }
+
+    @Override
+    public TokenRange reserveTokens(String queueId, int count) throws ConditionalCheckFailedException {
+        CounterConfig config = counterConfigs.get(queueId);
+        boolean reloaded = false;
+
+        if (config == null) {
+            config = loadCounterConfig(queueId);
+            reloaded = true;
+        }
+
+        return reserve(queueId, config, reloaded, count);
+    }
+
+    @Override
+    public int incrementLastProcessedToken(String queueId) throws ConditionalCheckFailedException {
+        CounterConfig config = counterConfigs.get(queueId);
+
+        if (config == null || !config.isSharded()) {
+            try {
+                UpdateItemRequest updateItemRequest = new UpdateItemRequest()
+                        .withTableName(Queue.TABLE_NAME)
+                        .withKey(key(queueId))
+                        .withUpdateExpression(PROCESS_UPDATE_EXP)
+                        .withConditionExpression(PROCESS_CONDITION)
+                        .withExpressionAttributeNames(EAN_FOR_PROCESS)
+                        .withExpressionAttributeValues(EAV_FOR_PROCESS)
+                        .withReturnValues(ReturnValue.UPDATED_NEW);
+
+                UpdateItemResult updateItemResult = dynamoDbClient.updateItem(updateItemRequest);
+                return Integer.parseInt(updateItemResult.getAttributes().get(Queue.COL_LAST_PROC_TOKEN).getN());
+            } catch (ConditionalCheckFailedException e) {
+                if (config != null) throw e;
+
+                config = loadCounterConfig(queueId);
+                if (config == null || !config.isSharded()) throw e;
+            }
+        }
+
+        return shardedCounter.processNext(queueId, config.shards);
+    }
+
+    /**
+     * Condition expressions cannot compare against an attribute plus a number, so the cap
+     * is computed from a consistent read of the counters, and the update requires
+     * last_processed_token to be unchanged since that read. Losing that race MAX_PROCESS_ATTEMPTS
+     * times throws ContendedUpdateException, for the request to be retried later.
+     * */
+    @Override
+    public TokenRange processTokens(String queueId, int count) throws ConditionalCheckFailedException {
+        for (int attempt = 0; attempt < MAX_PROCESS_ATTEMPTS; attempt++) {
+            Map<String, AttributeValue> item = dynamoDbClient.getItem(new GetItemRequest()
+                    .withTableName(Queue.TABLE_NAME)
+                    .withKey(key(queueId))
+                    .withProjectionExpression("#last_processed_token, #last_generated_token, #counter_shards")
+                    .withExpressionAttributeNames(EAN_FOR_PROCESS)
+                    .withConsistentRead(true))
+                    .getItem();
+
+            if (item == null) {
+                throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist");
+            }
+
+            AttributeValue shards = item.get(Queue.COL_COUNTER_SHARDS);
+            if (shards != null && QueueUtil.isSharded(Integer.valueOf(shards.getN()))) {
+                return shardedCounter.processTokens(queueId, Integer.parseInt(shards.getN()), count);
+            }
+
+            int lastProcessedToken = Integer.parseInt(item.get(Queue.COL_LAST_PROC_TOKEN).getN());
+            int lastGeneratedToken = Integer.parseInt(item.get(Queue.COL_LAST_GEN_TOKEN).getN());
+            int processed = Math.min(count, lastGeneratedToken - lastProcessedToken);
+            if (processed <= 0) {
+                throw new ConditionalCheckFailedException("No more tokens to process in queue " + queueId);
+            }
+
+            Map<String, AttributeValue> eav = new HashMap<>();
+            eav.put(":next_token", new AttributeValue().withN(String.valueOf(lastProcessedToken + processed)));
+            eav.put(":current_token", new AttributeValue().withN(String.valueOf(lastProcessedToken)));
+
+            try {
+                dynamoDbClient.updateItem(new UpdateItemRequest()
+                        .withTableName(Queue.TABLE_NAME)
+                        .withKey(key(queueId))
+                        .withUpdateExpression(PROCESS_TOKENS_UPDATE_EXP)
+                        .withConditionExpression(PROCESS_TOKENS_CONDITION)
+                        .withExpressionAttributeNames(EAN_FOR_PROCESS_TOKENS)
+                        .withExpressionAttributeValues(eav));
+
+                return new TokenRange(lastProcessedToken + 1, processed, 1);
+            } catch (ConditionalCheckFailedException e) {
+                LOGGER.debug("last_processed_token of queue {} moved concurrently, retrying", queueId);
+            }
+        }
+
+        throw new ContendedUpdateException("Could not process the tokens of queue " + queueId
+                + " after " + MAX_PROCESS_ATTEMPTS + " attempts");
+    }
+
+    @Override
+    public void addUnsubscribedToken(String queueId, int tokenNumber) throws ConditionalCheckFailedException {
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":token", new AttributeValue().withNS(String.valueOf(tokenNumber)));
+        eav.put(":token_num", new AttributeValue().withN(String.valueOf(tokenNumber)));
+
+        dynamoDbClient.updateItem(new UpdateItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(key(queueId))
+                .withUpdateExpression(ADD_UNSUBSCRIBED_UPDATE_EXP)
+                .withConditionExpression(ADD_UNSUBSCRIBED_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_ADD_UNSUBSCRIBED)
+                .withExpressionAttributeValues(eav));
+    }
+
+    @Override
+    public void removeUnsubscribedTokens(String queueId, Collection<Integer> tokenNumbers) throws ConditionalCheckFailedException {
+        List<String> tokens = new ArrayList<>(tokenNumbers.size());
+        for (Integer tokenNumber : tokenNumbers) {
+            tokens.add(String.valueOf(tokenNumber));
+        }
+
+        dynamoDbClient.updateItem(new UpdateItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(key(queueId))
+                .withUpdateExpression(REMOVE_UNSUBSCRIBED_UPDATE_EXP)
+                .withConditionExpression(REMOVE_UNSUBSCRIBED_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_UNSUBSCRIBED)
+                .withExpressionAttributeValues(Collections.singletonMap(":token", new AttributeValue().withNS(tokens))));
+    }
+
+    /**
+     * Method to reserve tokens with the configuration of the queue seen by this container.
+     *
+     * Condition expressions cannot add numbers, so the 'last_generated_token + count <= max_size'
+     * check is written as 'last_generated_token <= :limit', with the limit computed from the
+     * cached max_size. The condition also requires max_size to be unchanged, so a stale
+     * max_size fails the update and is reloaded before a single retry.
+     * */
+    private TokenRange reserve(String queueId, CounterConfig config, boolean reloaded, int count)
+            throws ConditionalCheckFailedException {
+        while (true) {
+            if (config == null || config.maxSize == null || count > config.maxSize) {
+                throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist or cannot fit " + count + " tokens");
+            }
+
+            try {
+                if (config.isSharded()) {
+                    return shardedCounter.reserve(queueId, config.shards, config.maxSize, count);
+                } else if (count == 1) {
+                    return new TokenRange(incrementSingleCounter(queueId), 1, 1);
+                } else {
+                    return reserveConsecutive(queueId, config.maxSize, count);
+                }
+            } catch (ConditionalCheckFailedException e) {
+                // the single counter condition does not depend on the cached configuration
+                if (reloaded || (!config.isSharded() && count == 1)) throw e;
+
+                CounterConfig currentConfig = loadCounterConfig(queueId);
+                reloaded = true;
+                if (currentConfig == null || Objects.equals(currentConfig.maxSize, config.maxSize)) throw e;
+                config = currentConfig;
+            }
+        }
+    }
+
+    /**
+     * The counter is incremented in place by an update expression,
+     * so concurrent subscribers never read and write back the same value.
+     * */
+    private int incrementSingleCounter(String queueId) throws ConditionalCheckFailedException {
+        UpdateItemRequest updateItemRequest = new UpdateItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(key(queueId))
+                .withUpdateExpression(GENERATE_UPDATE_EXP)
+                .withConditionExpression(GENERATE_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_GENERATE)
+                .withExpressionAttributeValues(EAV_FOR_GENERATE)
+                .withReturnValues(ReturnValue.UPDATED_NEW);
+
+        UpdateItemResult updateItemResult = dynamoDbClient.updateItem(updateItemRequest);
+        return Integer.parseInt(updateItemResult.getAttributes().get(Queue.COL_LAST_GEN_TOKEN).getN());
+    }
+
+    private TokenRange reserveConsecutive(String queueId, int maxSize, int count) throws ConditionalCheckFailedException {
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":count", new AttributeValue().withN(String.valueOf(count)));
+        eav.put(":limit", new AttributeValue().withN(String.valueOf(maxSize - count)));
+        eav.put(":max_size", new AttributeValue().withN(String.valueOf(maxSize)));
+        eav.put(":false", new AttributeValue().withBOOL(false));
+
+        UpdateItemRequest updateItemRequest = new UpdateItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(key(queueId))
+                .withUpdateExpression(RESERVE_UPDATE_EXP)
+                .withConditionExpression(RESERVE_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_RESERVE)
+                .withExpressionAttributeValues(eav)
+                .withReturnValues(ReturnValue.UPDATED_NEW);
+
+        UpdateItemResult updateItemResult = dynamoDbClient.updateItem(updateItemRequest);
+        int lastToken = Integer.parseInt(updateItemResult.getAttributes().get(Queue.COL_LAST_GEN_TOKEN).getN());
+        return new TokenRange(lastToken - count + 1, count, 1);
+    }
+
+    /**
+     * Method to read the max_size and counter_shards of a queue and cache them.
+     * @return The configuration of the queue, or null if the queue does not exist.
+     * */
+    private CounterConfig loadCounterConfig(String queueId) {
+        GetItemResult getItemResult = dynamoDbClient.getItem(new GetItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(key(queueId))
+                .withProjectionExpression("#max_size, #counter_shards")
+                .withExpressionAttributeNames(EAN_FOR_CONFIG)
+                .withConsistentRead(true));
+
+        Map<String, AttributeValue> item = getItemResult.getItem();
+        if (item == null) {
+            counterConfigs.remove(queueId);
+            return null;
+        }
+
+        AttributeValue maxSize = item.get(Queue.COL_MAX_SIZE);
+        AttributeValue shards = item.get(Queue.COL_COUNTER_SHARDS);
+        CounterConfig config = new CounterConfig(
+                maxSize != null ? Integer.valueOf(maxSize.getN()) : null,
+                shards != null ? Integer.parseInt(shards.getN()) : 1);
+
+        if (counterConfigs.size() >= MAX_CACHED_CONFIGS) {
+            counterConfigs.clear();
+        }
+        counterConfigs.put(queueId, config);
+
+        return config;
+    }
+
+    private static Map<String, AttributeValue> key(String queueId) {
+        return QueueCodec.key(queueId);
+    }
+
+    /**
+     * Attributes of a queue that the token counters depend on.
+     * counter_shards never changes after the queue is created,
+     * max_size is verified by the conditions of the updates using it.
+     * */
+    private static class CounterConfig {
+        private final Integer maxSize;
+        private final int shards;
+
+        private CounterConfig(Integer maxSize, int shards) {
+            this.maxSize = maxSize;
+            this.shards = shards;
+        }
+
+        private boolean isSharded() {
+            return QueueUtil.isSharded(shards);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.ReturnValuesOnConditionCheckFailure;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.Update;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+import com.tokenizer.lambda.util.QueueUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SubscriptionStorage writing the token counter increment and the subscription
+ * link in a single TransactWriteItems call - one round trip instead of two.
+ *
+ * The link must carry its token number, which has to be known before the
+ * transaction is sent. So the counter is not incremented in place; it is set
+ * to the next value on the condition that it still holds the value this
+ * container saw last. A counter the container has not seen yet is read first, with
+ * an eventually consistent GetItem, rather than guessed. When the guess is stale, the
+ * failed condition returns the counter item, and the transaction is retried right away with its value.
+ * Queues with a sharded counter take a token from one of their shard items instead.
+ *
+ * A transaction cannot return the value it incremented, so the link cannot be written along
+ * with an in-place increment. When the counter stays contended for MAX_ATTEMPTS transactions,
+ * the token is taken with the atomic increment of the QueueStorage instead, and the link is
+ * written right after it - a token whose link then fails its condition is recorded as unsubscribed,
+ * so that it is skipped like the token of a subscriber who left.
+ *
+ * A transactional write costs twice the write capacity of a plain one.
+ * */
+public class DynamoSubscriptionStorage implements SubscriptionStorage {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DynamoSubscriptionStorage.class);
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int MAX_CACHED_QUEUES = 10_000;
+    private static final String CONDITION_FAILED = "ConditionalCheckFailed";
+    private static final String TRANSACTION_CONFLICT = "TransactionConflict";
+
+    private static final String COUNTER_UPDATE_EXP = "set #last_generated_token = :next_token";
+    private static final String COUNTER_CONDITION = "#last_generated_token = :current_token and (#last_generated_token < #max_size) and #disabled = :false and attribute_not_exists(#counter_shards)";
+    private static final String SHARD_CONDITION = "#last_generated_token = :current_token and (#last_generated_token < :limit) and #max_size = :max_size and #disabled = :false";
+    private static final String LINK_CONDITION = "attribute_not_exists(#user_id)";
+
+    private static final Map<String, String> EAN_FOR_COUNTER = new HashMap<String, String>() {{
+        put("#last_generated_token", Queue.COL_LAST_GEN_TOKEN);
+        put("#max_size", Queue.COL_MAX_SIZE);
+        put("#disabled", Queue.COL_DISABLED);
+        put("#counter_shards", Queue.COL_COUNTER_SHARDS);
+    }};
+
+    private static final Map<String, String> EAN_FOR_SHARD = new HashMap<String, String>() {{
+        put("#last_generated_token", Queue.COL_LAST_GEN_TOKEN);
+        put("#max_size", Queue.COL_MAX_SIZE);
+        put("#disabled", Queue.COL_DISABLED);
+    }};
+
+    private static final String COUNTER_PROJECTION = "#last_generated_token, #max_size, #disabled, #counter_shards";
+
+    private static final Map<String, String> EAN_FOR_LINK = Collections.singletonMap("#user_id", User.COL_USER_ID);
+
+    private AmazonDynamoDB dynamoDbClient;
+    private QueueStorage queueStorage;
+    private UserStorage userStorage;
+
+    /** Last seen last_generated_token of the counter items, by their queue_id. */
+    private final Map<String, Integer> lastSeenCounters = new ConcurrentHashMap<>();
+
+    /** max_size and counter_shards of the sharded queues seen by this container. */
+    private final Map<String, ShardConfig> shardConfigs = new ConcurrentHashMap<>();
+
+    public DynamoSubscriptionStorage(AmazonDynamoDB dynamoDbClient) {
+        this(dynamoDbClient, new DynamoQueueStorage(dynamoDbClient), new DynamoUserStorage(dynamoDbClient));
+    }
+
+    /**
+     * @param queueStorage The storage whose atomic increment hands out the tokens of contended counters.
+     * @param userStorage The storage writing the links of these tokens.
+     * */
+    public DynamoSubscriptionStorage(AmazonDynamoDB dynamoDbClient, QueueStorage queueStorage, UserStorage userStorage) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.queueStorage = queueStorage;
+        this.userStorage = userStorage;
+    }
+
+    @Override
+    public int subscribe(String userId, String queueId) throws ConditionalCheckFailedException {
+        ShardConfig config = shardConfigs.get(queueId);
+        if (config == null && !lastSeenCounters.containsKey(queueId)) {
+            config = seed(queueId);
+        }
+        int shard = config != null ? ThreadLocalRandom.current().nextInt(config.shards) : 0;
+        int fullShards = 0;
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            String counterKey = config != null ? QueueUtil.shardKey(queueId, shard) : queueId;
+            if (!lastSeenCounters.containsKey(counterKey)) {
+                Map<String, AttributeValue> item = readCounter(counterKey);
+                remember(counterKey, item != null && item.containsKey(Queue.COL_LAST_GEN_TOKEN) ?
+                        number(item, Queue.COL_LAST_GEN_TOKEN) : 0);
+            }
+            int current = lastSeenCounters.getOrDefault(counterKey, 0);
+            int token = config != null ? QueueUtil.shardToken(shard, config.shards, current + 1) : current + 1;
+
+            try {
+                dynamoDbClient.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(
+                        new TransactWriteItem().withUpdate(counterUpdate(counterKey, current, config, shard)),
+                        new TransactWriteItem().withPut(linkPut(userId, queueId, token))));
+
+                remember(counterKey, current + 1);
+                return token;
+            } catch (TransactionCanceledException e) {
+                List<CancellationReason> reasons = e.getCancellationReasons();
+                CancellationReason counterReason = reasons.get(0);
+
+                if (CONDITION_FAILED.equals(reasons.get(1).getCode())) {
+                    throw new AlreadySubscribedException(userId, queueId);
+                }
+
+                if (CONDITION_FAILED.equals(counterReason.getCode())) {
+                    Map<String, AttributeValue> item = counterReason.getItem();
+                    if (item == null || !item.containsKey(Queue.COL_LAST_GEN_TOKEN) || !item.containsKey(Queue.COL_MAX_SIZE)) {
+                        throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist");
+                    }
+                    if (isDisabled(item)) {
+                        throw new ConditionalCheckFailedException("Queue " + queueId + " is disabled");
+                    }
+
+                    int lastGeneratedToken = number(item, Queue.COL_LAST_GEN_TOKEN);
+                    int maxSize = number(item, Queue.COL_MAX_SIZE);
+                    remember(counterKey, lastGeneratedToken);
+
+                    if (config == null && item.containsKey(Queue.COL_COUNTER_SHARDS)) {
+                        config = new ShardConfig(maxSize, number(item, Queue.COL_COUNTER_SHARDS));
+                        shardConfigs.put(queueId, config);
+                        shard = ThreadLocalRandom.current().nextInt(config.shards);
+                    } else if (config == null) {
+                        if (lastGeneratedToken >= maxSize) {
+                            throw new QueueFullException(queueId);
+                        }
+                    } else if (maxSize != config.maxSize) {
+                        // max_size was updated since the configuration was cached, retry the same shard
+                        config = new ShardConfig(maxSize, config.shards);
+                        shardConfigs.put(queueId, config);
+                    } else if (lastGeneratedToken >= QueueUtil.shardLimit(maxSize, config.shards, shard)) {
+                        if (++fullShards >= config.shards) {
+                            throw new QueueFullException(queueId);
+                        }
+                        shard = (shard + 1) % config.shards;
+                    }
+
+                    LOGGER.debug("Stale counter {} of queue {}, retrying", counterKey, queueId);
+                } else if (TRANSACTION_CONFLICT.equals(counterReason.getCode())) {
+                    LOGGER.debug("Conflicting transaction on counter {} of queue {}, retrying", counterKey, queueId);
+                    backOff(attempt);
+                } else {
+                    throw e;
+                }
+            }
+        }
+
+        return subscribeContended(userId, queueId);
+    }
+
+    /**
+     * Method to subscribe to a queue whose counter stays contended, with an in-place increment
+     * of the counter followed by the link, instead of a transaction guessing the counter.
+     * */
+    private int subscribeContended(String userId, String queueId) throws ConditionalCheckFailedException {
+        LOGGER.info("Counter of queue {} is contended, incrementing it in place", queueId);
+        int token = queueStorage.incrementLastGeneratedToken(queueId);
+
+        try {
+            userStorage.createSubscription(userId, queueId, token);
+        } catch (AlreadySubscribedException e) {
+            // only a failed condition tells that no link was written, a timeout may still have written it
+            try {
+                queueStorage.addUnsubscribedToken(queueId, token);
+            } catch (RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+
+        return token;
+    }
+
+    /**
+     * Method to read the counter of a queue the container has not seen yet,
+     * so that its first transaction does not guess it.
+     * @return The shard configuration of the queue, null if it has a single counter.
+     * @throws ConditionalCheckFailedException if the queue does not exist.
+     * */
+    private ShardConfig seed(String queueId) throws ConditionalCheckFailedException {
+        Map<String, AttributeValue> item = readCounter(queueId);
+        if (item == null || !item.containsKey(Queue.COL_LAST_GEN_TOKEN) || !item.containsKey(Queue.COL_MAX_SIZE)) {
+            throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist");
+        }
+
+        remember(queueId, number(item, Queue.COL_LAST_GEN_TOKEN));
+        if (!item.containsKey(Queue.COL_COUNTER_SHARDS)) {
+            return null;
+        }
+
+        ShardConfig config = new ShardConfig(number(item, Queue.COL_MAX_SIZE), number(item, Queue.COL_COUNTER_SHARDS));
+        shardConfigs.put(queueId, config);
+        return config;
+    }
+
+    private Map<String, AttributeValue> readCounter(String counterKey) {
+        return dynamoDbClient.getItem(new GetItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(ShardedTokenCounter.queueKey(counterKey))
+                .withProjectionExpression(COUNTER_PROJECTION)
+                .withExpressionAttributeNames(EAN_FOR_COUNTER))
+                .getItem();
+    }
+
+    private Update counterUpdate(String counterKey, int current, ShardConfig config, int shard) {
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":current_token", new AttributeValue().withN(String.valueOf(current)));
+        eav.put(":next_token", new AttributeValue().withN(String.valueOf(current + 1)));
+        eav.put(":false", new AttributeValue().withBOOL(false));
+        if (config != null) {
+            eav.put(":limit", new AttributeValue().withN(String.valueOf(QueueUtil.shardLimit(config.maxSize, config.shards, shard))));
+            eav.put(":max_size", new AttributeValue().withN(String.valueOf(config.maxSize)));
+        }
+
+        return new Update()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(ShardedTokenCounter.queueKey(counterKey))
+                .withUpdateExpression(COUNTER_UPDATE_EXP)
+                .withConditionExpression(config != null ? SHARD_CONDITION : COUNTER_CONDITION)
+                .withExpressionAttributeNames(config != null ? EAN_FOR_SHARD : EAN_FOR_COUNTER)
+                .withExpressionAttributeValues(eav)
+                .withReturnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD);
+    }
+
+    private static Put linkPut(String userId, String queueId, int token) {
+        return new Put()
+                .withTableName(User.TABLE_NAME)
+                .withItem(DynamoUserStorage.subscriptionItem(userId, queueId, token, UserState.WAITING))
+                .withConditionExpression(LINK_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_LINK);
+    }
+
+    private void remember(String counterKey, int lastGeneratedToken) {
+        if (lastSeenCounters.size() >= MAX_CACHED_QUEUES) {
+            lastSeenCounters.clear();
+            shardConfigs.clear();
+        }
+
+        lastSeenCounters.put(counterKey, lastGeneratedToken);
+    }
+
+    private static boolean isDisabled(Map<String, AttributeValue> item) {
+        AttributeValue disabled = item.get(Queue.COL_DISABLED);
+        return disabled == null || !Boolean.FALSE.equals(disabled.getBOOL());
+    }
+
+    private static int number(Map<String, AttributeValue> item, String attributeName) {
+        return Integer.parseInt(item.get(attributeName).getN());
+    }
+
+    private static void backOff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(5 << attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while subscribing", e);
+        }
+    }
+
+    private static class ShardConfig {
+        private final int maxSize;
+        private final int shards;
+
+        private ShardConfig(int maxSize, int shards) {
+            this.maxSize = maxSize;
+            this.shards = shards;
+        }
+    }
+}
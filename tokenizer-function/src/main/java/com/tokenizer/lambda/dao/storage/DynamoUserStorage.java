@@ -0,0 +1,347 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+import com.tokenizer.lambda.util.AsyncUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserStorage backed by the tokenizer_users DynamoDB table and its queue_gsi index.
+ * */
+public class DynamoUserStorage implements UserStorage {
+    private static final String USER_KEY_CONDITION = "#user_id = :user_id";
+    private static final String QUEUE_KEY_CONDITION = "#queue_id = :queue_id";
+    private static final String TOKEN_KEY_CONDITION = "#queue_id = :queue_id and #token_num = :token_num";
+    private static final String TOKEN_RANGE_KEY_CONDITION = "#queue_id = :queue_id and #token_num between :first_token and :last_token";
+
+    private static final String LINK_CONDITION = "attribute_not_exists(#user_id)";
+    private static final String CONDITION_FAILED = "ConditionalCheckFailed";
+    private static final String LIVE_FILTER = "attribute_not_exists(#expires_at) or #expires_at > :now";
+    private static final String OWNER_LIVE_FILTER = "#owner = :owner and (" + LIVE_FILTER + ")";
+    private static final String DONE_UPDATE_EXP = "set #user_state = :done";
+    private static final String DONE_EXPIRING_UPDATE_EXP = "set #user_state = :done, #expires_at = :expires_at";
+    private static final String DONE_CONDITION = "attribute_exists(#user_id) and #token_num = :token_num and #user_state = :waiting";
+
+    private static final Map<String, String> EAN_FOR_USER = new HashMap<String, String>() {{
+        put("#user_id", User.COL_USER_ID);
+        put("#expires_at", User.COL_EXPIRES_AT);
+    }};
+
+    private static final Map<String, String> EAN_FOR_OWNED = new HashMap<String, String>() {{
+        putAll(EAN_FOR_USER);
+        put("#owner", User.COL_QUEUE_OWNER);
+    }};
+
+    private static final Map<String, String> EAN_FOR_DONE = new HashMap<String, String>() {{
+        put("#user_id", User.COL_USER_ID);
+        put("#user_state", User.COL_USER_STATE);
+        put("#token_num", User.COL_TOKEN_NUM);
+    }};
+
+    private static final Map<String, String> EAN_FOR_DONE_EXPIRING = new HashMap<String, String>() {{
+        putAll(EAN_FOR_DONE);
+        put("#expires_at", User.COL_EXPIRES_AT);
+    }};
+
+    private static final Map<String, String> EAN_FOR_LINK = Collections.singletonMap("#user_id", User.COL_USER_ID);
+
+    private static final Map<String, String> EAN_FOR_QUEUE = Collections.singletonMap("#queue_id", User.COL_QUEUE_ID);
+
+    private static final Map<String, String> EAN_FOR_TOKEN = new HashMap<String, String>() {{
+        put("#queue_id", User.COL_QUEUE_ID);
+        put("#token_num", User.COL_TOKEN_NUM);
+    }};
+
+    private AmazonDynamoDB dynamoDbClient;
+    private boolean consistentReads;
+
+    public DynamoUserStorage(AmazonDynamoDB dynamoDbClient) {
+        this(dynamoDbClient, false);
+    }
+
+    /**
+     * @param consistentReads Whether links are loaded with strongly consistent reads.
+     *                        Queries of the table itself are always consistent, queries of queue_gsi never are.
+     * */
+    public DynamoUserStorage(AmazonDynamoDB dynamoDbClient, boolean consistentReads) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.consistentReads = consistentReads;
+    }
+
+    @Override
+    public void save(User user) {
+        dynamoDbClient.putItem(new PutItemRequest()
+                .withTableName(User.TABLE_NAME)
+                .withItem(UserCodec.encode(user)));
+    }
+
+    @Override
+    public User load(String userId, String queueId) {
+        return UserCodec.decode(dynamoDbClient.getItem(new GetItemRequest()
+                .withTableName(User.TABLE_NAME)
+                .withKey(UserCodec.key(userId, queueId))
+                .withConsistentRead(consistentReads))
+                .getItem());
+    }
+
+    @Override
+    public List<User> loadAll(Collection<String> userIds, String queueId) {
+        List<Map<String, AttributeValue>> keys = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            keys.add(UserCodec.key(userId, queueId));
+        }
+
+        return decodeAll(BatchReader.readAll(dynamoDbClient, User.TABLE_NAME, keys, true, AsyncUtil.STORAGE_EXECUTOR), new ArrayList<>());
+    }
+
+    @Override
+    public List<User> queryByUser(String userId, Boolean ownedByUser) {
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":user_id", new AttributeValue(userId));
+        // expired links wait for the compactor or TTL to remove them
+        eav.put(":now", new AttributeValue().withN(String.valueOf(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()))));
+
+        QueryRequest queryRequest = new QueryRequest()
+                .withTableName(User.TABLE_NAME)
+                .withConsistentRead(true)
+                .withKeyConditionExpression(USER_KEY_CONDITION)
+                .withFilterExpression(LIVE_FILTER)
+                .withExpressionAttributeNames(EAN_FOR_USER)
+                .withExpressionAttributeValues(eav);
+
+        if (ownedByUser != null) {
+            eav.put(":owner", new AttributeValue().withBOOL(ownedByUser));
+            queryRequest.withFilterExpression(OWNER_LIVE_FILTER)
+                    .withExpressionAttributeNames(EAN_FOR_OWNED);
+        }
+
+        return queryAll(queryRequest);
+    }
+
+    @Override
+    public List<User> queryByQueue(String queueId) {
+        QueryRequest queryRequest = new QueryRequest()
+                .withTableName(User.TABLE_NAME)
+                .withIndexName(User.QUEUE_GSI)
+                .withConsistentRead(false)
+                .withKeyConditionExpression(QUEUE_KEY_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_QUEUE)
+                .withExpressionAttributeValues(Collections.singletonMap(":queue_id", new AttributeValue(queueId)));
+
+        return queryAll(queryRequest);
+    }
+
+    @Override
+    public List<User> queryByQueue(String queueId, int firstToken, int lastToken, int limit) {
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":queue_id", new AttributeValue(queueId));
+        eav.put(":first_token", new AttributeValue().withN(String.valueOf(firstToken)));
+        eav.put(":last_token", new AttributeValue().withN(String.valueOf(lastToken)));
+
+        QueryRequest queryRequest = new QueryRequest()
+                .withTableName(User.TABLE_NAME)
+                .withIndexName(User.QUEUE_GSI)
+                .withConsistentRead(false)
+                .withKeyConditionExpression(TOKEN_RANGE_KEY_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_TOKEN)
+                .withExpressionAttributeValues(eav)
+                .withLimit(limit);
+
+        return decodeAll(dynamoDbClient.query(queryRequest).getItems(), new ArrayList<>());
+    }
+
+    @Override
+    public User loadByTokenNumber(String queueId, int tokenNumber) {
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":queue_id", new AttributeValue(queueId));
+        eav.put(":token_num", new AttributeValue().withN(String.valueOf(tokenNumber)));
+
+        QueryRequest queryRequest = new QueryRequest()
+                .withTableName(User.TABLE_NAME)
+                .withIndexName(User.QUEUE_GSI)
+                .withConsistentRead(false)
+                .withKeyConditionExpression(TOKEN_KEY_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_TOKEN)
+                .withExpressionAttributeValues(eav);
+
+        List<Map<String, AttributeValue>> subscribers = dynamoDbClient.query(queryRequest).getItems();
+
+        // The list should ideally only contain a single item
+        return subscribers == null || subscribers.isEmpty() ? null : UserCodec.decode(subscribers.get(0));
+    }
+
+    /**
+     * The state is updated in place rather than saving the whole link,
+     * so that a user who unsubscribed in the meantime is not subscribed again. The token and state
+     * are checked as well, as the link may have been read from queue_gsi before the user subscribed again.
+     * */
+    @Override
+    public void markAsDone(String userId, String queueId, int tokenNumber, Long expiresAt) throws ConditionalCheckFailedException {
+        Map<String, AttributeValue> key = UserCodec.key(userId, queueId);
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":done", new AttributeValue(UserState.DONE.name()));
+        eav.put(":waiting", new AttributeValue(UserState.WAITING.name()));
+        eav.put(":token_num", new AttributeValue().withN(String.valueOf(tokenNumber)));
+        if (expiresAt != null) {
+            eav.put(":expires_at", new AttributeValue().withN(String.valueOf(expiresAt)));
+        }
+
+        UpdateItemRequest updateItemRequest = new UpdateItemRequest()
+                .withTableName(User.TABLE_NAME)
+                .withKey(key)
+                .withUpdateExpression(expiresAt != null ? DONE_EXPIRING_UPDATE_EXP : DONE_UPDATE_EXP)
+                .withConditionExpression(DONE_CONDITION)
+                .withExpressionAttributeNames(expiresAt != null ? EAN_FOR_DONE_EXPIRING : EAN_FOR_DONE)
+                .withExpressionAttributeValues(eav);
+
+        dynamoDbClient.updateItem(updateItemRequest);
+    }
+
+    /**
+     * The subscription link is written with the low-level client
+     * so that the subscribe path does not go through the mapper's reflection.
+     * */
+    @Override
+    public void createSubscription(String userId, String queueId, int tokenNumber) throws AlreadySubscribedException {
+        PutItemRequest putItemRequest = new PutItemRequest()
+                .withTableName(User.TABLE_NAME)
+                .withItem(subscriptionItem(userId, queueId, tokenNumber, UserState.WAITING))
+                .withConditionExpression(LINK_CONDITION)
+                .withExpressionAttributeNames(EAN_FOR_LINK);
+
+        try {
+            dynamoDbClient.putItem(putItemRequest);
+        } catch (ConditionalCheckFailedException e) {
+            throw new AlreadySubscribedException(userId, queueId);
+        }
+    }
+
+    /**
+     * The links are written in a single transaction, as BatchWriteItem cannot be conditional
+     * and would replace the existing links of the same users, losing the tokens they hold.
+     * */
+    @Override
+    public void createSubscriptions(List<User> subscriptions) throws AlreadySubscribedException {
+        List<TransactWriteItem> items = new ArrayList<>(subscriptions.size());
+        for (User subscription : subscriptions) {
+            Map<String, AttributeValue> item = subscriptionItem(
+                    subscription.getUserId(),
+                    subscription.getQueueId(),
+                    subscription.getTokenNumber(),
+                    subscription.getState());
+            QueueCodec.putNumber(item, User.COL_SEATS, subscription.getSeats());
+            items.add(new TransactWriteItem().withPut(new Put()
+                    .withTableName(User.TABLE_NAME)
+                    .withItem(item)
+                    .withConditionExpression(LINK_CONDITION)
+                    .withExpressionAttributeNames(EAN_FOR_LINK)));
+        }
+
+        try {
+            dynamoDbClient.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(items));
+        } catch (TransactionCanceledException e) {
+            List<CancellationReason> reasons = e.getCancellationReasons();
+            for (int i = 0; reasons != null && i < reasons.size(); i++) {
+                if (CONDITION_FAILED.equals(reasons.get(i).getCode())) {
+                    throw new AlreadySubscribedException(subscriptions.get(i).getUserId(), subscriptions.get(i).getQueueId());
+                }
+            }
+            throw e;
+        }
+    }
+
+    static Map<String, AttributeValue> subscriptionItem(String userId, String queueId,
+                                                        int tokenNumber, UserState state) {
+        Map<String, AttributeValue> attributeValues = new HashMap<>();
+        attributeValues.put(User.COL_USER_ID, new AttributeValue(userId));
+        attributeValues.put(User.COL_QUEUE_ID, new AttributeValue(queueId));
+        attributeValues.put(User.COL_QUEUE_OWNER, new AttributeValue().withBOOL(false));
+        attributeValues.put(User.COL_TOKEN_NUM, new AttributeValue().withN(String.valueOf(tokenNumber)));
+        attributeValues.put(User.COL_USER_STATE, new AttributeValue(state.name()));
+
+        return attributeValues;
+    }
+
+    @Override
+    public void deleteAll(List<User> links) {
+        List<WriteRequest> writeRequests = new ArrayList<>(links.size());
+        for (User link : links) {
+            writeRequests.add(new WriteRequest().withDeleteRequest(new DeleteRequest()
+                    .withKey(UserCodec.key(link.getUserId(), link.getQueueId()))));
+        }
+
+        BatchWriter.writeAll(dynamoDbClient, User.TABLE_NAME, writeRequests);
+    }
+
+    /**
+     * The link is deleted with the low-level client, which can return the deleted item.
+     * */
+    @Override
+    public User delete(String userId, String queueId, boolean unsubscribeOnly) throws ConditionalCheckFailedException {
+        Map<String, AttributeValue> key = UserCodec.key(userId, queueId);
+
+        DeleteItemRequest deleteItemRequest = new DeleteItemRequest()
+                .withTableName(User.TABLE_NAME)
+                .withKey(key)
+                .withConditionExpression("#owner = :owner")
+                .withExpressionAttributeNames(new HashMap<String, String>() {{
+                    put("#owner", User.COL_QUEUE_OWNER);
+                }})
+                .withExpressionAttributeValues(new HashMap<String, AttributeValue>() {{
+                    put(":owner", new AttributeValue().withBOOL(!unsubscribeOnly));
+                }})
+                .withReturnValues(ReturnValue.ALL_OLD);
+
+        return UserCodec.decode(dynamoDbClient.deleteItem(deleteItemRequest).getAttributes());
+    }
+
+    /**
+     * Method to read all the pages of a query.
+     * */
+    private List<User> queryAll(QueryRequest queryRequest) {
+        List<User> users = new ArrayList<>();
+        QueryResult queryResult;
+
+        do {
+            queryResult = dynamoDbClient.query(queryRequest);
+            decodeAll(queryResult.getItems(), users);
+            queryRequest.setExclusiveStartKey(queryResult.getLastEvaluatedKey());
+        } while (queryResult.getLastEvaluatedKey() != null);
+
+        return users;
+    }
+
+    private static List<User> decodeAll(List<Map<String, AttributeValue>> items, List<User> users) {
+        if (items != null) {
+            for (Map<String, AttributeValue> item : items) {
+                users.add(UserCodec.decode(item));
+            }
+        }
+
+        return users;
+    }
+}
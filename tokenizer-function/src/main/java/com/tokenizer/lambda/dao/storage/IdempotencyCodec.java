@@ -0,0 +1,56 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.tokenizer.lambda.model.idempotency.IdempotencyRecord;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conversion of idempotency records to and from items of the tokenizer_idempotency table,
+ * keyed by idempotency_key alone.
+ * */
+public final class IdempotencyCodec {
+    public static final String TABLE_NAME = "tokenizer_idempotency";
+    public static final String COL_IDEMPOTENCY_KEY = "idempotency_key";
+    public static final String COL_FINGERPRINT = "fingerprint";
+    public static final String COL_RESPONSE = "response";
+    public static final String COL_LOCKED_UNTIL = "locked_until";
+    /** Epoch seconds after which DynamoDB's TTL removes a record. */
+    public static final String COL_EXPIRES_AT = "expires_at";
+
+    private IdempotencyCodec() {}
+
+    public static Map<String, AttributeValue> key(String key) {
+        Map<String, AttributeValue> item = new HashMap<>(8);
+        item.put(COL_IDEMPOTENCY_KEY, new AttributeValue(key));
+        return item;
+    }
+
+    public static Map<String, AttributeValue> encode(IdempotencyRecord record) {
+        Map<String, AttributeValue> item = key(record.getKey());
+        QueueCodec.putString(item, COL_FINGERPRINT, record.getFingerprint());
+        QueueCodec.putString(item, COL_RESPONSE, record.getResponse());
+        QueueCodec.putNumber(item, COL_LOCKED_UNTIL, record.getLockedUntil());
+        QueueCodec.putNumber(item, COL_EXPIRES_AT, record.getExpiresAt());
+        return item;
+    }
+
+    /**
+     * @return The record of the item, null if the item is null.
+     * */
+    public static IdempotencyRecord decode(Map<String, AttributeValue> item) {
+        if (item == null) {
+            return null;
+        }
+
+        AttributeValue lockedUntil = item.get(COL_LOCKED_UNTIL);
+        AttributeValue expiresAt = item.get(COL_EXPIRES_AT);
+        return new IdempotencyRecord(
+                QueueCodec.getString(item, COL_IDEMPOTENCY_KEY),
+                QueueCodec.getString(item, COL_FINGERPRINT),
+                QueueCodec.getString(item, COL_RESPONSE),
+                lockedUntil != null && lockedUntil.getN() != null ? Long.valueOf(lockedUntil.getN()) : null,
+                expiresAt != null && expiresAt.getN() != null ? Long.parseLong(expiresAt.getN()) : 0);
+    }
+}
@@ -0,0 +1,40 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.tokenizer.lambda.model.idempotency.IdempotencyRecord;
+
+/**
+ * Storage for the records of the requests made with an idempotency key.
+ * */
+public interface IdempotencyStorage {
+
+    /**
+     * Method to claim a key for a request about to be executed, by writing its pending record.
+     * Succeeds only if the key has no record, its record expired, or its record is pending
+     * and was locked until before now.
+     * @param record The pending record of the request.
+     * @param now The current time, in epoch milliseconds.
+     * @return false if the key is held by another record.
+     * */
+    boolean claim(IdempotencyRecord record, long now);
+
+    /**
+     * @return The record of the key, read with a strongly consistent read, null if it has none.
+     * */
+    IdempotencyRecord load(String key);
+
+    /**
+     * Method to write the record of a request that succeeded, replacing its pending record.
+     * @param record The complete record of the request.
+     * @param lockedUntil The lock of the pending record the request claimed the key with.
+     * @return false if the key is no longer held by that pending record, e.g. a retry claimed it once its lock passed.
+     * */
+    boolean complete(IdempotencyRecord record, long lockedUntil);
+
+    /**
+     * Method to delete the pending record of a request that failed, so that it can be retried.
+     * A record written since by another request, complete or pending, is left in place.
+     * @param key The key of the record.
+     * @param lockedUntil The lock of the pending record the request claimed the key with.
+     * */
+    void release(String key, long lockedUntil);
+}
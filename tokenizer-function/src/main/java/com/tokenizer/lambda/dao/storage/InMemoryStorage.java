@@ -0,0 +1,572 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.TokenRange;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Storage backend that keeps queues and user-queue links in the memory of the container.
+ *
+ * Meant for benchmarks, load tests and local runs of the service logic without DynamoDB.
+ * It keeps the conditional semantics of the DynamoDB backend:
+ * - tokens are only handed out while the queue exists, is enabled and is below max_size.
+ * - last_processed_token never moves past last_generated_token.
+ * - ownership links can only be deleted by the owner and subscriptions only by the subscriber.
+ * - a subscribe hands out a token only if the user has no link to the queue yet.
+ *
+ * The token counters are lock-free atomics, so that concurrent subscribes
+ * to the same queue only contend on a compare-and-set of a single int.
+ * There is no per-key throughput limit to spread, so queues created with
+ * counter_shards keep the attribute but hand out consecutive tokens.
+ * Objects are copied on the way in and out, the same way DynamoDB hands out
+ * new objects on every read.
+ * */
+public class InMemoryStorage implements QueueStorage, UserStorage, SubscriptionStorage {
+    private static final int SCAN_PAGE_SIZE = 100;
+
+    /** Queues ordered by queue_id, so that scans can resume from an exclusive start key. */
+    private final ConcurrentNavigableMap<String, QueueRecord> queues = new ConcurrentSkipListMap<>();
+
+    /** Links by user_id and queue_id - the primary key of tokenizer_users. */
+    private final ConcurrentMap<String, ConcurrentMap<String, User>> linksByUser = new ConcurrentHashMap<>();
+
+    /** Subscribers by queue_id and token_num - the keys of queue_gsi. */
+    private final ConcurrentMap<String, ConcurrentNavigableMap<Integer, User>> subscribersByQueue = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(Queue queue) {
+        queues.put(queue.getQueueId(), new QueueRecord(queue));
+    }
+
+    @Override
+    public Queue load(String queueId) {
+        QueueRecord record = queues.get(queueId);
+        return record != null ? record.toQueue() : null;
+    }
+
+    @Override
+    public Queue loadLimits(String queueId) {
+        return load(queueId);
+    }
+
+    @Override
+    public Map<String, Queue> loadAll(Collection<String> queueIds) {
+        Map<String, Queue> result = new HashMap<>();
+        for (String queueId : queueIds) {
+            Queue queue = load(queueId);
+            if (queue != null) {
+                result.put(queueId, queue);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void update(Queue queue) throws ConditionalCheckFailedException {
+        QueueRecord record = queues.get(queue.getQueueId());
+        if (record == null) {
+            throw new ConditionalCheckFailedException("Queue " + queue.getQueueId() + " does not exist");
+        }
+
+        record.update(queue);
+    }
+
+    @Override
+    public void tombstone(String queueId, long deletedAt) throws ConditionalCheckFailedException {
+        QueueRecord record = queues.get(queueId);
+        if (record == null) {
+            throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist");
+        }
+
+        record.tombstone(deletedAt);
+    }
+
+    @Override
+    public void markCompacted(String queueId, int compactedToken, long compactedAt) throws ConditionalCheckFailedException {
+        QueueRecord record = queues.get(queueId);
+        if (record == null) {
+            throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist");
+        }
+
+        record.markCompacted(compactedToken, compactedAt);
+    }
+
+    @Override
+    public void delete(String queueId) {
+        queues.remove(queueId);
+    }
+
+    /**
+     * Queues are assigned to segments by the hash of their queue_id.
+     * */
+    @Override
+    public ScanResultPage<Queue> scan(int segment, int totalSegments, String exclusiveStartQueueId, int limit) {
+        NavigableMap<String, QueueRecord> remaining = exclusiveStartQueueId != null ?
+                queues.tailMap(exclusiveStartQueueId, false) :
+                queues;
+
+        // SCAN_PAGE_SIZE stands in for the 1 MB limit of a DynamoDB page
+        int maxScanned = Math.min(limit, SCAN_PAGE_SIZE);
+        List<Queue> results = new ArrayList<>(maxScanned);
+        Iterator<QueueRecord> iterator = remaining.values().stream()
+                .filter(record -> Math.floorMod(record.queueId.hashCode(), totalSegments) == segment)
+                .iterator();
+        int scanned = 0;
+        String lastQueueId = null;
+        while (iterator.hasNext() && scanned < maxScanned) {
+            Queue queue = iterator.next().toQueue();
+            scanned++;
+            lastQueueId = queue.getQueueId();
+            // deleted queues are filtered out, the same way a DynamoDB filter expression drops them from a page
+            if (queue.getDeletedAt() == null) {
+                queue.setUnsubscribedTokens(null);
+                results.add(queue);
+            }
+        }
+
+        ScanResultPage<Queue> page = new ScanResultPage<>();
+        page.setResults(results);
+        page.setCount(results.size());
+        page.setScannedCount(scanned);
+        if (iterator.hasNext()) {
+            page.setLastEvaluatedKey(Collections.singletonMap(Queue.COL_QUEUE_ID, new AttributeValue(lastQueueId)));
+        }
+
+        return page;
+    }
+
+    @Override
+    public int incrementLastGeneratedToken(String queueId) throws ConditionalCheckFailedException {
+        return reserveTokens(queueId, 1).getFirst();
+    }
+
+    @Override
+    public TokenRange reserveTokens(String queueId, int count) throws ConditionalCheckFailedException {
+        QueueRecord record = queues.get(queueId);
+        if (record == null) {
+            throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist");
+        }
+
+        int current;
+        do {
+            current = record.lastGeneratedToken.get();
+            Integer maxSize = record.maxSize;
+            if (Boolean.FALSE.equals(record.disabled) && maxSize != null && current >= maxSize) {
+                throw new QueueFullException(queueId);
+            }
+            if (!Boolean.FALSE.equals(record.disabled) || maxSize == null || current > maxSize - count) {
+                throw new ConditionalCheckFailedException("Queue " + queueId + " is disabled or cannot fit " + count + " tokens");
+            }
+        } while (!record.lastGeneratedToken.compareAndSet(current, current + count));
+
+        return new TokenRange(current + 1, count, 1);
+    }
+
+    @Override
+    public int incrementLastProcessedToken(String queueId) throws ConditionalCheckFailedException {
+        QueueRecord record = queues.get(queueId);
+        if (record == null) {
+            throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist");
+        }
+
+        int current;
+        do {
+            current = record.lastProcessedToken.get();
+            if (current >= record.lastGeneratedToken.get()) {
+                throw new ConditionalCheckFailedException("No more tokens to process in queue " + queueId);
+            }
+        } while (!record.lastProcessedToken.compareAndSet(current, current + 1));
+
+        return current + 1;
+    }
+
+    @Override
+    public TokenRange processTokens(String queueId, int count) throws ConditionalCheckFailedException {
+        QueueRecord record = queues.get(queueId);
+        if (record == null) {
+            throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist");
+        }
+
+        int current;
+        int processed;
+        do {
+            current = record.lastProcessedToken.get();
+            processed = Math.min(count, record.lastGeneratedToken.get() - current);
+            if (processed <= 0) {
+                throw new ConditionalCheckFailedException("No more tokens to process in queue " + queueId);
+            }
+        } while (!record.lastProcessedToken.compareAndSet(current, current + processed));
+
+        return new TokenRange(current + 1, processed, 1);
+    }
+
+    @Override
+    public void addUnsubscribedToken(String queueId, int tokenNumber) throws ConditionalCheckFailedException {
+        QueueRecord record = queues.get(queueId);
+        if (record == null || record.lastProcessedToken.get() >= tokenNumber) {
+            throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist or token "
+                    + tokenNumber + " was already processed");
+        }
+
+        record.unsubscribedTokens.add(tokenNumber);
+    }
+
+    @Override
+    public void removeUnsubscribedTokens(String queueId, Collection<Integer> tokenNumbers) throws ConditionalCheckFailedException {
+        QueueRecord record = queues.get(queueId);
+        if (record == null) {
+            throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist");
+        }
+
+        record.unsubscribedTokens.removeAll(tokenNumbers);
+    }
+
+    @Override
+    public void save(User user) {
+        User copy = copy(user);
+        linksByUser
+                .computeIfAbsent(user.getUserId(), userId -> new ConcurrentHashMap<>())
+                .compute(user.getQueueId(), (queueId, previous) -> {
+                    unindex(previous);
+                    index(copy);
+                    return copy;
+                });
+    }
+
+    @Override
+    public User load(String userId, String queueId) {
+        Map<String, User> links = linksByUser.get(userId);
+        User link = links != null ? links.get(queueId) : null;
+
+        return link != null ? copy(link) : null;
+    }
+
+    @Override
+    public List<User> loadAll(Collection<String> userIds, String queueId) {
+        List<User> result = new ArrayList<>();
+        for (String userId : userIds) {
+            User link = load(userId, queueId);
+            if (link != null) {
+                result.add(link);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<User> queryByUser(String userId, Boolean ownedByUser) {
+        Map<String, User> links = linksByUser.get(userId);
+        List<User> result = new ArrayList<>();
+
+        if (links != null) {
+            long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            for (User link : links.values()) {
+                if ((ownedByUser == null || ownedByUser == link.isOwner())
+                        && (link.getExpiresAt() == null || link.getExpiresAt() > now)) {
+                    result.add(copy(link));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<User> queryByQueue(String queueId) {
+        Map<Integer, User> subscribers = subscribersByQueue.get(queueId);
+        List<User> result = new ArrayList<>();
+
+        if (subscribers != null) {
+            for (User subscriber : subscribers.values()) {
+                result.add(copy(subscriber));
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<User> queryByQueue(String queueId, int firstToken, int lastToken, int limit) {
+        NavigableMap<Integer, User> subscribers = subscribersByQueue.get(queueId);
+        List<User> result = new ArrayList<>();
+
+        if (subscribers != null && firstToken <= lastToken) {
+            for (User subscriber : subscribers.subMap(firstToken, true, lastToken, true).values()) {
+                if (result.size() >= limit) break;
+                result.add(copy(subscriber));
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public User loadByTokenNumber(String queueId, int tokenNumber) {
+        Map<Integer, User> subscribers = subscribersByQueue.get(queueId);
+        User subscriber = subscribers != null ? subscribers.get(tokenNumber) : null;
+
+        return subscriber != null ? copy(subscriber) : null;
+    }
+
+    @Override
+    public void markAsDone(String userId, String queueId, int tokenNumber, Long expiresAt) throws ConditionalCheckFailedException {
+        ConcurrentMap<String, User> links = linksByUser.get(userId);
+        if (links == null || links.computeIfPresent(queueId, (id, link) -> {
+            // same as the token and state condition of the DynamoDB backend
+            if (link.getTokenNumber() == null || link.getTokenNumber() != tokenNumber || link.getState() != UserState.WAITING) {
+                throw linkConditionFailed(userId, queueId);
+            }
+
+            User done = copy(link);
+            done.setState(UserState.DONE);
+            done.setExpiresAt(expiresAt);
+            unindex(link);
+            index(done);
+            return done;
+        }) == null) {
+            throw linkConditionFailed(userId, queueId);
+        }
+    }
+
+    @Override
+    public void createSubscription(String userId, String queueId, int tokenNumber) throws AlreadySubscribedException {
+        User subscription = new User(userId, queueId);
+        subscription.setOwner(false);
+        subscription.setTokenNumber(tokenNumber);
+        subscription.setState(UserState.WAITING);
+
+        insert(subscription);
+    }
+
+    /**
+     * The links created before a conflicting one are removed again, so that none is left behind.
+     * */
+    @Override
+    public void createSubscriptions(List<User> subscriptions) throws AlreadySubscribedException {
+        List<User> created = new ArrayList<>(subscriptions.size());
+        try {
+            for (User subscription : subscriptions) {
+                insert(subscription);
+                created.add(subscription);
+            }
+        } catch (AlreadySubscribedException e) {
+            deleteAll(created);
+            throw e;
+        }
+    }
+
+    private void insert(User subscription) throws AlreadySubscribedException {
+        User copy = copy(subscription);
+        linksByUser
+                .computeIfAbsent(subscription.getUserId(), userId -> new ConcurrentHashMap<>())
+                .compute(subscription.getQueueId(), (queueId, previous) -> {
+                    if (previous != null) {
+                        throw new AlreadySubscribedException(subscription.getUserId(), queueId);
+                    }
+                    index(copy);
+                    return copy;
+                });
+    }
+
+    /**
+     * The token is handed out while the user's link to the queue is being computed,
+     * so a concurrent subscribe of the same user waits and then finds the link.
+     * */
+    @Override
+    public int subscribe(String userId, String queueId) throws ConditionalCheckFailedException {
+        User subscription = linksByUser
+                .computeIfAbsent(userId, id -> new ConcurrentHashMap<>())
+                .compute(queueId, (id, link) -> {
+                    if (link != null) {
+                        throw new AlreadySubscribedException(userId, queueId);
+                    }
+
+                    User created = new User(userId, queueId);
+                    created.setOwner(false);
+                    created.setTokenNumber(incrementLastGeneratedToken(queueId));
+                    created.setState(UserState.WAITING);
+                    index(created);
+                    return created;
+                });
+
+        return subscription.getTokenNumber();
+    }
+
+    @Override
+    public User delete(String userId, String queueId, boolean unsubscribeOnly) throws ConditionalCheckFailedException {
+        ConcurrentMap<String, User> links = linksByUser.get(userId);
+        if (links == null) {
+            throw linkConditionFailed(userId, queueId);
+        }
+
+        User[] deleted = new User[1];
+        links.compute(queueId, (id, link) -> {
+            // the owner flag must match, same as the '#owner = :owner' condition of the DynamoDB backend
+            if (link == null || link.isOwner() == unsubscribeOnly) {
+                throw linkConditionFailed(userId, queueId);
+            }
+
+            unindex(link);
+            deleted[0] = link;
+            return null;
+        });
+
+        return copy(deleted[0]);
+    }
+
+    @Override
+    public void deleteAll(List<User> links) {
+        for (User link : links) {
+            ConcurrentMap<String, User> userLinks = linksByUser.get(link.getUserId());
+            if (userLinks != null) {
+                userLinks.computeIfPresent(link.getQueueId(), (id, existing) -> {
+                    unindex(existing);
+                    return null;
+                });
+            }
+        }
+    }
+
+    private static ConditionalCheckFailedException linkConditionFailed(String userId, String queueId) {
+        return new ConditionalCheckFailedException("Link between user " + userId
+                + " and queue " + queueId + " does not exist or ownership does not match");
+    }
+
+    private void index(User user) {
+        if (user.getTokenNumber() != null) {
+            subscribersByQueue
+                    .computeIfAbsent(user.getQueueId(), queueId -> new ConcurrentSkipListMap<>())
+                    .put(user.getTokenNumber(), user);
+        }
+    }
+
+    private void unindex(User user) {
+        if (user != null && user.getTokenNumber() != null) {
+            Map<Integer, User> subscribers = subscribersByQueue.get(user.getQueueId());
+            if (subscribers != null) {
+                subscribers.remove(user.getTokenNumber(), user);
+            }
+        }
+    }
+
+    private static User copy(User user) {
+        User copy = new User(user.getUserId(), user.getQueueId());
+        copy.setOwner(user.isOwner());
+        copy.setTokenNumber(user.getTokenNumber());
+        copy.setState(user.getState());
+        copy.setExpiresAt(user.getExpiresAt());
+        copy.setSeats(user.getSeats());
+
+        return copy;
+    }
+
+    /**
+     * Mutable state of a queue. The counters are atomics, the rest of
+     * the attributes are only replaced as a whole by saves and updates.
+     * */
+    private static class QueueRecord {
+        private final String queueId;
+        private final AtomicInteger lastGeneratedToken;
+        private final AtomicInteger lastProcessedToken;
+        private volatile String queueName;
+        private volatile Integer maxSize;
+        private volatile Boolean disabled;
+        private final Integer counterShards;
+        private volatile Long deletedAt;
+        private final Set<Integer> unsubscribedTokens = new ConcurrentSkipListSet<>();
+        private final String ownerId;
+        private volatile Integer compactedToken;
+        private volatile Long compactedAt;
+        private volatile Integer subscribeRate;
+
+        private QueueRecord(Queue queue) {
+            this.queueId = queue.getQueueId();
+            this.queueName = queue.getQueueName();
+            this.lastGeneratedToken = new AtomicInteger(valueOrZero(queue.getLastGeneratedToken()));
+            this.lastProcessedToken = new AtomicInteger(valueOrZero(queue.getLastProcessedToken()));
+            this.maxSize = queue.getMaxSize();
+            this.disabled = queue.isDisabled();
+            this.counterShards = queue.getCounterShards();
+            this.deletedAt = queue.getDeletedAt();
+            if (queue.getUnsubscribedTokens() != null) this.unsubscribedTokens.addAll(queue.getUnsubscribedTokens());
+            this.ownerId = queue.getOwnerId();
+            this.compactedToken = queue.getCompactedToken();
+            this.compactedAt = queue.getCompactedAt();
+            this.subscribeRate = queue.getSubscribeRate();
+        }
+
+        private synchronized void update(Queue queue) {
+            if (deletedAt != null) {
+                throw new ConditionalCheckFailedException("Queue " + queueId + " is deleted");
+            }
+
+            if (queue.getQueueName() != null) queueName = queue.getQueueName();
+            if (queue.getLastGeneratedToken() != null) lastGeneratedToken.set(queue.getLastGeneratedToken());
+            if (queue.getLastProcessedToken() != null) lastProcessedToken.set(queue.getLastProcessedToken());
+            if (queue.getMaxSize() != null) maxSize = queue.getMaxSize();
+            if (queue.isDisabled() != null) disabled = queue.isDisabled();
+            if (queue.getSubscribeRate() != null) subscribeRate = queue.getSubscribeRate();
+        }
+
+        private synchronized void markCompacted(int compactedToken, long compactedAt) {
+            if (deletedAt != null || (this.compactedToken != null && this.compactedToken > compactedToken)) {
+                throw new ConditionalCheckFailedException("Queue " + queueId + " is deleted or compacted further");
+            }
+
+            this.compactedToken = compactedToken;
+            this.compactedAt = compactedAt;
+        }
+
+        private synchronized void tombstone(long deletedAt) {
+            if (this.deletedAt == null) this.deletedAt = deletedAt;
+            disabled = true;
+        }
+
+        private Queue toQueue() {
+            Queue queue = new Queue(queueId);
+            queue.setQueueName(queueName);
+            queue.setLastGeneratedToken(lastGeneratedToken.get());
+            queue.setLastProcessedToken(lastProcessedToken.get());
+            queue.setMaxSize(maxSize);
+            queue.setDisabled(disabled);
+            queue.setCounterShards(counterShards);
+            queue.setDeletedAt(deletedAt);
+            // same as a DynamoDB set, an empty set is not stored
+            queue.setUnsubscribedTokens(unsubscribedTokens.isEmpty() ? null : new HashSet<>(unsubscribedTokens));
+            queue.setOwnerId(ownerId);
+            queue.setCompactedToken(compactedToken);
+            queue.setCompactedAt(compactedAt);
+            queue.setSubscribeRate(subscribeRate);
+
+            return queue;
+        }
+
+        private static int valueOrZero(Integer value) {
+            return value != null ? value : 0;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.tokenizer.lambda.model.queues.Queue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Conversion of queues to and from items of the tokenizer_queues table.
+ *
+ * Items are written with the same attributes the DynamoDBMapper wrote from the annotations
+ * of Queue, and null fields are left out, so items written by either can be read by the other.
+ * */
+public final class QueueCodec {
+    /** Attributes of a queue, not counting its key. */
+    private static final int MAX_ATTRIBUTES = 13;
+
+    private QueueCodec() {}
+
+    public static Map<String, AttributeValue> key(String queueId) {
+        Map<String, AttributeValue> key = new HashMap<>(2);
+        key.put(Queue.COL_QUEUE_ID, new AttributeValue(queueId));
+        return key;
+    }
+
+    /**
+     * @return The item of the queue, without its null fields.
+     * */
+    public static Map<String, AttributeValue> encode(Queue queue) {
+        Map<String, AttributeValue> item = new HashMap<>(2 * MAX_ATTRIBUTES);
+        putString(item, Queue.COL_QUEUE_ID, queue.getQueueId());
+        putString(item, Queue.COL_QUEUE_NAME, queue.getQueueName());
+        putNumber(item, Queue.COL_LAST_GEN_TOKEN, queue.getLastGeneratedToken());
+        putNumber(item, Queue.COL_LAST_PROC_TOKEN, queue.getLastProcessedToken());
+        putNumber(item, Queue.COL_MAX_SIZE, queue.getMaxSize());
+        if (queue.isDisabled() != null) {
+            item.put(Queue.COL_DISABLED, new AttributeValue().withBOOL(queue.isDisabled()));
+        }
+        putNumber(item, Queue.COL_COUNTER_SHARDS, queue.getCounterShards());
+        putNumber(item, Queue.COL_DELETED_AT, queue.getDeletedAt());
+        putString(item, Queue.COL_OWNER_ID, queue.getOwnerId());
+        putNumber(item, Queue.COL_COMPACTED_TOKEN, queue.getCompactedToken());
+        putNumber(item, Queue.COL_COMPACTED_AT, queue.getCompactedAt());
+        putNumber(item, Queue.COL_SUBSCRIBE_RATE, queue.getSubscribeRate());
+
+        Set<Integer> unsubscribedTokens = queue.getUnsubscribedTokens();
+        // number sets cannot be empty
+        if (unsubscribedTokens != null && !unsubscribedTokens.isEmpty()) {
+            List<String> tokens = new ArrayList<>(unsubscribedTokens.size());
+            for (Integer token : unsubscribedTokens) {
+                tokens.add(String.valueOf(token));
+            }
+            item.put(Queue.COL_UNSUBSCRIBED_TOKENS, new AttributeValue().withNS(tokens));
+        }
+
+        return item;
+    }
+
+    /**
+     * @return The queue of the item, null if the item is null.
+     * */
+    public static Queue decode(Map<String, AttributeValue> item) {
+        if (item == null) {
+            return null;
+        }
+
+        Queue queue = new Queue(getString(item, Queue.COL_QUEUE_ID));
+        queue.setQueueName(getString(item, Queue.COL_QUEUE_NAME));
+        queue.setLastGeneratedToken(getInteger(item, Queue.COL_LAST_GEN_TOKEN));
+        queue.setLastProcessedToken(getInteger(item, Queue.COL_LAST_PROC_TOKEN));
+        queue.setMaxSize(getInteger(item, Queue.COL_MAX_SIZE));
+        queue.setDisabled(getBoolean(item, Queue.COL_DISABLED));
+        queue.setCounterShards(getInteger(item, Queue.COL_COUNTER_SHARDS));
+
+        AttributeValue deletedAt = item.get(Queue.COL_DELETED_AT);
+        queue.setDeletedAt(deletedAt != null ? Long.valueOf(deletedAt.getN()) : null);
+        queue.setOwnerId(getString(item, Queue.COL_OWNER_ID));
+        queue.setCompactedToken(getInteger(item, Queue.COL_COMPACTED_TOKEN));
+
+        AttributeValue compactedAt = item.get(Queue.COL_COMPACTED_AT);
+        queue.setCompactedAt(compactedAt != null ? Long.valueOf(compactedAt.getN()) : null);
+        queue.setSubscribeRate(getInteger(item, Queue.COL_SUBSCRIBE_RATE));
+
+        AttributeValue unsubscribedTokens = item.get(Queue.COL_UNSUBSCRIBED_TOKENS);
+        if (unsubscribedTokens != null && unsubscribedTokens.getNS() != null) {
+            Set<Integer> tokens = new HashSet<>();
+            for (String token : unsubscribedTokens.getNS()) {
+                tokens.add(Integer.valueOf(token));
+            }
+            queue.setUnsubscribedTokens(tokens);
+        }
+
+        return queue;
+    }
+
+    static void putString(Map<String, AttributeValue> item, String name, String value) {
+        if (value != null) {
+            item.put(name, new AttributeValue(value));
+        }
+    }
+
+    static void putNumber(Map<String, AttributeValue> item, String name, Number value) {
+        if (value != null) {
+            item.put(name, new AttributeValue().withN(value.toString()));
+        }
+    }
+
+    static String getString(Map<String, AttributeValue> item, String name) {
+        AttributeValue value = item.get(name);
+        return value != null ? value.getS() : null;
+    }
+
+    static Integer getInteger(Map<String, AttributeValue> item, String name) {
+        AttributeValue value = item.get(name);
+        return value != null && value.getN() != null ? Integer.valueOf(value.getN()) : null;
+    }
+
+    /**
+     * Booleans written as numbers - the mapper's default before BOOL - are read as well.
+     * */
+    static Boolean getBoolean(Map<String, AttributeValue> item, String name) {
+        AttributeValue value = item.get(name);
+        if (value == null) {
+            return null;
+        }
+
+        return value.getBOOL() != null ? value.getBOOL() : (Boolean) "1".equals(value.getN());
+    }
+}
@@ -0,0 +1,16 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+
+/**
+ * Failed condition of a subscribe, reported when the queue handed out every token up to its max_size.
+ * Extends ConditionalCheckFailedException so that callers not interested in the reason
+ * can keep handling every failed condition the same way.
+ * */
+public class QueueFullException extends ConditionalCheckFailedException {
+    private static final long serialVersionUID = 1L;
+
+    public QueueFullException(String queueId) {
+        super("Queue " + queueId + " is full");
+    }
+}
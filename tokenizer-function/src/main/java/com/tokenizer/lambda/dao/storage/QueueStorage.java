@@ -0,0 +1,162 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.TokenRange;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Storage for the queue items and their token counters.
+ *
+ * Implementations must keep the conditional semantics of the
+ * tokenizer_queues table - a failed condition is always reported
+ * with a ConditionalCheckFailedException, whatever the backend.
+ * */
+public interface QueueStorage {
+
+    /**
+     * Method to create or fully replace a queue item.
+     * @param queue The queue to save.
+     * */
+    void save(Queue queue);
+
+    /**
+     * Method to load a queue item.
+     * @param queueId The ID of the queue.
+     * @return The queue if it exists, else returns null.
+     * */
+    Queue load(String queueId);
+
+    /**
+     * Method to load the attributes subscribes to a queue are admitted by - max_size, disabled,
+     * counter_shards, last_generated_token and subscribe_rate - with a read as cheap as the backend allows.
+     * The read may be eventually consistent, and the counters of sharded queues are not read.
+     * @param queueId The ID of the queue.
+     * @return The queue with only these attributes if it exists, else returns null.
+     * */
+    Queue loadLimits(String queueId);
+
+    /**
+     * Method to load several queue items at once, e.g. the queues of a user.
+     * @param queueIds The IDs of the queues, without duplicates.
+     * @return The queues that exist, by queue_id - missing queues are left out.
+     * */
+    Map<String, Queue> loadAll(Collection<String> queueIds);
+
+    /**
+     * Method to update the non-null attributes of an existing queue.
+     * @param queue Queue object with values only for attributes that need to be updated.
+     * @throws ConditionalCheckFailedException if the queue does not exist or is deleted.
+     * */
+    void update(Queue queue) throws ConditionalCheckFailedException;
+
+    /**
+     * Method to mark a queue as deleted, leaving a tombstone until its subscribers are removed.
+     * The queue is disabled, so it stops handing out tokens, and can no longer be updated.
+     * Marking a queue again keeps the time it was first deleted at.
+     *
+     * @param queueId The ID of the queue.
+     * @param deletedAt The time of the deletion, in epoch milliseconds.
+     * @throws ConditionalCheckFailedException if the queue does not exist.
+     * */
+    void tombstone(String queueId, long deletedAt) throws ConditionalCheckFailedException;
+
+    /**
+     * Method to record how far the subscribers of a queue were archived and removed.
+     * Succeeds only if the queue exists, is not deleted and compacted_token is not already past the token.
+     *
+     * @param queueId The ID of the queue.
+     * @param compactedToken The highest token whose subscriber, if any, was archived and removed.
+     * @param compactedAt The time of the compaction, in epoch milliseconds.
+     * @throws ConditionalCheckFailedException if any of the conditions above are not met.
+     * */
+    void markCompacted(String queueId, int compactedToken, long compactedAt) throws ConditionalCheckFailedException;
+
+    /**
+     * Method to delete a queue item. Deleting a missing queue is a no-op.
+     * @param queueId The ID of the queue to delete.
+     * */
+    void delete(String queueId);
+
+    /**
+     * Method to scan a page of one segment of the queues, for a parallel scan.
+     * Deleted queues are left out, and only the attributes listed to users are read.
+     * @param segment The segment to scan, from 0 to totalSegments - 1.
+     * @param totalSegments The number of segments the queues are split into.
+     * @param exclusiveStartQueueId The queue_id the previous page of the segment ended at, or null for its first page.
+     * @param limit The maximum number of queues to read, including the ones left out.
+     * @return The scanned page, without a last evaluated key once the segment is complete.
+     * */
+    ScanResultPage<Queue> scan(int segment, int totalSegments, String exclusiveStartQueueId, int limit);
+
+    /**
+     * Method to atomically hand out the next token of a queue.
+     * For queues with a sharded counter, the token comes from one of the shards.
+     * Succeeds only if the queue exists, is not disabled
+     * and last_generated_token is less than max_size.
+     *
+     * @param queueId The ID of the queue.
+     * @return The updated value for last_generated_token.
+     * @throws ConditionalCheckFailedException if any of the conditions above are not met.
+     * */
+    int incrementLastGeneratedToken(String queueId) throws ConditionalCheckFailedException;
+
+    /**
+     * Method to atomically hand out a range of tokens of a queue.
+     * Succeeds only if the queue exists, is not disabled and the whole
+     * range fits below max_size - either all tokens are handed out or none.
+     * The tokens are consecutive, unless the queue has a sharded counter.
+     *
+     * @param queueId The ID of the queue.
+     * @param count The number of tokens to hand out.
+     * @return The range of tokens handed out.
+     * @throws ConditionalCheckFailedException if any of the conditions above are not met.
+     * */
+    TokenRange reserveTokens(String queueId, int count) throws ConditionalCheckFailedException;
+
+    /**
+     * Method to atomically move last_processed_token of a queue forward by 1.
+     * Succeeds only if last_processed_token is less than last_generated_token.
+     *
+     * @param queueId The ID of the queue.
+     * @return The updated value for last_processed_token.
+     * @throws ConditionalCheckFailedException if there are no more tokens to process.
+     * @throws ContendedUpdateException if the counters of a sharded queue kept moving concurrently.
+     * */
+    int incrementLastProcessedToken(String queueId) throws ConditionalCheckFailedException;
+
+    /**
+     * Method to atomically move last_processed_token of a queue forward by up to count
+     * tokens in one go, without going past last_generated_token.
+     *
+     * @param queueId The ID of the queue.
+     * @param count The maximum number of tokens to process.
+     * @return The consecutive range of tokens processed.
+     * @throws ConditionalCheckFailedException if there are no more tokens to process.
+     * @throws ContendedUpdateException if last_processed_token kept moving concurrently.
+     * */
+    TokenRange processTokens(String queueId, int count) throws ConditionalCheckFailedException;
+
+    /**
+     * Method to record the token of a subscriber who left a queue before being processed.
+     * Succeeds only if the queue exists and the token is after last_processed_token.
+     *
+     * @param queueId The ID of the queue.
+     * @param tokenNumber The token of the subscriber who left.
+     * @throws ConditionalCheckFailedException if the queue does not exist or the token was already processed.
+     * */
+    void addUnsubscribedToken(String queueId, int tokenNumber) throws ConditionalCheckFailedException;
+
+    /**
+     * Method to drop tokens from the unsubscribed tokens of a queue once they were processed.
+     * Dropping a token that was not recorded is a no-op.
+     *
+     * @param queueId The ID of the queue.
+     * @param tokenNumbers The processed tokens, at least one.
+     * @throws ConditionalCheckFailedException if the queue does not exist.
+     * */
+    void removeUnsubscribedTokens(String queueId, Collection<Integer> tokenNumbers) throws ConditionalCheckFailedException;
+}
@@ -0,0 +1,376 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.TokenRange;
+import com.tokenizer.lambda.util.AsyncUtil;
+import com.tokenizer.lambda.util.QueueUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Token counter of a queue split over several items of the tokenizer_queues table,
+ * so that the subscribes to a popular queue are spread over several partition keys.
+ *
+ * Each shard item holds its own last_generated_token, along with a copy of the
+ * queue's max_size and disabled attributes so that it can be incremented with
+ * the same conditions as the queue item. See QueueUtil for the token numbering.
+ *
+ * last_processed_token stays on the queue item. Since shards fill up at different
+ * rates, processing may find a token that its shard has not handed out yet while later
+ * tokens have been. Such a token is 'burnt' - its shard counter is moved past it
+ * without a subscriber - so that no late subscriber can ever receive a token that
+ * has already been passed over.
+ *
+ * Tokens are only ordered by arrival within a shard. Subscribers pick their shard at random,
+ * so a subscriber may get a lower token than one who subscribed shortly before on another
+ * shard - by up to the difference between the shard counters, which stays small while
+ * subscribes spread evenly. Sharding trades this global order for write throughput, so
+ * queues that need strict first come, first served order keep a single counter.
+ * */
+public class ShardedTokenCounter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardedTokenCounter.class);
+    private static final int MAX_PROCESS_ATTEMPTS = 5;
+
+    private static final String RESERVE_UPDATE_EXP = "set #last_generated_token = #last_generated_token + :count";
+    private static final String RESERVE_CONDITION = "attribute_exists(#queue_id) and (#last_generated_token <= :limit) and #max_size = :max_size and #disabled = :false";
+    private static final String BURN_UPDATE_EXP = "set #last_generated_token = :local_token";
+    private static final String BURN_CONDITION = "#last_generated_token = :previous_token";
+    private static final String PROCESS_UPDATE_EXP = "set #last_processed_token = :next_token";
+    private static final String PROCESS_CONDITION = "#last_processed_token = :current_token";
+
+    private static final Map<String, String> EAN_FOR_RESERVE = new HashMap<String, String>() {{
+        put("#queue_id", Queue.COL_QUEUE_ID);
+        put("#last_generated_token", Queue.COL_LAST_GEN_TOKEN);
+        put("#max_size", Queue.COL_MAX_SIZE);
+        put("#disabled", Queue.COL_DISABLED);
+    }};
+
+    private static final Map<String, String> EAN_FOR_BURN = Collections.singletonMap("#last_generated_token", Queue.COL_LAST_GEN_TOKEN);
+    private static final Map<String, String> EAN_FOR_PROCESS = Collections.singletonMap("#last_processed_token", Queue.COL_LAST_PROC_TOKEN);
+
+    private AmazonDynamoDB dynamoDbClient;
+
+    public ShardedTokenCounter(AmazonDynamoDB dynamoDbClient) {
+        this.dynamoDbClient = dynamoDbClient;
+    }
+
+    /**
+     * Method to create the shard items of a new queue.
+     * */
+    public void create(String queueId, int shards, Integer maxSize, Boolean disabled) {
+        List<WriteRequest> writeRequests = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            Map<String, AttributeValue> item = key(queueId, shard);
+            item.put(Queue.COL_SHARD_OF, new AttributeValue(queueId));
+            item.put(Queue.COL_LAST_GEN_TOKEN, new AttributeValue().withN("0"));
+            if (maxSize != null) item.put(Queue.COL_MAX_SIZE, new AttributeValue().withN(String.valueOf(maxSize)));
+            if (disabled != null) item.put(Queue.COL_DISABLED, new AttributeValue().withBOOL(disabled));
+
+            writeRequests.add(new WriteRequest().withPutRequest(new PutRequest().withItem(item)));
+        }
+
+        BatchWriter.writeAll(dynamoDbClient, Queue.TABLE_NAME, writeRequests);
+    }
+
+    /**
+     * Method to copy the updated max_size and disabled attributes of a queue to its shard items.
+     * */
+    public void update(String queueId, int shards, Integer maxSize, Boolean disabled) {
+        if (maxSize == null && disabled == null) return;
+
+        List<String> setters = new ArrayList<>();
+        Map<String, String> ean = new HashMap<>();
+        Map<String, AttributeValue> eav = new HashMap<>();
+        ean.put("#queue_id", Queue.COL_QUEUE_ID);
+        if (maxSize != null) {
+            setters.add("#max_size = :max_size");
+            ean.put("#max_size", Queue.COL_MAX_SIZE);
+            eav.put(":max_size", new AttributeValue().withN(String.valueOf(maxSize)));
+        }
+        if (disabled != null) {
+            setters.add("#disabled = :disabled");
+            ean.put("#disabled", Queue.COL_DISABLED);
+            eav.put(":disabled", new AttributeValue().withBOOL(disabled));
+        }
+
+        for (int shard = 0; shard < shards; shard++) {
+            dynamoDbClient.updateItem(new UpdateItemRequest()
+                    .withTableName(Queue.TABLE_NAME)
+                    .withKey(key(queueId, shard))
+                    .withUpdateExpression("set " + String.join(", ", setters))
+                    .withConditionExpression("attribute_exists(#queue_id)")
+                    .withExpressionAttributeNames(ean)
+                    .withExpressionAttributeValues(eav));
+        }
+    }
+
+    /**
+     * Method to delete the shard items of a queue.
+     * */
+    public void delete(String queueId, int shards) {
+        List<WriteRequest> writeRequests = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            writeRequests.add(new WriteRequest().withDeleteRequest(new DeleteRequest().withKey(key(queueId, shard))));
+        }
+
+        BatchWriter.writeAll(dynamoDbClient, Queue.TABLE_NAME, writeRequests);
+    }
+
+    /**
+     * Method to hand out a range of tokens from one of the shards.
+     * The shards are tried starting from a random one, so that concurrent
+     * subscribers spread over the shards, until one of them can fit the range.
+     * The range is thus not ordered against the ranges reserved on other shards, see above.
+     *
+     * @return The reserved range. Its tokens are interleaved with the other shards' tokens.
+     * @throws ConditionalCheckFailedException if no shard can hand out the range.
+     * */
+    public TokenRange reserve(String queueId, int shards, int maxSize, int count) throws ConditionalCheckFailedException {
+        ConditionalCheckFailedException lastFailure = null;
+        int start = ThreadLocalRandom.current().nextInt(shards);
+
+        for (int i = 0; i < shards; i++) {
+            int shard = (start + i) % shards;
+            int limit = QueueUtil.shardLimit(maxSize, shards, shard);
+            if (limit < count) continue;
+
+            Map<String, AttributeValue> eav = new HashMap<>();
+            eav.put(":count", new AttributeValue().withN(String.valueOf(count)));
+            eav.put(":limit", new AttributeValue().withN(String.valueOf(limit - count)));
+            eav.put(":max_size", new AttributeValue().withN(String.valueOf(maxSize)));
+            eav.put(":false", new AttributeValue().withBOOL(false));
+
+            try {
+                Map<String, AttributeValue> updated = dynamoDbClient.updateItem(new UpdateItemRequest()
+                        .withTableName(Queue.TABLE_NAME)
+                        .withKey(key(queueId, shard))
+                        .withUpdateExpression(RESERVE_UPDATE_EXP)
+                        .withConditionExpression(RESERVE_CONDITION)
+                        .withExpressionAttributeNames(EAN_FOR_RESERVE)
+                        .withExpressionAttributeValues(eav)
+                        .withReturnValues(ReturnValue.UPDATED_NEW))
+                        .getAttributes();
+
+                int lastLocalToken = Integer.parseInt(updated.get(Queue.COL_LAST_GEN_TOKEN).getN());
+                int firstToken = QueueUtil.shardToken(shard, shards, lastLocalToken - count + 1);
+                return new TokenRange(firstToken, count, shards);
+            } catch (ConditionalCheckFailedException e) {
+                LOGGER.debug("Shard {} of queue {} cannot hand out {} tokens", shard, queueId, count);
+                lastFailure = e;
+            }
+        }
+
+        throw lastFailure != null ? lastFailure :
+                new ConditionalCheckFailedException("Queue " + queueId + " cannot fit " + count + " tokens");
+    }
+
+    /**
+     * Method to move last_processed_token of a sharded queue to the next handed out token.
+     * Tokens that are skipped on the way are burnt on their shard.
+     *
+     * @return The updated value for last_processed_token.
+     * @throws ConditionalCheckFailedException if no token after last_processed_token has been handed out.
+     * @throws ContendedUpdateException if last_processed_token or the shards kept moving concurrently.
+     * */
+    public int processNext(String queueId, int shards) throws ConditionalCheckFailedException {
+        for (int attempt = 0; attempt < MAX_PROCESS_ATTEMPTS; attempt++) {
+            int lastProcessedToken = loadLastProcessedToken(queueId);
+            int[] counters = loadCounters(queueId, shards);
+
+            if (lastProcessedToken >= QueueUtil.lastIssuedToken(counters)) {
+                throw new ConditionalCheckFailedException("No more tokens to process in queue " + queueId);
+            }
+
+            int nextToken = lastProcessedToken + 1;
+            boolean burnt = true;
+            while (burnt && !QueueUtil.isIssued(nextToken, counters)) {
+                burnt = burn(queueId, shards, nextToken);
+                if (burnt) {
+                    counters[QueueUtil.shardOf(nextToken, shards)]++;
+                    nextToken++;
+                }
+            }
+
+            // a subscriber took the token we were about to burn, start over with fresh counters
+            if (!burnt) continue;
+
+            if (moveLastProcessedToken(queueId, lastProcessedToken, nextToken)) {
+                return nextToken;
+            }
+        }
+
+        throw new ContendedUpdateException("Could not process the next token of queue " + queueId
+                + " after " + MAX_PROCESS_ATTEMPTS + " attempts");
+    }
+
+    /**
+     * Method to move last_processed_token of a sharded queue forward by up to count tokens,
+     * without going past the highest token handed out. Tokens of the range that their
+     * shard has not handed out are burnt, in order, like processNext does.
+     *
+     * @return The consecutive range of tokens processed.
+     * @throws ConditionalCheckFailedException if no token after last_processed_token has been handed out.
+     * @throws ContendedUpdateException if last_processed_token or the shards kept moving concurrently.
+     * */
+    public TokenRange processTokens(String queueId, int shards, int count) throws ConditionalCheckFailedException {
+        for (int attempt = 0; attempt < MAX_PROCESS_ATTEMPTS; attempt++) {
+            int lastProcessedToken = loadLastProcessedToken(queueId);
+            int[] counters = loadCounters(queueId, shards);
+
+            int lastIssuedToken = QueueUtil.lastIssuedToken(counters);
+            if (lastProcessedToken >= lastIssuedToken) {
+                throw new ConditionalCheckFailedException("No more tokens to process in queue " + queueId);
+            }
+
+            int lastToken = Math.min(lastIssuedToken, lastProcessedToken + count);
+            boolean burnt = true;
+            for (int token = lastProcessedToken + 1; burnt && token <= lastToken; token++) {
+                if (!QueueUtil.isIssued(token, counters)) {
+                    burnt = burn(queueId, shards, token);
+                    if (burnt) counters[QueueUtil.shardOf(token, shards)]++;
+                }
+            }
+
+            if (burnt && moveLastProcessedToken(queueId, lastProcessedToken, lastToken)) {
+                return new TokenRange(lastProcessedToken + 1, lastToken - lastProcessedToken, 1);
+            }
+        }
+
+        throw new ContendedUpdateException("Could not process the tokens of queue " + queueId
+                + " after " + MAX_PROCESS_ATTEMPTS + " attempts");
+    }
+
+    /**
+     * @return false if last_processed_token moved concurrently.
+     * */
+    private boolean moveLastProcessedToken(String queueId, int currentToken, int nextToken) {
+        try {
+            Map<String, AttributeValue> eav = new HashMap<>();
+            eav.put(":next_token", new AttributeValue().withN(String.valueOf(nextToken)));
+            eav.put(":current_token", new AttributeValue().withN(String.valueOf(currentToken)));
+
+            dynamoDbClient.updateItem(new UpdateItemRequest()
+                    .withTableName(Queue.TABLE_NAME)
+                    .withKey(queueKey(queueId))
+                    .withUpdateExpression(PROCESS_UPDATE_EXP)
+                    .withConditionExpression(PROCESS_CONDITION)
+                    .withExpressionAttributeNames(EAN_FOR_PROCESS)
+                    .withExpressionAttributeValues(eav));
+
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            LOGGER.debug("last_processed_token of queue {} moved concurrently, retrying", queueId);
+            return false;
+        }
+    }
+
+    /**
+     * Method to read the last_generated_token of every shard of a queue.
+     * @return The counters indexed by shard, 0 for missing shards.
+     * @throws IllegalStateException if some shards are still unread after all the retries.
+     * */
+    public int[] loadCounters(String queueId, int shards) {
+        return loadCounters(Collections.singletonMap(queueId, shards), AsyncUtil.STORAGE_EXECUTOR).get(queueId);
+    }
+
+    /**
+     * Method to read the counters of several sharded queues at once, with as few BatchGetItem calls as possible.
+     * @param shardsByQueue The number of shards of each queue.
+     * @param executor The executor the chunks of shards are read on.
+     * @return The counters of each queue indexed by shard, 0 for missing shards.
+     * */
+    public Map<String, int[]> loadCounters(Map<String, Integer> shardsByQueue, Executor executor) {
+        List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        Map<String, int[]> countersByQueue = new HashMap<>();
+        // shards are matched by key, since those created before shard_of was recorded lack it
+        Map<String, int[]> countersByShardKey = new HashMap<>();
+        for (Map.Entry<String, Integer> queue : shardsByQueue.entrySet()) {
+            int[] counters = new int[queue.getValue()];
+            countersByQueue.put(queue.getKey(), counters);
+            for (int shard = 0; shard < queue.getValue(); shard++) {
+                keys.add(key(queue.getKey(), shard));
+                countersByShardKey.put(QueueUtil.shardKey(queue.getKey(), shard), counters);
+            }
+        }
+
+        for (Map<String, AttributeValue> item : BatchReader.readAll(dynamoDbClient, Queue.TABLE_NAME, keys, true, executor)) {
+            String shardKey = item.get(Queue.COL_QUEUE_ID).getS();
+            int shard = Integer.parseInt(shardKey.substring(shardKey.lastIndexOf('#') + 1));
+            int[] counters = countersByShardKey.get(shardKey);
+            if (counters != null && item.containsKey(Queue.COL_LAST_GEN_TOKEN)) {
+                counters[shard] = Integer.parseInt(item.get(Queue.COL_LAST_GEN_TOKEN).getN());
+            }
+        }
+
+        return countersByQueue;
+    }
+
+    private int loadLastProcessedToken(String queueId) {
+        Map<String, AttributeValue> item = dynamoDbClient.getItem(new GetItemRequest()
+                .withTableName(Queue.TABLE_NAME)
+                .withKey(queueKey(queueId))
+                .withProjectionExpression("#last_processed_token")
+                .withExpressionAttributeNames(EAN_FOR_PROCESS)
+                .withConsistentRead(true))
+                .getItem();
+
+        if (item == null || !item.containsKey(Queue.COL_LAST_PROC_TOKEN)) {
+            throw new ConditionalCheckFailedException("Queue " + queueId + " does not exist");
+        }
+
+        return Integer.parseInt(item.get(Queue.COL_LAST_PROC_TOKEN).getN());
+    }
+
+    /**
+     * Method to move a shard counter past a token that has not been handed out.
+     * @return false if the token was handed out concurrently.
+     * */
+    private boolean burn(String queueId, int shards, int token) {
+        int localToken = QueueUtil.localToken(token, shards);
+        Map<String, AttributeValue> eav = new HashMap<>();
+        eav.put(":local_token", new AttributeValue().withN(String.valueOf(localToken)));
+        eav.put(":previous_token", new AttributeValue().withN(String.valueOf(localToken - 1)));
+
+        try {
+            dynamoDbClient.updateItem(new UpdateItemRequest()
+                    .withTableName(Queue.TABLE_NAME)
+                    .withKey(key(queueId, QueueUtil.shardOf(token, shards)))
+                    .withUpdateExpression(BURN_UPDATE_EXP)
+                    .withConditionExpression(BURN_CONDITION)
+                    .withExpressionAttributeNames(EAN_FOR_BURN)
+                    .withExpressionAttributeValues(eav));
+
+            LOGGER.info("Burnt token {} of queue {}", token, queueId);
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    static Map<String, AttributeValue> key(String queueId, int shard) {
+        return queueKey(QueueUtil.shardKey(queueId, shard));
+    }
+
+    static Map<String, AttributeValue> queueKey(String queueId) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(Queue.COL_QUEUE_ID, new AttributeValue(queueId));
+        return key;
+    }
+}
@@ -0,0 +1,27 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+
+/**
+ * Storage handing out a token of a queue together with the subscription link holding it.
+ *
+ * The token and the link are written atomically - either the user ends up subscribed
+ * with the token or the token is not handed out at all, so no token is ever left without
+ * a subscriber because the second of two separate writes failed.
+ * */
+public interface SubscriptionStorage {
+
+    /**
+     * Method to subscribe a user to a queue.
+     * Succeeds only if the queue exists, is not disabled, last_generated_token
+     * is less than max_size and the user has no link to the queue yet.
+     *
+     * @param userId The ID of the subscribing user.
+     * @param queueId The ID of the queue.
+     * @return The token handed out to the user.
+     * @throws AlreadySubscribedException if the user already has a link to the queue.
+     * @throws QueueFullException if last_generated_token reached max_size.
+     * @throws ConditionalCheckFailedException if any of the queue conditions above are not met.
+     * */
+    int subscribe(String userId, String queueId) throws ConditionalCheckFailedException;
+}
@@ -0,0 +1,69 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conversion of user-queue links to and from items of the tokenizer_users table.
+ *
+ * Items are written with the same attributes the DynamoDBMapper wrote from the annotations
+ * of User, and null fields are left out, so items written by either can be read by the other.
+ * */
+public final class UserCodec {
+    /** Attributes of a link, its key included. */
+    private static final int MAX_ATTRIBUTES = 7;
+
+    private UserCodec() {}
+
+    public static Map<String, AttributeValue> key(String userId, String queueId) {
+        Map<String, AttributeValue> key = new HashMap<>(4);
+        key.put(User.COL_USER_ID, new AttributeValue(userId));
+        key.put(User.COL_QUEUE_ID, new AttributeValue(queueId));
+        return key;
+    }
+
+    /**
+     * @return The item of the link, without its null fields.
+     * */
+    public static Map<String, AttributeValue> encode(User user) {
+        Map<String, AttributeValue> item = new HashMap<>(2 * MAX_ATTRIBUTES);
+        QueueCodec.putString(item, User.COL_USER_ID, user.getUserId());
+        QueueCodec.putString(item, User.COL_QUEUE_ID, user.getQueueId());
+        item.put(User.COL_QUEUE_OWNER, new AttributeValue().withBOOL(user.isOwner()));
+        QueueCodec.putNumber(item, User.COL_TOKEN_NUM, user.getTokenNumber());
+        if (user.getState() != null) {
+            item.put(User.COL_USER_STATE, new AttributeValue(user.getState().name()));
+        }
+        QueueCodec.putNumber(item, User.COL_EXPIRES_AT, user.getExpiresAt());
+        QueueCodec.putNumber(item, User.COL_SEATS, user.getSeats());
+
+        return item;
+    }
+
+    /**
+     * @return The link of the item, null if the item is null.
+     * */
+    public static User decode(Map<String, AttributeValue> item) {
+        if (item == null) {
+            return null;
+        }
+
+        User user = new User(QueueCodec.getString(item, User.COL_USER_ID), QueueCodec.getString(item, User.COL_QUEUE_ID));
+        Boolean owner = QueueCodec.getBoolean(item, User.COL_QUEUE_OWNER);
+        user.setOwner(owner != null && owner);
+        user.setTokenNumber(QueueCodec.getInteger(item, User.COL_TOKEN_NUM));
+
+        String state = QueueCodec.getString(item, User.COL_USER_STATE);
+        user.setState(state != null ? UserState.valueOf(state) : null);
+
+        AttributeValue expiresAt = item.get(User.COL_EXPIRES_AT);
+        user.setExpiresAt(expiresAt != null ? Long.valueOf(expiresAt.getN()) : null);
+        user.setSeats(QueueCodec.getInteger(item, User.COL_SEATS));
+
+        return user;
+    }
+}
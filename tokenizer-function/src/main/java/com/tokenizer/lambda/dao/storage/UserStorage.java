@@ -0,0 +1,125 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.tokenizer.lambda.model.users.User;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage for the items linking users to queues - both
+ * the ownership links and the subscription links.
+ *
+ * Implementations must keep the conditional semantics of the
+ * tokenizer_users table - a failed condition is always reported
+ * with a ConditionalCheckFailedException, whatever the backend.
+ * */
+public interface UserStorage {
+    /** Largest number of links createSubscriptions writes at once - a transaction holds 100 items. */
+    int MAX_SUBSCRIPTIONS_PER_CALL = 100;
+
+    /**
+     * Method to create or fully replace a user-queue link.
+     * @param user The link to save.
+     * */
+    void save(User user);
+
+    /**
+     * Method to load the link between a user and a queue.
+     * @param userId The ID of the user.
+     * @param queueId The ID of the queue.
+     * @return The link if it exists, else returns null.
+     * */
+    User load(String userId, String queueId);
+
+    /**
+     * Method to load the links of several users to a queue at once, with strongly consistent reads.
+     * @param userIds The IDs of the users, without duplicates.
+     * @param queueId The ID of the queue.
+     * @return The links that exist, in no particular order.
+     * */
+    List<User> loadAll(Collection<String> userIds, String queueId);
+
+    /**
+     * Method to query all the live links of a user.
+     * Links past their expires_at are left out, even before they are removed.
+     * @param userId The ID of the user.
+     * @param ownedByUser If not null, only return links whose owner flag matches.
+     * @return List of links of the user. Empty if none are found.
+     * */
+    List<User> queryByUser(String userId, Boolean ownedByUser);
+
+    /**
+     * Method to query all subscribers of a queue through queue_gsi.
+     * @param queueId The ID of the queue.
+     * @return List of subscribers of the queue. Empty if none are found.
+     * */
+    List<User> queryByQueue(String queueId);
+
+    /**
+     * Method to query a page of the subscribers of a queue through queue_gsi, in token order.
+     * @param queueId The ID of the queue.
+     * @param firstToken The lowest token number to return.
+     * @param lastToken The highest token number to return.
+     * @param limit The maximum number of subscribers to return.
+     * @return The subscribers holding tokens between firstToken and lastToken. Empty if none are found.
+     * */
+    List<User> queryByQueue(String queueId, int firstToken, int lastToken, int limit);
+
+    /**
+     * Method to lookup the subscriber holding a token of a queue.
+     * @param queueId The ID of the queue.
+     * @param tokenNumber The token number of the subscriber.
+     * @return The subscriber if found, else returns null.
+     * */
+    User loadByTokenNumber(String queueId, int tokenNumber);
+
+    /**
+     * Method to mark a subscriber as DONE once its token was processed.
+     * @param userId The ID of the subscriber.
+     * @param queueId The ID of the queue.
+     * @param tokenNumber The processed token, which the link must still hold.
+     * @param expiresAt The time the link expires at, in epoch seconds, null for a link that never expires.
+     * @throws ConditionalCheckFailedException if the link does not exist, e.g. the user unsubscribed,
+     * or is no longer WAITING with this token, e.g. the user subscribed again since it was read.
+     * */
+    void markAsDone(String userId, String queueId, int tokenNumber, Long expiresAt) throws ConditionalCheckFailedException;
+
+    /**
+     * Method to create the link of a user subscribing to a queue with the given token.
+     * An existing link is never replaced, so the token it holds is not lost.
+     * @param userId The ID of the subscribing user.
+     * @param queueId The ID of the queue.
+     * @param tokenNumber The token handed out to the user.
+     * @throws AlreadySubscribedException if the user already has a link to the queue.
+     * */
+    void createSubscription(String userId, String queueId, int tokenNumber) throws AlreadySubscribedException;
+
+    /**
+     * Method to create several subscription links in one go, e.g. for a group
+     * of people joining a queue together. The links are written as is, so they
+     * must carry their token number and WAITING state.
+     * Either all the links are created or none, and no existing link is replaced.
+     * @param subscriptions The subscription links to create, at most MAX_SUBSCRIPTIONS_PER_CALL.
+     * @throws AlreadySubscribedException if any of the users already has a link to the queue.
+     * */
+    void createSubscriptions(List<User> subscriptions) throws AlreadySubscribedException;
+
+    /**
+     * Method to delete the link between a user and a queue.
+     * @param userId The ID of the user.
+     * @param queueId The ID of the queue.
+     * @param unsubscribeOnly If true the link is deleted only if the user does not own
+     *                        the queue, if false only if the user owns the queue.
+     * @return The deleted link.
+     * @throws ConditionalCheckFailedException if the link does not exist or the ownership does not match.
+     * */
+    User delete(String userId, String queueId, boolean unsubscribeOnly) throws ConditionalCheckFailedException;
+
+    /**
+     * Method to delete links whatever their owner flag, e.g. the subscriptions of a deleted queue.
+     * Links that do not exist are ignored.
+     * @param links The links to delete - only their user_id and queue_id are used.
+     * */
+    void deleteAll(List<User> links);
+}
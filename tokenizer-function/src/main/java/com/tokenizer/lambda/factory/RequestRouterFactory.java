@@ -1,22 +1,43 @@
 package com.tokenizer.lambda.factory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.changes.QueueChangeSource;
 import com.tokenizer.lambda.requests.RequestRouter;
 import com.tokenizer.lambda.requests.handlers.GenericResponseHandler;
 import com.tokenizer.lambda.requests.handlers.ListQueuesEventHandler;
+import com.tokenizer.lambda.requests.handlers.PositionChangeEventHandler;
+import com.tokenizer.lambda.requests.handlers.PositionEventHandler;
 import com.tokenizer.lambda.requests.handlers.QueueEventHandler;
 import com.tokenizer.lambda.requests.handlers.UserEventHandler;
+import com.tokenizer.lambda.service.AggregateService;
+import com.tokenizer.lambda.service.QueueReaper;
 import com.tokenizer.lambda.service.QueueService;
 import com.tokenizer.lambda.service.UserService;
 
 public class RequestRouterFactory {
     public static RequestRouter createRequestRouter(UserService userService,
                                                     QueueService queueService,
+                                                    QueueReaper queueReaper,
+                                                    ObjectMapper mapper) {
+        return createRequestRouter(userService, queueService, queueReaper, null, null, mapper);
+    }
+
+    /**
+     * @param aggregateService The service the counts of queues and owners are read from, null to leave them out.
+     * @param changeSource The source of queue changes that position requests wait on, null to answer them right away.
+     * */
+    public static RequestRouter createRequestRouter(UserService userService,
+                                                    QueueService queueService,
+                                                    QueueReaper queueReaper,
+                                                    AggregateService aggregateService,
+                                                    QueueChangeSource changeSource,
                                                     ObjectMapper mapper) {
         return new RequestRouter(
-                new QueueEventHandler(userService, queueService, mapper),
+                new QueueEventHandler(userService, queueService, queueReaper, aggregateService, mapper),
                 new ListQueuesEventHandler(queueService, mapper),
-                new UserEventHandler(userService, queueService, mapper),
+                new UserEventHandler(userService, queueService, aggregateService, mapper),
+                new PositionEventHandler(userService, queueService, mapper),
+                new PositionChangeEventHandler(userService, queueService, changeSource, mapper),
                 new GenericResponseHandler());
     }
 }
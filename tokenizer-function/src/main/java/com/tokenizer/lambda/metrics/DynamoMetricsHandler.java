@@ -0,0 +1,228 @@
+package com.tokenizer.lambda.metrics;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.Capacity;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handler of the DynamoDB client recording the latency and consumed capacity of each call.
+ *
+ * Being attached to the client, it covers the calls of every storage, including
+ * those made from the threads of the async repositories. The latency covers the retries of a call.
+ *
+ * Every call asks for the capacity it consumed, by table and index, which is added up per table
+ * and operation, per index and per route. Queries and scans also count the items they read
+ * but filtered out, and the share of their capacity spent on them.
+ * Failed calls, e.g. failed conditional writes, do not return their capacity and are not counted.
+ * */
+public class DynamoMetricsHandler extends RequestHandler2 {
+    private static final HandlerContextKey<Long> START_NANOS = new HandlerContextKey<>("StartNanos");
+    /** Calls spanning several tables, e.g. transactions. */
+    private static final String MULTIPLE_TABLES = "multiple";
+
+    private static final Map<Class<?>, String> OPERATIONS = new ConcurrentHashMap<>();
+
+    @Override
+    public AmazonWebServiceRequest beforeExecution(AmazonWebServiceRequest request) {
+        if (request instanceof GetItemRequest && ((GetItemRequest) request).getReturnConsumedCapacity() == null) {
+            ((GetItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+        } else if (request instanceof PutItemRequest && ((PutItemRequest) request).getReturnConsumedCapacity() == null) {
+            ((PutItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+        } else if (request instanceof UpdateItemRequest && ((UpdateItemRequest) request).getReturnConsumedCapacity() == null) {
+            ((UpdateItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+        } else if (request instanceof DeleteItemRequest && ((DeleteItemRequest) request).getReturnConsumedCapacity() == null) {
+            ((DeleteItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+        } else if (request instanceof QueryRequest && ((QueryRequest) request).getReturnConsumedCapacity() == null) {
+            ((QueryRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+        } else if (request instanceof ScanRequest && ((ScanRequest) request).getReturnConsumedCapacity() == null) {
+            ((ScanRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+        } else if (request instanceof BatchGetItemRequest && ((BatchGetItemRequest) request).getReturnConsumedCapacity() == null) {
+            ((BatchGetItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+        } else if (request instanceof BatchWriteItemRequest && ((BatchWriteItemRequest) request).getReturnConsumedCapacity() == null) {
+            ((BatchWriteItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+        } else if (request instanceof TransactWriteItemsRequest && ((TransactWriteItemsRequest) request).getReturnConsumedCapacity() == null) {
+            ((TransactWriteItemsRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES.toString());
+        }
+
+        return request;
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        request.addHandlerContext(START_NANOS, System.nanoTime());
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        record(request);
+
+        Object result = response != null ? response.getAwsResponse() : null;
+        if (result != null) {
+            recordCapacity(request.getOriginalRequest(), result);
+        }
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        record(request);
+    }
+
+    private static void record(Request<?> request) {
+        Long startNanos = request.getHandlerContext(START_NANOS);
+        if (startNanos == null) {
+            return;
+        }
+
+        AmazonWebServiceRequest originalRequest = request.getOriginalRequest();
+        Metrics.recordLatency(Metrics.DYNAMODB_LATENCY, startNanos,
+                Metrics.TABLE, tableName(originalRequest),
+                Metrics.OPERATION, operation(originalRequest));
+    }
+
+    private static void recordCapacity(AmazonWebServiceRequest originalRequest, Object result) {
+        String operation = operation(originalRequest);
+        String metricName = isRead(originalRequest) ? Metrics.READ_CAPACITY_UNITS : Metrics.WRITE_CAPACITY_UNITS;
+        String route = Metrics.getRoute();
+
+        for (ConsumedCapacity capacity : consumedCapacity(result)) {
+            if (capacity == null || capacity.getTableName() == null || capacity.getCapacityUnits() == null) {
+                continue;
+            }
+
+            String tableName = capacity.getTableName();
+            Metrics.addCount(metricName, capacity.getCapacityUnits(), Metrics.TABLE, tableName, Metrics.OPERATION, operation);
+            if (route != null) {
+                Metrics.addCount(metricName, capacity.getCapacityUnits(), Metrics.ROUTE, route);
+            }
+            if (capacity.getGlobalSecondaryIndexes() != null) {
+                for (Map.Entry<String, Capacity> index : capacity.getGlobalSecondaryIndexes().entrySet()) {
+                    if (index.getValue().getCapacityUnits() != null) {
+                        Metrics.addCount(metricName, index.getValue().getCapacityUnits(),
+                                Metrics.TABLE, tableName, Metrics.INDEX, index.getKey());
+                    }
+                }
+            }
+        }
+
+        if (result instanceof QueryResult) {
+            QueryResult queryResult = (QueryResult) result;
+            recordFiltered(queryResult.getConsumedCapacity(), queryResult.getScannedCount(), queryResult.getCount(), operation);
+        } else if (result instanceof ScanResult) {
+            ScanResult scanResult = (ScanResult) result;
+            recordFiltered(scanResult.getConsumedCapacity(), scanResult.getScannedCount(), scanResult.getCount(), operation);
+        }
+    }
+
+    /**
+     * Method to count the items a query or scan read and paid for, but filtered out.
+     * */
+    private static void recordFiltered(ConsumedCapacity capacity, Integer scannedCount, Integer count, String operation) {
+        if (capacity == null || capacity.getTableName() == null || scannedCount == null || count == null || scannedCount <= count) {
+            return;
+        }
+
+        int filtered = scannedCount - count;
+        Metrics.addCount(Metrics.FILTERED_ITEMS, filtered,
+                Metrics.TABLE, capacity.getTableName(), Metrics.OPERATION, operation);
+        if (capacity.getCapacityUnits() != null) {
+            Metrics.addCount(Metrics.FILTERED_READ_CAPACITY_UNITS, capacity.getCapacityUnits() * filtered / scannedCount,
+                    Metrics.TABLE, capacity.getTableName(), Metrics.OPERATION, operation);
+        }
+    }
+
+    private static List<ConsumedCapacity> consumedCapacity(Object result) {
+        if (result instanceof GetItemResult) {
+            return Collections.singletonList(((GetItemResult) result).getConsumedCapacity());
+        } else if (result instanceof PutItemResult) {
+            return Collections.singletonList(((PutItemResult) result).getConsumedCapacity());
+        } else if (result instanceof UpdateItemResult) {
+            return Collections.singletonList(((UpdateItemResult) result).getConsumedCapacity());
+        } else if (result instanceof DeleteItemResult) {
+            return Collections.singletonList(((DeleteItemResult) result).getConsumedCapacity());
+        } else if (result instanceof QueryResult) {
+            return Collections.singletonList(((QueryResult) result).getConsumedCapacity());
+        } else if (result instanceof ScanResult) {
+            return Collections.singletonList(((ScanResult) result).getConsumedCapacity());
+        } else if (result instanceof BatchGetItemResult) {
+            return nonNull(((BatchGetItemResult) result).getConsumedCapacity());
+        } else if (result instanceof BatchWriteItemResult) {
+            return nonNull(((BatchWriteItemResult) result).getConsumedCapacity());
+        } else if (result instanceof TransactWriteItemsResult) {
+            return nonNull(((TransactWriteItemsResult) result).getConsumedCapacity());
+        }
+
+        return Collections.emptyList();
+    }
+
+    private static List<ConsumedCapacity> nonNull(List<ConsumedCapacity> capacities) {
+        return capacities != null ? capacities : Collections.<ConsumedCapacity>emptyList();
+    }
+
+    private static boolean isRead(AmazonWebServiceRequest request) {
+        return request instanceof GetItemRequest || request instanceof QueryRequest
+                || request instanceof ScanRequest || request instanceof BatchGetItemRequest;
+    }
+
+    /**
+     * @return The name of the operation, e.g. GetItem for a GetItemRequest.
+     * */
+    static String operation(AmazonWebServiceRequest request) {
+        return OPERATIONS.computeIfAbsent(request.getClass(), type -> type.getSimpleName().replaceFirst("Request$", ""));
+    }
+
+    static String tableName(AmazonWebServiceRequest request) {
+        String tableName = null;
+
+        if (request instanceof GetItemRequest) {
+            tableName = ((GetItemRequest) request).getTableName();
+        } else if (request instanceof PutItemRequest) {
+            tableName = ((PutItemRequest) request).getTableName();
+        } else if (request instanceof UpdateItemRequest) {
+            tableName = ((UpdateItemRequest) request).getTableName();
+        } else if (request instanceof DeleteItemRequest) {
+            tableName = ((DeleteItemRequest) request).getTableName();
+        } else if (request instanceof QueryRequest) {
+            tableName = ((QueryRequest) request).getTableName();
+        } else if (request instanceof ScanRequest) {
+            tableName = ((ScanRequest) request).getTableName();
+        } else if (request instanceof BatchGetItemRequest) {
+            tableName = singleTable(((BatchGetItemRequest) request).getRequestItems());
+        } else if (request instanceof BatchWriteItemRequest) {
+            tableName = singleTable(((BatchWriteItemRequest) request).getRequestItems());
+        }
+
+        return tableName != null ? tableName : MULTIPLE_TABLES;
+    }
+
+    private static String singleTable(Map<String, ?> requestItems) {
+        return requestItems != null && requestItems.size() == 1 ? requestItems.keySet().iterator().next() : null;
+    }
+}
@@ -0,0 +1,95 @@
+package com.tokenizer.lambda.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds, with buckets of logarithmically growing width.
+ *
+ * As in an HDR histogram, latencies below 32 us get a bucket each, and every
+ * power of two above that is split into 16 buckets, so that a recorded latency
+ * is off by at most 1/16 of its value. Latencies above MAX_MICROS fall in the last bucket.
+ * Safe to record into from several threads.
+ * */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Latencies below this get a bucket each. */
+    private static final int EXACT_BUCKETS = 2 * SUB_BUCKETS;
+    /** Longer than any Lambda invocation. */
+    public static final long MAX_MICROS = 1L << 30;
+    private static final int BUCKETS = bucketIndex(MAX_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_MICROS));
+
+        counts.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        min.accumulateAndGet(value, Math::min);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < EXACT_BUCKETS) {
+            return (int) micros;
+        }
+
+        // shift brings the value into [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return EXACT_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return The middle of the latencies falling in the bucket.
+     * */
+    static double bucketValue(int index) {
+        if (index < EXACT_BUCKETS) {
+            return index;
+        }
+
+        int shift = (index - EXACT_BUCKETS) / SUB_BUCKETS + 1;
+        long lowest = (long) ((index - EXACT_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) - 1) / 2.0;
+    }
+
+    public int getBucketCount() {
+        return BUCKETS;
+    }
+
+    /**
+     * @return The number of latencies recorded in the bucket.
+     * */
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * @return The middle of the latencies falling in the bucket, in microseconds.
+     * */
+    public double getValue(int bucket) {
+        return bucketValue(bucket);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMin() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+}
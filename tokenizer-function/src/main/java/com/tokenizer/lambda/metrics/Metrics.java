@@ -0,0 +1,288 @@
+package com.tokenizer.lambda.metrics;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Latencies and counts recorded during an invocation, flushed at its end as CloudWatch Embedded Metric Format log lines.
+ *
+ * A Lambda container serves one invocation at a time, so the recorded metrics are kept statically.
+ * CloudWatch extracts the metrics from the lines written to stdout, which costs no call to PutMetricData,
+ * and computes percentiles from the buckets of the histograms.
+ *
+ * Every line also carries the route and queue of the invocation as properties, which are not
+ * dimensions - a metric per queue would cost as much as the queues - but can be grouped by in Logs Insights.
+ * */
+public class Metrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+    public static final String METRICS_NAMESPACE_ENV = "METRICS_NAMESPACE";
+    public static final String DEFAULT_NAMESPACE = "Tokenizer";
+
+    public static final String DISPATCH_LATENCY = "DispatchLatency";
+    public static final String HANDLER_LATENCY = "HandlerLatency";
+    public static final String DYNAMODB_LATENCY = "DynamoDBLatency";
+    public static final String READ_CAPACITY_UNITS = "ReadCapacityUnits";
+    public static final String WRITE_CAPACITY_UNITS = "WriteCapacityUnits";
+    public static final String FILTERED_ITEMS = "FilteredItems";
+    public static final String FILTERED_READ_CAPACITY_UNITS = "FilteredReadCapacityUnits";
+    public static final String REJECTED_CALLS = "DynamoDBRejectedCalls";
+    public static final String ARCHIVED_SUBSCRIBERS = "ArchivedSubscribers";
+    public static final String IDLE_QUEUES = "IdleQueues";
+    public static final String REPLAYED_REQUESTS = "ReplayedRequests";
+    public static final String SHED_REQUESTS = "ShedRequests";
+
+    public static final String ROUTE = "Route";
+    public static final String QUEUE_ID = "QueueId";
+    public static final String TABLE = "Table";
+    public static final String INDEX = "Index";
+    public static final String OPERATION = "Operation";
+    public static final String REASON = "Reason";
+
+    private static final String MILLISECONDS = "Milliseconds";
+    private static final String COUNT = "Count";
+
+    /** Largest number of distinct values CloudWatch accepts per metric in a line. */
+    private static final int MAX_VALUES_PER_LINE = 100;
+    /** Bounds the metrics kept, should a route or table name ever be unbounded. */
+    private static final int MAX_METRICS = 1000;
+    private static final String UNKNOWN = "unknown";
+
+    private static final String NAMESPACE = System.getenv(METRICS_NAMESPACE_ENV) != null ?
+            System.getenv(METRICS_NAMESPACE_ENV) : DEFAULT_NAMESPACE;
+    private static final String FUNCTION_NAME = System.getenv("AWS_LAMBDA_FUNCTION_NAME");
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final Map<MetricKey, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<MetricKey, DoubleAdder> COUNTERS = new ConcurrentHashMap<>();
+
+    // read from the threads of the async repositories as well
+    private static volatile String route;
+    private static volatile String queueId;
+
+    /**
+     * Method to set the route and queue of the invocation, which the metrics recorded
+     * until the next flush are attributed to.
+     * @param invocationRoute The route of the invocation, null if it has none.
+     * @param invocationQueueId The queue the invocation is about, null if it is about none.
+     * */
+    public static void startInvocation(String invocationRoute, String invocationQueueId) {
+        route = invocationRoute;
+        queueId = invocationQueueId;
+    }
+
+    /**
+     * @return The route of the current invocation, null if it has none.
+     * */
+    public static String getRoute() {
+        return route;
+    }
+
+    /**
+     * Method to record the latency of a call.
+     * @param metricName The name of the metric.
+     * @param startNanos The System.nanoTime() at which the call started.
+     * @param dimensions The names and values of the dimensions of the metric, in pairs.
+     * */
+    public static void recordLatency(String metricName, long startNanos, String... dimensions) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+
+        if (HISTOGRAMS.size() >= MAX_METRICS) {
+            HISTOGRAMS.clear();
+        }
+        HISTOGRAMS.computeIfAbsent(new MetricKey(metricName, dimensions), key -> new LatencyHistogram()).record(micros);
+    }
+
+    /**
+     * Method to add to a count, e.g. of capacity units.
+     * @param metricName The name of the metric.
+     * @param value The amount to add.
+     * @param dimensions The names and values of the dimensions of the metric, in pairs.
+     * */
+    public static void addCount(String metricName, double value, String... dimensions) {
+        if (COUNTERS.size() >= MAX_METRICS) {
+            COUNTERS.clear();
+        }
+        COUNTERS.computeIfAbsent(new MetricKey(metricName, dimensions), key -> new DoubleAdder()).add(value);
+    }
+
+    /**
+     * @return The route dimension of a request, its method and resource.
+     * */
+    public static String route(APIGatewayProxyRequestEvent input) {
+        return (input.getHttpMethod() != null ? input.getHttpMethod() : UNKNOWN) + " "
+                + (input.getResource() != null ? input.getResource() : UNKNOWN);
+    }
+
+    /**
+     * Drops what was recorded outside of an invocation, e.g. while priming.
+     * */
+    public static void clear() {
+        HISTOGRAMS.clear();
+        COUNTERS.clear();
+    }
+
+    /**
+     * Method to write what was recorded during the invocation, as one or more
+     * Embedded Metric Format lines per metric, and to start over for the next invocation.
+     * Metrics are never worth failing an invocation for, so failures are only logged.
+     * */
+    public static void flush() {
+        long timestamp = System.currentTimeMillis();
+
+        try {
+            for (Map.Entry<MetricKey, LatencyHistogram> entry : HISTOGRAMS.entrySet()) {
+                writeHistogram(timestamp, entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<MetricKey, DoubleAdder> entry : COUNTERS.entrySet()) {
+                writeCounter(timestamp, entry.getKey(), entry.getValue().sum());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not flush metrics: ", e);
+        }
+
+        clear();
+        startInvocation(null, null);
+    }
+
+    private static void writeHistogram(long timestamp, MetricKey key, LatencyHistogram histogram) throws IOException {
+        int bucket = 0;
+
+        while (bucket < histogram.getBucketCount()) {
+            StringWriter line = new StringWriter();
+            JsonGenerator generator = startLine(line, timestamp, key, MILLISECONDS);
+
+            generator.writeObjectFieldStart(key.name);
+            generator.writeArrayFieldStart("Values");
+            int values = 0;
+            int firstBucket = bucket;
+            for (; bucket < histogram.getBucketCount() && values < MAX_VALUES_PER_LINE; bucket++) {
+                if (histogram.getCount(bucket) > 0) {
+                    generator.writeNumber(histogram.getValue(bucket) / 1000);
+                    values++;
+                }
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("Counts");
+            for (int i = firstBucket; i < bucket; i++) {
+                if (histogram.getCount(i) > 0) {
+                    generator.writeNumber(histogram.getCount(i));
+                }
+            }
+            generator.writeEndArray();
+            // the statistics cover the whole histogram, so they are only written with its first values
+            if (firstBucket == 0) {
+                generator.writeNumberField("Min", histogram.getMin() / 1000.0);
+                generator.writeNumberField("Max", histogram.getMax() / 1000.0);
+                generator.writeNumberField("Count", histogram.getCount());
+                generator.writeNumberField("Sum", histogram.getSum() / 1000.0);
+            }
+            generator.writeEndObject();
+
+            generator.writeEndObject();
+            generator.close();
+
+            if (values > 0) {
+                System.out.println(line);
+            }
+        }
+    }
+
+    private static void writeCounter(long timestamp, MetricKey key, double value) throws IOException {
+        StringWriter line = new StringWriter();
+        JsonGenerator generator = startLine(line, timestamp, key, COUNT);
+        generator.writeNumberField(key.name, value);
+        generator.writeEndObject();
+        generator.close();
+
+        System.out.println(line);
+    }
+
+    /**
+     * Method to start a line with its metadata, its dimensions and the properties of the invocation.
+     * */
+    private static JsonGenerator startLine(StringWriter line, long timestamp, MetricKey key, String unit) throws IOException {
+        JsonGenerator generator = JSON_FACTORY.createGenerator(line);
+        generator.writeStartObject();
+        writeMetadata(generator, timestamp, key, unit);
+
+        boolean hasRoute = false;
+        for (int i = 0; i < key.dimensions.length; i += 2) {
+            generator.writeStringField(key.dimensions[i], key.dimensions[i + 1]);
+            hasRoute |= ROUTE.equals(key.dimensions[i]);
+        }
+        String invocationRoute = route;
+        if (invocationRoute != null && !hasRoute) {
+            generator.writeStringField(ROUTE, invocationRoute);
+        }
+        String invocationQueueId = queueId;
+        if (invocationQueueId != null) {
+            generator.writeStringField(QUEUE_ID, invocationQueueId);
+        }
+        if (FUNCTION_NAME != null) {
+            generator.writeStringField("FunctionName", FUNCTION_NAME);
+        }
+
+        return generator;
+    }
+
+    private static void writeMetadata(JsonGenerator generator, long timestamp, MetricKey key, String unit) throws IOException {
+        generator.writeObjectFieldStart("_aws");
+        generator.writeNumberField("Timestamp", timestamp);
+        generator.writeArrayFieldStart("CloudWatchMetrics");
+        generator.writeStartObject();
+        generator.writeStringField("Namespace", NAMESPACE);
+
+        generator.writeArrayFieldStart("Dimensions");
+        generator.writeStartArray();
+        for (int i = 0; i < key.dimensions.length; i += 2) {
+            generator.writeString(key.dimensions[i]);
+        }
+        generator.writeEndArray();
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("Metrics");
+        generator.writeStartObject();
+        generator.writeStringField("Name", key.name);
+        generator.writeStringField("Unit", unit);
+        generator.writeEndObject();
+        generator.writeEndArray();
+
+        generator.writeEndObject();
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static final class MetricKey {
+        private final String name;
+        private final String[] dimensions;
+
+        private MetricKey(String name, String[] dimensions) {
+            this.name = name;
+            this.dimensions = dimensions;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MetricKey)) return false;
+            MetricKey that = (MetricKey) o;
+            return name.equals(that.name) && Arrays.equals(dimensions, that.dimensions);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + Arrays.hashCode(dimensions);
+        }
+    }
+}
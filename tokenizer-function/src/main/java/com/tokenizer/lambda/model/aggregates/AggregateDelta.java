@@ -0,0 +1,78 @@
+package com.tokenizer.lambda.model.aggregates;
+
+/**
+ * Change to the counts of one aggregate, summed over the stream records of a batch.
+ * */
+public class AggregateDelta {
+    private long waitingCount;
+    private long doneCount;
+    private long unsubscribedCount;
+    private long ownedQueues;
+    /** Time the queue of the aggregate was deleted at, null if it was not. */
+    private Long deletedAt;
+
+    public void add(AggregateDelta other) {
+        waitingCount += other.waitingCount;
+        doneCount += other.doneCount;
+        unsubscribedCount += other.unsubscribedCount;
+        ownedQueues += other.ownedQueues;
+        if (deletedAt == null) {
+            deletedAt = other.deletedAt;
+        }
+    }
+
+    public boolean isEmpty() {
+        return waitingCount == 0 && doneCount == 0 && unsubscribedCount == 0 && ownedQueues == 0 && deletedAt == null;
+    }
+
+    public long getWaitingCount() {
+        return waitingCount;
+    }
+
+    public void addWaitingCount(long count) {
+        waitingCount += count;
+    }
+
+    public long getDoneCount() {
+        return doneCount;
+    }
+
+    public void addDoneCount(long count) {
+        doneCount += count;
+    }
+
+    public long getUnsubscribedCount() {
+        return unsubscribedCount;
+    }
+
+    public void addUnsubscribedCount(long count) {
+        unsubscribedCount += count;
+    }
+
+    public long getOwnedQueues() {
+        return ownedQueues;
+    }
+
+    public void addOwnedQueues(long count) {
+        ownedQueues += count;
+    }
+
+    public Long getDeletedAt() {
+        return deletedAt;
+    }
+
+    public void setDeletedAt(Long deletedAt) {
+        this.deletedAt = deletedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "AggregateDelta{" +
+                "waitingCount=" + waitingCount +
+                ", doneCount=" + doneCount +
+                ", unsubscribedCount=" + unsubscribedCount +
+                ", ownedQueues=" + ownedQueues +
+                ", deletedAt=" + deletedAt +
+                '}';
+    }
+}
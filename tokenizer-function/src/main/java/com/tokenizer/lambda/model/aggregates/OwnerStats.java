@@ -0,0 +1,47 @@
+package com.tokenizer.lambda.model.aggregates;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Counts of the queues of an owner, kept up to date by the aggregator function
+ * from the changes of the tokenizer_users table.
+ * */
+public class OwnerStats {
+    public static final String COL_OWNED_QUEUES = "owned_queues";
+
+    private String userId;
+    private long ownedQueues;
+
+    public OwnerStats() {}
+
+    public OwnerStats(String userId, long ownedQueues) {
+        this.userId = userId;
+        this.ownedQueues = ownedQueues;
+    }
+
+    @JsonProperty("user_id")
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    @JsonProperty(COL_OWNED_QUEUES)
+    public long getOwnedQueues() {
+        return ownedQueues;
+    }
+
+    public void setOwnedQueues(long ownedQueues) {
+        this.ownedQueues = ownedQueues;
+    }
+
+    @Override
+    public String toString() {
+        return "OwnerStats{" +
+                "userId='" + userId + '\'' +
+                ", ownedQueues=" + ownedQueues +
+                '}';
+    }
+}
@@ -0,0 +1,82 @@
+package com.tokenizer.lambda.model.aggregates;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Counts of the subscribers of a queue, kept up to date by the aggregator function
+ * from the changes of the tokenizer_users table.
+ * */
+public class QueueStats {
+    public static final String COL_WAITING_COUNT = "waiting_count";
+    public static final String COL_DONE_COUNT = "done_count";
+    public static final String COL_UNSUBSCRIBED_COUNT = "unsubscribed_count";
+
+    private String queueId;
+    private long waitingCount;
+    private long doneCount;
+    private long unsubscribedCount;
+
+    public QueueStats() {}
+
+    public QueueStats(String queueId, long waitingCount, long doneCount, long unsubscribedCount) {
+        this.queueId = queueId;
+        this.waitingCount = waitingCount;
+        this.doneCount = doneCount;
+        this.unsubscribedCount = unsubscribedCount;
+    }
+
+    @JsonProperty("queue_id")
+    public String getQueueId() {
+        return queueId;
+    }
+
+    public void setQueueId(String queueId) {
+        this.queueId = queueId;
+    }
+
+    /**
+     * Subscribers yet to be processed.
+     * */
+    @JsonProperty(COL_WAITING_COUNT)
+    public long getWaitingCount() {
+        return waitingCount;
+    }
+
+    public void setWaitingCount(long waitingCount) {
+        this.waitingCount = waitingCount;
+    }
+
+    /**
+     * Processed subscribers, including those whose links were archived and removed since.
+     * */
+    @JsonProperty(COL_DONE_COUNT)
+    public long getDoneCount() {
+        return doneCount;
+    }
+
+    public void setDoneCount(long doneCount) {
+        this.doneCount = doneCount;
+    }
+
+    /**
+     * Subscribers who left the queue before being processed, since it was created.
+     * */
+    @JsonProperty(COL_UNSUBSCRIBED_COUNT)
+    public long getUnsubscribedCount() {
+        return unsubscribedCount;
+    }
+
+    public void setUnsubscribedCount(long unsubscribedCount) {
+        this.unsubscribedCount = unsubscribedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "QueueStats{" +
+                "queueId='" + queueId + '\'' +
+                ", waitingCount=" + waitingCount +
+                ", doneCount=" + doneCount +
+                ", unsubscribedCount=" + unsubscribedCount +
+                '}';
+    }
+}
@@ -0,0 +1,100 @@
+package com.tokenizer.lambda.model.idempotency;
+
+/**
+ * Record of a request made with an idempotency key, kept for a short time so that
+ * retries of the request are answered with its original response instead of being executed again.
+ *
+ * A record is pending while its request executes, and holds the response once the request succeeded.
+ * */
+public class IdempotencyRecord {
+    private String key;
+    private String fingerprint;
+    private String response;
+    private Long lockedUntil;
+    private long expiresAt;
+
+    public IdempotencyRecord() {}
+
+    public IdempotencyRecord(String key, String fingerprint, String response, Long lockedUntil, long expiresAt) {
+        this.key = key;
+        this.fingerprint = fingerprint;
+        this.response = response;
+        this.lockedUntil = lockedUntil;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * The user's ID and the idempotency key of the request, so that keys of different users never collide.
+     * */
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    /**
+     * What the request asked for, so that a key reused for another request is not answered with the wrong response.
+     * */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * The body of the response, null while the request is pending.
+     * */
+    public String getResponse() {
+        return response;
+    }
+
+    public void setResponse(String response) {
+        this.response = response;
+    }
+
+    /**
+     * Time until which a pending request holds the key, in epoch milliseconds.
+     * Past it, the request is assumed to have died and the key can be claimed again.
+     * */
+    public Long getLockedUntil() {
+        return lockedUntil;
+    }
+
+    public void setLockedUntil(Long lockedUntil) {
+        this.lockedUntil = lockedUntil;
+    }
+
+    /**
+     * Time the record expires at, in epoch seconds - the TTL attribute of the table.
+     * */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public boolean isComplete() {
+        return response != null;
+    }
+
+    public boolean matches(String requestFingerprint) {
+        return fingerprint != null && fingerprint.equals(requestFingerprint);
+    }
+
+    @Override
+    public String toString() {
+        return "IdempotencyRecord{" +
+                "key='" + key + '\'' +
+                ", fingerprint='" + fingerprint + '\'' +
+                ", complete=" + isComplete() +
+                ", lockedUntil=" + lockedUntil +
+                ", expiresAt=" + expiresAt +
+                '}';
+    }
+}
@@ -0,0 +1,51 @@
+package com.tokenizer.lambda.model.queues;
+
+import java.util.List;
+
+/**
+ * Progress of a compaction run over all the queues.
+ *
+ * The queues are scanned in parallel segments. Each segment's cursor is the queue_id
+ * its scan stopped after, so a request handed over to a new invocation continues
+ * where the previous one stopped. The scheduled invocation starts with an empty request.
+ * */
+public class CompactionRequest {
+    /** Cursor of a segment whose scan is complete - never a queue_id, as key attributes cannot be empty. */
+    public static final String SEGMENT_COMPLETE = "";
+
+    private Integer totalSegments;
+    private List<String> cursors;
+
+    public CompactionRequest() {}
+
+    /**
+     * Number of segments the queues are scanned in. Null for the default.
+     * */
+    public Integer getTotalSegments() {
+        return totalSegments;
+    }
+
+    public void setTotalSegments(Integer totalSegments) {
+        this.totalSegments = totalSegments;
+    }
+
+    /**
+     * The queue_id each segment's scan stopped after - null if the segment was not started yet,
+     * SEGMENT_COMPLETE once it is complete. Null until the segments are planned.
+     * */
+    public List<String> getCursors() {
+        return cursors;
+    }
+
+    public void setCursors(List<String> cursors) {
+        this.cursors = cursors;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactionRequest{" +
+                "totalSegments=" + totalSegments +
+                ", cursors=" + cursors +
+                '}';
+    }
+}
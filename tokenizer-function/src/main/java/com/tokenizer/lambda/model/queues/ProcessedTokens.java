@@ -0,0 +1,76 @@
+package com.tokenizer.lambda.model.queues;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tokenizer.lambda.model.users.User;
+
+import java.util.List;
+
+/**
+ * Range of tokens processed at once by a queue owner, along with the subscribers who held them.
+ * Tokens of the range whose subscribers left the queue have no subscriber.
+ * */
+public class ProcessedTokens {
+    public static final String COL_FIRST_TOKEN = "first_token";
+    public static final String COL_LAST_TOKEN = "last_token";
+    public static final String COL_SUBSCRIBERS = "subscribers";
+
+    private String queueId;
+    private int firstToken;
+    private int lastToken;
+    private List<User> subscribers;
+
+    public ProcessedTokens() {}
+
+    public ProcessedTokens(String queueId, int firstToken, int lastToken, List<User> subscribers) {
+        this.queueId = queueId;
+        this.firstToken = firstToken;
+        this.lastToken = lastToken;
+        this.subscribers = subscribers;
+    }
+
+    @JsonProperty(Queue.COL_QUEUE_ID)
+    public String getQueueId() {
+        return queueId;
+    }
+
+    public void setQueueId(String queueId) {
+        this.queueId = queueId;
+    }
+
+    @JsonProperty(COL_FIRST_TOKEN)
+    public int getFirstToken() {
+        return firstToken;
+    }
+
+    public void setFirstToken(int firstToken) {
+        this.firstToken = firstToken;
+    }
+
+    @JsonProperty(COL_LAST_TOKEN)
+    public int getLastToken() {
+        return lastToken;
+    }
+
+    public void setLastToken(int lastToken) {
+        this.lastToken = lastToken;
+    }
+
+    @JsonProperty(COL_SUBSCRIBERS)
+    public List<User> getSubscribers() {
+        return subscribers;
+    }
+
+    public void setSubscribers(List<User> subscribers) {
+        this.subscribers = subscribers;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessedTokens{" +
+                "queueId='" + queueId + '\'' +
+                ", firstToken=" + firstToken +
+                ", lastToken=" + lastToken +
+                ", subscribers=" + subscribers +
+                '}';
+    }
+}
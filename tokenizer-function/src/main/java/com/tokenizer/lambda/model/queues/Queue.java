@@ -5,8 +5,10 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperFieldModel;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTyped;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import java.util.Objects;
+import java.util.Set;
 
 @DynamoDBTable(tableName = Queue.TABLE_NAME)
 public class Queue {
@@ -18,6 +20,15 @@ public class Queue {
     public static final String COL_LAST_PROC_TOKEN = "last_processed_token";
     public static final String COL_MAX_SIZE = "max_size";
     public static final String COL_DISABLED = "disabled";
+    public static final String COL_COUNTER_SHARDS = "counter_shards";
+    public static final String COL_SHARD_OF = "shard_of";
+    public static final String COL_DELETED_AT = "deleted_at";
+    public static final String COL_UNSUBSCRIBED_TOKENS = "unsubscribed_tokens";
+    public static final String COL_OWNER_ID = "owner_id";
+    public static final String COL_COMPACTED_TOKEN = "compacted_token";
+    public static final String COL_COMPACTED_AT = "compacted_at";
+    public static final String COL_SUBSCRIBE_RATE = "subscribe_rate";
+    public static final int MAX_COUNTER_SHARDS = 32;
 
     private String queueId;
     private String queueName;
@@ -25,6 +36,13 @@ public class Queue {
     private Integer lastProcessedToken;
     private Integer maxSize;
     private Boolean disabled;
+    private Integer counterShards;
+    private Long deletedAt;
+    private Set<Integer> unsubscribedTokens;
+    private String ownerId;
+    private Integer compactedToken;
+    private Long compactedAt;
+    private Integer subscribeRate;
 
     public Queue() {}
 
@@ -97,6 +115,100 @@ public class Queue {
         this.disabled = disabled;
     }
 
+    /**
+     * Number of counter shards handing out the tokens of the queue.
+     * Null or 1 for queues with a single last_generated_token counter.
+     * Only set when the queue is created.
+     * */
+    @DynamoDBAttribute(attributeName = COL_COUNTER_SHARDS)
+    public Integer getCounterShards() {
+        return counterShards;
+    }
+
+    public void setCounterShards(Integer counterShards) {
+        this.counterShards = counterShards;
+    }
+
+    /**
+     * Time the queue was deleted at, in epoch milliseconds. Deleted queues are kept
+     * as disabled tombstones until the reaper has removed all their subscribers.
+     * */
+    @DynamoDBAttribute(attributeName = COL_DELETED_AT)
+    public Long getDeletedAt() {
+        return deletedAt;
+    }
+
+    public void setDeletedAt(Long deletedAt) {
+        this.deletedAt = deletedAt;
+    }
+
+    /**
+     * Tokens whose subscribers left the queue before being processed.
+     * Used to count the people ahead of a token, so it is not part of the API.
+     * */
+    @JsonIgnore
+    @DynamoDBAttribute(attributeName = COL_UNSUBSCRIBED_TOKENS)
+    public Set<Integer> getUnsubscribedTokens() {
+        return unsubscribedTokens;
+    }
+
+    public void setUnsubscribedTokens(Set<Integer> unsubscribedTokens) {
+        this.unsubscribedTokens = unsubscribedTokens;
+    }
+
+    /**
+     * The user who created the queue. Not set on queues created before it was recorded.
+     * */
+    @JsonIgnore
+    @DynamoDBAttribute(attributeName = COL_OWNER_ID)
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public void setOwnerId(String ownerId) {
+        this.ownerId = ownerId;
+    }
+
+    /**
+     * Highest token up to which the subscribers were archived and removed by the compactor.
+     * */
+    @JsonIgnore
+    @DynamoDBAttribute(attributeName = COL_COMPACTED_TOKEN)
+    public Integer getCompactedToken() {
+        return compactedToken;
+    }
+
+    public void setCompactedToken(Integer compactedToken) {
+        this.compactedToken = compactedToken;
+    }
+
+    /**
+     * Time compacted_token last moved at, in epoch milliseconds - a queue whose
+     * compactor found nothing new for long enough is idle.
+     * */
+    @JsonIgnore
+    @DynamoDBAttribute(attributeName = COL_COMPACTED_AT)
+    public Long getCompactedAt() {
+        return compactedAt;
+    }
+
+    public void setCompactedAt(Long compactedAt) {
+        this.compactedAt = compactedAt;
+    }
+
+    /**
+     * Subscribes per second each container of the subscriber function lets through to the queue.
+     * Null to use the default rate of the function.
+     * */
+    @DynamoDBAttribute(attributeName = COL_SUBSCRIBE_RATE)
+    public Integer getSubscribeRate() {
+        return subscribeRate;
+    }
+
+    public void setSubscribeRate(Integer subscribeRate) {
+        this.subscribeRate = subscribeRate;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -107,7 +219,14 @@ public class Queue {
                 Objects.equals(lastGeneratedToken, queue.lastGeneratedToken) &&
                 Objects.equals(lastProcessedToken, queue.lastProcessedToken) &&
                 Objects.equals(maxSize, queue.maxSize) &&
-                Objects.equals(disabled, queue.disabled);
+                Objects.equals(disabled, queue.disabled) &&
+                Objects.equals(counterShards, queue.counterShards) &&
+                Objects.equals(deletedAt, queue.deletedAt) &&
+                Objects.equals(unsubscribedTokens, queue.unsubscribedTokens) &&
+                Objects.equals(ownerId, queue.ownerId) &&
+                Objects.equals(compactedToken, queue.compactedToken) &&
+                Objects.equals(compactedAt, queue.compactedAt) &&
+                Objects.equals(subscribeRate, queue.subscribeRate);
     }
 
     @Override
@@ -124,6 +243,13 @@ public class Queue {
                 ", lastProcessedToken=" + lastProcessedToken +
                 ", maxSize=" + maxSize +
                 ", disabled=" + disabled +
+                ", counterShards=" + counterShards +
+                ", deletedAt=" + deletedAt +
+                ", unsubscribedTokens=" + unsubscribedTokens +
+                ", ownerId='" + ownerId + '\'' +
+                ", compactedToken=" + compactedToken +
+                ", compactedAt=" + compactedAt +
+                ", subscribeRate=" + subscribeRate +
                 '}';
     }
 }
@@ -0,0 +1,35 @@
+package com.tokenizer.lambda.model.queues;
+
+import java.util.List;
+
+/**
+ * A page of the queue listing, with the token to pass back for the next page.
+ * */
+public class QueuePage {
+    private final List<Queue> queues;
+    private final String paginationToken;
+
+    public QueuePage(List<Queue> queues, String paginationToken) {
+        this.queues = queues;
+        this.paginationToken = paginationToken;
+    }
+
+    public List<Queue> getQueues() {
+        return queues;
+    }
+
+    /**
+     * @return The token of the next page, null once the listing is complete.
+     * */
+    public String getPaginationToken() {
+        return paginationToken;
+    }
+
+    @Override
+    public String toString() {
+        return "QueuePage{" +
+                "queues=" + queues +
+                ", paginationToken='" + paginationToken + '\'' +
+                '}';
+    }
+}
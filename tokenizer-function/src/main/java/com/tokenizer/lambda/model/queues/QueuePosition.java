@@ -0,0 +1,92 @@
+package com.tokenizer.lambda.model.queues;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+/**
+ * Place of a token in a queue, as returned by the position endpoint.
+ * */
+public class QueuePosition {
+    public static final String COL_TOKEN_NUM = "token_num";
+    public static final String COL_WAITING_AHEAD = "waiting_ahead";
+
+    private String queueId;
+    private int tokenNumber;
+    private int lastProcessedToken;
+    private int waitingAhead;
+
+    public QueuePosition() {}
+
+    public QueuePosition(String queueId, int tokenNumber, int lastProcessedToken, int waitingAhead) {
+        this.queueId = queueId;
+        this.tokenNumber = tokenNumber;
+        this.lastProcessedToken = lastProcessedToken;
+        this.waitingAhead = waitingAhead;
+    }
+
+    @JsonProperty(Queue.COL_QUEUE_ID)
+    public String getQueueId() {
+        return queueId;
+    }
+
+    public void setQueueId(String queueId) {
+        this.queueId = queueId;
+    }
+
+    @JsonProperty(COL_TOKEN_NUM)
+    public int getTokenNumber() {
+        return tokenNumber;
+    }
+
+    public void setTokenNumber(int tokenNumber) {
+        this.tokenNumber = tokenNumber;
+    }
+
+    @JsonProperty(Queue.COL_LAST_PROC_TOKEN)
+    public int getLastProcessedToken() {
+        return lastProcessedToken;
+    }
+
+    public void setLastProcessedToken(int lastProcessedToken) {
+        this.lastProcessedToken = lastProcessedToken;
+    }
+
+    /**
+     * Number of subscribers still waiting with a token lower than this one.
+     * */
+    @JsonProperty(COL_WAITING_AHEAD)
+    public int getWaitingAhead() {
+        return waitingAhead;
+    }
+
+    public void setWaitingAhead(int waitingAhead) {
+        this.waitingAhead = waitingAhead;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        QueuePosition that = (QueuePosition) o;
+        return tokenNumber == that.tokenNumber &&
+                lastProcessedToken == that.lastProcessedToken &&
+                waitingAhead == that.waitingAhead &&
+                Objects.equals(queueId, that.queueId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(queueId, tokenNumber);
+    }
+
+    @Override
+    public String toString() {
+        return "QueuePosition{" +
+                "queueId='" + queueId + '\'' +
+                ", tokenNumber=" + tokenNumber +
+                ", lastProcessedToken=" + lastProcessedToken +
+                ", waitingAhead=" + waitingAhead +
+                '}';
+    }
+}
@@ -0,0 +1,85 @@
+package com.tokenizer.lambda.model.queues;
+
+import java.util.List;
+
+/**
+ * Progress of the removal of a deleted queue by the reaper.
+ *
+ * The token range of the queue is split in segments that are reaped in parallel.
+ * Each segment's cursor is the next token number it will look for, so a request
+ * handed over to a new invocation continues where the previous one stopped.
+ * */
+public class ReapRequest {
+    private String queueId;
+    private String ownerId;
+    private Integer lastToken;
+    private List<Integer> nextTokens;
+    private int pass;
+
+    public ReapRequest() {}
+
+    public ReapRequest(String queueId, String ownerId) {
+        this.queueId = queueId;
+        this.ownerId = ownerId;
+    }
+
+    public String getQueueId() {
+        return queueId;
+    }
+
+    public void setQueueId(String queueId) {
+        this.queueId = queueId;
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public void setOwnerId(String ownerId) {
+        this.ownerId = ownerId;
+    }
+
+    /**
+     * Highest token number of the queue when the reaping started. Null until the segments are planned.
+     * */
+    public Integer getLastToken() {
+        return lastToken;
+    }
+
+    public void setLastToken(Integer lastToken) {
+        this.lastToken = lastToken;
+    }
+
+    /**
+     * Next token number to look for, per segment. Null until the segments are planned.
+     * */
+    public List<Integer> getNextTokens() {
+        return nextTokens;
+    }
+
+    public void setNextTokens(List<Integer> nextTokens) {
+        this.nextTokens = nextTokens;
+    }
+
+    /**
+     * Number of times the whole token range has been reaped.
+     * */
+    public int getPass() {
+        return pass;
+    }
+
+    public void setPass(int pass) {
+        this.pass = pass;
+    }
+
+    @Override
+    public String toString() {
+        return "ReapRequest{" +
+                "queueId='" + queueId + '\'' +
+                ", ownerId='" + ownerId + '\'' +
+                ", lastToken=" + lastToken +
+                ", nextTokens=" + nextTokens +
+                ", pass=" + pass +
+                '}';
+    }
+}
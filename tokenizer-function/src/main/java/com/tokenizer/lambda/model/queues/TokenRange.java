@@ -0,0 +1,52 @@
+package com.tokenizer.lambda.model.queues;
+
+/**
+ * A range of tokens handed out by a single reservation.
+ * Tokens of a queue with a single counter are consecutive (step 1).
+ * Tokens reserved on a shard of a sharded counter are interleaved
+ * with the tokens of the other shards (step = number of shards).
+ * */
+public class TokenRange {
+    private final int first;
+    private final int count;
+    private final int step;
+
+    public TokenRange(int first, int count, int step) {
+        this.first = first;
+        this.count = count;
+        this.step = step;
+    }
+
+    public int getFirst() {
+        return first;
+    }
+
+    public int getLast() {
+        return tokenAt(count - 1);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @param index Index of the token in the range, from 0 to count - 1.
+     * @return The token number at that index.
+     * */
+    public int tokenAt(int index) {
+        return first + index * step;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenRange{" +
+                "first=" + first +
+                ", count=" + count +
+                ", step=" + step +
+                '}';
+    }
+}
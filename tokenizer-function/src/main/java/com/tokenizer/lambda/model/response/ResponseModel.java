@@ -9,13 +9,17 @@ public class ResponseModel<T> {
     public static final String MESSAGE = "message";
     public static final String VALUES = "values";
     public static final String PAGINATION_TOKEN = "pagination_token";
+    public static final String STATS = "stats";
     public static final String SUCCESS_MESSAGE = "SUCCESS";
     public static final String FAILURE_MESSAGE = "An unexpected error occurred";
+    public static final String UNAVAILABLE_MESSAGE = "The service is busy, retry later";
+    public static final String CONTENDED_MESSAGE = "The queue is being updated by other requests, retry later";
 
     private Integer statusCode;
     private String message;
     private T object;
     private String paginationToken;
+    private Object stats;
 
     public ResponseModel(Integer statusCode, String message, T object, String paginationToken) {
         this.statusCode = statusCode;
@@ -59,4 +63,16 @@ public class ResponseModel<T> {
     public void setPaginationToken(String paginationToken) {
         this.paginationToken = paginationToken;
     }
+
+    /**
+     * Counts aggregated apart from the values, e.g. the subscribers of a queue.
+     * */
+    @JsonProperty(STATS)
+    public Object getStats() {
+        return stats;
+    }
+
+    public void setStats(Object stats) {
+        this.stats = stats;
+    }
 }
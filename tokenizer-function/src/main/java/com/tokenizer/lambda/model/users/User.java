@@ -2,6 +2,7 @@ package com.tokenizer.lambda.model.users;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIgnore;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexHashKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexRangeKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperFieldModel;
@@ -9,6 +10,9 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBRangeKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConvertedEnum;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTyped;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.tokenizer.lambda.model.queues.Queue;
 
 import java.util.Objects;
 
@@ -23,12 +27,17 @@ public class User {
     public static final String COL_QUEUE_OWNER = "owner";
     public static final String COL_TOKEN_NUM = "token_num";
     public static final String COL_USER_STATE = "user_state";
+    public static final String COL_EXPIRES_AT = "expires_at";
+    public static final String COL_SEATS = "seats";
 
     private String userId;
     private String queueId;
     private boolean owner;
     private Integer tokenNumber;
     private UserState state;
+    private Long expiresAt;
+    private Integer seats;
+    private Queue queue;
 
     public User() {}
 
@@ -94,6 +103,48 @@ public class User {
         this.state = state;
     }
 
+    /**
+     * Time the link expires at, in epoch seconds - the TTL attribute of the table.
+     * Only set on subscribers marked as DONE, whose links are archived and removed once expired.
+     * */
+    @JsonIgnore
+    @DynamoDBAttribute(attributeName = COL_EXPIRES_AT)
+    public Long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Number of seats of the group the user subscribed with, the user's own seat included.
+     * Only set on the link of the leader of a group, see GroupUtil.
+     * */
+    @DynamoDBAttribute(attributeName = COL_SEATS)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getSeats() {
+        return seats;
+    }
+
+    public void setSeats(Integer seats) {
+        this.seats = seats;
+    }
+
+    /**
+     * The queue the link is to, when the description of the user was asked to include it.
+     * Not an attribute of the link item.
+     * */
+    @DynamoDBIgnore
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Queue getQueue() {
+        return queue;
+    }
+
+    public void setQueue(Queue queue) {
+        this.queue = queue;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -119,6 +170,8 @@ public class User {
                 ", owner=" + owner +
                 ", tokenNumber=" + tokenNumber +
                 ", state=" + state +
+                ", expiresAt=" + expiresAt +
+                ", seats=" + seats +
                 '}';
     }
 }
\ No newline at end of file
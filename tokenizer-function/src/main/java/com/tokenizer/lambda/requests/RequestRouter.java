@@ -3,26 +3,36 @@ package com.tokenizer.lambda.requests;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.tokenizer.lambda.requests.handlers.GenericResponseHandler;
 import com.tokenizer.lambda.requests.handlers.ListQueuesEventHandler;
+import com.tokenizer.lambda.requests.handlers.PositionChangeEventHandler;
+import com.tokenizer.lambda.requests.handlers.PositionEventHandler;
 import com.tokenizer.lambda.requests.handlers.QueueEventHandler;
 import com.tokenizer.lambda.requests.handlers.UserEventHandler;
 
 public class RequestRouter {
     private static final String QUEUE = "/queues/queue";
     private static final String QUEUES = "/queues";
+    private static final String POSITION = "/queues/queue/position";
+    private static final String POSITION_CHANGES = "/queues/queue/position/changes";
     private static final String USER = "/user";
 
     private QueueEventHandler queueRequestHandler;
     private ListQueuesEventHandler listQueuesEventHandler;
     private UserEventHandler userEventHandler;
+    private PositionEventHandler positionEventHandler;
+    private PositionChangeEventHandler positionChangeEventHandler;
     private GenericResponseHandler genericResponseHandler;
 
     public RequestRouter(QueueEventHandler queueRequestHandler,
                          ListQueuesEventHandler listQueuesEventHandler,
                          UserEventHandler userEventHandler,
+                         PositionEventHandler positionEventHandler,
+                         PositionChangeEventHandler positionChangeEventHandler,
                          GenericResponseHandler genericResponseHandler) {
         this.queueRequestHandler = queueRequestHandler;
         this.listQueuesEventHandler = listQueuesEventHandler;
         this.userEventHandler = userEventHandler;
+        this.positionEventHandler = positionEventHandler;
+        this.positionChangeEventHandler = positionChangeEventHandler;
         this.genericResponseHandler = genericResponseHandler;
     }
 
@@ -40,6 +50,12 @@ public class RequestRouter {
             case USER:
                 result = userEventHandler;
                 break;
+            case POSITION:
+                result = positionEventHandler;
+                break;
+            case POSITION_CHANGES:
+                result = positionChangeEventHandler;
+                break;
             default:
                 result = genericResponseHandler;
                 break;
@@ -3,6 +3,7 @@ package com.tokenizer.lambda.requests.handlers;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.QueuePage;
 import com.tokenizer.lambda.model.response.ResponseModel;
 import com.tokenizer.lambda.requests.EventHandler;
 import com.tokenizer.lambda.service.QueueService;
@@ -14,6 +15,9 @@ import java.util.List;
 
 public class ListQueuesEventHandler implements EventHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(ListQueuesEventHandler.class);
+    private static final String PAGE_SIZE = "page_size";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
     private QueueService queueService;
     private ObjectMapper mapper;
 
@@ -30,28 +34,42 @@ public class ListQueuesEventHandler implements EventHandler {
         if (userId != null) {
             String httpMethod = input.getHttpMethod();
             String paginationToken = ApiGatewayUtil.parseQueryStringParameter(input, ApiGatewayUtil.PAGINATION_TOKEN);
+            String pageSize = ApiGatewayUtil.parseQueryStringParameter(input, PAGE_SIZE);
 
             switch (httpMethod) {
                 case ApiGatewayUtil.GET:
+                    Integer size = parsePageSize(pageSize);
+                    if (size == null) {
+                        result = ApiGatewayUtil.getResponseJsonString(mapper,
+                                buildFailureMessage(400, "page_size parameter must be between 1 and " + MAX_PAGE_SIZE));
+                        break;
+                    }
+
                     try {
-                        List<Queue> queueList = queueService.listQueues(paginationToken);
+                        QueuePage page = queueService.listQueues(paginationToken, size);
 
-                        LOGGER.debug("Number of queues retrieved: {}", queueList.size());
+                        LOGGER.debug("Number of queues retrieved: {}", page.getQueues().size());
                         result = ApiGatewayUtil.getResponseJsonString(mapper,
-                                buildSuccessMessage(queueList, paginationToken));
+                                buildSuccessMessage(page.getQueues(), page.getPaginationToken()));
 
                         LOGGER.debug("Prepared response: {}", result);
+                    } catch (IllegalArgumentException e) {
+                        LOGGER.warn("Invalid pagination token {}: {}", paginationToken, e.getMessage());
+
+                        result = ApiGatewayUtil.getResponseJsonString(mapper,
+                                buildFailureMessage(400, "pagination_token parameter is invalid"));
                     } catch (Exception e) {
+                        ApiGatewayUtil.rethrowIfUnavailable(e);
                         LOGGER.error("Error occurred while listing queues: ", e);
 
                         result = ApiGatewayUtil.getResponseJsonString(mapper,
-                                buildFailureMessage(ResponseModel.FAILURE_MESSAGE));
+                                buildFailureMessage(502, ResponseModel.FAILURE_MESSAGE));
                     }
                     break;
 
                 default:
                     result = ApiGatewayUtil.getResponseJsonString(mapper,
-                            buildFailureMessage("Invalid method requested"));
+                            buildFailureMessage(502, "Invalid method requested"));
                     break;
             }
         } else {
@@ -62,11 +80,30 @@ public class ListQueuesEventHandler implements EventHandler {
         return result;
     }
 
+    /**
+     * @return The page size requested, the default page size if none is, or null if it is invalid.
+     * */
+    private Integer parsePageSize(String pageSize) {
+        if (pageSize == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+
+        Integer result;
+
+        try {
+            result = Integer.valueOf(pageSize);
+        } catch (NumberFormatException e) {
+            result = null;
+        }
+
+        return result != null && result >= 1 && result <= MAX_PAGE_SIZE ? result : null;
+    }
+
     private ResponseModel<List<Queue>> buildSuccessMessage(List<Queue> queues, String paginationToken) {
         return new ResponseModel<>(200, ResponseModel.SUCCESS_MESSAGE, queues, paginationToken);
     }
 
-    private ResponseModel<List<Queue>> buildFailureMessage(String errorMessage) {
-        return new ResponseModel<>(502, errorMessage, null, null);
+    private ResponseModel<List<Queue>> buildFailureMessage(int statusCode, String errorMessage) {
+        return new ResponseModel<>(statusCode, errorMessage, null, null);
     }
 }
@@ -0,0 +1,166 @@
+package com.tokenizer.lambda.requests.handlers;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.changes.QueueChangeSource;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.QueuePosition;
+import com.tokenizer.lambda.model.response.ResponseModel;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.requests.EventHandler;
+import com.tokenizer.lambda.service.QueueService;
+import com.tokenizer.lambda.service.UserService;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import com.tokenizer.lambda.util.EnvUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handler holding a position request until the queue's last_processed_token moves past
+ * the value the client last saw, or until the wait times out.
+ *
+ * The request subscribes to the changes of the queue before reading it once, so a change is
+ * either in the queue read or delivered to the wait. The position after a change is computed
+ * from the changed queue itself, without reading it again. A timed out wait answers the position read.
+ * The queue read may come from the cache of the container, so a change made in the couple of seconds
+ * before the stream is first read can be missed, and is then answered by the next request.
+ * Without a change source, the position read is answered right away.
+ * */
+public class PositionChangeEventHandler implements EventHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PositionChangeEventHandler.class);
+    public static final String WAIT_SECONDS = "wait_seconds";
+    public static final String POSITION_WAIT_MAX_SECONDS_ENV = "POSITION_WAIT_MAX_SECONDS";
+    /** Below the 29 seconds API Gateway waits for an integration. */
+    public static final int DEFAULT_MAX_WAIT_SECONDS = 20;
+
+    private static final int MAX_WAIT_SECONDS = EnvUtil.intFromEnv(POSITION_WAIT_MAX_SECONDS_ENV, DEFAULT_MAX_WAIT_SECONDS);
+
+    private UserService userService;
+    private QueueService queueService;
+    private QueueChangeSource changeSource;
+    private ObjectMapper mapper;
+
+    public PositionChangeEventHandler(UserService userService, QueueService queueService,
+                                      QueueChangeSource changeSource, ObjectMapper mapper) {
+        this.userService = userService;
+        this.queueService = queueService;
+        this.changeSource = changeSource;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public String handleEvent(APIGatewayProxyRequestEvent input) {
+        ResponseModel<QueuePosition> response = null;
+        String userId = ApiGatewayUtil.parseUsername(input);
+
+        if (userId != null) {
+            String queueId = ApiGatewayUtil.parseQueryStringParameter(input, Queue.COL_QUEUE_ID);
+            String tokenNumber = ApiGatewayUtil.parseQueryStringParameter(input, QueuePosition.COL_TOKEN_NUM);
+            String lastProcessedToken = ApiGatewayUtil.parseQueryStringParameter(input, Queue.COL_LAST_PROC_TOKEN);
+            String waitSeconds = ApiGatewayUtil.parseQueryStringParameter(input, WAIT_SECONDS);
+
+            switch (input.getHttpMethod()) {
+                case ApiGatewayUtil.GET:
+                    if (queueId == null) {
+                        response = buildFailureResponse(400, "queue_id parameter is missing");
+                    } else if (lastProcessedToken == null) {
+                        response = buildFailureResponse(400, "last_processed_token parameter is missing");
+                    } else {
+                        response = awaitPosition(userId, queueId, tokenNumber, lastProcessedToken, waitSeconds);
+                    }
+                    break;
+
+                default:
+                    response = buildFailureResponse(400, "Invalid method requested.");
+                    break;
+            }
+        } else {
+            LOGGER.error("No user_id information found. User is not logged in.");
+        }
+
+        return ApiGatewayUtil.getResponseJsonString(mapper, response);
+    }
+
+    private ResponseModel<QueuePosition> awaitPosition(String userId, String queueId, String tokenNumber,
+                                                       String lastProcessedToken, String waitSeconds) {
+        int after;
+        int wait;
+        Integer token;
+        try {
+            after = Integer.parseInt(lastProcessedToken);
+            wait = waitSeconds != null ? Math.min(Math.max(Integer.parseInt(waitSeconds), 0), MAX_WAIT_SECONDS) : MAX_WAIT_SECONDS;
+            token = tokenNumber != null ? Integer.valueOf(tokenNumber) : null;
+        } catch (NumberFormatException e) {
+            return buildFailureResponse(400, "Invalid last_processed_token, token_num or wait_seconds.");
+        }
+
+        CompletableFuture<Queue> change = null;
+        try {
+            if (token == null) {
+                User subscription = userService.getSubscription(userId, queueId);
+                token = subscription != null ? subscription.getTokenNumber() : null;
+            }
+            if (token == null) {
+                return buildFailureResponse(404, "Queue " + queueId + " not found or user is not subscribed to it.");
+            }
+
+            change = changeSource != null && wait > 0 ? subscribe(queueId, after) : null;
+            Queue queue = queueService.describeQueue(queueId);
+
+            if (change != null && queue != null && queue.getDeletedAt() == null && lastProcessedToken(queue) <= after) {
+                try {
+                    queue = change.get(wait, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    LOGGER.debug("No change of queue {} within {} seconds", queueId, wait);
+                }
+            }
+
+            QueuePosition position = queueService.getPosition(queue, token);
+            return position != null ?
+                    new ResponseModel<>(200, ResponseModel.SUCCESS_MESSAGE, position, null) :
+                    buildFailureResponse(404, "Queue " + queueId + " not found or user is not subscribed to it.");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return buildFailureResponse(502, ResponseModel.FAILURE_MESSAGE);
+        } catch (ExecutionException e) {
+            LOGGER.error("Error occurred while waiting for a change of queue {}: ", queueId, e.getCause());
+            return buildFailureResponse(502, ResponseModel.FAILURE_MESSAGE);
+        } catch (Exception e) {
+            ApiGatewayUtil.rethrowIfUnavailable(e);
+            LOGGER.error("Error occurred while waiting for the position in queue {}: ", queueId, e);
+            return buildFailureResponse(502, ResponseModel.FAILURE_MESSAGE);
+        } finally {
+            if (change != null) {
+                change.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Method to subscribe to the changes of a queue. Should the change source fail,
+     * e.g. the stream cannot be described, the request is answered without waiting.
+     * */
+    private CompletableFuture<Queue> subscribe(String queueId, int after) {
+        try {
+            return changeSource.awaitProcessedPast(queueId, after);
+        } catch (AmazonClientException e) {
+            LOGGER.warn("Could not wait for changes of queue {}: {}", queueId, e.getMessage());
+            return null;
+        }
+    }
+
+    private static int lastProcessedToken(Queue queue) {
+        return queue.getLastProcessedToken() != null ? queue.getLastProcessedToken() : 0;
+    }
+
+    private ResponseModel<QueuePosition> buildFailureResponse(int statusCode, String message) {
+        return new ResponseModel<>(statusCode, message, null, null);
+    }
+}
@@ -0,0 +1,92 @@
+package com.tokenizer.lambda.requests.handlers;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.QueuePosition;
+import com.tokenizer.lambda.model.response.ResponseModel;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.requests.EventHandler;
+import com.tokenizer.lambda.service.QueueService;
+import com.tokenizer.lambda.service.UserService;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handler answering how many people wait ahead of a token.
+ *
+ * Clients that know their token pass it as token_num, so that the position is
+ * computed from the queue item alone. Without it, the caller's subscription is
+ * looked up first.
+ * */
+public class PositionEventHandler implements EventHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PositionEventHandler.class);
+
+    private UserService userService;
+    private QueueService queueService;
+    private ObjectMapper mapper;
+
+    public PositionEventHandler(UserService userService, QueueService queueService, ObjectMapper mapper) {
+        this.userService = userService;
+        this.queueService = queueService;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public String handleEvent(APIGatewayProxyRequestEvent input) {
+        ResponseModel<QueuePosition> response = null;
+        String userId = ApiGatewayUtil.parseUsername(input);
+
+        if (userId != null) {
+            String queueId = ApiGatewayUtil.parseQueryStringParameter(input, Queue.COL_QUEUE_ID);
+            String tokenNumber = ApiGatewayUtil.parseQueryStringParameter(input, QueuePosition.COL_TOKEN_NUM);
+
+            switch (input.getHttpMethod()) {
+                case ApiGatewayUtil.GET:
+                    response = queueId != null ?
+                            getPosition(userId, queueId, tokenNumber) :
+                            buildFailureResponse(400, "queue_id parameter is missing");
+                    break;
+
+                default:
+                    response = buildFailureResponse(400, "Invalid method requested.");
+                    break;
+            }
+        } else {
+            LOGGER.error("No user_id information found. User is not logged in.");
+        }
+
+        return ApiGatewayUtil.getResponseJsonString(mapper, response);
+    }
+
+    private ResponseModel<QueuePosition> getPosition(String userId, String queueId, String tokenNumber) {
+        ResponseModel<QueuePosition> response;
+
+        try {
+            Integer token = tokenNumber != null ? Integer.valueOf(tokenNumber) : null;
+            if (token == null) {
+                User subscription = userService.getSubscription(userId, queueId);
+                token = subscription != null ? subscription.getTokenNumber() : null;
+            }
+
+            QueuePosition position = token != null ? queueService.getPosition(queueId, token) : null;
+            response = position != null ?
+                    new ResponseModel<>(200, ResponseModel.SUCCESS_MESSAGE, position, null) :
+                    buildFailureResponse(404, "Queue " + queueId + " not found or user is not subscribed to it.");
+
+        } catch (NumberFormatException e) {
+            response = buildFailureResponse(400, "Invalid token_num: " + tokenNumber);
+        } catch (Exception e) {
+            ApiGatewayUtil.rethrowIfUnavailable(e);
+            LOGGER.error("Error occurred while getting the position in queue {}: ", queueId, e);
+            response = buildFailureResponse(502, ResponseModel.FAILURE_MESSAGE);
+        }
+
+        return response;
+    }
+
+    private ResponseModel<QueuePosition> buildFailureResponse(int statusCode, String message) {
+        return new ResponseModel<>(statusCode, message, null, null);
+    }
+}
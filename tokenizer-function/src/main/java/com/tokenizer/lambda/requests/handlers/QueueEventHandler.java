@@ -1,32 +1,47 @@
 package com.tokenizer.lambda.requests.handlers;
 
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.model.aggregates.QueueStats;
 import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.ReapRequest;
 import com.tokenizer.lambda.model.response.ResponseModel;
-import com.tokenizer.lambda.model.users.User;
 import com.tokenizer.lambda.requests.EventHandler;
+import com.tokenizer.lambda.service.AggregateService;
+import com.tokenizer.lambda.service.QueueReaper;
 import com.tokenizer.lambda.service.QueueService;
 import com.tokenizer.lambda.service.UserService;
 import com.tokenizer.lambda.util.ApiGatewayUtil;
+import com.tokenizer.lambda.util.AsyncUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
 
 public class QueueEventHandler implements EventHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(QueueEventHandler.class);
 
     private UserService userService;
     private QueueService queueService;
+    private QueueReaper queueReaper;
+    private AggregateService aggregateService;
     private ObjectMapper mapper;
 
-    public QueueEventHandler(UserService userService, QueueService queueService, ObjectMapper mapper) {
+    public QueueEventHandler(UserService userService, QueueService queueService,
+                             QueueReaper queueReaper, ObjectMapper mapper) {
+        this(userService, queueService, queueReaper, null, mapper);
+    }
+
+    /**
+     * @param aggregateService The service the counts of a described queue are read from, null to leave them out.
+     * */
+    public QueueEventHandler(UserService userService, QueueService queueService,
+                             QueueReaper queueReaper, AggregateService aggregateService, ObjectMapper mapper) {
         this.userService = userService;
         this.queueService = queueService;
+        this.queueReaper = queueReaper;
+        this.aggregateService = aggregateService;
         this.mapper = mapper;
     }
 
@@ -41,6 +56,8 @@ public class QueueEventHandler implements EventHandler {
             String queueName = ApiGatewayUtil.parseQueryStringParameter(input, Queue.COL_QUEUE_NAME);
             String queueSize = ApiGatewayUtil.parseQueryStringParameter(input, Queue.COL_MAX_SIZE);
             String queueDisabled = ApiGatewayUtil.parseQueryStringParameter(input, Queue.COL_DISABLED);
+            String counterShards = ApiGatewayUtil.parseQueryStringParameter(input, Queue.COL_COUNTER_SHARDS);
+            Integer subscribeRate = parseSubscribeRate(ApiGatewayUtil.parseQueryStringParameter(input, Queue.COL_SUBSCRIBE_RATE));
 
             switch (httpMethod) {
                 case ApiGatewayUtil.POST :
@@ -49,24 +66,29 @@ public class QueueEventHandler implements EventHandler {
                             queueName,
                             queueSize,
                             queueDisabled,
+                            counterShards,
+                            subscribeRate,
                             input.getRequestContext().getRequestId());
                     break;
 
                 case ApiGatewayUtil.DELETE:
                     response = deleteQueue(queueId, userId) ?
-                            buildSuccessMessage(null, "Successfully deleted queue " + queueId) :
+                            buildSuccessMessage(null, "Deleting queue " + queueId) :
                             buildFailureMessage(502, "Failed to delete queue " + queueId);
                     break;
 
                 case ApiGatewayUtil.GET:
                     Queue queueDetails = describeQueue(queueId);
-                    response = queueDetails != null ?
+                    response = queueDetails != null && queueDetails.getDeletedAt() == null ?
                             buildSuccessMessage(queueDetails, ResponseModel.SUCCESS_MESSAGE):
                             buildFailureMessage(404, "Queue with id " + queueId + " not found.");
+                    if (response.getObject() != null) {
+                        response.setStats(getQueueStats(queueId));
+                    }
                     break;
 
                 case ApiGatewayUtil.PUT:
-                    response = updateQueue(queueId, queueName, queueSize, queueDisabled) ?
+                    response = updateQueue(queueId, queueName, queueSize, queueDisabled, subscribeRate) ?
                             buildSuccessMessage(null, ResponseModel.SUCCESS_MESSAGE) :
                             buildFailureMessage(502, "Failed to update queue.");
                     break;
@@ -90,12 +112,17 @@ public class QueueEventHandler implements EventHandler {
      * @param userId The ID of the user creating the queue.
      * @param maxSize The max size of the queue.
      * @param disabled The status of the queue to be initialized with.
+     * @param counterShards The number of counter shards for a queue expecting a lot of subscribers.
+     *                      Queues have a single counter if not specified or invalid.
+     * @param subscribeRate The subscribes per second let through by each subscriber container,
+     *                      null for the default rate.
      * @return The response to the user.
      * */
     private ResponseModel<Queue> createNewQueue(String userId, String queueName, String maxSize,
-                                                String disabled, String queueId) {
+                                                String disabled, String counterShards, Integer subscribeRate, String queueId) {
         ResponseModel<Queue> response;
         Integer size;
+        Integer shards = null;
         boolean disabledStatus = Boolean.parseBoolean(disabled);
         queueName = queueName != null ? queueName: userId + "_queue_" + queueId;
 
@@ -105,11 +132,22 @@ public class QueueEventHandler implements EventHandler {
             size = Queue.DEFAULT_MAX_SIZE;
         }
 
+        try {
+            int parsedShards = Integer.parseInt(counterShards);
+            if (parsedShards > 1 && parsedShards <= Queue.MAX_COUNTER_SHARDS) {
+                shards = parsedShards;
+            }
+        } catch (NumberFormatException e) {}
+
         try{
-            userService.createNewQueueForUser(userId, queueId);
-            Queue newQueue = queueService.initNewQueue(queueId, queueName, size, disabledStatus);
+            // the ownership link and the queue item are independent writes
+            CompletableFuture<Void> ownerLinked = userService.createNewQueueForUserAsync(userId, queueId);
+            CompletableFuture<Queue> queueCreated = queueService.initNewQueueAsync(userId, queueId, queueName, size, disabledStatus, shards, subscribeRate);
+            AsyncUtil.join(ownerLinked);
+            Queue newQueue = AsyncUtil.join(queueCreated);
             response = buildSuccessMessage(newQueue, ResponseModel.SUCCESS_MESSAGE);
         } catch (Exception e) {
+            ApiGatewayUtil.rethrowIfUnavailable(e);
             LOGGER.error("Unexpected error occurred while creating queue: ", e);
             response = buildFailureMessage(502, ResponseModel.FAILURE_MESSAGE);
         }
@@ -120,9 +158,11 @@ public class QueueEventHandler implements EventHandler {
 
     /**
      * Method to delete a queue and unsubscribe all subscribers of the queue.
+     * The queue is only marked as deleted here, which disables it right away.
+     * Its subscribers, the queue item and the owner's link are removed by the QueueReaper.
      * @param queueId The ID of the queue to delete.
      * @param userId The ID of the user invoking the delete request.
-     * @return True if queue was successfully deleted. Else returns false.
+     * @return True if the deletion was successfully started. Else returns false.
      * */
     private boolean deleteQueue(String queueId, String userId) {
         boolean deleted = false;
@@ -133,22 +173,19 @@ public class QueueEventHandler implements EventHandler {
         if (isOwner) {
             LOGGER.info("Deleting queue {}", queueId);
 
-            // unsubscribe all subscribers from the queue
-            List<User> subscribers = userService.getSubscribersToQueue(queueId);
-            Optional.ofNullable(subscribers)
-                    .map(Collection::stream)
-                    .orElseGet(Stream::empty)
-                    .forEach(subscriber -> {
-                        LOGGER.info("Unsubscribing user {} from queue {}", subscriber.getUserId(), queueId);
-                        userService.unsubscribeUserFromQueue(subscriber.getUserId(), queueId);
-                    });
-
-            // delete the queue status item
-            queueService.deleteQueue(queueId);
-
-            // delete user record of the owner linking to the queue
-            userService.deleteUserQueueLink(userId, queueId, false);
-            deleted = true;
+            try {
+                queueService.tombstoneQueue(queueId);
+            } catch (ConditionalCheckFailedException e) {
+                // the queue item is gone, but its subscribers or the owner's link may be left over
+                LOGGER.warn("Queue {} does not exist, reaping what is left of it", queueId);
+            }
+
+            try {
+                queueReaper.schedule(new ReapRequest(queueId, userId));
+                deleted = true;
+            } catch (Exception e) {
+                LOGGER.error("Failed to schedule the removal of queue {}", queueId, e);
+            }
         } else {
             LOGGER.warn("User {} cannot delete queue {}. Not the owner", userId, queueId);
         }
@@ -171,7 +208,25 @@ public class QueueEventHandler implements EventHandler {
         return queueDetails;
     }
 
-    private boolean updateQueue(String queueId, String queueName, String maxSize, String disabled) {
+    /**
+     * Method to read the counts of the subscribers of a queue.
+     * The counts are an extra to the description, so they are left out when they cannot be read.
+     * @return The counts, null if they are not kept or could not be read.
+     * */
+    private QueueStats getQueueStats(String queueId) {
+        if (aggregateService == null) {
+            return null;
+        }
+
+        try {
+            return aggregateService.getQueueStats(queueId);
+        } catch (Exception e) {
+            LOGGER.warn("Could not read the counts of queue {}: {}", queueId, e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean updateQueue(String queueId, String queueName, String maxSize, String disabled, Integer subscribeRate) {
         boolean result = false;
         Integer size = null;
         Boolean disabledStatus = null;
@@ -191,15 +246,29 @@ public class QueueEventHandler implements EventHandler {
         }
 
         try {
-            queueService.updateQueue(queueId, queueName, size, disabledStatus);
+            queueService.updateQueue(queueId, queueName, size, disabledStatus, subscribeRate);
             result = true;
         } catch (Exception e) {
+            ApiGatewayUtil.rethrowIfUnavailable(e);
             LOGGER.error("Exception occurred while updating queue {}", queueId, e);
         }
 
         return result;
     }
 
+    /**
+     * Method to parse the subscribes per second of a queue.
+     * @return The rate, or null if it is not specified or invalid.
+     * */
+    private Integer parseSubscribeRate(String subscribeRate) {
+        try {
+            int rate = Integer.parseInt(subscribeRate);
+            return rate > 0 ? rate : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private ResponseModel<Queue> buildSuccessMessage(Queue queue, String message) {
         return new ResponseModel<>(200, message, queue, null);
     }
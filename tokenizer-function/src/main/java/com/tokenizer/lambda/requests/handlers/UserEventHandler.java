@@ -3,55 +3,95 @@ package com.tokenizer.lambda.requests.handlers;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.dao.storage.ContendedUpdateException;
+import com.tokenizer.lambda.model.aggregates.OwnerStats;
+import com.tokenizer.lambda.model.queues.ProcessedTokens;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.TokenRange;
 import com.tokenizer.lambda.model.response.ResponseModel;
 import com.tokenizer.lambda.model.users.User;
 import com.tokenizer.lambda.requests.EventHandler;
+import com.tokenizer.lambda.service.AggregateService;
 import com.tokenizer.lambda.service.QueueService;
 import com.tokenizer.lambda.service.UserService;
 import com.tokenizer.lambda.util.ApiGatewayUtil;
+import com.tokenizer.lambda.util.GroupUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class UserEventHandler implements EventHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(UserEventHandler.class);
+    private static final int MAX_PROCESS_COUNT = 25;
 
     private UserService userService;
     private QueueService queueService;
+    private AggregateService aggregateService;
     private ObjectMapper mapper;
 
     public UserEventHandler(UserService userService, QueueService queueService, ObjectMapper mapper) {
+        this(userService, queueService, null, mapper);
+    }
+
+    /**
+     * @param aggregateService The service the counts of a described owner are read from, null to leave them out.
+     * */
+    public UserEventHandler(UserService userService, QueueService queueService,
+                            AggregateService aggregateService, ObjectMapper mapper) {
         this.userService = userService;
         this.queueService = queueService;
+        this.aggregateService = aggregateService;
         this.mapper = mapper;
     }
 
     @Override
     public String handleEvent(APIGatewayProxyRequestEvent input) {
-        ResponseModel<List<User>> response = null;
+        ResponseModel<?> response = null;
         String userId = ApiGatewayUtil.parseUsername(input);
 
         if (userId != null) {
             String httpMethod = input.getHttpMethod();
             String owner = ApiGatewayUtil.parseQueryStringParameter(input, User.COL_QUEUE_OWNER);
             String queueId = ApiGatewayUtil.parseQueryStringParameter(input, User.COL_QUEUE_ID);
+            String count = ApiGatewayUtil.parseQueryStringParameter(input, ApiGatewayUtil.COUNT);
+            String hydrate = ApiGatewayUtil.parseQueryStringParameter(input, ApiGatewayUtil.HYDRATE);
 
             switch (httpMethod) {
                 case ApiGatewayUtil.PUT:
-                    response = queueId != null ?
-                            processItemFromQueue(userId, queueId):
-                            buildFailureResponse(400, "queue_id parameter is missing");
+                    if (queueId == null) {
+                        response = buildFailureResponse(400, "queue_id parameter is missing");
+                    } else if (count == null) {
+                        response = processItemFromQueue(userId, queueId);
+                    } else {
+                        Integer itemCount = parseCount(count);
+                        response = itemCount != null ?
+                                processItemsFromQueue(userId, queueId, itemCount) :
+                                buildFailureResponse(400, "count parameter must be between 1 and " + MAX_PROCESS_COUNT);
+                    }
                     break;
 
                 case ApiGatewayUtil.GET:
-                    response = describeUser(userId, owner == null ? null : Boolean.parseBoolean(owner));
+                    response = describeUser(userId, owner == null ? null : Boolean.parseBoolean(owner),
+                            Boolean.parseBoolean(hydrate));
                     break;
 
                 case ApiGatewayUtil.DELETE:
-                     response = queueId != null ?
-                             unsubscribeFromQueue(userId, queueId):
-                             buildFailureResponse(400, "queue_id parameter is missing");
+                    if (queueId == null) {
+                        response = buildFailureResponse(400, "queue_id parameter is missing");
+                    } else if (!GroupUtil.isValidUserId(userId)) {
+                        // the link would be the seat of a group, which only leaves with its leader
+                        response = buildFailureResponse(400, "User names containing "
+                                + GroupUtil.SEAT_SEPARATOR + " cannot subscribe to queues.");
+                    } else {
+                        response = unsubscribeFromQueue(userId, queueId);
+                    }
                     break;
 
                 default:
@@ -86,6 +126,7 @@ public class UserEventHandler implements EventHandler {
                 boolean unsubscribed = userService.markSubscriberAsProcessed(queueId, lastProcessedToken);
                 if (!unsubscribed) {
                     LOGGER.warn("Could not unsubscribe user at position {} of queue {}", lastProcessedToken, queueId);
+                    forgetUnsubscribedTokens(queueId, Collections.singleton(Integer.valueOf(lastProcessedToken)));
                 }
 
                 response = buildSuccessResponse(null, lastProcessedToken);
@@ -100,8 +141,67 @@ public class UserEventHandler implements EventHandler {
             LOGGER.warn("No more items to process.");
             response = buildFailureResponse(400, "No more items to process in queue " + queueId);
 
+        } catch (ContendedUpdateException e) {
+
+            // answered with a 409 and a Retry-After header, nothing was processed
+            throw e;
+
+        } catch (Exception e) {
+
+            ApiGatewayUtil.rethrowIfUnavailable(e);
+            LOGGER.error("Exception occurred while updating last_processed_token: ", e);
+            response = buildFailureResponse(502, ResponseModel.FAILURE_MESSAGE);
+        }
+
+        return response;
+    }
+
+    /**
+     * Method to process up to count items at the HEAD of the queue at once.
+     * last_processed_token is moved forward in a single update, capped at
+     * last_generated_token, and the subscribers of the processed tokens are marked as DONE.
+     *
+     * @return Response to the user with the range of tokens processed and their subscribers.
+     * */
+    private ResponseModel<?> processItemsFromQueue(String userId, String queueId, int count) {
+        ResponseModel<?> response;
+        try {
+            if (userService.isQueueOwner(userId, queueId)) {
+                TokenRange tokens = queueService.processItemsFromQueue(queueId, count);
+                List<User> processed = userService.markSubscribersAsProcessed(queueId, tokens);
+
+                if (processed.size() < tokens.getCount()) {
+                    Set<Integer> unsubscribedTokens = new HashSet<>();
+                    for (int index = 0; index < tokens.getCount(); index++) {
+                        unsubscribedTokens.add(tokens.tokenAt(index));
+                    }
+                    for (User subscriber : processed) {
+                        unsubscribedTokens.remove(subscriber.getTokenNumber());
+                    }
+                    forgetUnsubscribedTokens(queueId, unsubscribedTokens);
+                }
+
+                response = new ResponseModel<>(200, String.valueOf(tokens.getLast()),
+                        new ProcessedTokens(queueId, tokens.getFirst(), tokens.getLast(), processed), null);
+
+            } else {
+                response = buildFailureResponse(401, "Queues does not exist or " +
+                        "you are not authorized to update queue " + queueId);
+            }
+
+        } catch (ConditionalCheckFailedException e) {
+
+            LOGGER.warn("No more items to process.");
+            response = buildFailureResponse(400, "No more items to process in queue " + queueId);
+
+        } catch (ContendedUpdateException e) {
+
+            // answered with a 409 and a Retry-After header, nothing was processed
+            throw e;
+
         } catch (Exception e) {
 
+            ApiGatewayUtil.rethrowIfUnavailable(e);
             LOGGER.error("Exception occurred while updating last_processed_token: ", e);
             response = buildFailureResponse(502, ResponseModel.FAILURE_MESSAGE);
         }
@@ -109,13 +209,25 @@ public class UserEventHandler implements EventHandler {
         return response;
     }
 
-    private ResponseModel<List<User>> describeUser(String userId, Boolean ownedByUser) {
+    /**
+     * Method to list the queues a user is subscribed to or owns.
+     * With hydrate, each link carries its queue, read in batches rather than
+     * with one request per link - links to deleted queues carry none.
+     * */
+    private ResponseModel<List<User>> describeUser(String userId, Boolean ownedByUser, boolean hydrate) {
         ResponseModel<List<User>> response;
         try {
             // list of queues user is subscribed to or owns
             List<User> userQueues = userService.describeUser(userId, ownedByUser);
+            if (hydrate && !userQueues.isEmpty()) {
+                hydrateQueues(userQueues);
+            }
             response = buildSuccessResponse(userQueues, ResponseModel.SUCCESS_MESSAGE);
+            if (ownedByUser == null || ownedByUser) {
+                response.setStats(getOwnerStats(userId));
+            }
         } catch (Exception e) {
+            ApiGatewayUtil.rethrowIfUnavailable(e);
             LOGGER.error("Error occurred while describing user {}", userId, e);
             response = buildFailureResponse(502, "An unexpected error occurred.");
         }
@@ -123,17 +235,33 @@ public class UserEventHandler implements EventHandler {
         return response;
     }
 
+    private void hydrateQueues(List<User> userQueues) {
+        // the seats of a group are linked to the same queue as their leader
+        Set<String> queueIds = new HashSet<>(userQueues.size());
+        for (User userQueue : userQueues) {
+            queueIds.add(userQueue.getQueueId());
+        }
+
+        Map<String, Queue> queues = queueService.describeQueues(queueIds);
+        for (User userQueue : userQueues) {
+            userQueue.setQueue(queues.get(userQueue.getQueueId()));
+        }
+    }
+
     private ResponseModel<List<User>> unsubscribeFromQueue(String userId, String queueId) {
         ResponseModel<List<User>> response;
 
         try {
-            userService.unsubscribeUserFromQueue(userId, queueId);
+            for (Integer tokenNumber : userService.unsubscribeUserFromQueue(userId, queueId)) {
+                recordUnsubscribedToken(queueId, tokenNumber);
+            }
             response = buildSuccessResponse(null, ResponseModel.SUCCESS_MESSAGE);
 
         } catch (ConditionalCheckFailedException e) {
             LOGGER.warn("Cannot unsubscribe user {} from queue {}. User is the owner of the queue.", userId, queueId, e);
             response = buildFailureResponse(400, "Cannot un-subscribe owner from their queue.");
         } catch (Exception e) {
+            ApiGatewayUtil.rethrowIfUnavailable(e);
             LOGGER.error("Unexpected error occurred: ", e);
             response = buildFailureResponse(502, "An unexpected error occurred.");
         }
@@ -141,6 +269,63 @@ public class UserEventHandler implements EventHandler {
         return response;
     }
 
+    /**
+     * Positions only count the tokens after last_processed_token, so a token
+     * that was processed in the meantime is not recorded. The user has left
+     * the queue either way, so failing to record the token is only logged.
+     * */
+    private void recordUnsubscribedToken(String queueId, int tokenNumber) {
+        try {
+            queueService.recordUnsubscribedToken(queueId, tokenNumber);
+        } catch (ConditionalCheckFailedException e) {
+            LOGGER.debug("Token {} of queue {} was already processed", tokenNumber, queueId);
+        } catch (Exception e) {
+            LOGGER.error("Could not record unsubscribed token {} of queue {}: ", tokenNumber, queueId, e);
+        }
+    }
+
+    private void forgetUnsubscribedTokens(String queueId, Collection<Integer> tokenNumbers) {
+        try {
+            queueService.forgetUnsubscribedTokens(queueId, tokenNumbers);
+        } catch (Exception e) {
+            LOGGER.warn("Could not forget unsubscribed tokens {} of queue {}: ", tokenNumbers, queueId, e);
+        }
+    }
+
+    /**
+     * Method to parse the number of items to process.
+     * @return The count, or null if the value is invalid.
+     * */
+    private Integer parseCount(String count) {
+        Integer result;
+
+        try {
+            result = Integer.valueOf(count);
+        } catch (NumberFormatException e) {
+            result = null;
+        }
+
+        return result != null && result >= 1 && result <= MAX_PROCESS_COUNT ? result : null;
+    }
+
+    /**
+     * Method to read the counts of the queues of an owner.
+     * The counts are an extra to the description, so they are left out when they cannot be read.
+     * @return The counts, null if they are not kept or could not be read.
+     * */
+    private OwnerStats getOwnerStats(String userId) {
+        if (aggregateService == null) {
+            return null;
+        }
+
+        try {
+            return aggregateService.getOwnerStats(userId);
+        } catch (Exception e) {
+            LOGGER.warn("Could not read the counts of owner {}: {}", userId, e.getMessage());
+            return null;
+        }
+    }
+
     private ResponseModel<List<User>> buildSuccessResponse(List<User> users, String message) {
         return new ResponseModel<>(200, message, users, null);
     }
@@ -0,0 +1,130 @@
+package com.tokenizer.lambda.resilience;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side rate limiter adapting the rate of calls to what DynamoDB accepts.
+ *
+ * The limiter lets every call through until DynamoDB throttles one. It then limits the calls
+ * to a token bucket filled at 70% of the rate at which calls were being sent, cut again
+ * on every throttled call and raised by 5% on every call that is not. Once the calls sent
+ * stay well below the rate, the limiter lets every call through again.
+ * A call that would wait for a token longer than maxWaitMillis fails at once.
+ * */
+public class AdaptiveRateLimiter {
+    private static final double DECREASE_FACTOR = 0.7;
+    private static final double INCREASE_FACTOR = 1.05;
+    /** Calls per second. */
+    private static final double MIN_RATE = 1;
+    private static final long MEASUREMENT_WINDOW_MILLIS = 500;
+    private static final long IDLE_MILLIS = 4 * MEASUREMENT_WINDOW_MILLIS;
+
+    private final long maxWaitMillis;
+
+    private boolean enabled;
+    /** Calls per second let through while enabled. */
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+
+    private long windowStartMillis = System.currentTimeMillis();
+    private int windowCalls;
+    /** Calls per second sent over the last complete window. */
+    private double measuredRate;
+
+    public AdaptiveRateLimiter(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Method to wait for the limiter to let a call through.
+     * @throws DynamoUnavailableException if the call would wait longer than maxWaitMillis.
+     * */
+    public void acquire() {
+        long waitMillis;
+
+        synchronized (this) {
+            if (!enabled) {
+                return;
+            }
+
+            refill();
+            if (tokens >= 1) {
+                tokens -= 1;
+                return;
+            }
+
+            waitMillis = (long) Math.ceil((1 - tokens) / rate * 1000);
+            if (waitMillis > maxWaitMillis) {
+                throw new DynamoUnavailableException("DynamoDB calls are rate limited to " + rate + "/s", waitMillis);
+            }
+            // the token is taken ahead of time, so that the calls waiting queue up behind each other
+            tokens -= 1;
+        }
+
+        try {
+            TimeUnit.MILLISECONDS.sleep(waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Method to adapt the rate to the outcome of an attempt.
+     * @param throttled True if DynamoDB throttled the attempt.
+     * */
+    public synchronized void onAttempt(boolean throttled) {
+        measure();
+
+        if (throttled) {
+            refill();
+            double sendRate = enabled ? Math.min(rate, measuredRate) : measuredRate;
+            rate = Math.max(MIN_RATE, sendRate * DECREASE_FACTOR);
+            tokens = Math.min(tokens, 1);
+            enabled = true;
+        } else if (enabled) {
+            refill();
+            rate *= INCREASE_FACTOR;
+            if (measuredRate > 0 && rate > 2 * measuredRate) {
+                enabled = false;
+            }
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (lastRefillNanos != 0) {
+            // at most a second worth of calls is saved up
+            tokens = Math.min(Math.max(1, rate), tokens + rate * (now - lastRefillNanos) / 1e9);
+        }
+        lastRefillNanos = now;
+    }
+
+    private void measure() {
+        long now = System.currentTimeMillis();
+        if (now - windowStartMillis >= IDLE_MILLIS) {
+            // the calls before an idle period, e.g. a frozen container, say nothing of the current rate
+            windowStartMillis = now;
+            windowCalls = 0;
+            measuredRate = 0;
+        }
+        windowCalls++;
+
+        long elapsed = now - windowStartMillis;
+        if (elapsed >= MEASUREMENT_WINDOW_MILLIS) {
+            measuredRate = windowCalls * 1000.0 / elapsed;
+            windowStartMillis = now;
+            windowCalls = 0;
+        } else if (measuredRate == 0) {
+            measuredRate = windowCalls * 1000.0 / Math.max(elapsed, 1);
+        }
+    }
+}
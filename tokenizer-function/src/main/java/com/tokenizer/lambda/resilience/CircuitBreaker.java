@@ -0,0 +1,74 @@
+package com.tokenizer.lambda.resilience;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker opening after a number of consecutive failures.
+ *
+ * While open, calls are refused for openMillis. A single trial call is then let through:
+ * the circuit closes if it succeeds and opens again if it fails, other calls being refused meanwhile.
+ * A trial that never reports its outcome is given up on after another openMillis.
+ * Safe to use from several threads.
+ * */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    /** Time until which the circuit is open, 0 while it is closed. */
+    private final AtomicLong openUntil = new AtomicLong();
+    /** Time at which the trial call of the half-open circuit started, 0 if there is none in flight. */
+    private final AtomicLong trialStart = new AtomicLong();
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return True if the call may go through, and must then be followed by onSuccess or onFailure.
+     * */
+    public boolean allowRequest() {
+        long until = openUntil.get();
+        if (until == 0) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        long trial = trialStart.get();
+        return now >= until && (trial == 0 || now - trial >= openMillis) && trialStart.compareAndSet(trial, now);
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        openUntil.set(0);
+        trialStart.set(0);
+    }
+
+    public void onFailure() {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold || trialStart.get() != 0) {
+            openUntil.set(System.currentTimeMillis() + openMillis);
+        }
+        trialStart.set(0);
+    }
+
+    /**
+     * Method to release the trial call of a half-open circuit, when it ended neither in a success nor a failure.
+     * */
+    public void onIgnored() {
+        trialStart.set(0);
+    }
+
+    /**
+     * @return The time left until the circuit lets a call through, 0 if it is closed.
+     * */
+    public long getRetryAfterMillis() {
+        long until = openUntil.get();
+        return until == 0 ? 0 : Math.max(0, until - System.currentTimeMillis());
+    }
+
+    public boolean isOpen() {
+        return openUntil.get() != 0;
+    }
+}
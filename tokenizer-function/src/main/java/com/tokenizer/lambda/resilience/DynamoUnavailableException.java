@@ -0,0 +1,30 @@
+package com.tokenizer.lambda.resilience;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * Exception thrown instead of calling DynamoDB, while it is known not to keep up
+ * - the circuit breaker is open, or the call would wait too long for the rate limiter.
+ * */
+public class DynamoUnavailableException extends AmazonClientException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public DynamoUnavailableException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return The time after which calls are expected to go through again.
+     * */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    @Override
+    public boolean isRetryable() {
+        return false;
+    }
+}
@@ -0,0 +1,23 @@
+package com.tokenizer.lambda.resilience;
+
+/**
+ * Exception thrown instead of subscribing to a queue that is known to be full,
+ * or that already takes as many subscribes as its rate allows.
+ * */
+public class QueueSaturatedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public QueueSaturatedException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return The time after which a subscribe may be let through again.
+     * */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
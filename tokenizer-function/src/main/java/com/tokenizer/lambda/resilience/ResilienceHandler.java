@@ -0,0 +1,122 @@
+package com.tokenizer.lambda.resilience;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+import com.tokenizer.lambda.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handler of the DynamoDB client keeping its calls from piling onto a struggling DynamoDB.
+ *
+ * Calls are refused while the circuit breaker is open and wait for the adaptive rate limiter.
+ * Every attempt tells the rate limiter whether it was throttled, every successful call refunds
+ * the retry quota, and every call that ends with DynamoDB failing or out of reach counts towards
+ * opening the circuit. Throttling is left to the rate limiter and the retry quota: it is scoped
+ * to a hot partition or table, so it must not open the circuit that every call of the container
+ * goes through. Refused calls throw DynamoUnavailableException, which is never retried.
+ * */
+public class ResilienceHandler extends RequestHandler2 {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResilienceHandler.class);
+
+    private final CircuitBreaker circuitBreaker;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final RetryQuota retryQuota;
+
+    public ResilienceHandler(CircuitBreaker circuitBreaker, AdaptiveRateLimiter rateLimiter, RetryQuota retryQuota) {
+        this.circuitBreaker = circuitBreaker;
+        this.rateLimiter = rateLimiter;
+        this.retryQuota = retryQuota;
+    }
+
+    @Override
+    public AmazonWebServiceRequest beforeExecution(AmazonWebServiceRequest request) {
+        if (!circuitBreaker.allowRequest()) {
+            Metrics.addCount(Metrics.REJECTED_CALLS, 1);
+            throw new DynamoUnavailableException("The circuit to DynamoDB is open", circuitBreaker.getRetryAfterMillis());
+        }
+
+        try {
+            rateLimiter.acquire();
+        } catch (DynamoUnavailableException e) {
+            circuitBreaker.onIgnored();
+            Metrics.addCount(Metrics.REJECTED_CALLS, 1);
+            throw e;
+        }
+
+        return request;
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context) {
+        Exception exception = context.getException();
+        rateLimiter.onAttempt(exception instanceof AmazonServiceException
+                && RetryUtils.isThrottlingException((AmazonServiceException) exception));
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        circuitBreaker.onSuccess();
+        retryQuota.onSuccess();
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        if (isThrottled(e)) {
+            circuitBreaker.onIgnored();
+            return;
+        }
+        if (!isUnavailable(e)) {
+            // DynamoDB answered, e.g. that a condition failed
+            circuitBreaker.onSuccess();
+            return;
+        }
+
+        boolean wasOpen = circuitBreaker.isOpen();
+        circuitBreaker.onFailure();
+        if (!wasOpen && circuitBreaker.isOpen()) {
+            LOGGER.warn("Opened the circuit to DynamoDB for {} ms after: {}", circuitBreaker.getRetryAfterMillis(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return True if the exception, or one of its causes, is DynamoDB throttling the call.
+     * */
+    private static boolean isThrottled(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof AmazonServiceException) {
+                return RetryUtils.isThrottlingException((AmazonServiceException) cause);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return True if the exception, or one of its causes, shows that DynamoDB is throttling,
+     * failing or out of reach, rather than refusing the call itself.
+     * */
+    public static boolean isUnavailable(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DynamoUnavailableException) {
+                return true;
+            }
+            if (cause instanceof AmazonServiceException) {
+                AmazonServiceException serviceException = (AmazonServiceException) cause;
+                return RetryUtils.isThrottlingException(serviceException) || serviceException.getStatusCode() >= 500;
+            }
+            if (cause instanceof AmazonClientException) {
+                // failed to reach DynamoDB or timed out waiting for it
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
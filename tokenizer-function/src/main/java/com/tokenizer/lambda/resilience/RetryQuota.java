@@ -0,0 +1,71 @@
+package com.tokenizer.lambda.resilience;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Token bucket bounding the retries of a client, shared by all of its calls.
+ *
+ * Every retry takes tokens from the bucket, timeouts more than other errors, and every
+ * successful call puts one back. Once DynamoDB fails more calls than it serves,
+ * the bucket runs dry and calls fail after their first attempt, instead of every
+ * call multiplying the load with retries while DynamoDB is throttling.
+ * */
+public class RetryQuota implements RetryPolicy.RetryCondition {
+    private static final int RETRY_COST = 5;
+    private static final int TIMEOUT_RETRY_COST = 10;
+    private static final int SUCCESS_REFUND = 1;
+
+    private final int capacity;
+    private final AtomicInteger tokens;
+
+    public RetryQuota(int capacity) {
+        this.capacity = capacity;
+        this.tokens = new AtomicInteger(capacity);
+    }
+
+    @Override
+    public boolean shouldRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception, int retriesAttempted) {
+        return PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(originalRequest, exception, retriesAttempted)
+                && tryAcquire(cost(exception));
+    }
+
+    public void onSuccess() {
+        tokens.accumulateAndGet(SUCCESS_REFUND, (current, refund) -> Math.min(capacity, current + refund));
+    }
+
+    public int getAvailableTokens() {
+        return tokens.get();
+    }
+
+    private boolean tryAcquire(int cost) {
+        int current;
+        do {
+            current = tokens.get();
+            if (current < cost) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - cost));
+
+        return true;
+    }
+
+    private static int cost(AmazonClientException exception) {
+        return !RetryUtils.isThrottlingException(exception) && isTimeout(exception) ? TIMEOUT_RETRY_COST : RETRY_COST;
+    }
+
+    private static boolean isTimeout(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
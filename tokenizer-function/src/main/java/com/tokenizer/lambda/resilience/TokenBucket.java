@@ -0,0 +1,45 @@
+package com.tokenizer.lambda.resilience;
+
+/**
+ * Token bucket filled at a fixed rate, saving up at most a second worth of tokens.
+ *
+ * A request for more permits than the bucket can hold is let through once the bucket
+ * is full, and leaves it in debt, so that large requests are slowed down rather than refused forever.
+ * */
+public class TokenBucket {
+    /** Permits per second. */
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double rate) {
+        this.rate = rate;
+        this.capacity = Math.max(1, rate);
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Method to take permits from the bucket, without waiting for them.
+     * @param permits The number of permits to take.
+     * @return 0 if the permits were taken, else the milliseconds until the bucket holds them.
+     * */
+    public synchronized long tryAcquire(int permits) {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + rate * (now - lastRefillNanos) / 1e9);
+        lastRefillNanos = now;
+
+        double needed = Math.min(permits, capacity);
+        if (tokens >= needed) {
+            tokens -= permits;
+            return 0;
+        }
+
+        return (long) Math.ceil((needed - tokens) / rate * 1000);
+    }
+
+    public double getRate() {
+        return rate;
+    }
+}
@@ -0,0 +1,137 @@
+package com.tokenizer.lambda.service;
+
+import com.tokenizer.lambda.dao.QueueRepository;
+import com.tokenizer.lambda.metrics.Metrics;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.resilience.QueueSaturatedException;
+import com.tokenizer.lambda.resilience.TokenBucket;
+import com.tokenizer.lambda.util.EnvUtil;
+import com.tokenizer.lambda.util.QueueUtil;
+import com.tokenizer.lambda.util.TtlCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admits the subscribes to a queue before they reach DynamoDB, so that a popular queue does not
+ * spend the write capacity of the table on subscribes that are bound to fail, or crowd out the other queues.
+ *
+ * Each container keeps a token bucket per queue, filled at the subscribe_rate of the queue or at the
+ * SUBSCRIBE_RATE of the function - without either, subscribes are not rate limited. A queue found full,
+ * by a subscribe failing on its max_size or by its limits, is refused for QUEUE_FULL_RETRY_SECONDS
+ * without any call. The limits of a queue are read once a minute per container, with an eventually consistent read.
+ * */
+public class AdmissionService {
+    public static final String SUBSCRIBE_RATE_ENV = "SUBSCRIBE_RATE";
+    public static final String QUEUE_FULL_RETRY_SECONDS_ENV = "QUEUE_FULL_RETRY_SECONDS";
+    private static final int DEFAULT_QUEUE_FULL_RETRY_SECONDS = 10;
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionService.class);
+    private static final long LIMITS_TTL_MILLIS = 60_000;
+    private static final int MAX_QUEUES = 10_000;
+    private static final String RATE_LIMITED = "RateLimited";
+    private static final String QUEUE_FULL = "QueueFull";
+
+    private static final int DEFAULT_SUBSCRIBE_RATE = EnvUtil.intFromEnv(SUBSCRIBE_RATE_ENV, 0);
+    private static final long QUEUE_FULL_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(
+            EnvUtil.intFromEnv(QUEUE_FULL_RETRY_SECONDS_ENV, DEFAULT_QUEUE_FULL_RETRY_SECONDS));
+
+    private QueueRepository queueRepository;
+    private final TtlCache<String, Queue> limits = new TtlCache<>(MAX_QUEUES, LIMITS_TTL_MILLIS);
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    /** Time until which each queue known to be full is refused, in epoch milliseconds. */
+    private final ConcurrentMap<String, Long> fullUntil = new ConcurrentHashMap<>();
+
+    public AdmissionService(QueueRepository queueRepository) {
+        this.queueRepository = queueRepository;
+    }
+
+    /**
+     * Method to admit a subscribe to a queue.
+     * @param queueId The ID of the queue.
+     * @param count The number of tokens the subscribe asks for.
+     * @throws QueueSaturatedException if the queue is known to be full, or its rate is used up.
+     * */
+    public void admit(String queueId, int count) throws QueueSaturatedException {
+        Queue queue = limits.get(queueId, this::loadLimits);
+
+        Long until = fullUntil.get(queueId);
+        if (until != null) {
+            long now = System.currentTimeMillis();
+            if (now < until) {
+                Metrics.addCount(Metrics.SHED_REQUESTS, 1, Metrics.REASON, QUEUE_FULL);
+                throw new QueueSaturatedException("Queue " + queueId + " is full", until - now);
+            }
+            fullUntil.remove(queueId, until);
+        }
+
+        int rate = queue != null && queue.getSubscribeRate() != null ? queue.getSubscribeRate() : DEFAULT_SUBSCRIBE_RATE;
+        if (rate <= 0) {
+            return;
+        }
+
+        TokenBucket bucket = buckets.get(queueId);
+        if (bucket == null || bucket.getRate() != rate) {
+            if (buckets.size() >= MAX_QUEUES) {
+                buckets.clear();
+            }
+            bucket = buckets.compute(queueId, (id, current) ->
+                    current != null && current.getRate() == rate ? current : new TokenBucket(rate));
+        }
+
+        long waitMillis = bucket.tryAcquire(count);
+        if (waitMillis > 0) {
+            Metrics.addCount(Metrics.SHED_REQUESTS, 1, Metrics.REASON, RATE_LIMITED);
+            throw new QueueSaturatedException("Subscribes to queue " + queueId + " are limited to " + rate + "/s", waitMillis);
+        }
+    }
+
+    /**
+     * Method to refuse the subscribes to a queue for a while, once a subscribe found it full.
+     * @return The exception to answer the subscribe with.
+     * */
+    public QueueSaturatedException onFull(String queueId) {
+        markFull(queueId);
+        return new QueueSaturatedException("Queue " + queueId + " is full", QUEUE_FULL_RETRY_MILLIS);
+    }
+
+    /**
+     * Method to read the limits of a queue. A missing queue, or limits that cannot be read,
+     * get no limits - the subscribe then fails on its own, as it would without admission control.
+     * */
+    private Queue loadLimits(String queueId) {
+        Queue queue;
+        try {
+            queue = queueRepository.loadLimits(queueId);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not read the limits of queue {}, admitting its subscribes: {}", queueId, e.getMessage());
+            return null;
+        }
+
+        if (queue == null) {
+            // cached, so that subscribes to a missing queue do not read it every time
+            return new Queue(queueId);
+        }
+
+        // the counters of sharded queues are on their shard items, which are not read
+        if (!QueueUtil.isSharded(queue.getCounterShards())
+                && Boolean.FALSE.equals(queue.isDisabled())
+                && queue.getMaxSize() != null
+                && queue.getLastGeneratedToken() != null
+                && queue.getLastGeneratedToken() >= queue.getMaxSize()) {
+            markFull(queueId);
+        }
+
+        return queue;
+    }
+
+    private void markFull(String queueId) {
+        if (fullUntil.size() >= MAX_QUEUES) {
+            fullUntil.clear();
+        }
+        fullUntil.put(queueId, System.currentTimeMillis() + QUEUE_FULL_RETRY_MILLIS);
+        LOGGER.info("Queue {} is full, refusing its subscribes for {} ms", queueId, QUEUE_FULL_RETRY_MILLIS);
+    }
+}
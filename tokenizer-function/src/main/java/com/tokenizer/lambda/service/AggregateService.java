@@ -0,0 +1,200 @@
+package com.tokenizer.lambda.service;
+
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.tokenizer.lambda.dao.AggregateRepository;
+import com.tokenizer.lambda.dao.storage.AggregateCodec;
+import com.tokenizer.lambda.dao.storage.AggregateStorage;
+import com.tokenizer.lambda.dao.storage.QueueCodec;
+import com.tokenizer.lambda.dao.storage.UserCodec;
+import com.tokenizer.lambda.model.aggregates.AggregateDelta;
+import com.tokenizer.lambda.model.aggregates.OwnerStats;
+import com.tokenizer.lambda.model.aggregates.QueueStats;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts of queue subscribers and owner queues, kept up to date from the stream records
+ * of the tokenizer_users table (new and old images) and the tokenizer_queues table (new images).
+ *
+ * Each record counts the link it leaves minus the link it found, so a subscriber marked
+ * as processed moves from the waiting to the done count, and a waiting subscriber removed
+ * is counted as unsubscribed. A processed subscriber removed, e.g. by the compactor once
+ * its link expired, stays counted as done. Deleted queues get their counts marked as deleted.
+ *
+ * The records of a batch, all from one shard and in order, are summed per aggregate and
+ * applied in chunks of consecutive records, each with a marker named after its first record.
+ * A batch retried after a failure finds the markers of the chunks already applied, and
+ * resumes after the last record they covered, so no record is ever counted twice.
+ * */
+public class AggregateService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AggregateService.class);
+
+    private AggregateRepository repository;
+
+    public AggregateService(AggregateRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * @return The counts of the queue's subscribers, null if none were counted or the queue was deleted.
+     * */
+    public QueueStats getQueueStats(String queueId) {
+        return repository.loadQueueStats(queueId);
+    }
+
+    /**
+     * @return The counts of the owner's queues, null if none were counted.
+     * */
+    public OwnerStats getOwnerStats(String userId) {
+        return repository.loadOwnerStats(userId);
+    }
+
+    /**
+     * Method to apply a batch of stream records to the aggregates.
+     * @param records The records of one shard, in order.
+     * @return The number of records applied, not counting the ones applied before or changing no aggregate.
+     * */
+    public int aggregate(List<? extends Record> records) {
+        // records changing no aggregate, e.g. the token counter updates of the queues, are left out
+        List<Change> changes = new ArrayList<>(records.size());
+        for (Record record : records) {
+            if (record.getDynamodb() != null && record.getDynamodb().getSequenceNumber() != null) {
+                Change change = new Change(record);
+                if (!change.deltas.isEmpty()) {
+                    changes.add(change);
+                }
+            }
+        }
+
+        int applied = 0;
+        int start = 0;
+        while (start < changes.size()) {
+            Map<String, AggregateDelta> deltas = new HashMap<>();
+            int end = start;
+            while (end < changes.size() && fits(deltas, changes.get(end).deltas)) {
+                merge(deltas, changes.get(end).deltas);
+                end++;
+            }
+
+            Change first = changes.get(start);
+            Change last = changes.get(end - 1);
+            // written even when the changes cancel out, as a retry may find more records after them
+            if (repository.apply(first.eventId, last.sequenceNumber.toString(), deltas)) {
+                applied += end - start;
+                start = end;
+                continue;
+            }
+
+            String appliedSequenceNumber = repository.loadAppliedSequenceNumber(first.eventId);
+            if (appliedSequenceNumber == null) {
+                // the marker expired between the two calls, the batch is older than the stream keeps records
+                throw new IllegalStateException("Marker of batch " + first.eventId + " is gone");
+            }
+            BigInteger appliedUpTo = new BigInteger(appliedSequenceNumber);
+            LOGGER.info("Batch {} was applied up to {}, skipping its records", first.eventId, appliedUpTo);
+            while (start < changes.size() && changes.get(start).sequenceNumber.compareTo(appliedUpTo) <= 0) {
+                start++;
+            }
+        }
+
+        return applied;
+    }
+
+    /**
+     * A record may change two aggregates at most, so a chunk always holds at least one record.
+     * */
+    private static boolean fits(Map<String, AggregateDelta> deltas, Map<String, AggregateDelta> recordDeltas) {
+        int added = 0;
+        for (String aggregateId : recordDeltas.keySet()) {
+            if (!deltas.containsKey(aggregateId)) {
+                added++;
+            }
+        }
+        return deltas.size() + added <= AggregateStorage.MAX_AGGREGATES_PER_BATCH;
+    }
+
+    private static void merge(Map<String, AggregateDelta> deltas, Map<String, AggregateDelta> recordDeltas) {
+        for (Map.Entry<String, AggregateDelta> delta : recordDeltas.entrySet()) {
+            deltas.computeIfAbsent(delta.getKey(), id -> new AggregateDelta()).add(delta.getValue());
+        }
+        deltas.values().removeIf(AggregateDelta::isEmpty);
+    }
+
+    /**
+     * @return The changes a record makes to the aggregates, by aggregate ID.
+     * */
+    static Map<String, AggregateDelta> deltas(Record record) {
+        Map<String, AggregateDelta> deltas = new HashMap<>(4);
+        StreamRecord change = record.getDynamodb();
+
+        if (change.getKeys() != null && change.getKeys().containsKey(User.COL_USER_ID)) {
+            User before = UserCodec.decode(change.getOldImage());
+            User after = UserCodec.decode(change.getNewImage());
+            boolean removed = OperationType.REMOVE.toString().equals(record.getEventName());
+
+            // processed subscribers stay counted as done once their links are archived and removed
+            if (!removed || !isSubscriber(before) || before.getState() != UserState.DONE) {
+                count(deltas, before, -1);
+            }
+            count(deltas, after, 1);
+
+            if (removed && isSubscriber(before) && before.getState() == UserState.WAITING) {
+                delta(deltas, AggregateCodec.queueAggregateId(before.getQueueId())).addUnsubscribedCount(1);
+            }
+        } else if (change.getNewImage() != null && !change.getNewImage().containsKey(Queue.COL_SHARD_OF)) {
+            // queues are marked as deleted before the reaper removes them, so removals carry nothing new
+            Queue queue = QueueCodec.decode(change.getNewImage());
+            if (queue.getDeletedAt() != null) {
+                delta(deltas, AggregateCodec.queueAggregateId(queue.getQueueId())).setDeletedAt(queue.getDeletedAt());
+            }
+        }
+
+        deltas.values().removeIf(AggregateDelta::isEmpty);
+        return deltas;
+    }
+
+    private static void count(Map<String, AggregateDelta> deltas, User link, int sign) {
+        if (link == null) {
+            return;
+        }
+
+        if (link.isOwner()) {
+            delta(deltas, AggregateCodec.ownerAggregateId(link.getUserId())).addOwnedQueues(sign);
+        } else if (isSubscriber(link) && link.getState() == UserState.WAITING) {
+            delta(deltas, AggregateCodec.queueAggregateId(link.getQueueId())).addWaitingCount(sign);
+        } else if (isSubscriber(link) && link.getState() == UserState.DONE) {
+            delta(deltas, AggregateCodec.queueAggregateId(link.getQueueId())).addDoneCount(sign);
+        }
+    }
+
+    private static boolean isSubscriber(User link) {
+        return link != null && !link.isOwner() && link.getTokenNumber() != null;
+    }
+
+    private static AggregateDelta delta(Map<String, AggregateDelta> deltas, String aggregateId) {
+        return deltas.computeIfAbsent(aggregateId, id -> new AggregateDelta());
+    }
+
+    private static final class Change {
+        private final String eventId;
+        private final BigInteger sequenceNumber;
+        private final Map<String, AggregateDelta> deltas;
+
+        private Change(Record record) {
+            this.eventId = record.getEventID();
+            this.sequenceNumber = new BigInteger(record.getDynamodb().getSequenceNumber());
+            this.deltas = deltas(record);
+        }
+    }
+}
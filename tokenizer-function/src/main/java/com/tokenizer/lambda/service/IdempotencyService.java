@@ -0,0 +1,151 @@
+package com.tokenizer.lambda.service;
+
+import com.tokenizer.lambda.dao.IdempotencyRepository;
+import com.tokenizer.lambda.metrics.Metrics;
+import com.tokenizer.lambda.model.idempotency.IdempotencyRecord;
+import com.tokenizer.lambda.util.EnvUtil;
+import com.tokenizer.lambda.util.LruCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes requests made with an idempotency key at most once, answering their retries with the original response.
+ *
+ * A request claims its key with a conditional write of a pending record, executes, and then
+ * records its response - or deletes the pending record if it failed, so that it can be retried.
+ * Both are conditioned on the lock of the pending record, so that a request outliving its lock
+ * leaves alone the key claimed since by a retry. Retries find the record instead of claiming the key. Responses are also kept in a cache
+ * of the container, so that retries landing on the same container are answered without any call.
+ * */
+public class IdempotencyService {
+    public static final String IDEMPOTENCY_TTL_SECONDS_ENV = "IDEMPOTENCY_TTL_SECONDS";
+    private static final int DEFAULT_IDEMPOTENCY_TTL_SECONDS = 900;
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdempotencyService.class);
+    private static final String KEY_SEPARATOR = "#";
+    public static final int MAX_KEY_LENGTH = 128;
+    private static final int MAX_CACHED_RECORDS = 10_000;
+    private static final int MAX_CLAIM_ATTEMPTS = 3;
+
+    /** Time a pending request holds its key - API Gateway gives up on a request after 29 seconds. */
+    private static final long LOCK_MILLIS = 30_000;
+
+    private static final long IDEMPOTENCY_TTL_SECONDS = EnvUtil.intFromEnv(IDEMPOTENCY_TTL_SECONDS_ENV, DEFAULT_IDEMPOTENCY_TTL_SECONDS);
+
+    private IdempotencyRepository repository;
+    private final LruCache<String, IdempotencyRecord> completed = new LruCache<>(MAX_CACHED_RECORDS);
+
+    public IdempotencyService(IdempotencyRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * @return Whether the key is made of 1 to MAX_KEY_LENGTH printable ASCII characters.
+     * */
+    public static boolean isValidKey(String idempotencyKey) {
+        if (idempotencyKey == null || idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < idempotencyKey.length(); i++) {
+            char c = idempotencyKey.charAt(i);
+            if (c < 0x21 || c > 0x7e) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to build the pending record a request made with an idempotency key claims the key with.
+     * @param userId The user making the request.
+     * @param idempotencyKey The idempotency key of the request.
+     * @param fingerprint What the request asks for.
+     * @return The pending record, to pass to begin, then to complete or release.
+     * */
+    public IdempotencyRecord pending(String userId, String idempotencyKey, String fingerprint) {
+        long now = System.currentTimeMillis();
+        return new IdempotencyRecord(userId + KEY_SEPARATOR + idempotencyKey, fingerprint, null,
+                now + LOCK_MILLIS, expiresAt(now));
+    }
+
+    /**
+     * Method to start a request made with an idempotency key.
+     * @param pending The pending record of the request.
+     * @return null if the key was claimed and the request must be executed, then completed or released.
+     * Otherwise the record of an earlier request made with the key, either complete or still pending.
+     * */
+    public IdempotencyRecord begin(IdempotencyRecord pending) {
+        String key = pending.getKey();
+        long now = System.currentTimeMillis();
+
+        IdempotencyRecord cached = completed.get(key);
+        if (cached != null && cached.getExpiresAt() > TimeUnit.MILLISECONDS.toSeconds(now)) {
+            Metrics.addCount(Metrics.REPLAYED_REQUESTS, 1);
+            return cached;
+        }
+        completed.remove(key);
+
+        for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS; attempt++) {
+            if (repository.claim(pending, now)) {
+                return null;
+            }
+
+            // the key is held by a record, unless it was released or expired since
+            IdempotencyRecord existing = repository.load(key);
+            if (existing != null) {
+                if (existing.isComplete()) {
+                    completed.put(key, existing);
+                    Metrics.addCount(Metrics.REPLAYED_REQUESTS, 1);
+                }
+                return existing;
+            }
+            now = System.currentTimeMillis();
+        }
+
+        throw new IllegalStateException("Could not claim idempotency key " + key
+                + " after " + MAX_CLAIM_ATTEMPTS + " attempts");
+    }
+
+    /**
+     * Method to record the response of a request that succeeded.
+     * The response is already final, so failing to record it is only logged - the pending
+     * record then expires with its lock, and a later retry is executed again. A key claimed
+     * by a retry since the lock passed keeps the record of the retry.
+     * @param pending The pending record the request claimed the key with.
+     * */
+    public void complete(IdempotencyRecord pending, String response) {
+        String key = pending.getKey();
+        IdempotencyRecord record = new IdempotencyRecord(key, pending.getFingerprint(), response, null,
+                expiresAt(System.currentTimeMillis()));
+
+        completed.put(key, record);
+        try {
+            if (!repository.complete(record, pending.getLockedUntil())) {
+                completed.remove(key);
+                LOGGER.warn("Idempotency key {} was claimed again before its response was recorded", key);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not record the response of idempotency key {}: ", key, e);
+        }
+    }
+
+    /**
+     * Method to release the key of a request that failed, so that a retry is executed again.
+     * Failing to release it is only logged - the pending record then expires with its lock.
+     * @param pending The pending record the request claimed the key with.
+     * */
+    public void release(IdempotencyRecord pending) {
+        try {
+            repository.release(pending.getKey(), pending.getLockedUntil());
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not release idempotency key {}: ", pending.getKey(), e);
+        }
+    }
+
+    private static long expiresAt(long now) {
+        return TimeUnit.MILLISECONDS.toSeconds(now) + IDEMPOTENCY_TTL_SECONDS;
+    }
+}
@@ -0,0 +1,74 @@
+package com.tokenizer.lambda.service;
+
+import com.tokenizer.lambda.model.queues.Queue;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Index answering how many subscribers wait ahead of a token of a queue.
+ *
+ * Tokens up to last_processed_token are done. After it, every token is held by a
+ * waiting subscriber except the ones recorded in unsubscribed_tokens, which are kept
+ * here as a sorted array - the people ahead of a token are the tokens between
+ * last_processed_token and it, minus the gaps found by a binary search.
+ *
+ * For sharded queues, tokens that their shard has not handed out yet are counted
+ * as waiting: they go to later subscribers who are still served first.
+ * */
+class PositionIndex {
+    private final Queue source;
+    private final int lastProcessedToken;
+    private final int[] gaps;
+
+    private PositionIndex(Queue source, int lastProcessedToken, int[] gaps) {
+        this.source = source;
+        this.lastProcessedToken = lastProcessedToken;
+        this.gaps = gaps;
+    }
+
+    /**
+     * Method to build the index of a queue. Unsubscribed tokens that were
+     * processed since they were recorded are left out.
+     * */
+    static PositionIndex of(Queue queue) {
+        int lastProcessedToken = queue.getLastProcessedToken() != null ? queue.getLastProcessedToken() : 0;
+        Set<Integer> unsubscribedTokens = queue.getUnsubscribedTokens();
+
+        int[] gaps = unsubscribedTokens != null ?
+                unsubscribedTokens.stream()
+                        .mapToInt(Integer::intValue)
+                        .filter(token -> token > lastProcessedToken)
+                        .sorted()
+                        .toArray() :
+                new int[0];
+
+        return new PositionIndex(queue, lastProcessedToken, gaps);
+    }
+
+    /**
+     * @return true if the index was built from this very queue object.
+     * */
+    boolean isBuiltFrom(Queue queue) {
+        return source == queue;
+    }
+
+    int getLastProcessedToken() {
+        return lastProcessedToken;
+    }
+
+    /**
+     * @return The number of subscribers waiting with a token lower than this one,
+     * 0 once the token is being processed.
+     * */
+    int waitingAhead(int tokenNumber) {
+        if (tokenNumber <= lastProcessedToken) {
+            return 0;
+        }
+
+        int gapsAhead = Arrays.binarySearch(gaps, tokenNumber);
+        gapsAhead = gapsAhead >= 0 ? gapsAhead : -gapsAhead - 1;
+
+        return tokenNumber - lastProcessedToken - 1 - gapsAhead;
+    }
+}
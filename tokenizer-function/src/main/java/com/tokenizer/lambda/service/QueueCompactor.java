@@ -0,0 +1,249 @@
+package com.tokenizer.lambda.service;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.tokenizer.lambda.dao.ArchiveRepository;
+import com.tokenizer.lambda.dao.QueueRepository;
+import com.tokenizer.lambda.dao.UserRepository;
+import com.tokenizer.lambda.metrics.Metrics;
+import com.tokenizer.lambda.model.queues.CompactionRequest;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.ReapRequest;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+import com.tokenizer.lambda.util.AsyncUtil;
+import com.tokenizer.lambda.util.EnvUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the expired links of processed subscribers to the archive, and retires idle queues.
+ *
+ * Every queue keeps a compacted_token, below which all its links were archived and removed.
+ * The links above it are paged through queue_gsi in token order, up to the last processed token,
+ * and archived until the first link that is not expired yet: DONE links expire in token order,
+ * so the cursor never skips a link that is still live. The links are archived first, then deleted,
+ * then the cursor is moved - a run failing in between archives the same links again,
+ * which replaces their archived batch. A link left WAITING below the last processed token,
+ * e.g. because marking it failed, holds the cursor until it is marked.
+ *
+ * A queue is idle when every token it handed out is compacted and its cursor has not moved
+ * for QUEUE_IDLE_DAYS. Its last state is archived and it is deleted like a queue deleted by its owner.
+ *
+ * The queues are scanned in parallel segments whose cursors are kept in the CompactionRequest,
+ * so a run can stop at a deadline and continue later from the same point.
+ * */
+public class QueueCompactor {
+    public static final String QUEUE_IDLE_DAYS_ENV = "QUEUE_IDLE_DAYS";
+    private static final int DEFAULT_QUEUE_IDLE_DAYS = 90;
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueueCompactor.class);
+    private static final int DEFAULT_SEGMENTS = 4;
+    private static final int MAX_SEGMENTS = 16;
+    private static final int SCAN_PAGE_SIZE = 25;
+    private static final int PAGE_SIZE = 100;
+    /** Links archived per queue in a run, so that a single long queue does not hold the others up. */
+    private static final int MAX_SUBSCRIBERS_PER_RUN = 10_000;
+
+    private static final long QUEUE_IDLE_MILLIS = TimeUnit.DAYS.toMillis(EnvUtil.intFromEnv(QUEUE_IDLE_DAYS_ENV, DEFAULT_QUEUE_IDLE_DAYS));
+
+    private QueueRepository queueRepository;
+    private UserRepository userRepository;
+    private ArchiveRepository archiveRepository;
+    private QueueReaper queueReaper;
+    private Executor executor;
+
+    /**
+     * @param queueRepository Repository loading the queues with consistent reads.
+     * @param userRepository Repository of the links.
+     * @param archiveRepository Repository the expired links and idle queues are archived to.
+     * @param queueReaper Reaper removing the idle queues.
+     * */
+    public QueueCompactor(QueueRepository queueRepository, UserRepository userRepository,
+                          ArchiveRepository archiveRepository, QueueReaper queueReaper) {
+        this.queueRepository = queueRepository;
+        this.userRepository = userRepository;
+        this.archiveRepository = archiveRepository;
+        this.queueReaper = queueReaper;
+        this.executor = AsyncUtil.STORAGE_EXECUTOR;
+    }
+
+    /**
+     * Method to compact the queues until all are compacted or the deadline is reached.
+     * The segment cursors of the request are moved forward as the queues are compacted.
+     *
+     * @param request The progress made so far, empty to start a new run.
+     * @param deadline Time to stop at, in epoch milliseconds. Pages already started are finished.
+     * @return true if all the queues are compacted, false if the request has to be continued.
+     * */
+    public boolean compact(CompactionRequest request, long deadline) {
+        if (request.getCursors() == null) {
+            plan(request);
+        }
+
+        List<CompletableFuture<Void>> segments = new ArrayList<>();
+        for (int segment = 0; segment < request.getCursors().size(); segment++) {
+            int current = segment;
+            segments.add(CompletableFuture.runAsync(() -> compactSegment(request, current, deadline), executor));
+        }
+        AsyncUtil.joinAll(segments);
+
+        for (String cursor : request.getCursors()) {
+            if (!CompactionRequest.SEGMENT_COMPLETE.equals(cursor)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void plan(CompactionRequest request) {
+        int segments = request.getTotalSegments() != null && request.getTotalSegments() > 0 ?
+                Math.min(request.getTotalSegments(), MAX_SEGMENTS) :
+                DEFAULT_SEGMENTS;
+
+        List<String> cursors = new ArrayList<>(segments);
+        for (int segment = 0; segment < segments; segment++) {
+            cursors.add(null);
+        }
+
+        request.setTotalSegments(segments);
+        request.setCursors(cursors);
+    }
+
+    private void compactSegment(CompactionRequest request, int segment, long deadline) {
+        String cursor = request.getCursors().get(segment);
+
+        while (!CompactionRequest.SEGMENT_COMPLETE.equals(cursor) && System.currentTimeMillis() < deadline) {
+            ScanResultPage<Queue> page = queueRepository.scan(segment, request.getTotalSegments(), cursor, SCAN_PAGE_SIZE);
+            for (Queue listed : page.getResults()) {
+                compactQueue(listed.getQueueId());
+            }
+
+            Map<String, AttributeValue> lastKey = page.getLastEvaluatedKey();
+            cursor = lastKey != null ? lastKey.get(Queue.COL_QUEUE_ID).getS() : CompactionRequest.SEGMENT_COMPLETE;
+            request.getCursors().set(segment, cursor);
+        }
+
+        LOGGER.debug("Segment {} of the queues stopped at {}", segment, cursor);
+    }
+
+    /**
+     * Method to archive and remove the expired links of a queue, or to retire the queue if it is idle.
+     * A queue failing to compact is logged and left for the next run, so that it does not hold the others up.
+     * */
+    void compactQueue(String queueId) {
+        try {
+            Queue queue = queueRepository.load(new Queue(queueId));
+            if (queue != null && queue.getDeletedAt() == null) {
+                compactQueue(queue, System.currentTimeMillis());
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not compact queue {}: ", queueId, e);
+        }
+    }
+
+    private void compactQueue(Queue queue, long now) {
+        String queueId = queue.getQueueId();
+        int lastProcessedToken = queue.getLastProcessedToken() != null ? queue.getLastProcessedToken() : 0;
+        int compactedToken = queue.getCompactedToken() != null ? queue.getCompactedToken() : 0;
+        long nowSeconds = TimeUnit.MILLISECONDS.toSeconds(now);
+
+        List<User> expired = new ArrayList<>();
+        int nextToken = compactedToken + 1;
+        boolean blocked = false;
+
+        while (!blocked && nextToken <= lastProcessedToken && expired.size() < MAX_SUBSCRIBERS_PER_RUN) {
+            List<User> page = userRepository.query(queueId, nextToken, lastProcessedToken, PAGE_SIZE);
+            for (User subscriber : page) {
+                if (!isExpired(subscriber, nowSeconds)) {
+                    // tokens between the last expired link and this one have no link left
+                    nextToken = subscriber.getTokenNumber();
+                    blocked = true;
+                    break;
+                }
+                expired.add(subscriber);
+                nextToken = subscriber.getTokenNumber() + 1;
+            }
+
+            if (!blocked && page.size() < PAGE_SIZE) {
+                nextToken = lastProcessedToken + 1;
+            }
+        }
+
+        int newCompactedToken = nextToken - 1;
+        if (!expired.isEmpty()) {
+            archiveRepository.archiveSubscribers(queueId, expired);
+            userRepository.deleteAll(expired);
+            Metrics.addCount(Metrics.ARCHIVED_SUBSCRIBERS, expired.size());
+        }
+
+        if (newCompactedToken > compactedToken || queue.getCompactedToken() == null) {
+            try {
+                queueRepository.markCompacted(queueId, newCompactedToken, now);
+                LOGGER.info("Compacted queue {} up to token {}, {} subscribers archived",
+                        queueId, newCompactedToken, expired.size());
+            } catch (ConditionalCheckFailedException e) {
+                LOGGER.info("Queue {} was deleted or compacted further meanwhile", queueId);
+            }
+        } else if (isIdle(queue, now)) {
+            retire(queue, now);
+        }
+    }
+
+    /**
+     * @return Whether the retention of a link is over. Links marked as DONE before
+     * they were given an expiry have no expires_at and are expired.
+     * */
+    private static boolean isExpired(User subscriber, long nowSeconds) {
+        return subscriber.getState() == UserState.DONE
+                && (subscriber.getExpiresAt() == null
+                || subscriber.getExpiresAt() - UserService.EXPIRY_GRACE_SECONDS <= nowSeconds);
+    }
+
+    /**
+     * @return Whether every token the queue handed out is compacted, and nothing was compacted for QUEUE_IDLE_DAYS.
+     * */
+    private static boolean isIdle(Queue queue, long now) {
+        int lastGeneratedToken = queue.getLastGeneratedToken() != null ? queue.getLastGeneratedToken() : 0;
+        return queue.getCompactedToken() != null
+                && lastGeneratedToken <= queue.getCompactedToken()
+                && queue.getCompactedAt() != null
+                && now - queue.getCompactedAt() >= QUEUE_IDLE_MILLIS;
+    }
+
+    private void retire(Queue queue, long now) {
+        String queueId = queue.getQueueId();
+        Metrics.addCount(Metrics.IDLE_QUEUES, 1);
+
+        // the owner's link can only be found through the owner, which queues created before it was kept lack
+        if (queue.getOwnerId() == null) {
+            LOGGER.warn("Queue {} is idle since {}, but has no owner_id and is kept", queueId, queue.getCompactedAt());
+            return;
+        }
+
+        archiveRepository.archiveQueue(queue);
+        try {
+            queueRepository.tombstone(queueId, now);
+        } catch (ConditionalCheckFailedException e) {
+            LOGGER.info("Queue {} was deleted meanwhile", queueId);
+            return;
+        }
+
+        LOGGER.info("Retiring queue {}, idle since {}", queueId, queue.getCompactedAt());
+        try {
+            queueReaper.schedule(new ReapRequest(queueId, queue.getOwnerId()));
+        } catch (JsonProcessingException e) {
+            // the tombstone hides the queue from the users, the reaper can be invoked with the request later
+            LOGGER.error("Could not schedule the reaping of queue {}: ", queueId, e);
+        }
+    }
+}
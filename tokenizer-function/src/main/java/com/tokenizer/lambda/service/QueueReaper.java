@@ -0,0 +1,221 @@
+package com.tokenizer.lambda.service;
+
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.model.InvocationType;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.dao.QueueRepository;
+import com.tokenizer.lambda.dao.UserRepository;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.ReapRequest;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.util.AsyncUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Removes deleted queues along with all their subscribers.
+ *
+ * The subscribers are paged through queue_gsi in token order and deleted with
+ * BatchWriteItem. The token range of the queue is split in segments that are
+ * reaped in parallel, each with its own cursor kept in the ReapRequest, so the
+ * reaping can stop at a deadline and continue later from the same point.
+ * The queue item and the owner's link are deleted last, once no subscriber is left.
+ *
+ * Without a reaper function, the queue is reaped in the request deleting it, for up to
+ * INLINE_REAP_MILLIS so that API Gateway does not time out. The owner's link is kept until
+ * the queue is fully reaped, so repeating the deletion reaps what is left.
+ * */
+public class QueueReaper {
+    public static final String REAPER_FUNCTION_NAME_ENV = "REAPER_FUNCTION_NAME";
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueueReaper.class);
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_SEGMENTS = 8;
+    private static final int UNKNOWN_LAST_TOKEN = Integer.MAX_VALUE - 1;
+    /** Time a queue is reaped for in the request deleting it - API Gateway gives up on a request after 29 seconds. */
+    private static final long INLINE_REAP_MILLIS = 10_000;
+
+    /**
+     * Links written right before the queue was deleted can show up in queue_gsi after
+     * their segment was reaped, so the range is checked again, up to this many times
+     * per call before the request is continued later.
+     * */
+    private static final int MAX_PASSES = 3;
+
+    private QueueRepository queueRepository;
+    private UserRepository userRepository;
+    private Executor executor;
+    private AWSLambda lambdaClient;
+    private String reaperFunctionName;
+    private ObjectMapper mapper;
+
+    /**
+     * Reaper removing the queues inline, in the request scheduling the removal.
+     * */
+    public QueueReaper(QueueRepository queueRepository, UserRepository userRepository) {
+        this(queueRepository, userRepository, null, null, null);
+    }
+
+    /**
+     * Reaper handing the removal over to the reaper function.
+     * @param lambdaClient The client invoking the reaper function. If null, queues are reaped inline.
+     * @param reaperFunctionName The name of the reaper function.
+     * @param mapper The mapper serializing the requests to the reaper function.
+     * */
+    public QueueReaper(QueueRepository queueRepository, UserRepository userRepository,
+                       AWSLambda lambdaClient, String reaperFunctionName, ObjectMapper mapper) {
+        this.queueRepository = queueRepository;
+        this.userRepository = userRepository;
+        this.executor = AsyncUtil.STORAGE_EXECUTOR;
+        this.lambdaClient = lambdaClient;
+        this.reaperFunctionName = reaperFunctionName;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Method to start or continue the removal of a deleted queue.
+     * With a reaper function the request is handed over with an asynchronous invocation
+     * and the method returns right away, else the queue is reaped for up to INLINE_REAP_MILLIS.
+     * */
+    public void schedule(ReapRequest request) throws JsonProcessingException {
+        if (lambdaClient != null && reaperFunctionName != null) {
+            LOGGER.info("Handing over {} to {}", request, reaperFunctionName);
+            lambdaClient.invoke(new InvokeRequest()
+                    .withFunctionName(reaperFunctionName)
+                    .withInvocationType(InvocationType.Event)
+                    .withPayload(mapper.writeValueAsString(request)));
+        } else if (!reap(request, System.currentTimeMillis() + INLINE_REAP_MILLIS)) {
+            LOGGER.warn("Queue {} is not fully reaped, deleting it again reaps what is left", request.getQueueId());
+        }
+    }
+
+    /**
+     * Method to reap a deleted queue until it is fully removed or the deadline is reached.
+     * The segment cursors of the request are moved forward as the subscribers are deleted.
+     *
+     * @param request The queue to reap and the progress made so far.
+     * @param deadline Time to stop at, in epoch milliseconds. Pages already started are finished.
+     * @return true if the queue is fully removed, false if the request has to be continued -
+     * out of time, or subscribers still found after MAX_PASSES passes.
+     * */
+    public boolean reap(ReapRequest request, long deadline) {
+        if (request.getNextTokens() == null) {
+            plan(request);
+        }
+
+        while (true) {
+            List<CompletableFuture<Void>> segments = new ArrayList<>();
+            for (int segment = 0; segment < request.getNextTokens().size(); segment++) {
+                int current = segment;
+                segments.add(CompletableFuture.runAsync(() -> reapSegment(request, current, deadline), executor));
+            }
+            AsyncUtil.joinAll(segments);
+
+            if (!isRangeReaped(request)) {
+                return false;
+            }
+
+            if (!hasSubscribers(request)) {
+                break;
+            }
+
+            LOGGER.info("Subscribers left in queue {} after pass {}", request.getQueueId(), request.getPass());
+            request.setPass(request.getPass() + 1);
+            request.setNextTokens(segmentStarts(request.getLastToken(), request.getNextTokens().size()));
+
+            // never deleting the queue over live links, the next call checks the range again
+            if (request.getPass() % MAX_PASSES == 0) {
+                return false;
+            }
+        }
+
+        queueRepository.delete(new Queue(request.getQueueId()));
+        try {
+            // without an owner_id there is no owner link to look up, as for queues retired by the compactor
+            if (request.getOwnerId() != null) {
+                userRepository.delete(new User(request.getOwnerId(), request.getQueueId()), false);
+            }
+        } catch (ConditionalCheckFailedException e) {
+            LOGGER.info("Owner link of queue {} is already deleted", request.getQueueId());
+        }
+
+        LOGGER.info("Reaped queue {}", request.getQueueId());
+        return true;
+    }
+
+    /**
+     * Method to split the token range of the queue in segments of at least a page each.
+     * */
+    private void plan(ReapRequest request) {
+        Queue queue = queueRepository.load(new Queue(request.getQueueId()));
+
+        // without the queue item there is no token range to split, a single segment covers them all
+        int lastToken = queue != null && queue.getLastGeneratedToken() != null ?
+                queue.getLastGeneratedToken() :
+                UNKNOWN_LAST_TOKEN;
+        int segments = lastToken == UNKNOWN_LAST_TOKEN ?
+                1 :
+                Math.max(1, Math.min(MAX_SEGMENTS, (lastToken + PAGE_SIZE - 1) / PAGE_SIZE));
+
+        request.setLastToken(lastToken);
+        request.setNextTokens(segmentStarts(lastToken, segments));
+    }
+
+    private void reapSegment(ReapRequest request, int segment, long deadline) {
+        String queueId = request.getQueueId();
+        int lastToken = segmentEnd(request.getLastToken(), request.getNextTokens().size(), segment);
+        int nextToken = request.getNextTokens().get(segment);
+
+        while (nextToken <= lastToken && System.currentTimeMillis() < deadline) {
+            List<User> page = userRepository.query(queueId, nextToken, lastToken, PAGE_SIZE);
+            userRepository.deleteAll(page);
+
+            nextToken = page.size() < PAGE_SIZE ?
+                    lastToken + 1 :
+                    page.get(page.size() - 1).getTokenNumber() + 1;
+            request.getNextTokens().set(segment, nextToken);
+        }
+
+        LOGGER.debug("Segment {} of queue {} stopped at token {}", segment, queueId, nextToken);
+    }
+
+    private boolean isRangeReaped(ReapRequest request) {
+        int segments = request.getNextTokens().size();
+        for (int segment = 0; segment < segments; segment++) {
+            if (request.getNextTokens().get(segment) <= segmentEnd(request.getLastToken(), segments, segment)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean hasSubscribers(ReapRequest request) {
+        return request.getLastToken() >= 1
+                && !userRepository.query(request.getQueueId(), 1, request.getLastToken(), 1).isEmpty();
+    }
+
+    private static List<Integer> segmentStarts(int lastToken, int segments) {
+        List<Integer> starts = new ArrayList<>(segments);
+        for (int segment = 0; segment < segments; segment++) {
+            starts.add((int) (segment * segmentSize(lastToken, segments)) + 1);
+        }
+
+        return starts;
+    }
+
+    private static int segmentEnd(int lastToken, int segments, int segment) {
+        return (int) Math.min((segment + 1) * segmentSize(lastToken, segments), lastToken);
+    }
+
+    private static long segmentSize(int lastToken, int segments) {
+        return ((long) lastToken + segments - 1) / segments;
+    }
+}
@@ -2,60 +2,234 @@ package com.tokenizer.lambda.service;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.tokenizer.lambda.dao.AsyncQueueRepository;
 import com.tokenizer.lambda.dao.QueueRepository;
 import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.QueuePage;
+import com.tokenizer.lambda.model.queues.QueuePosition;
+import com.tokenizer.lambda.model.queues.TokenRange;
+import com.tokenizer.lambda.util.AsyncUtil;
+import com.tokenizer.lambda.util.CursorUtil;
+import com.tokenizer.lambda.util.EnvUtil;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class QueueService {
+    public static final String LIST_SEGMENTS_ENV = "LIST_SEGMENTS";
+    private static final int DEFAULT_LIST_SEGMENTS = 4;
+    private static final int MAX_POSITION_INDEXES = 1000;
+
     private QueueRepository repository;
+    private AsyncQueueRepository asyncRepository;
+    private int listSegments;
+
+    /** Position index of the queues seen by this container, rebuilt whenever the queue is reloaded. */
+    private final ConcurrentMap<String, PositionIndex> positionIndexes = new ConcurrentHashMap<>();
 
     public QueueService(QueueRepository repository) {
+        this(repository, new AsyncQueueRepository(repository, AsyncUtil.STORAGE_EXECUTOR));
+    }
+
+    public QueueService(QueueRepository repository, AsyncQueueRepository asyncRepository) {
+        this(repository, asyncRepository, listSegments());
+    }
+
+    /**
+     * @param listSegments Number of segments of the parallel scan listing the queues.
+     * */
+    public QueueService(QueueRepository repository, AsyncQueueRepository asyncRepository, int listSegments) {
         this.repository = repository;
+        this.asyncRepository = asyncRepository;
+        this.listSegments = listSegments;
+    }
+
+    private static int listSegments() {
+        int segments = EnvUtil.intFromEnv(LIST_SEGMENTS_ENV, DEFAULT_LIST_SEGMENTS);
+        return segments <= CursorUtil.MAX_SEGMENTS ? segments : DEFAULT_LIST_SEGMENTS;
     }
 
-    public Queue initNewQueue(String queueId, String queueName, Integer maxSize, Boolean disabled) {
+    /**
+     * Method to create a new queue.
+     * @param ownerId The user creating the queue.
+     * @param counterShards Number of counter shards handing out the tokens,
+     *                      null for a queue with a single counter.
+     * @param subscribeRate Subscribes per second let through by each subscriber container,
+     *                      null for the default rate.
+     * @return Future of the new queue, completed once the queue is saved.
+     * */
+    public CompletableFuture<Queue> initNewQueueAsync(String ownerId, String queueId, String queueName, Integer maxSize,
+                                                      Boolean disabled, Integer counterShards, Integer subscribeRate) {
         Queue newQueue = new Queue(queueId, queueName,0,0, maxSize, disabled);
-        repository.save(newQueue);
+        newQueue.setOwnerId(ownerId);
+        newQueue.setCounterShards(counterShards);
+        newQueue.setSubscribeRate(subscribeRate);
 
-        return newQueue;
+        return asyncRepository.save(newQueue).thenApply(saved -> newQueue);
     }
 
     public Queue describeQueue(String queueId) {
         return repository.load(new Queue(queueId));
     }
 
+    /**
+     * Method to read several queues at once, e.g. to show the queues of a user.
+     * @param queueIds The IDs of the queues.
+     * @return The queues that exist and are not deleted, by queue_id.
+     * */
+    public Map<String, Queue> describeQueues(Collection<String> queueIds) {
+        Map<String, Queue> queues = new HashMap<>();
+        for (Map.Entry<String, Queue> queue : repository.loadAll(queueIds).entrySet()) {
+            if (queue.getValue().getDeletedAt() == null) {
+                queues.put(queue.getKey(), queue.getValue());
+            }
+        }
+
+        return queues;
+    }
+
+    /**
+     * Method to find the place of a token in a queue, from the queue item alone.
+     * @param queueId The ID of the queue.
+     * @param tokenNumber The token to place.
+     * @return The position of the token, null if the queue does not exist or is deleted.
+     * */
+    public QueuePosition getPosition(String queueId, int tokenNumber) {
+        return getPosition(describeQueue(queueId), tokenNumber);
+    }
+
+    /**
+     * Method to find the place of a token in a queue already read, e.g. from a change of the queue.
+     * @param queue The queue, may be null.
+     * @param tokenNumber The token to place.
+     * @return The position of the token, null if the queue is null or deleted.
+     * */
+    public QueuePosition getPosition(Queue queue, int tokenNumber) {
+        if (queue == null || queue.getDeletedAt() != null) {
+            return null;
+        }
+
+        String queueId = queue.getQueueId();
+        PositionIndex index = positionIndexes.get(queueId);
+        if (index == null || !index.isBuiltFrom(queue)) {
+            index = PositionIndex.of(queue);
+
+            if (positionIndexes.size() >= MAX_POSITION_INDEXES) {
+                positionIndexes.clear();
+            }
+            positionIndexes.put(queueId, index);
+        }
+
+        return new QueuePosition(queueId, tokenNumber, index.getLastProcessedToken(), index.waitingAhead(tokenNumber));
+    }
+
+    /**
+     * Method to record that the holder of a token left the queue, so that
+     * the people behind them move up.
+     * @throws ConditionalCheckFailedException if the queue does not exist or the token was already processed.
+     * */
+    public void recordUnsubscribedToken(String queueId, int tokenNumber) throws ConditionalCheckFailedException {
+        repository.addUnsubscribedToken(queueId, tokenNumber);
+    }
+
+    /**
+     * Method to forget tokens recorded by recordUnsubscribedToken once they were processed.
+     * @throws ConditionalCheckFailedException if the queue does not exist.
+     * */
+    public void forgetUnsubscribedTokens(String queueId, Collection<Integer> tokenNumbers) throws ConditionalCheckFailedException {
+        repository.removeUnsubscribedTokens(queueId, tokenNumbers);
+    }
+
     public void deleteQueue(String queueId) {
         repository.delete(new Queue(queueId));
     }
 
-    public void updateQueue(String queueId, String queueName, Integer maxSize, Boolean disabled) {
-        repository.update(new Queue(queueId, queueName, null, null, maxSize, disabled));
+    /**
+     * Method to mark a queue as deleted. The queue is disabled right away
+     * and removed, along with its subscribers, by the QueueReaper.
+     * @param queueId The ID of the queue.
+     * @throws ConditionalCheckFailedException if the queue does not exist.
+     * */
+    public void tombstoneQueue(String queueId) throws ConditionalCheckFailedException {
+        repository.tombstone(queueId, System.currentTimeMillis());
+    }
+
+    public void updateQueue(String queueId, String queueName, Integer maxSize, Boolean disabled, Integer subscribeRate) {
+        // the constructor defaults a missing max_size, which would overwrite the queue's
+        Queue update = new Queue(queueId);
+        update.setQueueName(queueName);
+        update.setMaxSize(maxSize);
+        update.setDisabled(disabled);
+        update.setSubscribeRate(subscribeRate);
+        repository.update(update);
     }
 
     /**
      * Method to scan and list the queues table.
-     * The pagination token parameter is updated on each scan and
-     * can be returned to the user.
      *
-     * @param paginationToken The pagination token passed by the user.
+     * The table is scanned as a parallel scan: a page reads the next queues of every
+     * segment that is not complete yet, concurrently, splitting the page size between
+     * them. The position of every segment is kept in the returned pagination token.
+     * A listing keeps the number of segments it was started with.
+     *
+     * @param paginationToken The pagination token passed by the user, null for the first page.
+     * @param pageSize The maximum number of queues to read for the page. Queues that are
+     *                 deleted are read but left out, so the page may hold fewer queues.
      *
-     * @return list of Queue objects in the current scanned page.
-     * */
-    public List<Queue> listQueues(String paginationToken) {
-        List<Queue> queues = null;
-        ScanResultPage<Queue> scanResult = repository.scan(paginationToken);
-        if (scanResult != null) {
-            queues = scanResult.getResults();
-            paginationToken = scanResult.getLastEvaluatedKey() != null ?
-                    scanResult.getLastEvaluatedKey().get(Queue.COL_QUEUE_ID).getS(): null;
+     * @return The queues of the page, with the pagination token of the next page.
+     * @throws IllegalArgumentException if the pagination token is invalid.
+     * */
+    public QueuePage listQueues(String paginationToken, int pageSize) {
+        String[] positions = paginationToken != null ?
+                CursorUtil.decode(paginationToken) :
+                CursorUtil.start(listSegments);
+
+        List<Integer> segments = new ArrayList<>(positions.length);
+        for (int segment = 0; segment < positions.length; segment++) {
+            if (!CursorUtil.SEGMENT_DONE.equals(positions[segment])) {
+                segments.add(segment);
+            }
+        }
+
+        List<Queue> queues = new ArrayList<>();
+        if (segments.isEmpty()) {
+            return new QueuePage(queues, null);
+        }
+
+        int limit = Math.max(1, (pageSize + segments.size() - 1) / segments.size());
+        List<CompletableFuture<ScanResultPage<Queue>>> scans = new ArrayList<>(segments.size());
+        for (int segment : segments) {
+            scans.add(asyncRepository.scan(segment, positions.length, positions[segment], limit));
+        }
+
+        List<ScanResultPage<Queue>> pages = AsyncUtil.joinAll(scans);
+        for (int index = 0; index < pages.size(); index++) {
+            ScanResultPage<Queue> page = pages.get(index);
+            queues.addAll(page.getResults());
+            positions[segments.get(index)] = page.getLastEvaluatedKey() != null ?
+                    page.getLastEvaluatedKey().get(Queue.COL_QUEUE_ID).getS() :
+                    CursorUtil.SEGMENT_DONE;
         }
 
-        return queues != null ? queues: new ArrayList<>();
+        return new QueuePage(queues, CursorUtil.encode(positions));
     }
 
     public String processItemFromQueue(String queueId) throws ConditionalCheckFailedException {
         return repository.incrementLastProcessedToken(queueId);
     }
+
+    /**
+     * Method to process up to count items at the head of a queue at once.
+     * @return The range of tokens processed.
+     * @throws ConditionalCheckFailedException if there are no items to process.
+     * */
+    public TokenRange processItemsFromQueue(String queueId, int count) throws ConditionalCheckFailedException {
+        return repository.processTokens(queueId, count);
+    }
 }
@@ -1,21 +1,57 @@
 package com.tokenizer.lambda.service;
 
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.tokenizer.lambda.dao.AsyncUserRepository;
 import com.tokenizer.lambda.dao.UserRepository;
+import com.tokenizer.lambda.model.queues.TokenRange;
 import com.tokenizer.lambda.model.users.User;
 import com.tokenizer.lambda.model.users.UserState;
+import com.tokenizer.lambda.util.AsyncUtil;
+import com.tokenizer.lambda.util.EnvUtil;
+import com.tokenizer.lambda.util.GroupUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 
 public class UserService {
+    public static final String DONE_RETENTION_DAYS_ENV = "DONE_RETENTION_DAYS";
+    private static final int DEFAULT_DONE_RETENTION_DAYS = 7;
     private static final Logger LOGGER = LoggerFactory.getLogger(UserService.class);
+
+    /** Time the link of a processed subscriber is kept for, before it is archived and removed. */
+    private static final long DONE_RETENTION_SECONDS = TimeUnit.DAYS.toSeconds(EnvUtil.intFromEnv(DONE_RETENTION_DAYS_ENV, DEFAULT_DONE_RETENTION_DAYS));
+    /**
+     * Time between the end of the retention of a link and its expires_at, which DynamoDB's TTL
+     * removes it after, so that the compactor archives the link before TTL gets to it.
+     * */
+    public static final long EXPIRY_GRACE_SECONDS = TimeUnit.DAYS.toSeconds(1);
+
+    /** Number of subscribers read in one go when processing a queue. */
+    static final int PREFETCH_SIZE = 25;
+    private static final int MAX_PREFETCHED_QUEUES = 1000;
+
     private UserRepository repository;
+    private AsyncUserRepository asyncRepository;
+
+    /** WAITING subscribers read ahead of the tokens being processed, by queue and token number. */
+    private final ConcurrentMap<String, NavigableMap<Integer, User>> prefetchedSubscribers = new ConcurrentHashMap<>();
 
     public UserService(UserRepository repository) {
+        this(repository, new AsyncUserRepository(repository, AsyncUtil.STORAGE_EXECUTOR));
+    }
+
+    public UserService(UserRepository repository, AsyncUserRepository asyncRepository) {
         this.repository = repository;
+        this.asyncRepository = asyncRepository;
     }
 
     /**
@@ -27,13 +63,23 @@ public class UserService {
      * @param ownedByUser Flag to filter queues owned by the user or not.
      *                    If null, all queues linked to the user are returned.
      *
-     * @return List of User objects, each pointing to a separate Queue.
+     * @return List of User objects, each pointing to a separate Queue. The links of the
+     * other seats of the groups the user leads follow the user's own link to the queue.
      * An empty List if no items were found for the user.
      * */
     public List<User> describeUser(String userId, Boolean ownedByUser) {
         List<User> queuesForUser = repository.load(userId, ownedByUser);
+        if (queuesForUser == null) {
+            return new ArrayList<>();
+        }
 
-        return queuesForUser != null ? queuesForUser: new ArrayList<>();
+        List<User> links = new ArrayList<>(queuesForUser.size());
+        for (User link : queuesForUser) {
+            links.add(link);
+            links.addAll(seatLinks(link));
+        }
+
+        return links;
     }
 
     /**
@@ -56,13 +102,62 @@ public class UserService {
         repository.save(userQueueRef);
     }
 
+    /**
+     * Asynchronous variant of createNewQueueForUser.
+     * */
+    public CompletableFuture<Void> createNewQueueForUserAsync(String userId, String queueId) {
+        User userQueueRef = new User(userId, queueId);
+        userQueueRef.setOwner(true);
+
+        return asyncRepository.save(userQueueRef);
+    }
+
     /**
      * Method to un-subscribe a user from a queue, by deleting the entry linking the user and the queue.
      * @param userId The user_id of the user.
      * @param queueId The queue_id to unsubscribe from.
+     * The other seats of a group the user leads leave the queue with the user.
+     * @return The tokens the user and their group held in the queue, empty if the user was not subscribed.
+     * */
+    public List<Integer> unsubscribeUserFromQueue(String userId, String queueId) throws ConditionalCheckFailedException{
+        User subscription = repository.delete(new User(userId, queueId), true);
+        if (subscription == null || subscription.getTokenNumber() == null) {
+            return new ArrayList<>();
+        }
+
+        List<User> seats = seatLinks(subscription);
+        repository.deleteAll(seats);
+
+        List<Integer> tokenNumbers = new ArrayList<>(seats.size() + 1);
+        tokenNumbers.add(subscription.getTokenNumber());
+        for (User seat : seats) {
+            tokenNumbers.add(seat.getTokenNumber());
+        }
+
+        return tokenNumbers;
+    }
+
+    /**
+     * @return The links of the other seats of the group a subscriber leads, empty if the link is not a leader's.
+     * */
+    private List<User> seatLinks(User link) {
+        Integer seats = link.getSeats();
+        if (link.isOwner() || seats == null || seats <= 1) {
+            return new ArrayList<>();
+        }
+
+        return repository.loadAll(GroupUtil.seatIds(link.getUserId(), 1, seats), link.getQueueId());
+    }
+
+    /**
+     * Method to lookup the subscription of a user to a queue.
+     * @param userId The user's ID.
+     * @param queueId The queue's ID.
+     * @return The subscription if the user is subscribed to the queue, else returns null.
      * */
-    public void unsubscribeUserFromQueue(String userId, String queueId) throws ConditionalCheckFailedException{
-        deleteUserQueueLink(userId, queueId, true);
+    public User getSubscription(String userId, String queueId) {
+        User link = repository.load(userId, queueId);
+        return link != null && !link.isOwner() ? link : null;
     }
 
     /**
@@ -108,18 +203,96 @@ public class UserService {
         User subscriber = getSubscriberAtPosition(queueId, tokenNumber);
 
         if (subscriber != null) {
-            subscriber.setState(UserState.DONE);
+            try {
+                success = markAsDone(subscriber);
+            } catch (ConditionalCheckFailedException e) {
+                // the prefetched subscribers may be stale, e.g. a user who subscribed again since
+                LOGGER.info("Subscriber {} of queue {} changed since it was read, reading it again", subscriber.getUserId(), queueId);
+                prefetchedSubscribers.remove(queueId);
+                subscriber = getSubscriberAtPosition(queueId, tokenNumber);
 
-            repository.save(subscriber);
-            success = true;
+                try {
+                    success = subscriber != null && markAsDone(subscriber);
+                } catch (ConditionalCheckFailedException stale) {
+                    LOGGER.warn("Subscriber {} left queue {} before being processed", subscriber.getUserId(), queueId);
+                }
+            }
         }
 
         return success;
     }
 
+    private boolean markAsDone(User subscriber) throws ConditionalCheckFailedException {
+        subscriber.setExpiresAt(doneExpiresAt());
+        repository.markAsDone(subscriber);
+        return true;
+    }
+
+    /**
+     * @return The time the link of a subscriber processed now expires at, in epoch seconds.
+     * */
+    private static long doneExpiresAt() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + DONE_RETENTION_SECONDS + EXPIRY_GRACE_SECONDS;
+    }
+
+    /**
+     * Method to mark the subscribers holding a range of tokens as 'DONE'.
+     *
+     * The subscribers are read with a single query on queue_gsi and marked concurrently.
+     * BatchWriteItem cannot hold the condition of markAsDone, and a plain put would
+     * link users who unsubscribed in the meantime back to the queue. The index is eventually
+     * consistent, so each subscriber is marked on the condition that it still holds the token
+     * it was read with - a user who subscribed again since then keeps the new link WAITING.
+     *
+     * @param queueId The queue to which the users are subscribed to.
+     * @param tokens The processed tokens.
+     * @return The subscribers marked as 'DONE'.
+     * */
+    public List<User> markSubscribersAsProcessed(String queueId, TokenRange tokens) {
+        List<User> subscribers = repository.query(queueId, tokens.getFirst(), tokens.getLast(), tokens.getCount());
+        List<CompletableFuture<User>> marks = new ArrayList<>();
+        long expiresAt = doneExpiresAt();
+
+        if (subscribers != null) {
+            for (User subscriber : subscribers) {
+                if (subscriber.getState() == UserState.WAITING) {
+                    subscriber.setExpiresAt(expiresAt);
+                    marks.add(asyncRepository.markAsDone(subscriber).handle((done, e) -> {
+                        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                        if (cause instanceof ConditionalCheckFailedException) {
+                            LOGGER.warn("Subscriber {} left queue {} before token {} was processed",
+                                    subscriber.getUserId(), queueId, subscriber.getTokenNumber());
+                            return null;
+                        } else if (cause != null) {
+                            throw new CompletionException(cause);
+                        }
+
+                        subscriber.setState(UserState.DONE);
+                        return subscriber;
+                    }));
+                }
+            }
+        }
+
+        List<User> result = new ArrayList<>(marks.size());
+        for (User subscriber : AsyncUtil.joinAll(marks)) {
+            if (subscriber != null) result.add(subscriber);
+        }
+
+        return result;
+    }
+
     /**
      * Method to lookup a subscriber at a given position
      * of a queue.
+     *
+     * Tokens are processed in order, so the lookup reads the next PREFETCH_SIZE
+     * subscribers at once and the following calls are answered from them.
+     * A token missing from the prefetched ones - a user who had not subscribed yet,
+     * or one who unsubscribed - is looked up again together with the next ones.
+     * The prefetched subscribers may have unsubscribed or subscribed again since,
+     * which markAsDone checks when writing.
+     *
      * @param queueId The queue to which the user is subscribed.
      * @param tokenNumber The position of the user in the queue.
      * @return User object if there is a user is found with the mentioned
@@ -130,11 +303,51 @@ public class UserService {
 
         try {
             int token = Integer.parseInt(tokenNumber);
-            subscriberAtPosition = repository.lookupByTokenNumber(queueId, token);
+
+            NavigableMap<Integer, User> prefetched = prefetchedSubscribers.get(queueId);
+            if (prefetched != null) {
+                // tokens up to this one were processed, possibly by another container
+                subscriberAtPosition = prefetched.remove(token);
+                prefetched.headMap(token).clear();
+            }
+
+            if (subscriberAtPosition == null) {
+                subscriberAtPosition = prefetchSubscribers(queueId, token);
+            }
         } catch (NumberFormatException e) {
             LOGGER.error("Error parsing token number: {}", tokenNumber);
         }
 
         return subscriberAtPosition;
     }
+
+    /**
+     * Method to read the subscribers of a queue from a token onwards, keeping
+     * the WAITING ones after it for the next calls.
+     * @return The subscriber holding the token if found, else returns null.
+     * */
+    private User prefetchSubscribers(String queueId, int token) {
+        User subscriberAtPosition = null;
+        NavigableMap<Integer, User> prefetched = new ConcurrentSkipListMap<>();
+
+        int lastToken = token > Integer.MAX_VALUE - PREFETCH_SIZE ? Integer.MAX_VALUE : token + PREFETCH_SIZE - 1;
+        List<User> subscribers = repository.query(queueId, token, lastToken, PREFETCH_SIZE);
+
+        if (subscribers != null) {
+            for (User subscriber : subscribers) {
+                if (subscriber.getTokenNumber() == token) {
+                    subscriberAtPosition = subscriber;
+                } else if (subscriber.getState() == UserState.WAITING) {
+                    prefetched.put(subscriber.getTokenNumber(), subscriber);
+                }
+            }
+        }
+
+        if (prefetchedSubscribers.size() >= MAX_PREFETCHED_QUEUES) {
+            prefetchedSubscribers.clear();
+        }
+        prefetchedSubscribers.put(queueId, prefetched);
+
+        return subscriberAtPosition;
+    }
 }
@@ -1,11 +1,15 @@
 package com.tokenizer.lambda.util;
 
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.dao.storage.ContendedUpdateException;
 import com.tokenizer.lambda.model.queues.Queue;
 import com.tokenizer.lambda.model.response.ResponseModel;
+import com.tokenizer.lambda.resilience.DynamoUnavailableException;
+import com.tokenizer.lambda.resilience.QueueSaturatedException;
+import com.tokenizer.lambda.resilience.ResilienceHandler;
 
+import java.io.IOException;
 import java.util.Map;
 
 public class ApiGatewayUtil {
@@ -14,6 +18,11 @@ public class ApiGatewayUtil {
     public static final String GET = "GET";
     public static final String DELETE = "DELETE";
     public static final String PAGINATION_TOKEN = "pagination_token";
+    public static final String COUNT = "count";
+    public static final String HYDRATE = "hydrate";
+    public static final String RETRY_AFTER = "Retry-After";
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
     private static final String EMPTY_STRING = "";
     private static final String RESPONSE_ERROR_JSON = "{\"statusCode\":\"502\", \"message\": \"An unexpected error occurred\"}";
 
@@ -53,6 +62,31 @@ public class ApiGatewayUtil {
         return result;
     }
 
+    /**
+     * Method to read a header of the API Gateway request event.
+     * Header names are matched ignoring case, as HTTP/2 clients send them in lower case.
+     * @param event The input API Gateway request event.
+     * @param headerName The header name.
+     * @return Value of the header if it exists and is not empty. Else returns null.
+     * */
+    public static String parseHeader(APIGatewayProxyRequestEvent event, String headerName) {
+        if (event == null || event.getHeaders() == null) {
+            return null;
+        }
+
+        String value = event.getHeaders().get(headerName);
+        if (value == null) {
+            for (Map.Entry<String, String> header : event.getHeaders().entrySet()) {
+                if (headerName.equalsIgnoreCase(header.getKey())) {
+                    value = header.getValue();
+                    break;
+                }
+            }
+        }
+
+        return EMPTY_STRING.equals(value) ? null : value;
+    }
+
     /**
      * Method to parse the queue max size parameter as an Integer
      * from the API Gateway request event.
@@ -94,17 +128,57 @@ public class ApiGatewayUtil {
         return result;
     }
 
-    public static String getResponseJsonString(ObjectMapper mapper, ResponseModel response) {
+    /**
+     * Method to serialize a response, streaming its values through the precomputed serializers of JsonUtil.
+     * @param mapper The mapper writing the values that have no precomputed serializer.
+     * @param response The response to serialize.
+     * @return The JSON of the response, or a generic error if it could not be serialized.
+     * */
+    public static String getResponseJsonString(ObjectMapper mapper, ResponseModel<?> response) {
         String result;
         try {
-            result = mapper.writeValueAsString(response);
-        } catch (JsonProcessingException e) {
+            result = JsonUtil.toJson(mapper, response);
+        } catch (IOException e) {
             result = RESPONSE_ERROR_JSON;
         }
 
         return result;
     }
 
+    /**
+     * Method to let the function answer a failure with a 503, when it was caused by DynamoDB being
+     * unavailable, rather than the handler answering it with a 502.
+     * @param e The failure caught by the handler.
+     * */
+    public static void rethrowIfUnavailable(Exception e) {
+        if (e instanceof RuntimeException && ResilienceHandler.isUnavailable(e)) {
+            throw (RuntimeException) e;
+        }
+    }
+
+    /**
+     * @return The seconds after which a request failed by the exception may be retried, as a Retry-After header value.
+     * */
+    public static String retryAfterSeconds(Throwable exception) {
+        long retryAfterMillis = 0;
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DynamoUnavailableException) {
+                retryAfterMillis = ((DynamoUnavailableException) cause).getRetryAfterMillis();
+                break;
+            }
+            if (cause instanceof QueueSaturatedException) {
+                retryAfterMillis = ((QueueSaturatedException) cause).getRetryAfterMillis();
+                break;
+            }
+            if (cause instanceof ContendedUpdateException) {
+                retryAfterMillis = ((ContendedUpdateException) cause).getRetryAfterMillis();
+                break;
+            }
+        }
+
+        return String.valueOf(Math.max(1, (retryAfterMillis + 999) / 1000));
+    }
+
     private static boolean isQueryStringParametersValid(APIGatewayProxyRequestEvent event) {
         return event != null && event.getQueryStringParameters() != null;
     }
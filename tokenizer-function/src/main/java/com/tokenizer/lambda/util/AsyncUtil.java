@@ -0,0 +1,70 @@
+package com.tokenizer.lambda.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncUtil {
+    public static final String STORAGE_CONCURRENCY_ENV = "STORAGE_CONCURRENCY";
+    private static final int DEFAULT_STORAGE_CONCURRENCY = 16;
+
+    /**
+     * Executor running the storage calls of the async repositories.
+     * Its size bounds the number of calls in flight per container, so that
+     * a fan-out over a large queue cannot exhaust the client's connection pool.
+     * */
+    public static final ExecutorService STORAGE_EXECUTOR;
+
+    static {
+        int concurrency = EnvUtil.intFromEnv(STORAGE_CONCURRENCY_ENV, DEFAULT_STORAGE_CONCURRENCY);
+        AtomicInteger threadCount = new AtomicInteger();
+        STORAGE_EXECUTOR = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "storage-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Method to wait for a group of concurrent calls.
+     * Returns only once every call completed, so that no call is left in flight
+     * when one of them fails - the Lambda container is frozen between invocations.
+     *
+     * @param futures The calls to wait for.
+     * @return The results of the calls, in the same order.
+     * @throws RuntimeException the exception of the first failed call, as thrown by the call itself.
+     * */
+    public static <T> List<T> joinAll(List<CompletableFuture<T>> futures) {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            // rethrown below, in the order of the calls
+        }
+
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            results.add(join(future));
+        }
+
+        return results;
+    }
+
+    /**
+     * Method to wait for a single call.
+     * @throws RuntimeException the exception thrown by the call itself.
+     * */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
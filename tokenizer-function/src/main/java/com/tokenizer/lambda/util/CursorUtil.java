@@ -0,0 +1,112 @@
+package com.tokenizer.lambda.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Encoding of the position of a parallel scan as a single opaque pagination token.
+ *
+ * The token holds the number of segments and, for each segment, whether it was
+ * scanned to the end and otherwise the key it stopped at. Clients only pass it back,
+ * so its layout can change as long as tokens still in use are decoded.
+ * */
+public class CursorUtil {
+    /** Position of a segment that has not been scanned yet. */
+    public static final String SEGMENT_NOT_STARTED = null;
+    /** Position of a segment that was scanned to the end. */
+    public static final String SEGMENT_DONE = "";
+    public static final int MAX_SEGMENTS = 64;
+
+    private static final byte NOT_STARTED = 0;
+    private static final byte IN_PROGRESS = 1;
+    private static final byte DONE = 2;
+
+    /**
+     * @return The positions of a scan that has not started, for the given number of segments.
+     * */
+    public static String[] start(int totalSegments) {
+        return new String[totalSegments];
+    }
+
+    /**
+     * @return true once every segment was scanned to the end.
+     * */
+    public static boolean isDone(String[] positions) {
+        return Arrays.stream(positions).allMatch(SEGMENT_DONE::equals);
+    }
+
+    /**
+     * Method to encode the positions of the segments of a scan.
+     * @param positions For each segment, SEGMENT_NOT_STARTED, SEGMENT_DONE or the key the segment stopped at.
+     * @return The pagination token, null if every segment is done.
+     * */
+    public static String encode(String[] positions) {
+        if (isDone(positions)) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(positions.length);
+            for (String position : positions) {
+                if (position == null) {
+                    out.writeByte(NOT_STARTED);
+                } else if (position.isEmpty()) {
+                    out.writeByte(DONE);
+                } else {
+                    out.writeByte(IN_PROGRESS);
+                    out.writeUTF(position);
+                }
+            }
+            out.flush();
+
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode scan positions", e);
+        }
+    }
+
+    /**
+     * Method to decode a pagination token built by encode.
+     * @param paginationToken The token passed by the client.
+     * @return The positions of the segments, as many as the scan was started with.
+     * @throws IllegalArgumentException if the token was not built by encode.
+     * */
+    public static String[] decode(String paginationToken) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    Base64.getUrlDecoder().decode(paginationToken)));
+
+            int totalSegments = in.readUnsignedByte();
+            if (totalSegments < 1 || totalSegments > MAX_SEGMENTS) {
+                throw new IllegalArgumentException("Invalid pagination token");
+            }
+
+            String[] positions = new String[totalSegments];
+            for (int segment = 0; segment < totalSegments; segment++) {
+                byte state = in.readByte();
+                if (state == IN_PROGRESS) {
+                    positions[segment] = in.readUTF();
+                } else if (state == DONE) {
+                    positions[segment] = SEGMENT_DONE;
+                } else if (state != NOT_STARTED) {
+                    throw new IllegalArgumentException("Invalid pagination token");
+                }
+            }
+
+            if (in.available() > 0) {
+                throw new IllegalArgumentException("Invalid pagination token");
+            }
+
+            return positions;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid pagination token", e);
+        }
+    }
+}
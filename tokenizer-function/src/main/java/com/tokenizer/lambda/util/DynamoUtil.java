@@ -1,13 +1,83 @@
 package com.tokenizer.lambda.util;
 
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedBackoffStrategies;
+import com.amazonaws.retry.RetryPolicy;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.tokenizer.lambda.metrics.DynamoMetricsHandler;
+import com.tokenizer.lambda.resilience.AdaptiveRateLimiter;
+import com.tokenizer.lambda.resilience.CircuitBreaker;
+import com.tokenizer.lambda.resilience.ResilienceHandler;
+import com.tokenizer.lambda.resilience.RetryQuota;
 
+/**
+ * The DynamoDB client shared by the functions.
+ *
+ * Its timeouts, connection pool, retries and circuit breaker are set from environment variables.
+ * Retries back off with jitter, for longer after throttling than after other errors, and draw
+ * on a retry quota. Calls are rate limited once DynamoDB throttles them.
+ * */
 public class DynamoUtil {
+    public static final String CONNECTION_TIMEOUT_MILLIS_ENV = "DYNAMO_CONNECTION_TIMEOUT_MILLIS";
+    /** Time an attempt may take. */
+    public static final String REQUEST_TIMEOUT_MILLIS_ENV = "DYNAMO_REQUEST_TIMEOUT_MILLIS";
+    /** Time a call may take, its retries included. */
+    public static final String CALL_TIMEOUT_MILLIS_ENV = "DYNAMO_CALL_TIMEOUT_MILLIS";
+    public static final String MAX_CONNECTIONS_ENV = "DYNAMO_MAX_CONNECTIONS";
+    public static final String MAX_RETRIES_ENV = "DYNAMO_MAX_RETRIES";
+    public static final String RETRY_QUOTA_ENV = "DYNAMO_RETRY_QUOTA";
+    public static final String CIRCUIT_FAILURE_THRESHOLD_ENV = "DYNAMO_CIRCUIT_FAILURE_THRESHOLD";
+    public static final String CIRCUIT_OPEN_MILLIS_ENV = "DYNAMO_CIRCUIT_OPEN_MILLIS";
+    public static final String RATE_LIMIT_MAX_WAIT_MILLIS_ENV = "DYNAMO_RATE_LIMIT_MAX_WAIT_MILLIS";
+
+    private static final int DEFAULT_CONNECTION_TIMEOUT_MILLIS = 1_000;
+    private static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 2_000;
+    private static final int DEFAULT_CALL_TIMEOUT_MILLIS = 10_000;
+    private static final int DEFAULT_MAX_CONNECTIONS = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
+    private static final int DEFAULT_MAX_RETRIES = 10;
+    private static final int DEFAULT_RETRY_QUOTA = 500;
+    private static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final int DEFAULT_CIRCUIT_OPEN_MILLIS = 5_000;
+    private static final int DEFAULT_RATE_LIMIT_MAX_WAIT_MILLIS = 1_000;
+
+    /** Backoff of the SDK's DynamoDB defaults. */
+    private static final int BASE_DELAY_MILLIS = 25;
+    private static final int THROTTLED_BASE_DELAY_MILLIS = 500;
+    private static final int MAX_BACKOFF_MILLIS = 20_000;
+
     public static final AmazonDynamoDB DYNAMO_CLIENT;
 
     static {
-        DYNAMO_CLIENT = AmazonDynamoDBClientBuilder.standard().build();
-    }
+        RetryQuota retryQuota = new RetryQuota(EnvUtil.intFromEnv(RETRY_QUOTA_ENV, DEFAULT_RETRY_QUOTA));
+        int requestTimeout = EnvUtil.intFromEnv(REQUEST_TIMEOUT_MILLIS_ENV, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+
+        ClientConfiguration configuration = new ClientConfiguration()
+                .withConnectionTimeout(EnvUtil.intFromEnv(CONNECTION_TIMEOUT_MILLIS_ENV, DEFAULT_CONNECTION_TIMEOUT_MILLIS))
+                .withRequestTimeout(requestTimeout)
+                .withSocketTimeout(requestTimeout)
+                .withClientExecutionTimeout(EnvUtil.intFromEnv(CALL_TIMEOUT_MILLIS_ENV, DEFAULT_CALL_TIMEOUT_MILLIS))
+                .withMaxConnections(EnvUtil.intFromEnv(MAX_CONNECTIONS_ENV, DEFAULT_MAX_CONNECTIONS))
+                // the retry quota takes the place of the SDK's own
+                .withThrottledRetries(false)
+                .withRetryPolicy(new RetryPolicy(
+                        retryQuota,
+                        new PredefinedBackoffStrategies.SDKDefaultBackoffStrategy(
+                                BASE_DELAY_MILLIS, THROTTLED_BASE_DELAY_MILLIS, MAX_BACKOFF_MILLIS),
+                        EnvUtil.intFromEnv(MAX_RETRIES_ENV, DEFAULT_MAX_RETRIES),
+                        false));
 
+        DYNAMO_CLIENT = AmazonDynamoDBClientBuilder.standard()
+                .withClientConfiguration(configuration)
+                .withRequestHandlers(
+                        new ResilienceHandler(
+                                new CircuitBreaker(
+                                        EnvUtil.intFromEnv(CIRCUIT_FAILURE_THRESHOLD_ENV, DEFAULT_CIRCUIT_FAILURE_THRESHOLD),
+                                        EnvUtil.intFromEnv(CIRCUIT_OPEN_MILLIS_ENV, DEFAULT_CIRCUIT_OPEN_MILLIS)),
+                                new AdaptiveRateLimiter(
+                                        EnvUtil.intFromEnv(RATE_LIMIT_MAX_WAIT_MILLIS_ENV, DEFAULT_RATE_LIMIT_MAX_WAIT_MILLIS)),
+                                retryQuota),
+                        new DynamoMetricsHandler())
+                .build();
+    }
 }
@@ -0,0 +1,21 @@
+package com.tokenizer.lambda.util;
+
+/**
+ * Settings of the functions read from environment variables.
+ * */
+public class EnvUtil {
+
+    /**
+     * @param name The name of the environment variable.
+     * @param defaultValue The value used when the variable is not set, not a number or not positive.
+     * @return The positive value of the variable, else the default value.
+     * */
+    public static int intFromEnv(String name, int defaultValue) {
+        try {
+            String value = System.getenv(name);
+            return value != null && Integer.parseInt(value) > 0 ? Integer.parseInt(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.tokenizer.lambda.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Seats of the groups subscribing together.
+ * A user can only have a single link per queue, so the other tokens of a group are linked
+ * to seats - user IDs made of the leader's ID, the reserved SEAT_SEPARATOR and the seat number.
+ * The leader holds the first seat, and its link holds the number of seats of the group.
+ * */
+public class GroupUtil {
+    /** Reserved in user IDs, so that no user can hold the seat of a group. */
+    public static final String SEAT_SEPARATOR = "#";
+
+    /**
+     * @return true if the user ID can subscribe - it does not contain the SEAT_SEPARATOR.
+     * */
+    public static boolean isValidUserId(String userId) {
+        return userId != null && !userId.contains(SEAT_SEPARATOR);
+    }
+
+    /**
+     * @return The user ID of a seat of the group led by the user, the user's ID for the first seat.
+     * */
+    public static String seatId(String userId, int seat) {
+        return seat == 0 ? userId : userId + SEAT_SEPARATOR + seat;
+    }
+
+    /**
+     * @return The user IDs of the seats from firstSeat (0 being the leader) to seats - 1.
+     * */
+    public static List<String> seatIds(String userId, int firstSeat, int seats) {
+        List<String> seatIds = new ArrayList<>(Math.max(seats - firstSeat, 0));
+        for (int seat = firstSeat; seat < seats; seat++) {
+            seatIds.add(seatId(userId, seat));
+        }
+
+        return seatIds;
+    }
+}
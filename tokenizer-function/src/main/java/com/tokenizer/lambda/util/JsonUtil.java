@@ -0,0 +1,264 @@
+package com.tokenizer.lambda.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.response.ResponseModel;
+import com.tokenizer.lambda.model.users.User;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming serialization of the responses of the functions.
+ *
+ * Responses, queues and users are written field by field with a JsonGenerator,
+ * with their field names encoded once, instead of going through the reflective
+ * bean serializers of the ObjectMapper. The JSON is written into a character buffer
+ * kept by each thread, so a list of thousands of queues only allocates the final String.
+ * The output is the same as the ObjectMapper's - other values are still written by it.
+ * */
+public class JsonUtil {
+    /** Buffers grown past this size by a large response are not kept for the next one. */
+    private static final int MAX_RETAINED_CHARS = 2 * 1024 * 1024;
+    private static final int INITIAL_CHARS = 1024;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ThreadLocal<ReusableWriter> BUFFER = ThreadLocal.withInitial(ReusableWriter::new);
+
+    private static final SerializableString STATUS_CODE = fieldName(ResponseModel.STATUS_CODE);
+    private static final SerializableString MESSAGE = fieldName(ResponseModel.MESSAGE);
+    private static final SerializableString VALUES = fieldName(ResponseModel.VALUES);
+    private static final SerializableString PAGINATION_TOKEN = fieldName(ResponseModel.PAGINATION_TOKEN);
+    private static final SerializableString STATS = fieldName(ResponseModel.STATS);
+
+    // same names as the bean properties the ObjectMapper would write
+    private static final SerializableString QUEUE_ID = fieldName("queueId");
+    private static final SerializableString QUEUE_NAME = fieldName("queueName");
+    private static final SerializableString LAST_GENERATED_TOKEN = fieldName("lastGeneratedToken");
+    private static final SerializableString LAST_PROCESSED_TOKEN = fieldName("lastProcessedToken");
+    private static final SerializableString MAX_SIZE = fieldName("maxSize");
+    private static final SerializableString DISABLED = fieldName("disabled");
+    private static final SerializableString COUNTER_SHARDS = fieldName("counterShards");
+    private static final SerializableString DELETED_AT = fieldName("deletedAt");
+    private static final SerializableString SUBSCRIBE_RATE = fieldName("subscribeRate");
+    private static final SerializableString USER_ID = fieldName("userId");
+    private static final SerializableString OWNER = fieldName("owner");
+    private static final SerializableString TOKEN_NUMBER = fieldName("tokenNumber");
+    private static final SerializableString STATE = fieldName("state");
+    private static final SerializableString SEATS = fieldName("seats");
+    private static final SerializableString QUEUE = fieldName("queue");
+
+    /**
+     * @return The field name, with its quoted and escaped forms computed once.
+     * */
+    public static SerializableString fieldName(String name) {
+        return new SerializedString(name);
+    }
+
+    /**
+     * Method to serialize a response the same way the ObjectMapper would.
+     * @param mapper The mapper writing the values that have no precomputed serializer.
+     * @param response The response to serialize.
+     * @return The JSON of the response.
+     * @throws IOException if a value could not be serialized.
+     * */
+    public static String toJson(ObjectMapper mapper, ResponseModel<?> response) throws IOException {
+        ReusableWriter buffer = BUFFER.get();
+
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(buffer.reset())) {
+            generator.writeStartObject();
+            // the response model is annotated to leave out null fields
+            if (response.getStatusCode() != null) {
+                generator.writeFieldName(STATUS_CODE);
+                generator.writeNumber(response.getStatusCode());
+            }
+            if (response.getMessage() != null) {
+                generator.writeFieldName(MESSAGE);
+                generator.writeString(response.getMessage());
+            }
+            if (response.getObject() != null) {
+                generator.writeFieldName(VALUES);
+                writeValue(generator, response.getObject());
+            }
+            if (response.getPaginationToken() != null) {
+                generator.writeFieldName(PAGINATION_TOKEN);
+                generator.writeString(response.getPaginationToken());
+            }
+            if (response.getStats() != null) {
+                generator.writeFieldName(STATS);
+                writeValue(generator, response.getStats());
+            }
+            generator.writeEndObject();
+        }
+
+        return buffer.release();
+    }
+
+    /**
+     * Method to serialize an object with a single string field, e.g. an error message.
+     * */
+    public static String toJsonObject(SerializableString name, String value) throws IOException {
+        ReusableWriter buffer = BUFFER.get();
+
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(buffer.reset())) {
+            generator.writeStartObject();
+            writeStringField(generator, name, value);
+            generator.writeEndObject();
+        }
+
+        return buffer.release();
+    }
+
+    /**
+     * Method to serialize an object with two string fields.
+     * */
+    public static String toJsonObject(SerializableString name, String value,
+                                      SerializableString otherName, String otherValue) throws IOException {
+        ReusableWriter buffer = BUFFER.get();
+
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(buffer.reset())) {
+            generator.writeStartObject();
+            writeStringField(generator, name, value);
+            writeStringField(generator, otherName, otherValue);
+            generator.writeEndObject();
+        }
+
+        return buffer.release();
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof Queue) {
+            writeQueue(generator, (Queue) value);
+        } else if (value instanceof User) {
+            writeUser(generator, (User) value);
+        } else if (value instanceof List) {
+            List<?> values = (List<?>) value;
+            generator.writeStartArray();
+            for (Object element : values) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeObject(value);
+        }
+    }
+
+    private static void writeQueue(JsonGenerator generator, Queue queue) throws IOException {
+        generator.writeStartObject();
+        writeStringField(generator, QUEUE_ID, queue.getQueueId());
+        writeStringField(generator, QUEUE_NAME, queue.getQueueName());
+        writeNumberField(generator, LAST_GENERATED_TOKEN, queue.getLastGeneratedToken());
+        writeNumberField(generator, LAST_PROCESSED_TOKEN, queue.getLastProcessedToken());
+        writeNumberField(generator, MAX_SIZE, queue.getMaxSize());
+        generator.writeFieldName(DISABLED);
+        if (queue.isDisabled() != null) {
+            generator.writeBoolean(queue.isDisabled());
+        } else {
+            generator.writeNull();
+        }
+        writeNumberField(generator, COUNTER_SHARDS, queue.getCounterShards());
+        writeNumberField(generator, DELETED_AT, queue.getDeletedAt());
+        writeNumberField(generator, SUBSCRIBE_RATE, queue.getSubscribeRate());
+        generator.writeEndObject();
+    }
+
+    private static void writeUser(JsonGenerator generator, User user) throws IOException {
+        generator.writeStartObject();
+        writeStringField(generator, USER_ID, user.getUserId());
+        writeStringField(generator, QUEUE_ID, user.getQueueId());
+        generator.writeFieldName(OWNER);
+        generator.writeBoolean(user.isOwner());
+        writeNumberField(generator, TOKEN_NUMBER, user.getTokenNumber());
+        writeStringField(generator, STATE, user.getState() != null ? user.getState().name() : null);
+        // only set on the links of group leaders, and left out otherwise
+        if (user.getSeats() != null) {
+            writeNumberField(generator, SEATS, user.getSeats());
+        }
+        // only set on hydrated descriptions, and left out otherwise
+        if (user.getQueue() != null) {
+            generator.writeFieldName(QUEUE);
+            writeQueue(generator, user.getQueue());
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeStringField(JsonGenerator generator, SerializableString name, String value) throws IOException {
+        generator.writeFieldName(name);
+        generator.writeString(value);
+    }
+
+    private static void writeNumberField(JsonGenerator generator, SerializableString name, Number value) throws IOException {
+        generator.writeFieldName(name);
+        if (value instanceof Integer) {
+            generator.writeNumber(value.intValue());
+        } else if (value != null) {
+            generator.writeNumber(value.longValue());
+        } else {
+            generator.writeNull();
+        }
+    }
+
+    /**
+     * Writer appending to a character array that is kept between responses.
+     * */
+    private static class ReusableWriter extends Writer {
+        private char[] chars = new char[INITIAL_CHARS];
+        private int length;
+
+        Writer reset() {
+            length = 0;
+            return this;
+        }
+
+        /**
+         * @return The characters written since the last reset.
+         * */
+        String release() {
+            String result = new String(chars, 0, length);
+            if (chars.length > MAX_RETAINED_CHARS) {
+                chars = new char[INITIAL_CHARS];
+            }
+            length = 0;
+
+            return result;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + extra));
+            }
+        }
+
+        @Override
+        public void write(int c) {
+            ensureCapacity(1);
+            chars[length++] = (char) c;
+        }
+
+        @Override
+        public void write(char[] source, int offset, int count) {
+            ensureCapacity(count);
+            System.arraycopy(source, offset, chars, length, count);
+            length += count;
+        }
+
+        @Override
+        public void write(String source, int offset, int count) {
+            ensureCapacity(count);
+            source.getChars(offset, offset + count, chars, length);
+            length += count;
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
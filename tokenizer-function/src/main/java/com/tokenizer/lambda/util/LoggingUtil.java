@@ -0,0 +1,78 @@
+package com.tokenizer.lambda.util;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.model.queues.Queue;
+import org.slf4j.Logger;
+import org.slf4j.MDC;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Per-request logging of the API Gateway functions.
+ *
+ * The request ID and queue ID of a request are put in the logging context, from which
+ * the layout reads them, so messages do not need to carry them. Full request events are
+ * only serialized when debug logging is enabled, and then only for a sample of the requests.
+ * */
+public class LoggingUtil {
+    public static final String LOG_EVENT_SAMPLE_RATE_ENV = "LOG_EVENT_SAMPLE_RATE";
+    public static final double DEFAULT_EVENT_SAMPLE_RATE = 0.01;
+
+    /** The key the Lambda runtime uses for the request ID. */
+    public static final String REQUEST_ID = "AWSRequestId";
+    public static final String QUEUE_ID = "queueId";
+
+    private static final double EVENT_SAMPLE_RATE = eventSampleRate();
+
+    private static double eventSampleRate() {
+        try {
+            String value = System.getenv(LOG_EVENT_SAMPLE_RATE_ENV);
+            return value != null && Double.parseDouble(value) >= 0 ? Double.parseDouble(value) : DEFAULT_EVENT_SAMPLE_RATE;
+        } catch (NumberFormatException e) {
+            return DEFAULT_EVENT_SAMPLE_RATE;
+        }
+    }
+
+    /**
+     * Method to put the request ID and queue ID of a request in the logging context.
+     * Must be followed by clearContext once the request is handled, as the thread serves the next request.
+     * @param input The input API Gateway request event.
+     * @param context The context of the invocation, may be null.
+     * */
+    public static void putContext(APIGatewayProxyRequestEvent input, Context context) {
+        if (context != null && context.getAwsRequestId() != null) {
+            MDC.put(REQUEST_ID, context.getAwsRequestId());
+        }
+
+        String queueId = ApiGatewayUtil.parseQueryStringParameter(input, Queue.COL_QUEUE_ID);
+        if (queueId != null) {
+            MDC.put(QUEUE_ID, queueId);
+        }
+    }
+
+    public static void clearContext() {
+        MDC.remove(REQUEST_ID);
+        MDC.remove(QUEUE_ID);
+    }
+
+    /**
+     * Method to log a full request event at debug level, for a sample of the requests.
+     * The event is only serialized when it is logged.
+     * @param logger The logger of the function.
+     * @param objectMapper The mapper to serialize the event with.
+     * @param input The input event.
+     * */
+    public static void logEvent(Logger logger, ObjectMapper objectMapper, Object input) {
+        if (!logger.isDebugEnabled() || ThreadLocalRandom.current().nextDouble() >= EVENT_SAMPLE_RATE) {
+            return;
+        }
+
+        try {
+            logger.debug("Received event: {}", objectMapper.writeValueAsString(input));
+        } catch (Exception e) {
+            logger.debug("Could not serialize the event: {}", e.getMessage());
+        }
+    }
+}
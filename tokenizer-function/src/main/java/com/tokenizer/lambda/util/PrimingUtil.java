@@ -0,0 +1,102 @@
+package com.tokenizer.lambda.util;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.dao.storage.QueueCodec;
+import com.tokenizer.lambda.dao.storage.UserCodec;
+import com.tokenizer.lambda.metrics.Metrics;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.QueuePosition;
+import com.tokenizer.lambda.model.response.ResponseModel;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+
+/**
+ * Work done while a function initializes, so that the first request does not pay for it.
+ *
+ * Lambda runs the static initialization of a handler ahead of its first invocation,
+ * with a full CPU. Priming loads and links the classes of the item codecs,
+ * the serializers and the SDK's request path, and opens the connection to DynamoDB.
+ * Priming never fails the initialization - what could not be primed is done on first use.
+ * */
+public class PrimingUtil {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrimingUtil.class);
+    /** No queue is ever created with this ID - the IDs handed out are UUIDs. */
+    private static final String PRIMING_QUEUE_ID = "priming";
+
+    /**
+     * Method to prime the item codecs, the serializers and the connection to DynamoDB.
+     * @param dynamoDbClient The client to open a connection with.
+     * @param objectMapper The mapper serializing the requests and responses.
+     * */
+    public static void prime(AmazonDynamoDB dynamoDbClient, ObjectMapper objectMapper) {
+        long start = System.currentTimeMillis();
+
+        primeCodecs();
+        primeSerializers(objectMapper);
+        primeConnection(dynamoDbClient);
+        // the priming calls are no part of any invocation
+        Metrics.clear();
+
+        LOGGER.info("Primed in {} ms", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Converts an item of each table each way.
+     * */
+    public static void primeCodecs() {
+        try {
+            QueueCodec.decode(QueueCodec.encode(primingQueue()));
+            UserCodec.decode(UserCodec.encode(primingUser()));
+        } catch (Exception e) {
+            LOGGER.warn("Could not prime the item codecs: ", e);
+        }
+    }
+
+    /**
+     * Serializes a response of each kind the handlers return, and a request event as it is logged.
+     * */
+    public static void primeSerializers(ObjectMapper objectMapper) {
+        try {
+            ApiGatewayUtil.getResponseJsonString(objectMapper, new ResponseModel<>(200, ResponseModel.SUCCESS_MESSAGE,
+                    Collections.singletonList(primingQueue()), PRIMING_QUEUE_ID));
+            ApiGatewayUtil.getResponseJsonString(objectMapper, new ResponseModel<>(200, ResponseModel.SUCCESS_MESSAGE,
+                    Collections.singletonList(primingUser()), null));
+            ApiGatewayUtil.getResponseJsonString(objectMapper, new ResponseModel<>(200, ResponseModel.SUCCESS_MESSAGE,
+                    new QueuePosition(PRIMING_QUEUE_ID, 1, 0, 0), null));
+            objectMapper.writeValueAsString(new APIGatewayProxyRequestEvent());
+        } catch (Exception e) {
+            LOGGER.warn("Could not prime the serializers: ", e);
+        }
+    }
+
+    /**
+     * Reads an item that does not exist, which resolves the credentials and
+     * opens a connection of the client's pool ready for the first request.
+     * */
+    public static void primeConnection(AmazonDynamoDB dynamoDbClient) {
+        try {
+            dynamoDbClient.getItem(new GetItemRequest(Queue.TABLE_NAME, QueueCodec.key(PRIMING_QUEUE_ID)));
+        } catch (Exception e) {
+            LOGGER.warn("Could not prime the connection to DynamoDB: {}", e.getMessage());
+        }
+    }
+
+    private static Queue primingQueue() {
+        return new Queue(PRIMING_QUEUE_ID, PRIMING_QUEUE_ID, 0, 0, Queue.DEFAULT_MAX_SIZE, false);
+    }
+
+    private static User primingUser() {
+        User user = new User(PRIMING_QUEUE_ID, PRIMING_QUEUE_ID);
+        user.setTokenNumber(1);
+        user.setState(UserState.WAITING);
+
+        return user;
+    }
+}
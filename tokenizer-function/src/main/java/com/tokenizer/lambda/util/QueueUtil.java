@@ -3,7 +3,83 @@ package com.tokenizer.lambda.util;
 import java.util.UUID;
 
 public class QueueUtil {
+    private static final String SHARD_KEY_SEPARATOR = "#shard#";
+
     public static synchronized String generateQueueId() {
         return UUID.randomUUID().toString();
     }
+
+    /**
+     * @param counterShards The counter_shards attribute of a queue.
+     * @return true if the tokens of the queue are handed out by more than one counter shard.
+     * */
+    public static boolean isSharded(Integer counterShards) {
+        return counterShards != null && counterShards > 1;
+    }
+
+    /**
+     * @return The queue_id of the item holding a counter shard of a queue.
+     * */
+    public static String shardKey(String queueId, int shard) {
+        return queueId + SHARD_KEY_SEPARATOR + shard;
+    }
+
+    /*
+     * Token numbering of sharded counters.
+     * With N shards, shard s (0 to N-1) hands out the tokens s+1, s+1+N, s+1+2N...
+     * so the k-th token of shard s (k starting at 1) is the global token (k-1)*N + s + 1.
+     * This interleaving is deterministic, so a token number always maps back
+     * to a single shard and position, and the global order of tokens is kept.
+     */
+
+    /**
+     * @return The global token number of the k-th token of a shard.
+     * */
+    public static int shardToken(int shard, int shards, int localToken) {
+        return (localToken - 1) * shards + shard + 1;
+    }
+
+    /**
+     * @return The shard handing out a global token number.
+     * */
+    public static int shardOf(int token, int shards) {
+        return (token - 1) % shards;
+    }
+
+    /**
+     * @return The position of a global token number within its shard, starting at 1.
+     * */
+    public static int localToken(int token, int shards) {
+        return (token - 1) / shards + 1;
+    }
+
+    /**
+     * @return The number of tokens of a shard that are not greater than the queue's max_size.
+     * */
+    public static int shardLimit(int maxSize, int shards, int shard) {
+        return maxSize > shard ? (maxSize - shard - 1) / shards + 1 : 0;
+    }
+
+    /**
+     * @param counters The last_generated_token of each shard.
+     * @return The highest global token handed out across the shards, 0 if none.
+     * */
+    public static int lastIssuedToken(int[] counters) {
+        int result = 0;
+        for (int shard = 0; shard < counters.length; shard++) {
+            if (counters[shard] > 0) {
+                result = Math.max(result, shardToken(shard, counters.length, counters[shard]));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param counters The last_generated_token of each shard.
+     * @return true if the global token has been handed out (or burnt) by its shard.
+     * */
+    public static boolean isIssued(int token, int[] counters) {
+        return counters[shardOf(token, counters.length)] >= localToken(token, counters.length);
+    }
 }
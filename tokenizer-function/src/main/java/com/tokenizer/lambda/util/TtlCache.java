@@ -0,0 +1,153 @@
+package com.tokenizer.lambda.util;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded read-through cache, keeping values for a fixed time after they were loaded.
+ *
+ * Null values are not cached, so a missing item is looked up again on the next read.
+ * When the cache is full, expired entries are dropped first, then all the entries -
+ * the cache only needs to hold what one container serves within a TTL.
+ * Cached values are shared between callers and must not be modified.
+ * */
+public class TtlCache<K, V> {
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Incremented on every invalidation, so that a load racing with it is not cached. */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public TtlCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Method to read a value, loading it on a miss or once it expired.
+     * @param key The key of the value.
+     * @param loader Function loading the value of a key, may return null.
+     * @return The cached or loaded value.
+     * */
+    public V get(K key, Function<K, V> loader) {
+        Entry<V> entry = entries.get(key);
+        long now = System.nanoTime();
+
+        if (entry != null && now - entry.loadedAt < ttlNanos) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+
+        misses.incrementAndGet();
+        long invalidationsBeforeLoad = invalidations.get();
+        V value = loader.apply(key);
+
+        if (value != null && invalidations.get() == invalidationsBeforeLoad) {
+            if (entries.size() >= maxEntries) {
+                evict(now);
+            }
+            entries.put(key, new Entry<>(value, now));
+        }
+
+        return value;
+    }
+
+    /**
+     * Method to read several values, loading the missing and expired ones with a single call.
+     * @param keys The keys of the values.
+     * @param loader Function loading the values of a set of keys, leaving out the keys that have none.
+     * @return The cached and loaded values by key, without the keys that have none.
+     * */
+    public Map<K, V> getAll(Collection<K> keys, Function<Set<K>, Map<K, V>> loader) {
+        Map<K, V> values = new HashMap<>();
+        Set<K> missing = new LinkedHashSet<>();
+        long now = System.nanoTime();
+
+        for (K key : keys) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && now - entry.loadedAt < ttlNanos) {
+                hits.incrementAndGet();
+                values.put(key, entry.value);
+            } else {
+                missing.add(key);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return values;
+        }
+
+        misses.addAndGet(missing.size());
+        long invalidationsBeforeLoad = invalidations.get();
+        Map<K, V> loaded = loader.apply(missing);
+
+        boolean cacheable = invalidations.get() == invalidationsBeforeLoad;
+        for (Map.Entry<K, V> value : loaded.entrySet()) {
+            if (value.getValue() == null) {
+                continue;
+            }
+            if (cacheable) {
+                if (entries.size() >= maxEntries) {
+                    evict(now);
+                }
+                entries.put(value.getKey(), new Entry<>(value.getValue(), now));
+            }
+            values.put(value.getKey(), value.getValue());
+        }
+
+        return values;
+    }
+
+    /**
+     * Method to drop a value, e.g. after it was written.
+     * */
+    public void invalidate(K key) {
+        invalidations.incrementAndGet();
+        entries.remove(key);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void evict(long now) {
+        entries.values().removeIf(entry -> now - entry.loadedAt >= ttlNanos);
+        if (entries.size() >= maxEntries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TtlCache{" +
+                "size=" + entries.size() +
+                ", hits=" + hits.get() +
+                ", misses=" + misses.get() +
+                '}';
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long loadedAt;
+
+        private Entry(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.tokenizer.lambda.changes;
+
+import com.tokenizer.lambda.model.queues.Queue;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class QueueChangePublisherTest {
+    private static final String QUEUE_ID = "queue";
+
+    private final QueueChangePublisher publisher = new QueueChangePublisher();
+
+    @Test
+    public void waitIsCompletedByALaterPublish() throws Exception {
+        CompletableFuture<Queue> change = publisher.awaitProcessedPast(QUEUE_ID, 3);
+        assertFalse(change.isDone());
+
+        // a change of another queue, then one that does not move past the value waited for
+        publisher.publish(queue("other", 10));
+        publisher.publish(queue(QUEUE_ID, 3));
+        assertFalse(change.isDone());
+
+        Queue moved = queue(QUEUE_ID, 4);
+        publisher.publish(moved);
+
+        assertSame(moved, change.getNow(null));
+        assertEquals(0, publisher.getWaiterCount());
+    }
+
+    @Test
+    public void outOfOrderPublishIsIgnored() {
+        publisher.publish(queue(QUEUE_ID, 5));
+        publisher.publish(queue(QUEUE_ID, 2));
+
+        // the latest change is still the newer one, so a wait for 4 is answered right away
+        Queue latest = publisher.awaitProcessedPast(QUEUE_ID, 4).getNow(null);
+        assertEquals(Integer.valueOf(5), latest.getLastProcessedToken());
+
+        // and the older change does not complete a wait for a value it is behind
+        CompletableFuture<Queue> change = publisher.awaitProcessedPast(QUEUE_ID, 5);
+        publisher.publish(queue(QUEUE_ID, 3));
+        assertFalse(change.isDone());
+    }
+
+    @Test
+    public void cancelledWaitIsRemoved() {
+        CompletableFuture<Queue> change = publisher.awaitProcessedPast(QUEUE_ID, 3);
+        CompletableFuture<Queue> other = publisher.awaitProcessedPast(QUEUE_ID, 3);
+        assertEquals(2, publisher.getWaiterCount());
+
+        change.cancel(false);
+
+        assertEquals(1, publisher.getWaiterCount());
+        publisher.publish(queue(QUEUE_ID, 4));
+        assertTrue(other.isDone());
+        assertEquals(0, publisher.getWaiterCount());
+    }
+
+    @Test
+    public void waitIsAnsweredRightAwayWhenTheQueueAlreadyMoved() {
+        Queue moved = queue(QUEUE_ID, 7);
+        publisher.publish(moved);
+
+        CompletableFuture<Queue> change = publisher.awaitProcessedPast(QUEUE_ID, 3);
+
+        assertSame(moved, change.getNow(null));
+        assertEquals(0, publisher.getWaiterCount());
+    }
+
+    @Test
+    public void deletedQueueCompletesTheWaits() {
+        CompletableFuture<Queue> change = publisher.awaitProcessedPast(QUEUE_ID, 3);
+
+        Queue deleted = queue(QUEUE_ID, 3);
+        deleted.setDeletedAt(System.currentTimeMillis());
+        publisher.publish(deleted);
+
+        assertSame(deleted, change.getNow(null));
+    }
+
+    private static Queue queue(String queueId, int lastProcessedToken) {
+        return new Queue(queueId, "name", 10, lastProcessedToken, 100, false);
+    }
+}
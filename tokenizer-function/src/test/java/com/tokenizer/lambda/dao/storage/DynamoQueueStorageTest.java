@@ -0,0 +1,103 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.TokenRange;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class DynamoQueueStorageTest {
+    private static final String QUEUE_ID = "queue";
+
+    @Test
+    public void processTokensCapsTheRangeAtLastGeneratedToken() {
+        QueueTable table = new QueueTable(2, 6);
+
+        TokenRange tokens = new DynamoQueueStorage(table).processTokens(QUEUE_ID, 10);
+
+        assertEquals(3, tokens.getFirst());
+        assertEquals(6, tokens.getLast());
+        assertEquals(6, table.lastProcessedToken);
+    }
+
+    @Test
+    public void processTokensRetriesWhenLastProcessedTokenMoved() {
+        QueueTable table = new QueueTable(2, 6) {
+            @Override
+            void beforeUpdate() {
+                // another request processes a token between the first read and update
+                if (updates == 1) lastProcessedToken++;
+            }
+        };
+
+        TokenRange tokens = new DynamoQueueStorage(table).processTokens(QUEUE_ID, 2);
+
+        assertEquals(4, tokens.getFirst());
+        assertEquals(5, tokens.getLast());
+        assertEquals(5, table.lastProcessedToken);
+    }
+
+    @Test(expected = ContendedUpdateException.class)
+    public void processTokensKeptContendedIsRetryable() {
+        QueueTable table = new QueueTable(0, 100) {
+            @Override
+            void beforeUpdate() {
+                lastProcessedToken++;
+            }
+        };
+
+        new DynamoQueueStorage(table).processTokens(QUEUE_ID, 2);
+    }
+
+    @Test(expected = ConditionalCheckFailedException.class)
+    public void processTokensWithNothingToProcessFails() {
+        new DynamoQueueStorage(new QueueTable(6, 6)).processTokens(QUEUE_ID, 2);
+    }
+
+    /**
+     * The item of an unsharded queue, updated on the condition that last_processed_token did not move.
+     * */
+    private static class QueueTable extends AbstractAmazonDynamoDB {
+        int lastProcessedToken;
+        int lastGeneratedToken;
+        int updates;
+
+        QueueTable(int lastProcessedToken, int lastGeneratedToken) {
+            this.lastProcessedToken = lastProcessedToken;
+            this.lastGeneratedToken = lastGeneratedToken;
+        }
+
+        void beforeUpdate() {}
+
+        @Override
+        public GetItemResult getItem(GetItemRequest request) {
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put(Queue.COL_QUEUE_ID, new AttributeValue(QUEUE_ID));
+            item.put(Queue.COL_LAST_PROC_TOKEN, new AttributeValue().withN(String.valueOf(lastProcessedToken)));
+            item.put(Queue.COL_LAST_GEN_TOKEN, new AttributeValue().withN(String.valueOf(lastGeneratedToken)));
+            return new GetItemResult().withItem(item);
+        }
+
+        @Override
+        public UpdateItemResult updateItem(UpdateItemRequest request) {
+            updates++;
+            beforeUpdate();
+            Map<String, AttributeValue> values = request.getExpressionAttributeValues();
+            if (lastProcessedToken != Integer.parseInt(values.get(":current_token").getN())) {
+                throw new ConditionalCheckFailedException("last_processed_token moved");
+            }
+            lastProcessedToken = Integer.parseInt(values.get(":next_token").getN());
+            return new UpdateItemResult();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.tokenizer.lambda.dao.storage;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.TokenRange;
+import com.tokenizer.lambda.util.QueueUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ShardedTokenCounterTest {
+    private static final String QUEUE_ID = "queue";
+
+    @Test
+    public void processNextBurnsTheTokensItSkips() {
+        // shard 1 handed out token 2, shard 0 has not handed out token 1
+        CounterTable table = new CounterTable(0, 0, 1);
+
+        int token = new ShardedTokenCounter(table).processNext(QUEUE_ID, 2);
+
+        assertEquals(2, token);
+        assertEquals(2, table.lastProcessedToken());
+        assertEquals(1, table.counter(0));
+    }
+
+    @Test
+    public void processNextStartsOverWhenTheTokenItBurnsIsHandedOut() {
+        CounterTable table = new CounterTable(0, 0, 1) {
+            @Override
+            void beforeBurn(int shard) {
+                // a subscriber takes token 1 between the read of the counters and its burn
+                if (shard == 0 && counter(0) == 0) {
+                    setCounter(0, 1);
+                }
+            }
+        };
+
+        int token = new ShardedTokenCounter(table).processNext(QUEUE_ID, 2);
+
+        assertEquals(1, token);
+        assertEquals(1, table.lastProcessedToken());
+        assertEquals(1, table.counter(0));
+    }
+
+    @Test(expected = ConditionalCheckFailedException.class)
+    public void processNextFailsWhenNoTokenIsHandedOut() {
+        new ShardedTokenCounter(new CounterTable(0, 0, 0)).processNext(QUEUE_ID, 2);
+    }
+
+    @Test
+    public void processTokensBurnsTheGapsOfTheRange() {
+        // shard 0 handed out 1 and 4, shard 2 handed out 3, token 2 of shard 1 is missing
+        CounterTable table = new CounterTable(0, 2, 0, 1);
+
+        TokenRange tokens = new ShardedTokenCounter(table).processTokens(QUEUE_ID, 3, 10);
+
+        assertEquals(1, tokens.getFirst());
+        assertEquals(4, tokens.getLast());
+        assertEquals(4, table.lastProcessedToken());
+        assertArrayEquals(new int[]{2, 1, 1}, table.counters());
+    }
+
+    @Test
+    public void processTokensStopsAtTheCount() {
+        CounterTable table = new CounterTable(0, 2, 0, 1);
+
+        TokenRange tokens = new ShardedTokenCounter(table).processTokens(QUEUE_ID, 3, 2);
+
+        assertEquals(1, tokens.getFirst());
+        assertEquals(2, tokens.getLast());
+        assertEquals(2, table.lastProcessedToken());
+        assertArrayEquals(new int[]{2, 1, 1}, table.counters());
+    }
+
+    @Test
+    public void processingKeptContendedIsRetryable() {
+        CounterTable table = new CounterTable(0, 10, 10) {
+            @Override
+            void beforeProcess() {
+                // another request processes a token between every read and update
+                setLastProcessedToken(lastProcessedToken() + 1);
+            }
+        };
+
+        try {
+            new ShardedTokenCounter(table).processTokens(QUEUE_ID, 2, 3);
+            fail("Expected the processing to be contended");
+        } catch (ContendedUpdateException e) {
+            assertEquals(ContendedUpdateException.RETRY_AFTER_MILLIS, e.getRetryAfterMillis());
+        }
+    }
+
+    @Test
+    public void loadCountersReadsShardsWithoutShardOf() {
+        CounterTable table = new CounterTable(0, 3, 5);
+        table.shard(1).remove(Queue.COL_SHARD_OF);
+
+        assertArrayEquals(new int[]{3, 5}, new ShardedTokenCounter(table).loadCounters(QUEUE_ID, 2));
+    }
+
+    /**
+     * The queue item and the shard items of a sharded queue, updated with the
+     * expressions of ShardedTokenCounter and their conditions.
+     * */
+    private static class CounterTable extends AbstractAmazonDynamoDB {
+        private final Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        private final int shards;
+
+        CounterTable(int lastProcessedToken, int... counters) {
+            shards = counters.length;
+            Map<String, AttributeValue> queue = new HashMap<>();
+            queue.put(Queue.COL_QUEUE_ID, new AttributeValue(QUEUE_ID));
+            queue.put(Queue.COL_LAST_PROC_TOKEN, number(lastProcessedToken));
+            items.put(QUEUE_ID, queue);
+
+            for (int shard = 0; shard < counters.length; shard++) {
+                Map<String, AttributeValue> item = new HashMap<>();
+                item.put(Queue.COL_QUEUE_ID, new AttributeValue(QueueUtil.shardKey(QUEUE_ID, shard)));
+                item.put(Queue.COL_SHARD_OF, new AttributeValue(QUEUE_ID));
+                item.put(Queue.COL_LAST_GEN_TOKEN, number(counters[shard]));
+                items.put(QueueUtil.shardKey(QUEUE_ID, shard), item);
+            }
+        }
+
+        void beforeBurn(int shard) {}
+
+        void beforeProcess() {}
+
+        Map<String, AttributeValue> shard(int shard) {
+            return items.get(QueueUtil.shardKey(QUEUE_ID, shard));
+        }
+
+        int counter(int shard) {
+            return Integer.parseInt(shard(shard).get(Queue.COL_LAST_GEN_TOKEN).getN());
+        }
+
+        void setCounter(int shard, int counter) {
+            shard(shard).put(Queue.COL_LAST_GEN_TOKEN, number(counter));
+        }
+
+        int[] counters() {
+            int[] counters = new int[shards];
+            for (int shard = 0; shard < shards; shard++) {
+                counters[shard] = counter(shard);
+            }
+            return counters;
+        }
+
+        int lastProcessedToken() {
+            return Integer.parseInt(items.get(QUEUE_ID).get(Queue.COL_LAST_PROC_TOKEN).getN());
+        }
+
+        void setLastProcessedToken(int token) {
+            items.get(QUEUE_ID).put(Queue.COL_LAST_PROC_TOKEN, number(token));
+        }
+
+        @Override
+        public GetItemResult getItem(GetItemRequest request) {
+            Map<String, AttributeValue> item = items.get(request.getKey().get(Queue.COL_QUEUE_ID).getS());
+            return new GetItemResult().withItem(item != null ? new HashMap<>(item) : null);
+        }
+
+        @Override
+        public BatchGetItemResult batchGetItem(BatchGetItemRequest request) {
+            List<Map<String, AttributeValue>> found = new ArrayList<>();
+            for (Map<String, AttributeValue> key : request.getRequestItems().get(Queue.TABLE_NAME).getKeys()) {
+                Map<String, AttributeValue> item = items.get(key.get(Queue.COL_QUEUE_ID).getS());
+                if (item != null) {
+                    found.add(new HashMap<>(item));
+                }
+            }
+
+            return new BatchGetItemResult()
+                    .withResponses(Collections.singletonMap(Queue.TABLE_NAME, found))
+                    .withUnprocessedKeys(Collections.emptyMap());
+        }
+
+        @Override
+        public UpdateItemResult updateItem(UpdateItemRequest request) {
+            String key = request.getKey().get(Queue.COL_QUEUE_ID).getS();
+            Map<String, AttributeValue> values = request.getExpressionAttributeValues();
+
+            if (key.equals(QUEUE_ID)) {
+                beforeProcess();
+                if (lastProcessedToken() != intValue(values, ":current_token")) {
+                    throw new ConditionalCheckFailedException("last_processed_token moved");
+                }
+                setLastProcessedToken(intValue(values, ":next_token"));
+            } else {
+                int shard = Integer.parseInt(key.substring(key.lastIndexOf('#') + 1));
+                beforeBurn(shard);
+                if (counter(shard) != intValue(values, ":previous_token")) {
+                    throw new ConditionalCheckFailedException("last_generated_token moved");
+                }
+                setCounter(shard, intValue(values, ":local_token"));
+            }
+
+            return new UpdateItemResult();
+        }
+
+        private static int intValue(Map<String, AttributeValue> values, String name) {
+            return Integer.parseInt(values.get(name).getN());
+        }
+
+        private static AttributeValue number(int value) {
+            return new AttributeValue().withN(String.valueOf(value));
+        }
+    }
+}
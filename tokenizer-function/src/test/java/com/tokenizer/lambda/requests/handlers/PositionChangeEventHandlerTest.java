@@ -0,0 +1,116 @@
+package com.tokenizer.lambda.requests.handlers;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.changes.QueueChangePublisher;
+import com.tokenizer.lambda.dao.QueueRepository;
+import com.tokenizer.lambda.dao.UserRepository;
+import com.tokenizer.lambda.dao.storage.InMemoryStorage;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.QueuePosition;
+import com.tokenizer.lambda.model.response.ResponseModel;
+import com.tokenizer.lambda.service.QueueService;
+import com.tokenizer.lambda.service.UserService;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PositionChangeEventHandlerTest {
+    private static final String USER_ID = "user";
+    private static final String QUEUE_ID = "queue";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private InMemoryStorage storage;
+    private QueueChangePublisher publisher;
+    private PositionChangeEventHandler handler;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        storage = new InMemoryStorage();
+        storage.save(new Queue(QUEUE_ID, "name", 10, 2, 100, false));
+        storage.createSubscription(USER_ID, QUEUE_ID, 8);
+
+        publisher = new QueueChangePublisher();
+        handler = new PositionChangeEventHandler(new UserService(new UserRepository(storage)),
+                new QueueService(new QueueRepository(storage)), publisher, MAPPER);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void answersRightAwayWhenTheQueueAlreadyMoved() throws Exception {
+        long start = System.nanoTime();
+
+        JsonNode position = position(handler.handleEvent(awaitPosition(1, 20)));
+
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertEquals(2, position.get(Queue.COL_LAST_PROC_TOKEN).intValue());
+        assertEquals(5, position.get(QueuePosition.COL_WAITING_AHEAD).intValue());
+        assertEquals(0, publisher.getWaiterCount());
+    }
+
+    @Test
+    public void answersWithThePublishedChange() throws Exception {
+        Future<String> response = executor.submit(() -> handler.handleEvent(awaitPosition(2, 20)));
+        while (publisher.getWaiterCount() == 0 && !response.isDone()) {
+            Thread.sleep(10);
+        }
+
+        publisher.publish(new Queue(QUEUE_ID, "name", 10, 5, 100, false));
+
+        JsonNode position = position(response.get(5, TimeUnit.SECONDS));
+        assertEquals(5, position.get(Queue.COL_LAST_PROC_TOKEN).intValue());
+        assertEquals(2, position.get(QueuePosition.COL_WAITING_AHEAD).intValue());
+        assertEquals(0, publisher.getWaiterCount());
+    }
+
+    @Test
+    public void timedOutWaitAnswersThePositionRead() throws Exception {
+        JsonNode position = position(handler.handleEvent(awaitPosition(2, 1)));
+
+        assertEquals(2, position.get(Queue.COL_LAST_PROC_TOKEN).intValue());
+        assertEquals(0, publisher.getWaiterCount());
+    }
+
+    private static JsonNode position(String response) throws Exception {
+        JsonNode body = MAPPER.readTree(response);
+        assertEquals(200, body.get(ResponseModel.STATUS_CODE).intValue());
+        return body.get(ResponseModel.VALUES);
+    }
+
+    private static APIGatewayProxyRequestEvent awaitPosition(int lastProcessedToken, int waitSeconds) {
+        Map<String, String> claims = Collections.singletonMap("username", USER_ID);
+        Map<String, Object> authorizer = Collections.singletonMap("claims", claims);
+
+        APIGatewayProxyRequestEvent.ProxyRequestContext requestContext = new APIGatewayProxyRequestEvent.ProxyRequestContext();
+        requestContext.setAuthorizer(authorizer);
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(Queue.COL_QUEUE_ID, QUEUE_ID);
+        parameters.put(Queue.COL_LAST_PROC_TOKEN, String.valueOf(lastProcessedToken));
+        parameters.put(PositionChangeEventHandler.WAIT_SECONDS, String.valueOf(waitSeconds));
+
+        return new APIGatewayProxyRequestEvent()
+                .withHttpMethod(ApiGatewayUtil.GET)
+                .withQueryStringParameters(parameters)
+                .withRequestContext(requestContext);
+    }
+}
@@ -0,0 +1,162 @@
+package com.tokenizer.lambda.requests.handlers;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.dao.QueueRepository;
+import com.tokenizer.lambda.dao.UserRepository;
+import com.tokenizer.lambda.dao.storage.ContendedUpdateException;
+import com.tokenizer.lambda.dao.storage.InMemoryStorage;
+import com.tokenizer.lambda.model.queues.ProcessedTokens;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.TokenRange;
+import com.tokenizer.lambda.model.response.ResponseModel;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+import com.tokenizer.lambda.service.QueueService;
+import com.tokenizer.lambda.service.UserService;
+import com.tokenizer.lambda.util.ApiGatewayUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class UserEventHandlerTest {
+    private static final String OWNER_ID = "owner";
+    private static final String QUEUE_ID = "queue";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private InMemoryStorage storage;
+
+    @Before
+    public void setUp() {
+        storage = new InMemoryStorage();
+        storage.save(new Queue(QUEUE_ID, "name", 0, 0, 100, false));
+        User owner = new User(OWNER_ID, QUEUE_ID);
+        owner.setOwner(true);
+        storage.save(owner);
+        for (int token = 1; token <= 5; token++) {
+            storage.createSubscription("user" + token, QUEUE_ID, storage.incrementLastGeneratedToken(QUEUE_ID));
+        }
+    }
+
+    @Test
+    public void processItemsMarksTheSubscribersAndForgetsTheTokensOfThoseWhoLeft() throws Exception {
+        UserEventHandler handler = handler(storage);
+        JsonNode left = MAPPER.readTree(handler.handleEvent(request("user3", ApiGatewayUtil.DELETE, null)));
+        assertEquals(200, left.get(ResponseModel.STATUS_CODE).intValue());
+        assertEquals(Collections.singleton(3), storage.load(QUEUE_ID).getUnsubscribedTokens());
+
+        JsonNode processed = MAPPER.readTree(handler.handleEvent(request(OWNER_ID, ApiGatewayUtil.PUT, 5)));
+
+        assertEquals(200, processed.get(ResponseModel.STATUS_CODE).intValue());
+        assertEquals("5", processed.get(ResponseModel.MESSAGE).textValue());
+        assertEquals(4, processed.get(ResponseModel.VALUES).get(ProcessedTokens.COL_SUBSCRIBERS).size());
+        Queue queue = storage.load(QUEUE_ID);
+        assertEquals(Integer.valueOf(5), queue.getLastProcessedToken());
+        // an empty set is left out, as DynamoDB does
+        assertNull(queue.getUnsubscribedTokens());
+        for (int token : new int[]{1, 2, 4, 5}) {
+            assertEquals(UserState.DONE, storage.load("user" + token, QUEUE_ID).getState());
+        }
+    }
+
+    @Test
+    public void unsubscribeRecordsTheTokenAndMovesTheSubscribersBehindUp() throws Exception {
+        QueueService queueService = new QueueService(new QueueRepository(storage));
+        assertEquals(3, queueService.getPosition(QUEUE_ID, 4).getWaitingAhead());
+
+        handler(storage).handleEvent(request("user2", ApiGatewayUtil.DELETE, null));
+
+        assertEquals(Collections.singleton(2), storage.load(QUEUE_ID).getUnsubscribedTokens());
+        assertEquals(2, queueService.getPosition(QUEUE_ID, 4).getWaitingAhead());
+    }
+
+    @Test
+    public void unsubscribeOfAProcessedSubscriberRecordsNoToken() throws Exception {
+        UserEventHandler handler = handler(storage);
+        handler.handleEvent(request(OWNER_ID, ApiGatewayUtil.PUT, 2));
+
+        JsonNode left = MAPPER.readTree(handler.handleEvent(request("user1", ApiGatewayUtil.DELETE, null)));
+
+        assertEquals(200, left.get(ResponseModel.STATUS_CODE).intValue());
+        assertNull(storage.load("user1", QUEUE_ID));
+        assertNull(storage.load(QUEUE_ID).getUnsubscribedTokens());
+    }
+
+    @Test
+    public void processItemForgetsTheTokenOfASubscriberWhoLeft() throws Exception {
+        UserEventHandler handler = handler(storage);
+        handler.handleEvent(request("user1", ApiGatewayUtil.DELETE, null));
+        handler.handleEvent(request("user3", ApiGatewayUtil.DELETE, null));
+
+        JsonNode processed = MAPPER.readTree(handler.handleEvent(request(OWNER_ID, ApiGatewayUtil.PUT, null)));
+
+        assertEquals("1", processed.get(ResponseModel.MESSAGE).textValue());
+        // only the processed token is forgotten, the one still ahead stays a gap
+        assertEquals(Collections.singleton(3), storage.load(QUEUE_ID).getUnsubscribedTokens());
+    }
+
+    @Test
+    public void processItemsStopsAtTheLastToken() throws Exception {
+        JsonNode processed = MAPPER.readTree(handler(storage).handleEvent(request(OWNER_ID, ApiGatewayUtil.PUT, 25)));
+
+        assertEquals("5", processed.get(ResponseModel.MESSAGE).textValue());
+        assertEquals(Integer.valueOf(5), storage.load(QUEUE_ID).getLastProcessedToken());
+
+        JsonNode empty = MAPPER.readTree(handler(storage).handleEvent(request(OWNER_ID, ApiGatewayUtil.PUT, 25)));
+        assertEquals(400, empty.get(ResponseModel.STATUS_CODE).intValue());
+    }
+
+    @Test
+    public void contendedProcessingIsLeftToTheFunctionToAnswerAsRetryable() {
+        InMemoryStorage contendedStorage = new InMemoryStorage() {
+            @Override
+            public TokenRange processTokens(String queueId, int count) {
+                throw new ContendedUpdateException("last_processed_token of queue " + queueId + " keeps moving");
+            }
+        };
+        contendedStorage.save(new Queue(QUEUE_ID, "name", 5, 0, 100, false));
+        User owner = new User(OWNER_ID, QUEUE_ID);
+        owner.setOwner(true);
+        contendedStorage.save(owner);
+
+        try {
+            handler(contendedStorage).handleEvent(request(OWNER_ID, ApiGatewayUtil.PUT, 5));
+            fail("Expected the contended processing to be thrown");
+        } catch (ContendedUpdateException e) {
+            assertEquals("1", ApiGatewayUtil.retryAfterSeconds(e));
+        }
+        assertEquals(Integer.valueOf(0), contendedStorage.load(QUEUE_ID).getLastProcessedToken());
+    }
+
+    private static UserEventHandler handler(InMemoryStorage storage) {
+        return new UserEventHandler(new UserService(new UserRepository(storage)),
+                new QueueService(new QueueRepository(storage)), MAPPER);
+    }
+
+    private static APIGatewayProxyRequestEvent request(String userId, String httpMethod, Integer count) {
+        Map<String, String> claims = Collections.singletonMap("username", userId);
+        Map<String, Object> authorizer = Collections.singletonMap("claims", claims);
+
+        APIGatewayProxyRequestEvent.ProxyRequestContext requestContext = new APIGatewayProxyRequestEvent.ProxyRequestContext();
+        requestContext.setAuthorizer(authorizer);
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(User.COL_QUEUE_ID, QUEUE_ID);
+        if (count != null) {
+            parameters.put(ApiGatewayUtil.COUNT, String.valueOf(count));
+        }
+
+        return new APIGatewayProxyRequestEvent()
+                .withHttpMethod(httpMethod)
+                .withQueryStringParameters(parameters)
+                .withRequestContext(requestContext);
+    }
+}
@@ -0,0 +1,80 @@
+package com.tokenizer.lambda.resilience;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResilienceHandlerTest {
+    private static final int FAILURE_THRESHOLD = 3;
+
+    private CircuitBreaker circuitBreaker;
+    private ResilienceHandler handler;
+
+    @Before
+    public void setUp() {
+        circuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, 5000);
+        handler = new ResilienceHandler(circuitBreaker, new AdaptiveRateLimiter(1000), new RetryQuota(500));
+    }
+
+    @Test
+    public void throttlingDoesNotOpenTheCircuit() {
+        for (int call = 0; call < 10 * FAILURE_THRESHOLD; call++) {
+            handler.afterError(null, null, serviceException("ProvisionedThroughputExceededException", 400));
+        }
+
+        assertFalse(circuitBreaker.isOpen());
+        handler.beforeExecution(new GetItemRequest());
+    }
+
+    @Test
+    public void serverErrorsOpenTheCircuit() {
+        for (int call = 0; call < FAILURE_THRESHOLD; call++) {
+            handler.afterError(null, null, serviceException("InternalServerError", 500));
+        }
+
+        assertTrue(circuitBreaker.isOpen());
+    }
+
+    @Test
+    public void networkErrorsOpenTheCircuit() {
+        for (int call = 0; call < FAILURE_THRESHOLD; call++) {
+            handler.afterError(null, null, new AmazonClientException("Unable to execute HTTP request"));
+        }
+
+        assertTrue(circuitBreaker.isOpen());
+    }
+
+    @Test
+    public void throttlingDoesNotBreakAStreakOfServerErrors() {
+        for (int call = 0; call < FAILURE_THRESHOLD - 1; call++) {
+            handler.afterError(null, null, serviceException("InternalServerError", 500));
+        }
+        handler.afterError(null, null, serviceException("ThrottlingException", 400));
+        handler.afterError(null, null, serviceException("InternalServerError", 500));
+
+        assertTrue(circuitBreaker.isOpen());
+    }
+
+    @Test
+    public void failedConditionsCloseTheCircuit() {
+        for (int call = 0; call < FAILURE_THRESHOLD - 1; call++) {
+            handler.afterError(null, null, serviceException("InternalServerError", 500));
+        }
+        handler.afterError(null, null, serviceException("ConditionalCheckFailedException", 400));
+        handler.afterError(null, null, serviceException("InternalServerError", 500));
+
+        assertFalse(circuitBreaker.isOpen());
+    }
+
+    private static AmazonServiceException serviceException(String errorCode, int statusCode) {
+        AmazonServiceException exception = new AmazonServiceException(errorCode);
+        exception.setErrorCode(errorCode);
+        exception.setStatusCode(statusCode);
+        return exception;
+    }
+}
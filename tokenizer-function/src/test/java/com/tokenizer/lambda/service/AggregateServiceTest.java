@@ -0,0 +1,210 @@
+package com.tokenizer.lambda.service;
+
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.tokenizer.lambda.dao.AggregateRepository;
+import com.tokenizer.lambda.dao.storage.AggregateCodec;
+import com.tokenizer.lambda.dao.storage.AggregateStorage;
+import com.tokenizer.lambda.dao.storage.UserCodec;
+import com.tokenizer.lambda.model.aggregates.AggregateDelta;
+import com.tokenizer.lambda.model.aggregates.OwnerStats;
+import com.tokenizer.lambda.model.aggregates.QueueStats;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AggregateServiceTest {
+    private static final String QUEUE_ID = "queue";
+
+    private InMemoryAggregateStorage storage;
+    private AggregateService service;
+    private int sequenceNumber;
+
+    @Before
+    public void setUp() {
+        storage = new InMemoryAggregateStorage();
+        service = new AggregateService(new AggregateRepository(storage));
+    }
+
+    @Test
+    public void retriedBatchIsCountedOnce() {
+        List<Record> batch = Arrays.asList(subscribe("user1", 1), subscribe("user2", 2), subscribe("user3", 3));
+
+        assertEquals(3, service.aggregate(batch));
+        assertEquals(0, service.aggregate(batch));
+
+        assertStats(3, 0, 0);
+    }
+
+    @Test
+    public void retryWithMoreRecordsOnlyCountsTheNewOnes() {
+        Record first = subscribe("user1", 1);
+        Record second = subscribe("user2", 2);
+        Record third = subscribe("user3", 3);
+
+        assertEquals(2, service.aggregate(Arrays.asList(first, second)));
+        assertEquals(1, service.aggregate(Arrays.asList(first, second, third)));
+
+        assertStats(3, 0, 0);
+    }
+
+    @Test
+    public void batchFailingBetweenChunksResumesAfterTheAppliedOnes() {
+        // one queue per record, so that the batch is applied in two chunks
+        List<Record> batch = new ArrayList<>();
+        for (int queue = 0; queue < AggregateStorage.MAX_AGGREGATES_PER_BATCH + 1; queue++) {
+            batch.add(link(OperationType.INSERT, null, subscription("user", "queue" + queue, 1, UserState.WAITING)));
+        }
+
+        storage.failAtApply = 2;
+        try {
+            service.aggregate(batch);
+            fail("Expected the second chunk to fail");
+        } catch (IllegalStateException e) {
+            storage.failAtApply = 0;
+        }
+
+        assertEquals(1, service.aggregate(batch));
+        for (int queue = 0; queue < AggregateStorage.MAX_AGGREGATES_PER_BATCH + 1; queue++) {
+            assertEquals(1, service.getQueueStats("queue" + queue).getWaitingCount());
+        }
+    }
+
+    @Test
+    public void processedSubscriberMovesFromWaitingToDone() {
+        User waiting = subscription("user1", QUEUE_ID, 1, UserState.WAITING);
+        User done = subscription("user1", QUEUE_ID, 1, UserState.DONE);
+
+        service.aggregate(Arrays.asList(
+                link(OperationType.INSERT, null, waiting),
+                link(OperationType.MODIFY, waiting, done)));
+
+        assertStats(0, 1, 0);
+    }
+
+    @Test
+    public void removedWaitingSubscriberIsCountedAsUnsubscribed() {
+        User waiting = subscription("user1", QUEUE_ID, 1, UserState.WAITING);
+
+        service.aggregate(Arrays.asList(
+                link(OperationType.INSERT, null, waiting),
+                link(OperationType.REMOVE, waiting, null)));
+
+        assertStats(0, 0, 1);
+    }
+
+    @Test
+    public void removedProcessedSubscriberStaysDone() {
+        User done = subscription("user1", QUEUE_ID, 1, UserState.DONE);
+
+        service.aggregate(Arrays.asList(
+                link(OperationType.INSERT, null, done),
+                link(OperationType.REMOVE, done, null)));
+
+        assertStats(0, 1, 0);
+    }
+
+    @Test
+    public void ownerLinksCountTheOwnedQueues() {
+        User owner = new User("owner", QUEUE_ID);
+        owner.setOwner(true);
+
+        service.aggregate(Arrays.asList(
+                link(OperationType.INSERT, null, owner),
+                link(OperationType.INSERT, null, subscription("user1", QUEUE_ID, 1, UserState.WAITING))));
+
+        assertEquals(1, service.getOwnerStats("owner").getOwnedQueues());
+        assertStats(1, 0, 0);
+    }
+
+    private void assertStats(long waiting, long done, long unsubscribed) {
+        QueueStats stats = service.getQueueStats(QUEUE_ID);
+        assertEquals(waiting, stats.getWaitingCount());
+        assertEquals(done, stats.getDoneCount());
+        assertEquals(unsubscribed, stats.getUnsubscribedCount());
+    }
+
+    private Record subscribe(String userId, int tokenNumber) {
+        return link(OperationType.INSERT, null, subscription(userId, QUEUE_ID, tokenNumber, UserState.WAITING));
+    }
+
+    private static User subscription(String userId, String queueId, int tokenNumber, UserState state) {
+        User link = new User(userId, queueId);
+        link.setTokenNumber(tokenNumber);
+        link.setState(state);
+        return link;
+    }
+
+    private Record link(OperationType operation, User before, User after) {
+        User key = after != null ? after : before;
+        sequenceNumber++;
+
+        return new Record()
+                .withEventID("event" + sequenceNumber)
+                .withEventName(operation)
+                .withDynamodb(new StreamRecord()
+                        .withKeys(UserCodec.key(key.getUserId(), key.getQueueId()))
+                        .withOldImage(before != null ? UserCodec.encode(before) : null)
+                        .withNewImage(after != null ? UserCodec.encode(after) : null)
+                        .withSequenceNumber(String.valueOf(100 + sequenceNumber)));
+    }
+
+    /**
+     * Aggregates and batch markers kept in memory, applying each batch all or nothing.
+     * */
+    private static class InMemoryAggregateStorage implements AggregateStorage {
+        private final Map<String, AggregateDelta> aggregates = new HashMap<>();
+        private final Map<String, String> markers = new HashMap<>();
+        private int applyCount;
+        /** Number of the call to apply that fails, 0 for none. */
+        private int failAtApply;
+
+        @Override
+        public QueueStats loadQueueStats(String queueId) {
+            AggregateDelta totals = aggregates.get(AggregateCodec.queueAggregateId(queueId));
+            return totals == null || totals.getDeletedAt() != null ? null :
+                    new QueueStats(queueId, totals.getWaitingCount(), totals.getDoneCount(), totals.getUnsubscribedCount());
+        }
+
+        @Override
+        public OwnerStats loadOwnerStats(String userId) {
+            AggregateDelta totals = aggregates.get(AggregateCodec.ownerAggregateId(userId));
+            return totals != null ? new OwnerStats(userId, totals.getOwnedQueues()) : null;
+        }
+
+        @Override
+        public boolean apply(String batchId, String lastSequenceNumber, Map<String, AggregateDelta> deltas) {
+            if (++applyCount == failAtApply) {
+                throw new IllegalStateException("Failed to apply batch " + batchId);
+            }
+            if (deltas.size() > MAX_AGGREGATES_PER_BATCH) {
+                throw new IllegalArgumentException("Too many aggregates in batch " + batchId);
+            }
+            if (markers.containsKey(batchId)) {
+                return false;
+            }
+
+            markers.put(batchId, lastSequenceNumber);
+            for (Map.Entry<String, AggregateDelta> delta : deltas.entrySet()) {
+                aggregates.computeIfAbsent(delta.getKey(), id -> new AggregateDelta()).add(delta.getValue());
+            }
+            return true;
+        }
+
+        @Override
+        public String loadAppliedSequenceNumber(String batchId) {
+            return markers.get(batchId);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.tokenizer.lambda.service;
+
+import com.tokenizer.lambda.model.queues.Queue;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class PositionIndexTest {
+
+    @Test
+    public void tokenAtOrBelowLastProcessedTokenHasNobodyAhead() {
+        PositionIndex index = PositionIndex.of(queue(5, 7, 9));
+
+        assertEquals(0, index.waitingAhead(1));
+        assertEquals(0, index.waitingAhead(5));
+    }
+
+    @Test
+    public void gapsAheadOfTheTokenAreLeftOut() {
+        PositionIndex index = PositionIndex.of(queue(5, 7, 9));
+
+        assertEquals(0, index.waitingAhead(6));
+        // 6 is waiting, 7 left
+        assertEquals(1, index.waitingAhead(8));
+        // 6 and 8 are waiting, 7 and 9 left
+        assertEquals(2, index.waitingAhead(10));
+    }
+
+    @Test
+    public void tokenThatIsItselfAGapCountsTheTokensAheadOfIt() {
+        PositionIndex index = PositionIndex.of(queue(5, 7, 9));
+
+        assertEquals(1, index.waitingAhead(7));
+        assertEquals(2, index.waitingAhead(9));
+    }
+
+    @Test
+    public void processedGapsAreLeftOut() {
+        // 2 and 4 were recorded before they were processed, and not forgotten yet
+        PositionIndex index = PositionIndex.of(queue(5, 2, 4, 7));
+
+        assertEquals(5, index.getLastProcessedToken());
+        assertEquals(0, index.waitingAhead(6));
+        assertEquals(1, index.waitingAhead(8));
+    }
+
+    @Test
+    public void queueWithoutGapsCountsEveryTokenAhead() {
+        Queue queue = new Queue("queue", "name", 10, null, 100, false);
+        PositionIndex index = PositionIndex.of(queue);
+
+        assertEquals(0, index.getLastProcessedToken());
+        assertEquals(0, index.waitingAhead(1));
+        assertEquals(9, index.waitingAhead(10));
+    }
+
+    private static Queue queue(int lastProcessedToken, Integer... unsubscribedTokens) {
+        Queue queue = new Queue("queue", "name", 20, lastProcessedToken, 100, false);
+        queue.setUnsubscribedTokens(new HashSet<>(Arrays.asList(unsubscribedTokens)));
+        return queue;
+    }
+}
@@ -0,0 +1,125 @@
+package com.tokenizer.lambda.service;
+
+import com.tokenizer.lambda.dao.AsyncQueueRepository;
+import com.tokenizer.lambda.dao.QueueRepository;
+import com.tokenizer.lambda.dao.storage.InMemoryStorage;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.queues.QueuePage;
+import com.tokenizer.lambda.util.AsyncUtil;
+import com.tokenizer.lambda.util.CursorUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueueServiceTest {
+    private static final String QUEUE_ID = "queue";
+
+    private InMemoryStorage storage;
+    private QueueService service;
+
+    @Before
+    public void setUp() {
+        storage = new InMemoryStorage();
+        storage.save(new Queue(QUEUE_ID, "name", 0, 0, 500, false));
+        service = new QueueService(new QueueRepository(storage));
+    }
+
+    @Test
+    public void updateWithoutMaxSizeKeepsTheQueuesMaxSize() {
+        service.updateQueue(QUEUE_ID, null, null, null, 20);
+
+        Queue queue = storage.load(QUEUE_ID);
+        assertEquals(Integer.valueOf(500), queue.getMaxSize());
+        assertEquals("name", queue.getQueueName());
+        assertEquals(Integer.valueOf(20), queue.getSubscribeRate());
+    }
+
+    @Test
+    public void updateSetsOnlyTheGivenAttributes() {
+        service.updateQueue(QUEUE_ID, "renamed", 1000, true, null);
+
+        Queue queue = storage.load(QUEUE_ID);
+        assertEquals("renamed", queue.getQueueName());
+        assertEquals(Integer.valueOf(1000), queue.getMaxSize());
+        assertEquals(Boolean.TRUE, queue.isDisabled());
+    }
+
+    @Test
+    public void pagesListEveryQueueOnce() {
+        for (int queue = 0; queue < 40; queue++) {
+            storage.save(new Queue("queue" + queue, "name", 0, 0, 100, false));
+        }
+        storage.tombstone("queue7", System.currentTimeMillis());
+        QueueService listing = listing(3);
+
+        Set<String> listed = new HashSet<>();
+        int pages = 0;
+        String paginationToken = null;
+        do {
+            QueuePage page = listing.listQueues(paginationToken, 5);
+            for (Queue queue : page.getQueues()) {
+                assertTrue("Listed twice: " + queue.getQueueId(), listed.add(queue.getQueueId()));
+            }
+            paginationToken = page.getPaginationToken();
+            pages++;
+        } while (paginationToken != null);
+
+        // the queue of setUp, plus the 40 above but the deleted one
+        assertEquals(40, listed.size());
+        assertTrue(pages > 1);
+    }
+
+    @Test
+    public void segmentsRunningOutOfQueuesAreDone() {
+        for (int queue = 0; queue < 40; queue++) {
+            storage.save(new Queue("queue" + queue, "name", 0, 0, 100, false));
+        }
+        QueueService listing = listing(4);
+
+        // a page as large as the table reads every segment to its end
+        QueuePage page = listing.listQueues(null, 100);
+        assertEquals(41, page.getQueues().size());
+        assertNull(page.getPaginationToken());
+
+        // a segment done on an earlier page is not read again
+        String[] positions = {CursorUtil.SEGMENT_DONE, CursorUtil.SEGMENT_DONE, CursorUtil.SEGMENT_NOT_STARTED, CursorUtil.SEGMENT_DONE};
+        page = listing.listQueues(CursorUtil.encode(positions), 100);
+        for (Queue queue : page.getQueues()) {
+            assertEquals(2, Math.floorMod(queue.getQueueId().hashCode(), 4));
+        }
+        assertNull(page.getPaginationToken());
+    }
+
+    @Test
+    public void pageStopsSegmentsWithQueuesLeft() {
+        for (int queue = 0; queue < 40; queue++) {
+            storage.save(new Queue("queue" + queue, "name", 0, 0, 100, false));
+        }
+
+        QueuePage page = listing(2).listQueues(null, 4);
+
+        // the page size is split between the segments
+        assertEquals(4, page.getQueues().size());
+        String[] positions = CursorUtil.decode(page.getPaginationToken());
+        assertEquals(2, positions.length);
+        for (String position : positions) {
+            assertTrue(position != null && !position.isEmpty());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPaginationTokenIsRefused() {
+        listing(2).listQueues("garbage", 10);
+    }
+
+    private QueueService listing(int segments) {
+        QueueRepository repository = new QueueRepository(storage);
+        return new QueueService(repository, new AsyncQueueRepository(repository, AsyncUtil.STORAGE_EXECUTOR), segments);
+    }
+}
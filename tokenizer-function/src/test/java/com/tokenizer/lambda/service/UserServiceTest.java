@@ -0,0 +1,109 @@
+package com.tokenizer.lambda.service;
+
+import com.tokenizer.lambda.dao.UserRepository;
+import com.tokenizer.lambda.dao.storage.InMemoryStorage;
+import com.tokenizer.lambda.model.queues.TokenRange;
+import com.tokenizer.lambda.model.users.User;
+import com.tokenizer.lambda.model.users.UserState;
+import com.tokenizer.lambda.util.GroupUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UserServiceTest {
+    private static final String QUEUE_ID = "queue";
+
+    private InMemoryStorage storage;
+
+    @Before
+    public void setUp() {
+        storage = new InMemoryStorage();
+        for (int token = 1; token <= 3; token++) {
+            storage.createSubscription("user" + token, QUEUE_ID, token);
+        }
+    }
+
+    @Test
+    public void markSubscribersAsProcessedSkipsUsersWhoSubscribedAgainSinceTheQuery() {
+        UserRepository repository = new UserRepository(storage) {
+            @Override
+            public List<User> query(String queueId, int firstToken, int lastToken, int limit) {
+                List<User> subscribers = super.query(queueId, firstToken, lastToken, limit);
+
+                // user2 leaves and subscribes again between the query on queue_gsi and the updates
+                storage.delete("user2", QUEUE_ID, true);
+                storage.createSubscription("user2", QUEUE_ID, 4);
+
+                return subscribers;
+            }
+        };
+
+        List<User> processed = new UserService(repository).markSubscribersAsProcessed(QUEUE_ID, new TokenRange(1, 3, 1));
+
+        assertEquals(2, processed.size());
+        assertEquals("user1", processed.get(0).getUserId());
+        assertEquals("user3", processed.get(1).getUserId());
+
+        User resubscribed = storage.load("user2", QUEUE_ID);
+        assertEquals(Integer.valueOf(4), resubscribed.getTokenNumber());
+        assertEquals(UserState.WAITING, resubscribed.getState());
+        assertNull(resubscribed.getExpiresAt());
+        assertEquals(UserState.DONE, storage.load("user3", QUEUE_ID).getState());
+    }
+
+    @Test
+    public void groupLeaderLeavesWithItsSeats() {
+        List<User> group = createGroup("leader", 3, 4);
+
+        List<Integer> tokens = new UserService(new UserRepository(storage)).unsubscribeUserFromQueue("leader", QUEUE_ID);
+
+        assertEquals(Arrays.asList(4, 5, 6), sorted(tokens));
+        for (User seat : group) {
+            assertNull(storage.load(seat.getUserId(), QUEUE_ID));
+        }
+        assertEquals(Integer.valueOf(1), storage.load("user1", QUEUE_ID).getTokenNumber());
+    }
+
+    @Test
+    public void groupLeaderIsDescribedWithItsSeats() {
+        createGroup("leader", 3, 4);
+
+        List<User> links = new UserService(new UserRepository(storage)).describeUser("leader", null);
+
+        assertEquals(3, links.size());
+        assertEquals("leader", links.get(0).getUserId());
+        assertEquals(Integer.valueOf(3), links.get(0).getSeats());
+        List<Integer> tokens = new ArrayList<>();
+        for (User link : links) {
+            assertEquals(QUEUE_ID, link.getQueueId());
+            tokens.add(link.getTokenNumber());
+        }
+        assertEquals(Arrays.asList(4, 5, 6), sorted(tokens));
+    }
+
+    private List<User> createGroup(String leader, int seats, int firstToken) {
+        List<User> group = new ArrayList<>(seats);
+        for (int seat = 0; seat < seats; seat++) {
+            User link = new User(GroupUtil.seatId(leader, seat), QUEUE_ID);
+            link.setTokenNumber(firstToken + seat);
+            link.setState(UserState.WAITING);
+            group.add(link);
+        }
+        group.get(0).setSeats(seats);
+        storage.createSubscriptions(group);
+
+        return group;
+    }
+
+    private static List<Integer> sorted(List<Integer> tokens) {
+        List<Integer> sorted = new ArrayList<>(tokens);
+        sorted.sort(null);
+        return sorted;
+    }
+}
@@ -0,0 +1,76 @@
+package com.tokenizer.lambda.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CursorUtilTest {
+
+    @Test
+    public void positionsRoundTrip() {
+        String[] positions = {
+                CursorUtil.SEGMENT_NOT_STARTED,
+                CursorUtil.SEGMENT_DONE,
+                "6f1c2f0e-queue",
+                CursorUtil.SEGMENT_DONE,
+                "queue-\u00e9\u4e2d",
+                CursorUtil.SEGMENT_NOT_STARTED
+        };
+
+        assertArrayEquals(positions, CursorUtil.decode(CursorUtil.encode(positions)));
+    }
+
+    @Test
+    public void scanNotStartedRoundTrips() {
+        String[] positions = CursorUtil.start(CursorUtil.MAX_SEGMENTS);
+
+        assertArrayEquals(positions, CursorUtil.decode(CursorUtil.encode(positions)));
+    }
+
+    @Test
+    public void scanDoneHasNoToken() {
+        assertNull(CursorUtil.encode(new String[]{CursorUtil.SEGMENT_DONE, CursorUtil.SEGMENT_DONE}));
+    }
+
+    @Test
+    public void truncatedTokensAreInvalid() {
+        String token = CursorUtil.encode(new String[]{"first-queue", CursorUtil.SEGMENT_NOT_STARTED, "second-queue"});
+
+        for (int length = 0; length < token.length(); length++) {
+            assertInvalid(token.substring(0, length));
+        }
+    }
+
+    @Test
+    public void garbageTokensAreInvalid() {
+        assertInvalid("not a token!");
+        assertInvalid("%%%");
+        // no segments, too many segments, an unknown segment state, trailing bytes
+        assertInvalid(token(0));
+        assertInvalid(token(CursorUtil.MAX_SEGMENTS + 1));
+        assertInvalid(token(1, 7));
+        assertInvalid(token(1, 0, 0));
+    }
+
+    private static String token(int... bytes) {
+        byte[] raw = new byte[bytes.length];
+        for (int index = 0; index < bytes.length; index++) {
+            raw[index] = (byte) bytes[index];
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+    }
+
+    private static void assertInvalid(String token) {
+        try {
+            String[] positions = CursorUtil.decode(token);
+            fail("Decoded " + token + " into " + Arrays.toString(positions));
+        } catch (IllegalArgumentException expected) {
+            // the listing answers it with a 400
+        }
+    }
+}
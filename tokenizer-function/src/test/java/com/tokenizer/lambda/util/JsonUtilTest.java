@@ -0,0 +1,30 @@
+package com.tokenizer.lambda.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tokenizer.lambda.model.queues.Queue;
+import com.tokenizer.lambda.model.response.ResponseModel;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonUtilTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void queuesAreWrittenLikeTheObjectMapperWritesThem() throws Exception {
+        Queue queue = new Queue("queue", "name", 4, 2, 100, false);
+        queue.setCounterShards(2);
+        queue.setSubscribeRate(50);
+        ResponseModel<List<Queue>> response = new ResponseModel<>(200, ResponseModel.SUCCESS_MESSAGE,
+                Collections.singletonList(queue), null);
+
+        JsonNode written = MAPPER.readTree(JsonUtil.toJson(MAPPER, response));
+
+        assertEquals(MAPPER.readTree(MAPPER.writeValueAsString(response)), written);
+        assertEquals(50, written.get(ResponseModel.VALUES).get(0).get("subscribeRate").intValue());
+    }
+}
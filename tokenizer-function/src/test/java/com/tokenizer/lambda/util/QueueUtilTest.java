@@ -0,0 +1,68 @@
+package com.tokenizer.lambda.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueueUtilTest {
+
+    @Test
+    public void shardTokensInterleaveAndMapBack() {
+        int shards = 3;
+        for (int token = 1; token <= 30; token++) {
+            int shard = QueueUtil.shardOf(token, shards);
+            int localToken = QueueUtil.localToken(token, shards);
+
+            assertEquals(token, QueueUtil.shardToken(shard, shards, localToken));
+        }
+        assertEquals(1, QueueUtil.shardToken(0, shards, 1));
+        assertEquals(2, QueueUtil.shardToken(1, shards, 1));
+        assertEquals(4, QueueUtil.shardToken(0, shards, 2));
+    }
+
+    @Test
+    public void shardLimitsAddUpToMaxSize() {
+        for (int maxSize = 0; maxSize <= 20; maxSize++) {
+            int total = 0;
+            for (int shard = 0; shard < 4; shard++) {
+                int limit = QueueUtil.shardLimit(maxSize, 4, shard);
+                total += limit;
+                // the last token of each shard is within max_size
+                if (limit > 0) {
+                    assertTrue(QueueUtil.shardToken(shard, 4, limit) <= maxSize);
+                }
+            }
+            assertEquals(maxSize, total);
+        }
+    }
+
+    @Test
+    public void lastIssuedTokenIsTheHighestAcrossShards() {
+        assertEquals(0, QueueUtil.lastIssuedToken(new int[]{0, 0, 0}));
+        assertEquals(3, QueueUtil.lastIssuedToken(new int[]{0, 0, 1}));
+        // shard 0 handed out 1 and 4, shard 2 handed out 3
+        assertEquals(4, QueueUtil.lastIssuedToken(new int[]{2, 0, 1}));
+    }
+
+    @Test
+    public void isIssuedFollowsTheShardCounter() {
+        int[] counters = {2, 0, 1};
+
+        assertTrue(QueueUtil.isIssued(1, counters));
+        assertFalse(QueueUtil.isIssued(2, counters));
+        assertTrue(QueueUtil.isIssued(3, counters));
+        assertTrue(QueueUtil.isIssued(4, counters));
+        assertFalse(QueueUtil.isIssued(6, counters));
+        assertFalse(QueueUtil.isIssued(7, counters));
+    }
+
+    @Test
+    public void isShardedOnlyWithMoreThanOneShard() {
+        assertFalse(QueueUtil.isSharded(null));
+        assertFalse(QueueUtil.isSharded(1));
+        assertTrue(QueueUtil.isSharded(2));
+        assertEquals("queue#shard#1", QueueUtil.shardKey("queue", 1));
+    }
+}